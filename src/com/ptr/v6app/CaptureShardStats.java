@@ -0,0 +1,82 @@
+package com.ptr.v6app;
+
+import org.w3c.dom.Document;
+import org.w3c.dom.Element;
+
+import com.ptr.v6app.capture.CaptureStats;
+import com.ptr.v6app.listener.ListenerStats;
+import com.ptr.v6app.listener.PacketRing;
+
+/**
+ * Statistics of one capture shard of an interface (see the captureShards property): its kernel
+ * counters, its capture thread and its ring to the worker.
+ */
+public class CaptureShardStats {
+
+    // -- Shard index and the filter picking its traffic
+    private final int index;
+    private final String filterExpression;
+
+    // -- Capture backend name
+    private final String backend;
+
+    // -- Kernel capture statistics (null if the backend has none)
+    private final CaptureStats captureStats;
+
+    // -- Capture thread statistics
+    private final ListenerStats listenerStats;
+
+    // -- Ring to the worker
+    private final PacketRing ring;
+
+    public CaptureShardStats(int index, String filterExpression, String backend,
+            CaptureStats captureStats, ListenerStats listenerStats, PacketRing ring) {
+        this.index = index;
+        this.filterExpression = filterExpression;
+        this.backend = backend;
+        this.captureStats = captureStats;
+        this.listenerStats = listenerStats;
+        this.ring = ring;
+    }
+
+    public int getIndex() {
+        return index;
+    }
+
+    public String getFilterExpression() {
+        return filterExpression;
+    }
+
+    public String getBackend() {
+        return backend;
+    }
+
+    public CaptureStats getCaptureStats() {
+        return captureStats;
+    }
+
+    public ListenerStats getListenerStats() {
+        return listenerStats;
+    }
+
+    public PacketRing getRing() {
+        return ring;
+    }
+
+    public void parseXmlResults(Document doc, Element root) {
+        Element shard = doc.createElement("shard");
+        shard.setAttribute("index", "" + index);
+        shard.setAttribute("backend", backend);
+        if (filterExpression != null) {
+            shard.setAttribute("filter", filterExpression);
+        }
+        root.appendChild(shard);
+
+        // kernel counters, capture thread and ring
+        if (captureStats != null) {
+            captureStats.parseXmlResults(doc, shard);
+        }
+        listenerStats.parseXmlResults(doc, shard);
+        ring.getStats().parseXmlResults(doc, shard, ring);
+    }
+}
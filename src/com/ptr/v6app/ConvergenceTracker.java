@@ -0,0 +1,210 @@
+package com.ptr.v6app;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import org.w3c.dom.Document;
+import org.w3c.dom.Element;
+
+import com.ptr.v6app.util.V6AppProperties;
+import com.ptr.v6app.util.V6AppProperties.DiscoveryMode;
+
+/**
+ * Tracks how quickly an interface scan is discovering nodes and decides when the scan should stop.
+ * The node and address counts are sampled periodically; in adaptive mode the scan stops once the
+ * rate of new addresses over the quiet period falls below the threshold. The samples are kept as
+ * the convergence curve for the report.
+ */
+public class ConvergenceTracker {
+
+    /**
+     * Why a scan stopped.
+     */
+    public static enum StopReason {
+
+        // fixed mode, the scan ran for its full duration
+        FIXED_DURATION("fixedDuration"),
+
+        // adaptive mode, node discovery converged
+        CONVERGED("converged"),
+
+        // adaptive mode, the scan ran for the maximum duration without converging
+        MAX_DURATION("maxDuration"),
+
+        // replay, the capture file ended first
+        END_OF_CAPTURE("endOfCapture");
+
+        private final String name;
+
+        private StopReason(String name) {
+            this.name = name;
+        }
+
+        public String getName() {
+            return name;
+        }
+    }
+
+    /**
+     * A point on the convergence curve.
+     */
+    private static class Sample {
+        private final long elapsedMillis;
+        private final int nodes;
+        private final int addresses;
+
+        private Sample(long elapsedMillis, int nodes, int addresses) {
+            this.elapsedMillis = elapsedMillis;
+            this.nodes = nodes;
+            this.addresses = addresses;
+        }
+    }
+
+    // -- Sampling interval
+    public static final long SAMPLE_MILLIS = 1000;
+
+    // -- Options
+    private final DiscoveryMode mode;
+    private final long minMillis;
+    private final long maxMillis;
+    private final long quietMillis;
+    private final int rateThreshold;
+
+    // -- Convergence curve
+    private final List<Sample> samples = new ArrayList<Sample>();
+    private long startMillis;
+
+    // -- Outcome
+    private StopReason stopReason;
+    private long durationMillis;
+
+    /**
+     * Creates a tracker using the network discovery properties.
+     *
+     * @param maxMillis
+     *            The scan duration in fixed mode, the maximum duration in adaptive mode.
+     */
+    public ConvergenceTracker(long maxMillis) {
+        this.mode = V6AppProperties.getNetworkDiscoveryMode();
+        this.maxMillis = maxMillis;
+        this.minMillis = Math.min(maxMillis, V6AppProperties.getNetworkDiscoveryMinSecs() * 1000L);
+        this.quietMillis = Math.max(SAMPLE_MILLIS,
+                V6AppProperties.getNetworkDiscoveryQuietSecs() * 1000L);
+        this.rateThreshold = V6AppProperties.getNetworkDiscoveryRateThreshold();
+    }
+
+    public DiscoveryMode getMode() {
+        return mode;
+    }
+
+    public StopReason getStopReason() {
+        return stopReason;
+    }
+
+    public long getDurationMillis() {
+        return durationMillis;
+    }
+
+    /**
+     * Starts tracking.
+     *
+     * @param nowMillis
+     *            The current time.
+     */
+    public void start(long nowMillis) {
+        startMillis = nowMillis;
+        samples.clear();
+        samples.add(new Sample(0, 0, 0));
+    }
+
+    /**
+     * Returns when the next sample is due.
+     *
+     * @return The time of the next sample, in milliseconds.
+     */
+    public long getNextSampleMillis() {
+        long last = samples.get(samples.size() - 1).elapsedMillis;
+        return startMillis + Math.min(maxMillis, last + SAMPLE_MILLIS);
+    }
+
+    /**
+     * Records the current node and address counts and decides whether the scan should stop.
+     *
+     * @param nowMillis
+     *            The current time.
+     * @param nodes
+     *            Number of local nodes found so far.
+     * @param addresses
+     *            Number of local node addresses found so far.
+     * @return true if the scan should stop.
+     */
+    public boolean sample(long nowMillis, int nodes, int addresses) {
+        long elapsed = nowMillis - startMillis;
+        samples.add(new Sample(elapsed, nodes, addresses));
+
+        if (elapsed >= maxMillis) {
+            return stop(elapsed, (mode == DiscoveryMode.FIXED ? StopReason.FIXED_DURATION
+                    : StopReason.MAX_DURATION));
+        }
+        if (mode != DiscoveryMode.ADAPTIVE || elapsed < minMillis || elapsed < quietMillis) {
+            return false;
+        }
+
+        // find the first sample inside the quiet period and compare the address counts
+        Sample windowStart = samples.get(0);
+        for (int i = samples.size() - 1; i >= 0; i--) {
+            if (samples.get(i).elapsedMillis < elapsed - quietMillis) {
+                break;
+            }
+            windowStart = samples.get(i);
+        }
+        long windowMillis = Math.max(1, elapsed - windowStart.elapsedMillis);
+        double ratePerMinute = (addresses - windowStart.addresses) * 60000.0 / windowMillis;
+        if (windowMillis >= quietMillis - SAMPLE_MILLIS && ratePerMinute < rateThreshold) {
+            return stop(elapsed, StopReason.CONVERGED);
+        }
+        return false;
+    }
+
+    /**
+     * Records the final node and address counts of a replay whose capture file ended before the
+     * scan would have stopped.
+     *
+     * @param nowMillis
+     *            The time of the last packet.
+     * @param nodes
+     *            Number of local nodes found.
+     * @param addresses
+     *            Number of local node addresses found.
+     */
+    public void endOfCapture(long nowMillis, int nodes, int addresses) {
+        long elapsed = nowMillis - startMillis;
+        samples.add(new Sample(elapsed, nodes, addresses));
+        stop(elapsed, StopReason.END_OF_CAPTURE);
+    }
+
+    public void parseXmlResults(Document doc, Element root) {
+
+        // convergence summary
+        Element convergence = doc.createElement("convergence");
+        convergence.setAttribute("mode", mode.getName());
+        convergence.setAttribute("stopReason", (stopReason == null ? "" : stopReason.getName()));
+        convergence.setAttribute("durationMillis", "" + durationMillis);
+        root.appendChild(convergence);
+
+        // nodes over time
+        for (Sample s : samples) {
+            Element sample = doc.createElement("sample");
+            sample.setAttribute("millis", "" + s.elapsedMillis);
+            sample.setAttribute("nodes", "" + s.nodes);
+            sample.setAttribute("addresses", "" + s.addresses);
+            convergence.appendChild(sample);
+        }
+    }
+
+    private boolean stop(long elapsed, StopReason reason) {
+        stopReason = reason;
+        durationMillis = elapsed;
+        return true;
+    }
+}
@@ -0,0 +1,591 @@
+package com.ptr.v6app;
+
+import java.io.File;
+import java.net.NetworkInterface;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.locks.Lock;
+import java.util.concurrent.locks.ReentrantLock;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+import org.jnetpcap.Pcap;
+import org.jnetpcap.PcapIf;
+
+import com.ptr.v6app.capture.CaptureBackend;
+import com.ptr.v6app.capture.CaptureStats;
+import com.ptr.v6app.capture.PcapCaptureBackend;
+import com.ptr.v6app.injector.PcapInjectorThread;
+import com.ptr.v6app.injector.TokenBucket;
+import com.ptr.v6app.listener.BpfFilter;
+import com.ptr.v6app.listener.CaptureRecorder;
+import com.ptr.v6app.listener.CaptureRequirements;
+import com.ptr.v6app.listener.PacketRing;
+import com.ptr.v6app.listener.PacketWorkerThread;
+import com.ptr.v6app.listener.PcapListenerThread;
+import com.ptr.v6app.node.MacNodeTable;
+import com.ptr.v6app.plugin.PluginManager;
+import com.ptr.v6app.util.Clock;
+import com.ptr.v6app.util.JNetPcapUtils;
+import com.ptr.v6app.util.NetUtils;
+import com.ptr.v6app.util.V6AppProperties;
+import com.ptr.v6app.util.V6AppProperties.CaptureMode;
+import com.ptr.v6app.util.V6AppProperties.DiscoveryMode;
+
+/**
+ * Network discovery on a single interface. Each instance owns its pcap handles, plugins, node map
+ * and listener/injector (and optional worker and recorder) tasks, so any number of interfaces can
+ * be scanned at the same time. The tasks run on an executor shared by all interfaces.
+ */
+public class InterfaceDiscovery {
+
+    // -- Logger
+    private static final Logger log = LogManager.getLogger(InterfaceDiscovery.class.getName());
+
+    // -- Injection handle options (never reads, so capture as little as possible)
+    private static final int INJECT_SNAPLEN = 64;
+    private static final String INJECT_FILTER = "less 1";
+
+    // -- Longest wait for the Internet connectivity test once the scan is over
+    private static final long INTERNET_TEST_WAIT_MILLIS = 5000;
+
+    // -- Interface under discovery
+    private final PcapIf pcapIf;
+    private final NetworkInterface ni;
+
+    // -- Time source for the scan window
+    private final Clock clock;
+
+    // -- Injection rate limit shared with the other interfaces (null for none)
+    private final TokenBucket globalRateLimit;
+
+    // -- Capture backend, and the pcap handles; the injection handle is the capture handle when
+    // shared
+    private CaptureBackend capture;
+    private Pcap pcap;
+    private Pcap injectPcap;
+
+    // -- Capture filter of the first shard, and the other shards (see captureShards)
+    private String captureFilterExpression;
+    private final List<CaptureShard> shards = new ArrayList<CaptureShard>();
+
+    // -- Per-interface plugins
+    private final PluginManager pluginManager = new PluginManager();
+
+    // -- Observed network nodes
+    private final MacNodeTable localNodes = new MacNodeTable();
+
+    // -- Capture/worker pipeline
+    private PacketRing ring;
+    private PcapListenerThread listener;
+    private PcapInjectorThread injector;
+    private CaptureRecorder recorder;
+
+    // -- Running tasks
+    private DiscoveryTask workerTask;
+    private DiscoveryTask listenerTask;
+    private DiscoveryTask injectorTask;
+    private DiscoveryTask recorderTask;
+    private Future<Boolean> internetTest;
+
+    // -- Decides when the scan ends
+    private ConvergenceTracker convergence;
+
+    // -- Result, available once stopped
+    private NetworkDiscoveryResult result;
+
+    public InterfaceDiscovery(PcapIf pcapIf, NetworkInterface ni, Clock clock,
+            TokenBucket globalRateLimit) {
+        this.pcapIf = pcapIf;
+        this.ni = ni;
+        this.clock = clock;
+        this.globalRateLimit = globalRateLimit;
+    }
+
+    public String getDisplayName() {
+        return ni.getDisplayName();
+    }
+
+    /**
+     * Returns the number of executor threads this interface occupies while running: listener,
+     * injector, the optional worker and recorder, a listener and a worker for each other capture
+     * shard, and the Internet connectivity test.
+     *
+     * @return The number of threads.
+     */
+    public int getThreadCount() {
+        return 3 + (V6AppProperties.getListenerRingSlots() > 0 ? 1 : 0)
+                + 2 * (getShardCount() - 1) + (V6AppProperties.isRecorderEnabled() ? 1 : 0);
+    }
+
+    /**
+     * Returns when {@link #isDone(long)} should next be called.
+     *
+     * @return The time of the next check, in milliseconds.
+     */
+    public long getNextCheckMillis() {
+        return convergence.getNextSampleMillis();
+    }
+
+    /**
+     * Samples the discovery progress and decides whether the scan should end.
+     *
+     * @param nowMillis
+     *            The current time.
+     * @return true if the scan should be stopped.
+     */
+    public boolean isDone(long nowMillis) {
+        return convergence.sample(nowMillis, listener.getNodeCount(), listener.getAddressCount());
+    }
+
+    public NetworkDiscoveryResult getResult() {
+        return result;
+    }
+
+    /**
+     * Opens the capture backends and pcap handles and prepares the plugins and threads for this
+     * interface.
+     *
+     * @return true on success, false otherwise.
+     */
+    public boolean open() {
+
+        // collect what the listener and its plugins need to see
+        CaptureRequirements requirements = PcapListenerThread.getCaptureRequirements(pluginManager);
+        boolean captureFilter = V6AppProperties.isCaptureFilter();
+
+        // configure capture options
+        int snaplen = 64 * 1024; // Capture all packets, no trucation
+        if (captureFilter && requirements.getSnaplen() > 0) {
+            snaplen = requirements.getSnaplen(); // only what we'll read
+        }
+        String filterExpression = (captureFilter ? requirements.getFilterExpression() : null);
+
+        // shards split the traffic between handles by source MAC, each handle filtering its own
+        int shardCount = getShardCount();
+        if (shardCount < V6AppProperties.getCaptureShards()) {
+            log.warn("Capture shards need the worker ring, capturing [{}] on a single handle",
+                    getDisplayName());
+        }
+
+        // start capture
+        captureFilterExpression = CaptureRequirements.getShardFilterExpression(filterExpression, 0,
+                shardCount);
+        PcapCaptureBackend pcapCapture = openCapture(snaplen, captureFilterExpression);
+        if (pcapCapture == null) {
+            return false;
+        }
+        capture = pcapCapture;
+        pcap = pcapCapture.getPcap();
+        log.info("Interface [{}] capture backend {}, snaplen {}, filter [{}]", getDisplayName(),
+                capture.getName(), snaplen, captureFilterExpression);
+        for (int i = 1; i < shardCount; i++) {
+            String shardFilter = CaptureRequirements.getShardFilterExpression(filterExpression, i,
+                    shardCount);
+            CaptureBackend shardCapture = openCapture(snaplen, shardFilter);
+            if (shardCapture == null) {
+                closeCaptures();
+                return false;
+            }
+            shards.add(new CaptureShard(i, shardFilter, shardCapture));
+            log.info("Interface [{}] capture shard {} backend {}, filter [{}]", getDisplayName(),
+                    i, shardCapture.getName(), shardFilter);
+        }
+
+        // jNetPcap is non-reentrant, create a fair lock for each handle we open; with
+        // dedicated handles each lock is only ever taken by one thread, so it's uncontended
+        final Lock pcapLock = new ReentrantLock(true);
+        injectPcap = pcap;
+        Lock injectLock = pcapLock;
+        if (V6AppProperties.isCaptureDedicatedHandles()) {
+            injectPcap = openInjectionHandle();
+            if (injectPcap != null) {
+                injectLock = new ReentrantLock(true);
+            } else {
+                log.warn("Falling back to a shared capture/injection handle");
+                injectPcap = pcap;
+            }
+        }
+
+        // initialize plugins
+        pluginManager.initializePlugins(pcapIf);
+
+        // create the ring between the capture thread and the worker thread
+        int ringSlots = V6AppProperties.getListenerRingSlots();
+        if (ringSlots > 0) {
+            ring = new PacketRing(ringSlots, V6AppProperties.getListenerRingSlotBytes(),
+                    V6AppProperties.getListenerRingPolicy());
+        }
+
+        // create listener/injector, and a listener for each other shard, sharing the first
+        // listener's nodes and plugins
+        listener = new PcapListenerThread(pcapLock, capture, pcapIf, pluginManager, requirements,
+                localNodes, ring);
+        for (CaptureShard shard : shards) {
+            shard.ring = new PacketRing(ringSlots, V6AppProperties.getListenerRingSlotBytes(),
+                    V6AppProperties.getListenerRingPolicy());
+            shard.listener = listener.createShard(new ReentrantLock(true), shard.capture,
+                    shard.ring);
+        }
+
+        // every capture thread records its frames
+        if (V6AppProperties.isRecorderEnabled()) {
+            recorder = createRecorder(snaplen);
+            listener.setRecorder(recorder);
+            for (CaptureShard shard : shards) {
+                shard.listener.setRecorder(recorder);
+            }
+        }
+        injector = new PcapInjectorThread(injectLock, injectPcap, pcapIf, pluginManager,
+                globalRateLimit);
+        return true;
+    }
+
+    /**
+     * Starts the listener/injector/worker tasks and the Internet connectivity test.
+     *
+     * @param executor
+     *            The executor to run on, it must have getThreadCount() threads available.
+     * @param durationMillis
+     *            Duration of the discovery in milliseconds, the maximum duration in adaptive mode.
+     */
+    public void start(ExecutorService executor, long durationMillis) {
+        convergence = new ConvergenceTracker(durationMillis);
+        log.info("Scanning interface [{}] for {}{} seconds...", getDisplayName(),
+                (convergence.getMode() == DiscoveryMode.ADAPTIVE ? "at most " : ""),
+                (durationMillis / 1000));
+        convergence.start(clock.currentTimeMillis());
+
+        // start threads, the workers and recorder first so they're ready for the listeners' frames
+        if (ring != null) {
+            workerTask = submit(executor, new PacketWorkerThread(ring, listener), "PcapWorker");
+        }
+        for (CaptureShard shard : shards) {
+            shard.workerTask = submit(executor,
+                    new PacketWorkerThread(shard.ring, shard.listener), "PcapWorker" + shard.index);
+        }
+        if (recorder != null) {
+            recorderTask = submit(executor, recorder, "PcapRecorder");
+        }
+        listenerTask = submit(executor, listener, "PcapListener");
+        for (CaptureShard shard : shards) {
+            shard.task = submit(executor, shard.listener, "PcapListener" + shard.index);
+        }
+        injectorTask = submit(executor, injector, "PcapInjector");
+
+        // test interface for internet connectivity while we scan
+        internetTest = executor.submit(new Callable<Boolean>() {
+            @Override
+            public Boolean call() {
+                return NetUtils.canReachInternet(ni);
+            }
+        });
+    }
+
+    /**
+     * Stops the tasks, saves statistics and closes the capture backend and pcap handles. Blocks
+     * until all tasks have exited.
+     */
+    public void stop() {
+        log.info("Stopping scan of interface [{}] after {} seconds ({})", getDisplayName(),
+                (convergence.getDurationMillis() / 1000),
+                (convergence.getStopReason() == null ? "interrupted"
+                        : convergence.getStopReason().getName()));
+
+        // interrupt the threads
+        injectorTask.interrupt();
+        listenerTask.interrupt();
+        for (CaptureShard shard : shards) {
+            shard.task.interrupt();
+        }
+
+        // if the listener is waiting for a packet, break him out
+        // of the loop; no pcap protection is needed here
+        capture.breakloop();
+        for (CaptureShard shard : shards) {
+            shard.capture.breakloop();
+        }
+
+        // wait for threads to exit, the worker and recorder drain their rings once the listeners
+        // are gone
+        try {
+            injectorTask.join();
+            listenerTask.join();
+            for (CaptureShard shard : shards) {
+                shard.task.join();
+            }
+            if (workerTask != null) {
+                workerTask.interrupt();
+                workerTask.join();
+            }
+            for (CaptureShard shard : shards) {
+                shard.workerTask.interrupt();
+                shard.workerTask.join();
+            }
+            if (recorderTask != null) {
+                recorderTask.interrupt();
+                recorderTask.join();
+            }
+        } catch (InterruptedException e) {
+            log.warn("Interrupted waiting for listener thread to exit.");
+        }
+
+        // save stats
+        CaptureStats captureStats = capture.getStats();
+        log.debug(captureStats);
+        List<CaptureShardStats> shardStats = null;
+        if (!shards.isEmpty()) {
+            shardStats = new ArrayList<CaptureShardStats>();
+            shardStats.add(new CaptureShardStats(0, captureFilterExpression, capture.getName(),
+                    captureStats, listener.getStats(), ring));
+            for (CaptureShard shard : shards) {
+                CaptureStats stats = shard.capture.getStats();
+                log.debug("Shard {}: {}, {}", shard.index, stats, shard.listener.getStats());
+                shardStats.add(new CaptureShardStats(shard.index, shard.filterExpression,
+                        shard.capture.getName(), stats, shard.listener.getStats(), shard.ring));
+                if (captureStats != null && stats != null) {
+                    captureStats = captureStats.plus(stats);
+                }
+            }
+        }
+        log.debug(listener.getStats());
+        if (ring != null) {
+            log.debug(ring.getStats());
+        }
+        if (recorder != null) {
+            log.info("Interface [{}] recorded {} frames to {} file(s) in [{}], {} dropped",
+                    getDisplayName(), recorder.getRecorded(), recorder.getFilesWritten(),
+                    V6AppProperties.getRecorderDir(), recorder.getDropped());
+        }
+
+        // close the capture and the pcap handles, injector/listener threads should be gone so no
+        // need to synchronize
+        if (injectPcap != pcap) {
+            injectPcap.close();
+        }
+        closeCaptures();
+
+        // collect the internet connectivity test; it runs alongside the scan and should be done
+        // by now, so don't hold up the other interfaces waiting on a slow one
+        boolean intenetAccess = false;
+        try {
+            intenetAccess = internetTest.get(INTERNET_TEST_WAIT_MILLIS, TimeUnit.MILLISECONDS);
+        } catch (TimeoutException te) {
+            internetTest.cancel(true);
+            log.warn("Internet connectivity test timed out for [{}]", getDisplayName());
+        } catch (InterruptedException ie) {
+            Thread.currentThread().interrupt();
+            log.warn("Interrupted waiting for the Internet connectivity test of [{}]",
+                    getDisplayName());
+        } catch (Exception e) {
+            log.warn("Internet connectivity test failed for [{}]", getDisplayName());
+        }
+        log.info("Interface [{}] Internet connectivity: {}", getDisplayName(),
+                intenetAccess ? "[OK]" : "[FAIL]");
+
+        // save results
+        result = new NetworkDiscoveryResult(pcapIf, captureStats, listener.getStats(), ring,
+                shardStats, injector.getStats(), recorder, convergence, intenetAccess,
+                localNodes.values(), null);
+    }
+
+    /**
+     * Returns the number of capture shards for each interface, shards need the worker ring.
+     *
+     * @return The number of shards.
+     */
+    private static int getShardCount() {
+        return (V6AppProperties.getListenerRingSlots() > 0 ? V6AppProperties.getCaptureShards()
+                : 1);
+    }
+
+    /**
+     * Opens a capture backend on libpcap.
+     *
+     * @param snaplen
+     *            The capture snaplen.
+     * @param filterExpression
+     *            The kernel filter, or null to capture everything.
+     * @return The capture backend, or null on error.
+     */
+    private PcapCaptureBackend openCapture(int snaplen, String filterExpression) {
+        Pcap pcap = openCaptureHandle(snaplen, filterExpression);
+        return (pcap != null ? new PcapCaptureBackend(pcap, false) : null);
+    }
+
+    private void closeCaptures() {
+        capture.close();
+        for (CaptureShard shard : shards) {
+            shard.capture.close();
+        }
+    }
+
+    /**
+     * Opens the libpcap capture handle.
+     *
+     * @param snaplen
+     *            The capture snaplen.
+     * @param filterExpression
+     *            The kernel filter, or null to capture everything.
+     * @return The capture handle, or null on error.
+     */
+    private Pcap openCaptureHandle(int snaplen, String filterExpression) {
+        int flags = Pcap.MODE_PROMISCUOUS; // capture all packets
+        int timeout = V6AppProperties.getCaptureTimeoutMillis(); // read timeout in millis
+        StringBuilder errbuf = new StringBuilder(); // For any error msgs
+
+        Pcap pcap = Pcap.openLive(pcapIf.getName(), snaplen, flags, timeout, errbuf);
+        if (pcap == null) {
+            log.error("Error while opening device for capture: {}", errbuf.toString());
+            return null;
+        }
+
+        // drop everything nobody declared in the kernel, on error the handle is left unfiltered,
+        // which costs performance but not results
+        if (filterExpression != null) {
+            JNetPcapUtils.setFilter(pcap, filterExpression);
+        }
+
+        // in blocking mode the listener sleeps in libpcap until packets are ready, the
+        // legacy non-blocking mode polls the handle continuously
+        if (V6AppProperties.getCaptureMode() == CaptureMode.NON_BLOCKING) {
+            pcap.setNonBlock(Pcap.MODE_NON_BLOCKING, errbuf);
+        }
+        return pcap;
+    }
+
+    /**
+     * Opens a pcap handle used only for injection. The handle gets a minimal snaplen and a filter
+     * that rejects every packet so the kernel doesn't queue captured traffic for it.
+     *
+     * @return The injection handle, or null on error.
+     */
+    private Pcap openInjectionHandle() {
+        StringBuilder errbuf = new StringBuilder();
+        Pcap pcap = Pcap.openLive(pcapIf.getName(), INJECT_SNAPLEN, 0,
+                V6AppProperties.getCaptureTimeoutMillis(), errbuf);
+        if (pcap == null) {
+            log.error("Error while opening device for injection: {}", errbuf.toString());
+            return null;
+        }
+
+        // drop everything in the kernel, this handle never reads
+        JNetPcapUtils.setFilter(pcap, INJECT_FILTER);
+
+        return pcap;
+    }
+
+    /**
+     * Creates the capture recorder from the recorder properties.
+     *
+     * @param snaplen
+     *            The capture snaplen.
+     * @return The recorder, or null if its filter doesn't compile.
+     */
+    private CaptureRecorder createRecorder(int snaplen) {
+        int linkType = capture.getLinkType();
+        BpfFilter filter = null;
+        String expression = V6AppProperties.getRecorderFilter();
+        if (expression != null) {
+            try {
+                filter = new BpfFilter(expression, snaplen, linkType);
+            } catch (IllegalArgumentException iae) {
+                log.error("Not recording interface [{}]: {}", getDisplayName(), iae.getMessage());
+                return null;
+            }
+        }
+
+        return new CaptureRecorder(new File(V6AppProperties.getRecorderDir()), pcapIf.getName(),
+                linkType, snaplen, V6AppProperties.getRecorderRingSlots(), filter,
+                V6AppProperties.getRecorderRotateMegabytes() * 1024L * 1024L,
+                V6AppProperties.getRecorderRotateSecs(), V6AppProperties.getRecorderMaxFiles());
+    }
+
+    private DiscoveryTask submit(ExecutorService executor, Runnable runnable, String name) {
+        DiscoveryTask task = new DiscoveryTask(runnable, name + "[" + pcapIf.getName() + "]");
+        executor.execute(task);
+        return task;
+    }
+
+    /**
+     * A capture handle other than the first on the interface, with its listener, and its ring to
+     * its own worker.
+     */
+    private static class CaptureShard {
+
+        private final int index;
+        private final String filterExpression;
+        private final CaptureBackend capture;
+        private PacketRing ring;
+        private PcapListenerThread listener;
+        private DiscoveryTask task;
+        private DiscoveryTask workerTask;
+
+        public CaptureShard(int index, String filterExpression, CaptureBackend capture) {
+            this.index = index;
+            this.filterExpression = filterExpression;
+            this.capture = capture;
+        }
+    }
+
+    /**
+     * A long-running task on the shared executor that can be interrupted and joined like a thread.
+     * The executor thread is renamed while the task runs so logs still show which interface and
+     * role it belongs to.
+     */
+    private static class DiscoveryTask implements Runnable {
+
+        private final Runnable runnable;
+        private final String name;
+        private final CountDownLatch done = new CountDownLatch(1);
+        private Thread runner;
+        private boolean interrupted;
+
+        public DiscoveryTask(Runnable runnable, String name) {
+            this.runnable = runnable;
+            this.name = name;
+        }
+
+        @Override
+        public void run() {
+            Thread thread = Thread.currentThread();
+            String poolName = thread.getName();
+            try {
+                synchronized (this) {
+                    if (interrupted) {
+                        return;
+                    }
+                    runner = thread;
+                }
+                thread.setName(name);
+                runnable.run();
+            } finally {
+                synchronized (this) {
+                    runner = null;
+                }
+
+                // don't leak our interrupt into the next task on this thread
+                Thread.interrupted();
+                thread.setName(poolName);
+                done.countDown();
+            }
+        }
+
+        public synchronized void interrupt() {
+            interrupted = true;
+            if (runner != null) {
+                runner.interrupt();
+            }
+        }
+
+        public void join() throws InterruptedException {
+            done.await();
+        }
+    }
+}
@@ -4,63 +4,82 @@ import java.io.IOException;
 import java.net.NetworkInterface;
 import java.util.ArrayList;
 import java.util.Collection;
-import java.util.HashMap;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.LinkedList;
 import java.util.List;
-import java.util.Map;
 import java.util.Set;
-import java.util.concurrent.locks.Lock;
-import java.util.concurrent.locks.ReentrantLock;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
 
 import org.apache.logging.log4j.LogManager;
 import org.apache.logging.log4j.Logger;
-import org.jnetpcap.Pcap;
 import org.jnetpcap.PcapAddr;
 import org.jnetpcap.PcapIf;
-import org.jnetpcap.PcapStat;
 import org.jnetpcap.packet.RegistryHeaderErrors;
 import org.w3c.dom.Document;
 import org.w3c.dom.Element;
 
-import com.ptr.v6app.injector.PcapInjectorThread;
+import com.ptr.v6app.capture.CaptureStats;
+import com.ptr.v6app.injector.TokenBucket;
 import com.ptr.v6app.jnetpcap.PacketRegistry;
-import com.ptr.v6app.listener.PcapListenerThread;
+import com.ptr.v6app.listener.PacketRing;
 import com.ptr.v6app.node.NetworkNode;
-import com.ptr.v6app.plugin.PluginManager;
+import com.ptr.v6app.util.Clock;
 import com.ptr.v6app.util.NetUtils;
 import com.ptr.v6app.util.V6AppProperties;
 
 /**
- * This class is used to perform a network discovery task. Once started, two threads are created and
- * started; a listener thread and an injector thread. The injector thread injects packets onto the
- * wire and the listener thread parses packets seen on the network discovery interface.
+ * This class is used to perform a network discovery task. Every candidate interface is scanned
+ * concurrently by an {@link InterfaceDiscovery}, which runs a listener thread and an injector
+ * thread for that interface. The injector thread injects packets onto the wire and the listener
+ * thread parses packets seen on the network discovery interface. By default each thread gets its
+ * own pcap handle so they never contend for the same handle; the legacy shared handle mode is kept
+ * for platforms where opening the device twice isn't desirable.
  */
 public class NetworkDiscovery {
 
     // -- Logger
     private static final Logger log = LogManager.getLogger(NetworkDiscovery.class.getName());
 
-    // -- jNetPcap is non-reentrant, create a fair lock for protection
-    private final Lock pcapLock = new ReentrantLock(true);
-
     // -- Results
     private final List<NetworkDiscoveryResult> results = new ArrayList<NetworkDiscoveryResult>();
 
+    // -- Time source for live scans
+    private final Clock clock;
+
     /**
      * Initializes an NetworkDiscovery instance.
      * 
      * @throws RegistryHeaderErrors
      */
     public NetworkDiscovery() throws RegistryHeaderErrors {
+        this(Clock.SYSTEM);
+    }
+
+    /**
+     * Initializes an NetworkDiscovery instance that times live scans with the given clock.
+     * 
+     * @param clock
+     *            The time source.
+     * @throws RegistryHeaderErrors
+     */
+    public NetworkDiscovery(Clock clock) throws RegistryHeaderErrors {
+        this.clock = clock;
 
         // register custom packets
         PacketRegistry.registerCustomPackets();
     }
 
     /**
-     * Starts the network discovery task.
+     * Starts the network discovery task. All candidate interfaces are scanned at the same time,
+     * each with its own pcap handles, plugins and node map. Their threads come from a shared pool
+     * capped by the networkDiscoveryMaxThreads property; interfaces that don't fit wait for a
+     * running one to finish.
      * 
      * @param durationMillis
-     *            Duration the task will run in milliseconds.
+     *            Duration the task will run in milliseconds, per interface; the maximum duration
+     *            when networkDiscoveryMode is adaptive.
      * @return true on success, false otherwise.
      */
     public boolean startNetworkDiscovery(long durationMillis) {
@@ -77,13 +96,12 @@ public class NetworkDiscovery {
         // check if we're limiting discovery to specific interfaces
         Set<String> limitedIfcs = V6AppProperties.getLimitedNetDescoveryIfcs();
 
-        // configure capture options
-        int snaplen = 64 * 1024; // Capture all packets, no trucation  
-        int flags = Pcap.MODE_PROMISCUOUS; // capture all packets  
-        int timeout = 1 * 1000; // 1 second in millis  
-        StringBuilder errbuf = new StringBuilder(); // For any error msgs
+        // the global injection rate limit is shared by every interface's injector
+        TokenBucket globalRateLimit = TokenBucket.create(V6AppProperties.getInjectorGlobalRate(),
+                V6AppProperties.getInjectorGlobalBurst());
 
-        // perform network discovery on all candidate interfaces
+        // collect the candidate interfaces
+        LinkedList<InterfaceDiscovery> pending = new LinkedList<InterfaceDiscovery>();
         for (PcapIf pcapIf : pcapIfcs) {
             NetworkInterface ni = NetUtils.getNetworkInterface(pcapIf);
             
@@ -92,78 +110,127 @@ public class NetworkDiscovery {
                 log.info("Skipping interface [{}]", ni.getDisplayName());
                 continue;
             }
+            pending.add(new InterfaceDiscovery(pcapIf, ni, clock, globalRateLimit));
+        }
+        if (pending.isEmpty()) {
+            log.info("Network Discovery complete. Scanned 0 interface(s).");
+            return true;
+        }
 
-            // test interface for internet connectivity
-            log.info("Testing interface [{}] for Internet connectivity...", ni.getDisplayName());
-            boolean intenetAccess = NetUtils.canReachInternet(ni);
-            log.info(intenetAccess ? "  [OK]" : "  [FAIL]");
-
-            // start capture
-            final Pcap pcap = Pcap.openLive(pcapIf.getName(), snaplen, flags, timeout, errbuf);
-            if (pcap == null) {
-                log.error("Error while opening device for capture: {}", errbuf.toString());
-                continue;
-            }
-
-            // read in non-blocking mode
-            pcap.setNonBlock(Pcap.MODE_NON_BLOCKING, errbuf);
-
-            // initialize plugins
-            PluginManager.getInstance().initializePlugins(pcapIf);
-
-            // create the collection of network nodes
-            Map<String, NetworkNode> localNodes = new HashMap<String, NetworkNode>();
+        // size the shared pool; it must at least fit one interface or nothing could ever run
+        int maxThreads = V6AppProperties.getNetworkDiscoveryMaxThreads();
+        int ifcThreads = pending.getFirst().getThreadCount();
+        if (maxThreads < ifcThreads) {
+            log.warn("networkDiscoveryMaxThreads ({}) is below the {} threads one interface "
+                    + "needs, using {}", maxThreads, ifcThreads, ifcThreads);
+            maxThreads = ifcThreads;
+        }
+        ExecutorService executor = Executors.newFixedThreadPool(maxThreads);
 
-            // create listener/injector threads
-            PcapListenerThread listener = new PcapListenerThread(pcapLock, pcap, pcapIf, localNodes);
-            PcapInjectorThread injector = new PcapInjectorThread(pcapLock, pcap, pcapIf);
-            Thread listenerThread = new Thread(listener, "PcapListener");
-            Thread injectorThread = new Thread(injector, "PcapInjector");
+        // admit interfaces while there are threads for them, stop them as their windows end
+        List<InterfaceDiscovery> running = new ArrayList<InterfaceDiscovery>();
+        int freeThreads = maxThreads;
+        boolean interrupted = false;
+        try {
+            while (!pending.isEmpty() || !running.isEmpty()) {
+                while (!pending.isEmpty() && pending.getFirst().getThreadCount() <= freeThreads) {
+                    InterfaceDiscovery discovery = pending.removeFirst();
+                    if (!discovery.open()) {
+                        continue;
+                    }
+                    discovery.start(executor, durationMillis);
+                    freeThreads -= discovery.getThreadCount();
+                    running.add(discovery);
+                }
+                if (running.isEmpty()) {
+                    continue;
+                }
 
-            // start threads
-            log.info("Scanning interface [{}] for {} seconds...", ni.getDisplayName(),
-                    (durationMillis / 1000));
-            listenerThread.start();
-            injectorThread.start();
+                // hang out until the next interface needs checking
+                long nextCheck = Long.MAX_VALUE;
+                for (InterfaceDiscovery discovery : running) {
+                    nextCheck = Math.min(nextCheck, discovery.getNextCheckMillis());
+                }
+                long sleepMillis = nextCheck - clock.currentTimeMillis();
+                if (sleepMillis > 0) {
+                    try {
+                        clock.sleep(sleepMillis);
+                    } catch (InterruptedException e) {
+
+                        // give up on the scans still running, they're stopped below
+                        log.warn("Network discovery interrupted, abandoning {} running scan(s)",
+                                running.size());
+                        interrupted = true;
+                        break;
+                    }
+                }
 
-            // hang out for some time
-            try {
-                Thread.sleep(durationMillis);
-            } catch (InterruptedException e) {
-                log.debug("Sleep interrupted");
+                // stop every interface whose scan is done, either its window ended or (in
+                // adaptive mode) node discovery converged
+                long now = clock.currentTimeMillis();
+                Iterator<InterfaceDiscovery> iter = running.iterator();
+                while (iter.hasNext()) {
+                    InterfaceDiscovery discovery = iter.next();
+                    if (now >= discovery.getNextCheckMillis() && discovery.isDone(now)) {
+                        discovery.stop();
+                        results.add(discovery.getResult());
+                        freeThreads += discovery.getThreadCount();
+                        iter.remove();
+                    }
+                }
             }
+        } finally {
 
-            // interrupt the threads
-            injectorThread.interrupt();
-            listenerThread.interrupt();
-
-            // if the listener is waiting for a packet, break him out
-            // of the loop; no pcap protection is needed here
-            pcap.breakloop();
-
-            // wait for threads to exit
-            try {
-                injectorThread.join();
-                listenerThread.join();
-            } catch (InterruptedException e) {
-                log.warn("Interrupted waiting for listener thread to exit.");
+            // stop the scans still running (we were interrupted, or an interface failed to open
+            // or start) so their threads exit and their handles are closed
+            for (InterfaceDiscovery discovery : running) {
+                try {
+                    discovery.stop();
+                } catch (Exception e) {
+                    log.error("Error stopping scan of interface [" + discovery.getDisplayName()
+                            + "]", e);
+                }
             }
+            executor.shutdownNow();
+        }
+        if (interrupted) {
+            Thread.currentThread().interrupt();
+            return false;
+        }
 
-            // save stats
-            PcapStat pcapStat = new PcapStat();
-            pcap.stats(pcapStat);
-            log.debug(pcapStat);
+        log.info("Network Discovery complete. Scanned {} interface(s).", results.size());
+        return true;
+    }
 
-            // close the pcap handle, injector/listener threads should be gone so no need to synchronize
-            pcap.close();
+    /**
+     * Replays capture files through the network discovery pipeline instead of scanning live
+     * interfaces (see {@link ReplayDiscovery}). Files are replayed one after the other, each with
+     * its own plugins and node map, and each produces its own result.
+     * 
+     * @param files
+     *            The .pcap/.pcapng files to replay.
+     * @param durationMillis
+     *            Duration of the discovery window in capture time, as for
+     *            {@link #startNetworkDiscovery(long)}; ignored unless networkDiscoveryReplayWindow
+     *            is set.
+     * @return true if every file was replayed, false otherwise.
+     */
+    public boolean startReplay(List<String> files, long durationMillis) {
+        log.info("Starting network discovery replay...");
+        results.clear();
 
-            // save results
-            results.add(new NetworkDiscoveryResult(pcapIf, pcapStat, intenetAccess, localNodes
-                    .values()));
+        boolean success = true;
+        for (String file : files) {
+            ReplayDiscovery replay = new ReplayDiscovery(file, durationMillis);
+            if (replay.replay()) {
+                results.add(replay.getResult());
+            } else {
+                success = false;
+            }
         }
 
-        log.info("Network Discovery complete. Scanned {} interface(s).", results.size());
-        return true;
+        log.info("Network Discovery replay complete. Replayed {} file(s).", results.size());
+        return success;
     }
 
     /**
@@ -182,8 +249,8 @@ public class NetworkDiscovery {
         Element netDisc = doc.createElement("networkDiscovery");
         root.appendChild(netDisc);
 
-        // lock the pcap lock
-        pcapLock.lock();
+        // the listener/injector threads have exited by the time results are saved, so no pcap
+        // protection is needed here
         try {
 
             // pcap interfaces
@@ -196,59 +263,95 @@ public class NetworkDiscovery {
                 Element pcapIfc = doc.createElement("pcapInterface");
                 pcapIfcs.appendChild(pcapIfc);
                 PcapIf pcapIf = result.getPcapIf();
-
-                // mac
-                Element mac = doc.createElement("mac");
-                mac.appendChild(doc.createTextNode(""
-                        + NetUtils.getMacString(pcapIf.getHardwareAddress())));
-                pcapIfc.appendChild(mac);
-
-                // name
-                Element ifName = doc.createElement("name");
-                ifName.appendChild(doc.createTextNode("" + pcapIf.getName()));
-                pcapIfc.appendChild(ifName);
-
-                // description
-                Element ifDesc = doc.createElement("description");
-                ifDesc.appendChild(doc.createTextNode("" + pcapIf.getDescription()));
-                pcapIfc.appendChild(ifDesc);
-
-                // flags
-                Element ifFlags = doc.createElement("flags");
-                ifFlags.appendChild(doc.createTextNode("" + pcapIf.getFlags()));
-                pcapIfc.appendChild(ifFlags);
+                ReplayStats replayStats = result.getReplayStats();
+
+                // a replay has no interface, name it after the capture file
+                if (pcapIf == null) {
+                    Element ifName = doc.createElement("name");
+                    ifName.appendChild(doc.createTextNode("" + replayStats.getFile()));
+                    pcapIfc.appendChild(ifName);
+                } else {
+
+                    // mac
+                    Element mac = doc.createElement("mac");
+                    mac.appendChild(doc.createTextNode(""
+                            + NetUtils.getMacString(pcapIf.getHardwareAddress())));
+                    pcapIfc.appendChild(mac);
+
+                    // name
+                    Element ifName = doc.createElement("name");
+                    ifName.appendChild(doc.createTextNode("" + pcapIf.getName()));
+                    pcapIfc.appendChild(ifName);
+
+                    // description
+                    Element ifDesc = doc.createElement("description");
+                    ifDesc.appendChild(doc.createTextNode("" + pcapIf.getDescription()));
+                    pcapIfc.appendChild(ifDesc);
+
+                    // flags
+                    Element ifFlags = doc.createElement("flags");
+                    ifFlags.appendChild(doc.createTextNode("" + pcapIf.getFlags()));
+                    pcapIfc.appendChild(ifFlags);
+                }
 
                 // internet accessibility
                 Element inetAccess = doc.createElement("internetConnectivity");
                 inetAccess.appendChild(doc.createTextNode("" + result.isInternetAccessible()));
                 pcapIfc.appendChild(inetAccess);
 
+                // scan duration and convergence curve
+                if (result.getConvergence() != null) {
+                    result.getConvergence().parseXmlResults(doc, pcapIfc);
+                }
+
                 // stats
                 Element stats = doc.createElement("stats");
                 pcapIfc.appendChild(stats);
-                PcapStat pcapStat = result.getStats();
+                CaptureStats captureStats = result.getStats();
+                if (captureStats != null) {
+                    captureStats.parseXmlResults(doc, stats);
+                }
+
+                // replay throughput
+                if (replayStats != null) {
+                    replayStats.parseXmlResults(doc, stats);
+                }
 
-                // packets received
-                Element recv = doc.createElement("receive");
-                recv.appendChild(doc.createTextNode("" + pcapStat.getRecv()));
-                stats.appendChild(recv);
+                // listener stats
+                result.getListenerStats().parseXmlResults(doc, stats);
 
-                // packets dropped
-                Element drop = doc.createElement("drop");
-                drop.appendChild(doc.createTextNode("" + pcapStat.getDrop()));
-                stats.appendChild(drop);
+                // worker pipeline stats
+                PacketRing ring = result.getRing();
+                if (ring != null) {
+                    ring.getStats().parseXmlResults(doc, stats, ring);
+                }
+
+                // capture shard stats
+                if (result.getShards() != null) {
+                    Element shards = doc.createElement("shards");
+                    stats.appendChild(shards);
+                    for (CaptureShardStats shard : result.getShards()) {
+                        shard.parseXmlResults(doc, shards);
+                    }
+                }
 
-                // if packets dropped
-                Element ifDrop = doc.createElement("ifDrop");
-                ifDrop.appendChild(doc.createTextNode("" + pcapStat.getIfDrop()));
-                stats.appendChild(ifDrop);
+                // injector stats
+                if (result.getInjectorStats() != null) {
+                    result.getInjectorStats().parseXmlResults(doc, stats);
+                }
+
+                // capture recorder stats
+                if (result.getRecorder() != null) {
+                    result.getRecorder().parseXmlResults(doc, stats);
+                }
 
                 // addresses
                 Element pcapAddrs = doc.createElement("addresses");
                 pcapIfc.appendChild(pcapAddrs);
 
                 // add each address
-                for (PcapAddr addr : pcapIf.getAddresses()) {
+                for (PcapAddr addr : (pcapIf != null ? pcapIf.getAddresses()
+                        : Collections.<PcapAddr> emptyList())) {
                     byte[] addrBytes = addr.getAddr().getData();
                     if (addrBytes == null || !(addrBytes.length == 4 || addrBytes.length == 16)) {
                         continue;
@@ -276,8 +379,6 @@ public class NetworkDiscovery {
         } catch (IOException ioe) {
             log.error("Error parsing network discovery XML results", ioe);
             xmlSuccess = false;
-        } finally {
-            pcapLock.unlock();
         }
 
         return xmlSuccess;
@@ -1,19 +1,42 @@
 package com.ptr.v6app;
 
 import java.util.Collection;
+import java.util.List;
 
 import org.jnetpcap.PcapIf;
-import org.jnetpcap.PcapStat;
 
+import com.ptr.v6app.capture.CaptureStats;
+import com.ptr.v6app.injector.InjectorStats;
+import com.ptr.v6app.listener.CaptureRecorder;
+import com.ptr.v6app.listener.ListenerStats;
+import com.ptr.v6app.listener.PacketRing;
 import com.ptr.v6app.node.NetworkNode;
 
 public class NetworkDiscoveryResult {
 
-    // -- Pcap interface used
+    // -- Pcap interface used (null for a replay)
     private final PcapIf pcapIf;
 
-    // -- Pcap statistics
-    private final PcapStat stats;
+    // -- Kernel capture statistics (null for a replay)
+    private final CaptureStats stats;
+
+    // -- Listener thread statistics
+    private final ListenerStats listenerStats;
+
+    // -- Worker stage ring (null if packets were processed on the capture thread)
+    private final PacketRing ring;
+
+    // -- Per-shard statistics, the totals are above (null with a single capture handle)
+    private final List<CaptureShardStats> shards;
+
+    // -- Injector thread statistics (null for a replay)
+    private final InjectorStats injectorStats;
+
+    // -- Capture recorder (null if not recording)
+    private final CaptureRecorder recorder;
+
+    // -- Scan duration and convergence curve (null for a replay)
+    private final ConvergenceTracker convergence;
 
     // -- Internet accessibility flag
     private final boolean internetAccessible;
@@ -21,22 +44,58 @@ public class NetworkDiscoveryResult {
     // -- Discovered network nodes
     private final Collection<NetworkNode> nodes;
 
-    public NetworkDiscoveryResult(PcapIf pcapIf, PcapStat stats, boolean internetAccessible,
-            Collection<NetworkNode> nodes) {
+    // -- Replay throughput (null for a live scan)
+    private final ReplayStats replayStats;
+
+    public NetworkDiscoveryResult(PcapIf pcapIf, CaptureStats stats, ListenerStats listenerStats,
+            PacketRing ring, List<CaptureShardStats> shards, InjectorStats injectorStats,
+            CaptureRecorder recorder, ConvergenceTracker convergence, boolean internetAccessible,
+            Collection<NetworkNode> nodes, ReplayStats replayStats) {
         this.pcapIf = pcapIf;
         this.stats = stats;
+        this.listenerStats = listenerStats;
+        this.ring = ring;
+        this.shards = shards;
+        this.injectorStats = injectorStats;
+        this.recorder = recorder;
+        this.convergence = convergence;
         this.internetAccessible = internetAccessible;
         this.nodes = nodes;
+        this.replayStats = replayStats;
     }
 
     public PcapIf getPcapIf() {
         return pcapIf;
     }
 
-    public PcapStat getStats() {
+    public CaptureStats getStats() {
         return stats;
     }
 
+    public ListenerStats getListenerStats() {
+        return listenerStats;
+    }
+
+    public PacketRing getRing() {
+        return ring;
+    }
+
+    public List<CaptureShardStats> getShards() {
+        return shards;
+    }
+
+    public InjectorStats getInjectorStats() {
+        return injectorStats;
+    }
+
+    public CaptureRecorder getRecorder() {
+        return recorder;
+    }
+
+    public ConvergenceTracker getConvergence() {
+        return convergence;
+    }
+
     public boolean isInternetAccessible() {
         return internetAccessible;
     }
@@ -44,4 +103,8 @@ public class NetworkDiscoveryResult {
     public Collection<NetworkNode> getNodes() {
         return nodes;
     }
+
+    public ReplayStats getReplayStats() {
+        return replayStats;
+    }
 }
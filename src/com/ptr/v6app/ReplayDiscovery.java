@@ -0,0 +1,206 @@
+package com.ptr.v6app;
+
+import java.io.IOException;
+import java.util.concurrent.locks.ReentrantLock;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+import com.ptr.v6app.capture.FileCaptureBackend;
+import com.ptr.v6app.listener.BpfFilter;
+import com.ptr.v6app.listener.CaptureRequirements;
+import com.ptr.v6app.listener.PacketRing;
+import com.ptr.v6app.listener.PacketRing.OverflowPolicy;
+import com.ptr.v6app.listener.PacketWorkerThread;
+import com.ptr.v6app.listener.PcapListenerThread;
+import com.ptr.v6app.node.MacNodeTable;
+import com.ptr.v6app.plugin.PluginManager;
+import com.ptr.v6app.util.CaptureClock;
+import com.ptr.v6app.util.V6AppProperties;
+
+/**
+ * Network discovery over a capture file instead of a live interface. The file is read as fast as
+ * possible through the same listener, listener plugins, worker ring and node map as a live scan,
+ * so a recorded capture produces the same nodes a scan would have, and the replay doubles as a
+ * repeatable throughput benchmark for the packet processing pipeline.
+ * 
+ * With networkDiscoveryReplayWindow set, the replay runs on a CaptureClock: the discovery window
+ * and mode (fixed or adaptive) are applied in capture time, starting at the first packet, so the
+ * replay stops where a live scan would have, however fast the file is read. Convergence is sampled
+ * on the listener thread in packet order, and packets are processed inline rather than through the
+ * worker ring, so the result is the same on every run.
+ * 
+ * The file is read without libpcap (see FileCaptureBackend), and the capture filter runs in Java.
+ * Nothing is injected during a replay and plugins aren't bound to an interface. The worker ring,
+ * if used, always blocks when full: a file can be read faster than any worker keeps up, and a
+ * replay must not drop packets.
+ */
+public class ReplayDiscovery {
+
+    // -- Logger
+    private static final Logger log = LogManager.getLogger(ReplayDiscovery.class.getName());
+
+    // -- Snaplen the filter is compiled for, frames are never truncated by a replay
+    private static final int MAX_SNAPLEN = 65535;
+
+    // -- Capture file
+    private final String file;
+
+    // -- Discovery window in capture time, 0 to read the whole file
+    private final long durationMillis;
+
+    // -- Per-replay plugins
+    private final PluginManager pluginManager = new PluginManager();
+
+    // -- Observed network nodes
+    private final MacNodeTable localNodes = new MacNodeTable();
+
+    // -- Capture time and the scan window it drives (null when reading the whole file)
+    private CaptureClock clock;
+    private ConvergenceTracker convergence;
+
+    // -- Packet processing
+    private PcapListenerThread listener;
+
+    // -- Result, available once replayed
+    private NetworkDiscoveryResult result;
+
+    /**
+     * Creates a replay.
+     * 
+     * @param file
+     *            The .pcap/.pcapng file.
+     * @param durationMillis
+     *            Duration of the discovery window in capture time, the maximum duration in
+     *            adaptive mode; ignored unless networkDiscoveryReplayWindow is set.
+     */
+    public ReplayDiscovery(String file, long durationMillis) {
+        this.file = file;
+        this.durationMillis = (V6AppProperties.isNetworkDiscoveryReplayWindow() ? durationMillis
+                : 0);
+    }
+
+    public NetworkDiscoveryResult getResult() {
+        return result;
+    }
+
+    /**
+     * Replays the capture file. Blocks until every packet in the file has been processed.
+     * 
+     * @return true on success, false otherwise.
+     */
+    public boolean replay() {
+
+        // open the file, it's read in Java straight from the mapped file
+        FileCaptureBackend capture;
+        try {
+            capture = new FileCaptureBackend(file);
+        } catch (IOException ioe) {
+            log.error("Error while opening capture file [{}]: {}", file, ioe.getMessage());
+            return false;
+        }
+
+        // filter the same way a live scan would, so the plugins see the same packets; libpcap
+        // only compiles the filter, it's run in Java
+        CaptureRequirements requirements = PcapListenerThread.getCaptureRequirements(pluginManager);
+        String filterExpression = requirements.getFilterExpression();
+        if (V6AppProperties.isCaptureFilter() && filterExpression != null) {
+            try {
+                capture.setFilter(new BpfFilter(filterExpression, MAX_SNAPLEN,
+                        BpfFilter.LINKTYPE_ETHERNET));
+            } catch (IllegalArgumentException iae) {
+                log.warn("Replaying [{}] unfiltered: {}", file, iae.getMessage());
+            }
+        }
+
+        // create the ring between the listener and the worker, never dropping; a windowed
+        // replay processes inline so convergence samples see every packet before them
+        PacketRing ring = null;
+        int ringSlots = V6AppProperties.getListenerRingSlots();
+        if (ringSlots > 0 && durationMillis == 0) {
+            ring = new PacketRing(ringSlots, V6AppProperties.getListenerRingSlotBytes(),
+                    OverflowPolicy.BLOCK);
+        }
+        listener = new PcapListenerThread(new ReentrantLock(), capture, null, pluginManager,
+                requirements, localNodes, ring);
+
+        // run the scan window on capture time, it starts with the first packet
+        if (durationMillis > 0) {
+            clock = new CaptureClock();
+            convergence = new ConvergenceTracker(durationMillis);
+            clock.setAlarm(Long.MIN_VALUE, new WindowAlarm());
+            listener.setClock(clock);
+        }
+
+        log.info("Replaying capture file [{}]...", file);
+        long startNanos = System.nanoTime();
+
+        // the worker drains the ring once the listener reaches the end of the file
+        Thread worker = null;
+        if (ring != null) {
+            worker = new Thread(new PacketWorkerThread(ring, listener), "PcapWorker[" + file + "]");
+            worker.start();
+        }
+        listener.run();
+        if (worker != null) {
+            worker.interrupt();
+            try {
+                worker.join();
+            } catch (InterruptedException e) {
+                log.warn("Interrupted waiting for worker thread to exit.");
+            }
+        }
+
+        long elapsedNanos = System.nanoTime() - startNanos;
+        capture.close();
+
+        // the file may end before the window does
+        if (convergence != null && convergence.getStopReason() == null) {
+            clock.stop();
+            convergence.endOfCapture(clock.currentTimeMillis(), listener.getNodeCount(),
+                    listener.getAddressCount());
+        }
+        if (convergence != null) {
+            log.info("Replay of [{}] covered {} seconds of capture ({})", file,
+                    (convergence.getDurationMillis() / 1000),
+                    convergence.getStopReason().getName());
+        }
+
+        // save results
+        ReplayStats replayStats = new ReplayStats(file, listener.getStats().getPackets(),
+                elapsedNanos);
+        log.info("Replayed [{}]: {} packets in {} ms, {} packets/sec, {} ns/packet", file,
+                replayStats.getPackets(), (elapsedNanos / 1000000),
+                Math.round(replayStats.getPacketsPerSec()),
+                Math.round(replayStats.getNanosPerPacket()));
+        log.debug(listener.getStats());
+        if (ring != null) {
+            log.debug(ring.getStats());
+        }
+        result = new NetworkDiscoveryResult(null, null, listener.getStats(), ring, null, null,
+                null, convergence, false, localNodes.values(), replayStats);
+        return true;
+    }
+
+    /**
+     * Samples the scan's convergence once per capture-time second and stops the clock, and with it
+     * the listener, when the live scan would have stopped.
+     */
+    private class WindowAlarm implements CaptureClock.Alarm {
+
+        private boolean started;
+
+        @Override
+        public boolean ring(long nowMillis) {
+            if (!started) {
+                started = true;
+                convergence.start(nowMillis);
+            } else if (convergence.sample(nowMillis, listener.getNodeCount(),
+                    listener.getAddressCount())) {
+                return false;
+            }
+            clock.setAlarm(convergence.getNextSampleMillis(), this);
+            return true;
+        }
+    }
+}
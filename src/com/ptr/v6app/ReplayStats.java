@@ -0,0 +1,63 @@
+package com.ptr.v6app;
+
+import org.w3c.dom.Document;
+import org.w3c.dom.Element;
+
+/**
+ * Throughput of an offline capture replay, i.e., how fast the listener pipeline (IP parsing, node
+ * discovery and listener plugins) can process packets when it never waits for the network.
+ */
+public class ReplayStats {
+
+    // -- Replayed capture file
+    private final String file;
+
+    // -- Packets read from the file
+    private final long packets;
+
+    // -- Time from the first read until the last packet was processed
+    private final long elapsedNanos;
+
+    public ReplayStats(String file, long packets, long elapsedNanos) {
+        this.file = file;
+        this.packets = packets;
+        this.elapsedNanos = elapsedNanos;
+    }
+
+    public String getFile() {
+        return file;
+    }
+
+    public long getPackets() {
+        return packets;
+    }
+
+    public long getElapsedNanos() {
+        return elapsedNanos;
+    }
+
+    public double getPacketsPerSec() {
+        return (elapsedNanos > 0 ? packets * 1e9 / elapsedNanos : 0);
+    }
+
+    public double getNanosPerPacket() {
+        return (packets > 0 ? (double) elapsedNanos / packets : 0);
+    }
+
+    public void parseXmlResults(Document doc, Element root) {
+        Element replay = doc.createElement("replay");
+        replay.setAttribute("file", file);
+        replay.setAttribute("packets", "" + packets);
+        replay.setAttribute("elapsedMillis", "" + (elapsedNanos / 1000000));
+        replay.setAttribute("packetsPerSec", "" + Math.round(getPacketsPerSec()));
+        replay.setAttribute("nsPerPacket", "" + Math.round(getNanosPerPacket()));
+        root.appendChild(replay);
+    }
+
+    @Override
+    public String toString() {
+        return "ReplayStats [file=" + file + ", packets=" + packets + ", elapsedNanos="
+                + elapsedNanos + ", packetsPerSec=" + Math.round(getPacketsPerSec())
+                + ", nsPerPacket=" + Math.round(getNanosPerPacket()) + "]";
+    }
+}
@@ -0,0 +1,59 @@
+package com.ptr.v6app.capture;
+
+import java.io.IOException;
+
+/**
+ * A source of captured frames for the listener, such as a libpcap handle on a live interface or a
+ * capture file. Only the listener thread reads from a backend; {@link #breakloop()} may be called
+ * from any thread.
+ */
+public interface CaptureBackend {
+
+    // -- Returned by dispatch() once a capture file has been read entirely
+    public static final int END_OF_CAPTURE = -1;
+
+    /**
+     * Returns the backend name, for logs and results.
+     *
+     * @return The name.
+     */
+    public String getName();
+
+    /**
+     * Reads frames and passes them to a handler. Blocks until at least one frame is ready or the
+     * read timeout expires.
+     *
+     * @param maxFrames
+     *            The most frames to read.
+     * @param handler
+     *            The frame handler.
+     * @return The number of frames read (0 on timeout or breakloop), or END_OF_CAPTURE.
+     * @throws IOException
+     *             If the capture fails.
+     */
+    public int dispatch(int maxFrames, FrameHandler handler) throws IOException;
+
+    /**
+     * Makes the current (or next) dispatch() return as soon as the frame being handled is done.
+     */
+    public void breakloop();
+
+    /**
+     * Returns the link type of the frames, e.g., 1 for Ethernet.
+     *
+     * @return The LINKTYPE_ value.
+     */
+    public int getLinkType();
+
+    /**
+     * Returns the kernel's capture counters.
+     *
+     * @return The counters, or null if the backend has none (capture files).
+     */
+    public CaptureStats getStats();
+
+    /**
+     * Releases the backend, no other method may be called afterwards.
+     */
+    public void close();
+}
@@ -0,0 +1,74 @@
+package com.ptr.v6app.capture;
+
+import org.w3c.dom.Document;
+import org.w3c.dom.Element;
+
+/**
+ * Kernel capture counters, the same three libpcap reports in its pcap_stat.
+ */
+public class CaptureStats {
+
+    // -- Frames received by the capture, including those dropped
+    private final long received;
+
+    // -- Frames dropped because the capture buffer was full
+    private final long dropped;
+
+    // -- Frames dropped by the interface or its driver
+    private final long ifDropped;
+
+    public CaptureStats(long received, long dropped, long ifDropped) {
+        this.received = received;
+        this.dropped = dropped;
+        this.ifDropped = ifDropped;
+    }
+
+    public long getReceived() {
+        return received;
+    }
+
+    public long getDropped() {
+        return dropped;
+    }
+
+    public long getIfDropped() {
+        return ifDropped;
+    }
+
+    /**
+     * Adds the counters of another capture on the same interface. Interface drops are counted
+     * once, every capture on an interface reports the same ones.
+     *
+     * @param other
+     *            The other capture's counters.
+     * @return The combined counters.
+     */
+    public CaptureStats plus(CaptureStats other) {
+        return new CaptureStats(received + other.received, dropped + other.dropped,
+                Math.max(ifDropped, other.ifDropped));
+    }
+
+    public void parseXmlResults(Document doc, Element root) {
+
+        // packets received
+        Element recv = doc.createElement("receive");
+        recv.appendChild(doc.createTextNode("" + received));
+        root.appendChild(recv);
+
+        // packets dropped
+        Element drop = doc.createElement("drop");
+        drop.appendChild(doc.createTextNode("" + dropped));
+        root.appendChild(drop);
+
+        // if packets dropped
+        Element ifDrop = doc.createElement("ifDrop");
+        ifDrop.appendChild(doc.createTextNode("" + ifDropped));
+        root.appendChild(ifDrop);
+    }
+
+    @Override
+    public String toString() {
+        return "CaptureStats [received=" + received + ", dropped=" + dropped + ", ifDropped="
+                + ifDropped + "]";
+    }
+}
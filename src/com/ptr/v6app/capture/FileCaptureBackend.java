@@ -0,0 +1,104 @@
+package com.ptr.v6app.capture;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+
+import com.ptr.v6app.io.PcapFileReader;
+import com.ptr.v6app.listener.BpfFilter;
+
+/**
+ * Reads a pcap or pcapng capture file through a PcapFileReader, without a libpcap handle. Each
+ * frame is passed on as a slice of the memory-mapped file, so frames are never copied on the way
+ * to the listener. A BpfFilter may stand in for the kernel filter of a live capture; libpcap is
+ * only used to compile it.
+ */
+public class FileCaptureBackend implements CaptureBackend {
+
+    // -- Capture file reader
+    private final PcapFileReader reader;
+
+    // -- Filter, applied to Ethernet frames only (null to pass every frame)
+    private BpfFilter filter;
+
+    // -- Set by breakloop(), cleared once dispatch() has returned
+    private volatile boolean breakloop;
+
+    // -- Link type of the last frame read
+    private int linkType = BpfFilter.LINKTYPE_ETHERNET;
+
+    /**
+     * Opens a capture file.
+     *
+     * @param path
+     *            The path of the .pcap or .pcapng file.
+     * @throws IOException
+     *             If the file can't be read or isn't a pcap/pcapng file.
+     */
+    public FileCaptureBackend(String path) throws IOException {
+        this.reader = new PcapFileReader(path);
+    }
+
+    /**
+     * Sets the filter frames must match to be passed on, as a live capture's kernel filter would.
+     *
+     * @param filter
+     *            The filter, compiled for Ethernet, or null to pass every frame.
+     */
+    public void setFilter(BpfFilter filter) {
+        this.filter = filter;
+    }
+
+    @Override
+    public String getName() {
+        return "file";
+    }
+
+    @Override
+    public int dispatch(int maxFrames, FrameHandler handler) throws IOException {
+        int count = 0;
+        while (count < maxFrames && !breakloop) {
+            if (!reader.next()) {
+                return (count > 0 ? count : END_OF_CAPTURE);
+            }
+            linkType = reader.getLinkType();
+            ByteBuffer data = reader.getData();
+            int caplen = reader.getCaplen();
+            int wirelen = reader.getWirelen();
+            if (filter != null && linkType == BpfFilter.LINKTYPE_ETHERNET
+                    && !filter.matches(data, 0, caplen, wirelen)) {
+                continue;
+            }
+
+            long nanos = reader.getTimestampNanos();
+            handler.nextFrame(data, 0, caplen, wirelen, nanos / 1000000000L,
+                    (int) (nanos % 1000000000L / 1000));
+            count++;
+        }
+        breakloop = false;
+        return count;
+    }
+
+    @Override
+    public void breakloop() {
+        breakloop = true;
+    }
+
+    @Override
+    public int getLinkType() {
+        return linkType;
+    }
+
+    @Override
+    public CaptureStats getStats() {
+        return null;
+    }
+
+    @Override
+    public void close() {
+        try {
+            reader.close();
+        } catch (IOException ioe) {
+            // nothing was written, there's nothing to lose
+        }
+    }
+}
@@ -0,0 +1,30 @@
+package com.ptr.v6app.capture;
+
+import java.nio.ByteBuffer;
+
+/**
+ * Receives the frames read by a CaptureBackend.
+ */
+public interface FrameHandler {
+
+    /**
+     * Processes a captured frame. The frame data is only valid until this method returns, so
+     * anything kept must be copied.
+     *
+     * @param buffer
+     *            A direct buffer holding the frame, in network byte order. The buffer may hold
+     *            other frames too, its position and limit must be left as they are.
+     * @param offset
+     *            Offset of the frame in the buffer.
+     * @param caplen
+     *            Captured bytes of the frame.
+     * @param wirelen
+     *            Length of the frame on the wire.
+     * @param seconds
+     *            Capture time, seconds since the epoch.
+     * @param micros
+     *            Capture time, microseconds within the second.
+     */
+    public void nextFrame(ByteBuffer buffer, int offset, int caplen, int wirelen, long seconds,
+            int micros);
+}
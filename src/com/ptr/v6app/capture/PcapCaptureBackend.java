@@ -0,0 +1,94 @@
+package com.ptr.v6app.capture;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+
+import org.jnetpcap.ByteBufferHandler;
+import org.jnetpcap.Pcap;
+import org.jnetpcap.PcapHeader;
+import org.jnetpcap.PcapStat;
+
+/**
+ * Captures through a jNetPcap handle, live or reading a capture file. jNetPcap hands each frame
+ * over as a direct ByteBuffer over libpcap's own buffer, which is passed on as is, so frames are
+ * never copied on the way to the listener.
+ */
+public class PcapCaptureBackend implements CaptureBackend, ByteBufferHandler<FrameHandler> {
+
+    // -- Pcap handle
+    private final Pcap pcap;
+
+    // -- Reading a capture file rather than a live interface
+    private final boolean offline;
+
+    /**
+     * Creates a backend over an open handle, the backend owns the handle from now on.
+     *
+     * @param pcap
+     *            The pcap handle.
+     * @param offline
+     *            true if the handle reads a capture file.
+     */
+    public PcapCaptureBackend(Pcap pcap, boolean offline) {
+        this.pcap = pcap;
+        this.offline = offline;
+    }
+
+    public Pcap getPcap() {
+        return pcap;
+    }
+
+    @Override
+    public String getName() {
+        return "pcap";
+    }
+
+    @Override
+    public int dispatch(int maxFrames, FrameHandler handler) throws IOException {
+        int status = pcap.dispatch(maxFrames, this, handler);
+
+        // -2 means breakloop() was called, anything else negative is a capture error; a capture
+        // file returns 0 once it's been read entirely
+        if (status == -2) {
+            return 0;
+        } else if (status < 0) {
+            throw new IOException(pcap.getErr());
+        } else if (status == 0 && offline) {
+            return END_OF_CAPTURE;
+        }
+        return status;
+    }
+
+    @Override
+    public void nextPacket(PcapHeader header, ByteBuffer buffer, FrameHandler handler) {
+        buffer.order(ByteOrder.BIG_ENDIAN);
+        handler.nextFrame(buffer, buffer.position(), header.caplen(), header.wirelen(),
+                header.hdr_sec(), header.hdr_usec());
+    }
+
+    @Override
+    public void breakloop() {
+        pcap.breakloop();
+    }
+
+    @Override
+    public int getLinkType() {
+        return pcap.datalink();
+    }
+
+    @Override
+    public CaptureStats getStats() {
+        if (offline) {
+            return null;
+        }
+        PcapStat pcapStat = new PcapStat();
+        pcap.stats(pcapStat);
+        return new CaptureStats(pcapStat.getRecv(), pcapStat.getDrop(), pcapStat.getIfDrop());
+    }
+
+    @Override
+    public void close() {
+        pcap.close();
+    }
+}
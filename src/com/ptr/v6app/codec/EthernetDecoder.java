@@ -0,0 +1,118 @@
+package com.ptr.v6app.codec;
+
+import java.nio.ByteBuffer;
+
+/**
+ * Flyweight decoder for an Ethernet II header, including any 802.1Q/802.1ad VLAN tags. Fields are
+ * read straight from the frame buffer with absolute gets, so decoding neither copies nor
+ * allocates. The buffer must be in network (big-endian) byte order, ByteBuffer's default.
+ */
+public class EthernetDecoder {
+
+    // -- EtherTypes
+    public static final int TYPE_IP4 = 0x0800;
+    public static final int TYPE_IP6 = 0x86dd;
+    public static final int TYPE_VLAN = 0x8100;
+    public static final int TYPE_QINQ = 0x88a8;
+
+    // -- Header lengths
+    public static final int HEADER_LENGTH = 14;
+    private static final int TAG_LENGTH = 4;
+
+    // -- VLAN ID of untagged frames
+    public static final int NO_VLAN = -1;
+
+    // -- Frame
+    private ByteBuffer buffer;
+    private int offset;
+    private int limit;
+
+    // -- Inner EtherType and where the payload starts, past any VLAN tags
+    private int etherType;
+    private int payloadOffset;
+
+    /**
+     * Points the decoder at a frame.
+     *
+     * @param buffer
+     *            The frame buffer.
+     * @param offset
+     *            Offset of the Ethernet header.
+     * @param limit
+     *            End of the captured frame data.
+     * @return false if the header (and its VLAN tags) wasn't captured whole.
+     */
+    public boolean wrap(ByteBuffer buffer, int offset, int limit) {
+        this.buffer = buffer;
+        this.offset = offset;
+        this.limit = limit;
+        if (offset + HEADER_LENGTH > limit) {
+            return false;
+        }
+
+        // skip VLAN tags to reach the EtherType of the payload
+        int typeOffset = offset + 12;
+        int type = buffer.getShort(typeOffset) & 0xffff;
+        while (type == TYPE_VLAN || type == TYPE_QINQ) {
+            typeOffset += TAG_LENGTH;
+            if (typeOffset + 2 > limit) {
+                return false;
+            }
+            type = buffer.getShort(typeOffset) & 0xffff;
+        }
+        etherType = type;
+        payloadOffset = typeOffset + 2;
+        return true;
+    }
+
+    /**
+     * Returns the destination MAC in packed form (see PackedAddress).
+     *
+     * @return The packed MAC.
+     */
+    public long destination() {
+        return readMac(offset);
+    }
+
+    /**
+     * Returns the source MAC in packed form (see PackedAddress).
+     *
+     * @return The packed MAC.
+     */
+    public long source() {
+        return readMac(offset + 6);
+    }
+
+    /**
+     * Returns the EtherType of the payload, i.e., the one after the last VLAN tag.
+     *
+     * @return The EtherType.
+     */
+    public int etherType() {
+        return etherType;
+    }
+
+    /**
+     * Returns the VLAN ID of the outermost tag.
+     *
+     * @return The VLAN ID, or NO_VLAN if the frame isn't tagged.
+     */
+    public int vlanId() {
+        if (payloadOffset == offset + HEADER_LENGTH) {
+            return NO_VLAN;
+        }
+        return buffer.getShort(offset + 14) & 0x0fff;
+    }
+
+    public int payloadOffset() {
+        return payloadOffset;
+    }
+
+    public int limit() {
+        return limit;
+    }
+
+    private long readMac(int at) {
+        return ((buffer.getShort(at) & 0xffffL) << 32) | (buffer.getInt(at + 2) & 0xffffffffL);
+    }
+}
@@ -0,0 +1,127 @@
+package com.ptr.v6app.codec;
+
+import java.nio.ByteBuffer;
+
+/**
+ * Decodes a captured Ethernet frame layer by layer, on demand. Each layer is decoded the first
+ * time it's asked for and remembered for the rest of the frame, so a consumer that only reads the
+ * Ethernet addresses never touches the IP header, and the ICMPv6 message is only found (walking
+ * the IPv6 extension headers) if someone asks for it. The decoders are flyweights reused for every
+ * frame, nothing is copied or allocated per frame.
+ *
+ * Instances are confined to one thread, and the decoders they return are only valid until the
+ * next call to {@link #wrap(ByteBuffer, int, int)}.
+ */
+public class FrameDecoder {
+
+    // -- Layer decoding state
+    private static final int UNDECODED = 0;
+    private static final int PRESENT = 1;
+    private static final int ABSENT = 2;
+
+    // -- Layer decoders (reused)
+    private final EthernetDecoder ethernet = new EthernetDecoder();
+    private final Ip4Decoder ip4 = new Ip4Decoder();
+    private final Ip6Decoder ip6 = new Ip6Decoder();
+    private final Icmp6Decoder icmp6 = new Icmp6Decoder();
+
+    // -- Frame
+    private ByteBuffer buffer;
+    private int offset;
+    private int length;
+    private int limit;
+
+    // -- Decoding state of each layer for the current frame
+    private int ethernetState;
+    private int ip4State;
+    private int ip6State;
+    private int icmp6State;
+
+    /**
+     * Points the decoder at a new frame. Nothing is decoded until a layer is asked for.
+     *
+     * @param buffer
+     *            The frame data, in network (big-endian) byte order.
+     * @param offset
+     *            Offset of the frame in the buffer.
+     * @param length
+     *            The captured length of the frame.
+     */
+    public void wrap(ByteBuffer buffer, int offset, int length) {
+        this.buffer = buffer;
+        this.offset = offset;
+        this.length = Math.min(length, buffer.capacity() - offset);
+        this.limit = offset + this.length;
+        ethernetState = UNDECODED;
+        ip4State = UNDECODED;
+        ip6State = UNDECODED;
+        icmp6State = UNDECODED;
+    }
+
+    public ByteBuffer getBuffer() {
+        return buffer;
+    }
+
+    public int getOffset() {
+        return offset;
+    }
+
+    public int getLength() {
+        return length;
+    }
+
+    /**
+     * Returns the Ethernet header.
+     *
+     * @return The decoder, or null if the frame is too short.
+     */
+    public EthernetDecoder ethernet() {
+        if (ethernetState == UNDECODED) {
+            ethernetState = (ethernet.wrap(buffer, offset, limit) ? PRESENT : ABSENT);
+        }
+        return (ethernetState == PRESENT ? ethernet : null);
+    }
+
+    /**
+     * Returns the IPv4 header.
+     *
+     * @return The decoder, or null if this isn't an IPv4 packet.
+     */
+    public Ip4Decoder ip4() {
+        if (ip4State == UNDECODED) {
+            EthernetDecoder eth = ethernet();
+            ip4State = (eth != null && eth.etherType() == EthernetDecoder.TYPE_IP4
+                    && ip4.wrap(buffer, eth.payloadOffset(), limit) ? PRESENT : ABSENT);
+        }
+        return (ip4State == PRESENT ? ip4 : null);
+    }
+
+    /**
+     * Returns the IPv6 header.
+     *
+     * @return The decoder, or null if this isn't an IPv6 packet.
+     */
+    public Ip6Decoder ip6() {
+        if (ip6State == UNDECODED) {
+            EthernetDecoder eth = ethernet();
+            ip6State = (eth != null && eth.etherType() == EthernetDecoder.TYPE_IP6
+                    && ip6.wrap(buffer, eth.payloadOffset(), limit) ? PRESENT : ABSENT);
+        }
+        return (ip6State == PRESENT ? ip6 : null);
+    }
+
+    /**
+     * Returns the ICMPv6 message, after any IPv6 extension headers.
+     *
+     * @return The decoder, or null if this isn't an ICMPv6 packet (or a non-first fragment of one).
+     */
+    public Icmp6Decoder icmp6() {
+        if (icmp6State == UNDECODED) {
+            Ip6Decoder ip = ip6();
+            icmp6State = (ip != null && ip.upperLayerProtocol() == Ip6Decoder.ICMP6
+                    && icmp6.wrap(buffer, ip.upperLayerOffset(), ip.payloadLimit()) ? PRESENT
+                    : ABSENT);
+        }
+        return (icmp6State == PRESENT ? icmp6 : null);
+    }
+}
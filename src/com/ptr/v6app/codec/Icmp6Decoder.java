@@ -0,0 +1,228 @@
+package com.ptr.v6app.codec;
+
+import java.nio.ByteBuffer;
+
+import com.ptr.v6app.util.InternetChecksum;
+
+/**
+ * Flyweight decoder for an ICMPv6 message, with accessors for the echo and Neighbor Discovery
+ * (RFC 4861) messages. Accessors for a message type are only meaningful when {@link #type()} is
+ * that type and {@link #hasBody()} is true. ND options are read with the cursor returned by
+ * {@link #options()}.
+ */
+public class Icmp6Decoder {
+
+    // -- Message types
+    public static final int TYPE_ECHO_REQUEST = 128;
+    public static final int TYPE_ECHO_REPLY = 129;
+    public static final int TYPE_ROUTER_SOLICITATION = 133;
+    public static final int TYPE_ROUTER_ADVERTISEMENT = 134;
+    public static final int TYPE_NEIGHBOR_SOLICITATION = 135;
+    public static final int TYPE_NEIGHBOR_ADVERTISEMENT = 136;
+    public static final int TYPE_REDIRECT = 137;
+
+    // -- Header length (type, code, checksum)
+    public static final int HEADER_LENGTH = 4;
+
+    // -- Neighbor Advertisement flags
+    public static final int NA_ROUTER = 0x80;
+    public static final int NA_SOLICITED = 0x40;
+    public static final int NA_OVERRIDE = 0x20;
+
+    // -- Router Advertisement flags
+    public static final int RA_MANAGED = 0x80;
+    public static final int RA_OTHER = 0x40;
+
+    // -- Outcomes of a checksum check
+    public static final int CHECKSUM_VALID = 0;
+    public static final int CHECKSUM_INVALID = 1;
+    public static final int CHECKSUM_UNKNOWN = 2;
+
+    // -- Message
+    private ByteBuffer buffer;
+    private int offset;
+    private int limit;
+
+    // -- Option cursor (reused)
+    private final NdOptionDecoder options = new NdOptionDecoder();
+
+    /**
+     * Points the decoder at an ICMPv6 message.
+     *
+     * @param buffer
+     *            The frame buffer.
+     * @param offset
+     *            Offset of the ICMPv6 header.
+     * @param limit
+     *            End of the message, or of the captured data if it was truncated.
+     * @return false if the header wasn't captured whole.
+     */
+    public boolean wrap(ByteBuffer buffer, int offset, int limit) {
+        this.buffer = buffer;
+        this.offset = offset;
+        this.limit = limit;
+        return offset >= 0 && offset + HEADER_LENGTH <= limit;
+    }
+
+    public int type() {
+        return buffer.get(offset) & 0xff;
+    }
+
+    public int code() {
+        return buffer.get(offset + 1) & 0xff;
+    }
+
+    public int checksum() {
+        return buffer.getShort(offset + 2) & 0xffff;
+    }
+
+    public int length() {
+        return limit - offset;
+    }
+
+    /**
+     * Returns true if the fixed part of the message for its type was captured, so its accessors
+     * can be used. Types without a known body only need the header.
+     *
+     * @return true if the message body is there.
+     */
+    public boolean hasBody() {
+        return length() >= bodyLength(type());
+    }
+
+    /**
+     * Verifies the checksum of the message, summed in place with the pseudo-header of its IPv6
+     * packet. The message may follow extension headers, the pseudo-header only covers the message.
+     *
+     * @param ip
+     *            The decoder of the IPv6 packet carrying the message.
+     * @return CHECKSUM_VALID, CHECKSUM_INVALID if the message was corrupted (or forged by a sender
+     *         that doesn't checksum), or CHECKSUM_UNKNOWN if it can't be checked: the message was
+     *         truncated by the snaplen, or it's in a jumbogram.
+     */
+    public int verifyChecksum(Ip6Decoder ip) {
+        int end = ip.payloadOffset() + ip.payloadLength();
+        if (ip.payloadLength() == 0 || end > limit) {
+            return CHECKSUM_UNKNOWN;
+        }
+        int length = end - offset;
+        long sum = InternetChecksum.sumIp6PseudoHeader(ip.sourceHigh(), ip.sourceLow(),
+                ip.destinationHigh(), ip.destinationLow(), length, Ip6Decoder.ICMP6);
+        return (InternetChecksum.isValid(sum + InternetChecksum.sum(buffer, offset, length))
+                ? CHECKSUM_VALID : CHECKSUM_INVALID);
+    }
+
+    // -- Echo request and reply
+
+    public int identifier() {
+        return buffer.getShort(offset + 4) & 0xffff;
+    }
+
+    public int sequence() {
+        return buffer.getShort(offset + 6) & 0xffff;
+    }
+
+    /**
+     * Compares the data of an echo request or reply, in place.
+     *
+     * @param data
+     *            The expected data.
+     * @return true if the message carries exactly this data.
+     */
+    public boolean dataEquals(byte[] data) {
+        int at = offset + 8;
+        if (limit - at != data.length) {
+            return false;
+        }
+        for (int i = 0; i < data.length; i++) {
+            if (buffer.get(at + i) != data[i]) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    // -- Router Advertisement
+
+    public int curHopLimit() {
+        return buffer.get(offset + 4) & 0xff;
+    }
+
+    /**
+     * Returns the Router Advertisement flags, see RA_MANAGED and RA_OTHER.
+     *
+     * @return The flags byte.
+     */
+    public int raFlags() {
+        return buffer.get(offset + 5) & 0xff;
+    }
+
+    public int routerLifetime() {
+        return buffer.getShort(offset + 6) & 0xffff;
+    }
+
+    public long reachableTime() {
+        return buffer.getInt(offset + 8) & 0xffffffffL;
+    }
+
+    public long retransTimer() {
+        return buffer.getInt(offset + 12) & 0xffffffffL;
+    }
+
+    // -- Neighbor Solicitation and Advertisement
+
+    /**
+     * Returns the Neighbor Advertisement flags, see NA_ROUTER, NA_SOLICITED and NA_OVERRIDE.
+     *
+     * @return The flags byte.
+     */
+    public int naFlags() {
+        return buffer.get(offset + 4) & 0xff;
+    }
+
+    /**
+     * Returns the high 64 bits of the target address of a Neighbor Solicitation, Neighbor
+     * Advertisement or Redirect, see PackedAddress.
+     *
+     * @return The high bits.
+     */
+    public long targetHigh() {
+        return buffer.getLong(offset + 8);
+    }
+
+    public long targetLow() {
+        return buffer.getLong(offset + 16);
+    }
+
+    /**
+     * Returns the option cursor of an ND message, positioned before the first option. The cursor
+     * is reused, so only one can be in use at a time.
+     *
+     * @return The option cursor, empty if the message isn't an ND message or has no options.
+     */
+    public NdOptionDecoder options() {
+        int type = type();
+        int body = bodyLength(type);
+        boolean nd = type >= TYPE_ROUTER_SOLICITATION && type <= TYPE_REDIRECT;
+        options.wrap(buffer, offset + body, (nd && length() >= body ? limit : offset + body));
+        return options;
+    }
+
+    private static int bodyLength(int type) {
+        switch (type) {
+        case TYPE_ECHO_REQUEST:
+        case TYPE_ECHO_REPLY:
+        case TYPE_ROUTER_SOLICITATION:
+            return 8;
+        case TYPE_ROUTER_ADVERTISEMENT:
+            return 16;
+        case TYPE_NEIGHBOR_SOLICITATION:
+        case TYPE_NEIGHBOR_ADVERTISEMENT:
+            return 24;
+        case TYPE_REDIRECT:
+            return 40;
+        default:
+            return HEADER_LENGTH;
+        }
+    }
+}
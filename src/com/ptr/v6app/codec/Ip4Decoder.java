@@ -0,0 +1,103 @@
+package com.ptr.v6app.codec;
+
+import java.nio.ByteBuffer;
+
+/**
+ * Flyweight decoder for an IPv4 header. Fields are read straight from the frame buffer, which must
+ * be in network (big-endian) byte order.
+ */
+public class Ip4Decoder {
+
+    // -- Minimum header length
+    public static final int HEADER_LENGTH = 20;
+
+    // -- Frame
+    private ByteBuffer buffer;
+    private int offset;
+    private int limit;
+
+    // -- Header length, from the IHL field
+    private int headerLength;
+
+    /**
+     * Points the decoder at an IPv4 header.
+     *
+     * @param buffer
+     *            The frame buffer.
+     * @param offset
+     *            Offset of the IPv4 header.
+     * @param limit
+     *            End of the captured frame data.
+     * @return false if this isn't an IPv4 header or it wasn't captured whole.
+     */
+    public boolean wrap(ByteBuffer buffer, int offset, int limit) {
+        this.buffer = buffer;
+        this.offset = offset;
+        this.limit = limit;
+        if (offset + HEADER_LENGTH > limit) {
+            return false;
+        }
+
+        int versionIhl = buffer.get(offset) & 0xff;
+        headerLength = (versionIhl & 0x0f) * 4;
+        return (versionIhl >>> 4) == 4 && headerLength >= HEADER_LENGTH
+                && offset + headerLength <= limit;
+    }
+
+    public int headerLength() {
+        return headerLength;
+    }
+
+    public int totalLength() {
+        return buffer.getShort(offset + 2) & 0xffff;
+    }
+
+    public int ttl() {
+        return buffer.get(offset + 8) & 0xff;
+    }
+
+    public int protocol() {
+        return buffer.get(offset + 9) & 0xff;
+    }
+
+    /**
+     * Returns the fragment offset in bytes.
+     *
+     * @return The fragment offset, 0 for unfragmented packets and first fragments.
+     */
+    public int fragmentOffset() {
+        return (buffer.getShort(offset + 6) & 0x1fff) * 8;
+    }
+
+    /**
+     * Returns the source address in network order, see PackedAddress.packIp4().
+     *
+     * @return The source address.
+     */
+    public int source() {
+        return buffer.getInt(offset + 12);
+    }
+
+    /**
+     * Returns the destination address in network order, see PackedAddress.packIp4().
+     *
+     * @return The destination address.
+     */
+    public int destination() {
+        return buffer.getInt(offset + 16);
+    }
+
+    public int payloadOffset() {
+        return offset + headerLength;
+    }
+
+    /**
+     * Returns the end of the payload: the end of the packet, or of the captured data if the packet
+     * was truncated. Ethernet padding isn't included.
+     *
+     * @return The payload limit.
+     */
+    public int payloadLimit() {
+        return Math.max(payloadOffset(), Math.min(limit, offset + totalLength()));
+    }
+}
@@ -0,0 +1,187 @@
+package com.ptr.v6app.codec;
+
+import java.nio.ByteBuffer;
+
+/**
+ * Flyweight decoder for an IPv6 header and its extension header chain. The fixed header is read
+ * straight from the frame buffer (in network byte order); the extension header chain is only
+ * walked when the upper-layer protocol or its offset is asked for, and then only once per packet.
+ */
+public class Ip6Decoder {
+
+    // -- Fixed header length
+    public static final int HEADER_LENGTH = 40;
+
+    // -- Next header values of extension headers and the protocols we decode
+    public static final int HOP_BY_HOP = 0;
+    public static final int ROUTING = 43;
+    public static final int FRAGMENT = 44;
+    public static final int ESP = 50;
+    public static final int AUTHENTICATION = 51;
+    public static final int ICMP6 = 58;
+    public static final int NO_NEXT_HEADER = 59;
+    public static final int DESTINATION_OPTIONS = 60;
+
+    // -- Frame
+    private ByteBuffer buffer;
+    private int offset;
+    private int limit;
+
+    // -- Upper layer, found by walking the extension header chain (-1 until walked)
+    private int upperLayerProtocol;
+    private int upperLayerOffset;
+
+    /**
+     * Points the decoder at an IPv6 header.
+     *
+     * @param buffer
+     *            The frame buffer.
+     * @param offset
+     *            Offset of the IPv6 header.
+     * @param limit
+     *            End of the captured frame data.
+     * @return false if this isn't an IPv6 header or it wasn't captured whole.
+     */
+    public boolean wrap(ByteBuffer buffer, int offset, int limit) {
+        this.buffer = buffer;
+        this.offset = offset;
+        this.limit = limit;
+        this.upperLayerProtocol = -1;
+        this.upperLayerOffset = -1;
+        return offset + HEADER_LENGTH <= limit && (buffer.get(offset) & 0xf0) == 0x60;
+    }
+
+    public int trafficClass() {
+        return (buffer.getShort(offset) >>> 4) & 0xff;
+    }
+
+    public int flowLabel() {
+        return buffer.getInt(offset) & 0xfffff;
+    }
+
+    public int payloadLength() {
+        return buffer.getShort(offset + 4) & 0xffff;
+    }
+
+    /**
+     * Returns the next header field of the fixed header, which may be an extension header; see
+     * {@link #upperLayerProtocol()}.
+     *
+     * @return The next header.
+     */
+    public int nextHeader() {
+        return buffer.get(offset + 6) & 0xff;
+    }
+
+    public int hopLimit() {
+        return buffer.get(offset + 7) & 0xff;
+    }
+
+    /**
+     * Returns the high 64 bits of the source address, see PackedAddress.
+     *
+     * @return The high bits.
+     */
+    public long sourceHigh() {
+        return buffer.getLong(offset + 8);
+    }
+
+    public long sourceLow() {
+        return buffer.getLong(offset + 16);
+    }
+
+    /**
+     * Returns the high 64 bits of the destination address, see PackedAddress.
+     *
+     * @return The high bits.
+     */
+    public long destinationHigh() {
+        return buffer.getLong(offset + 24);
+    }
+
+    public long destinationLow() {
+        return buffer.getLong(offset + 32);
+    }
+
+    /**
+     * Returns the protocol following the extension headers, e.g., ICMP6. Packets whose upper
+     * layer header can't be reached (non-first fragments, or a chain cut short by the snaplen)
+     * return NO_NEXT_HEADER. ESP is returned as is, since what follows it is encrypted.
+     *
+     * @return The upper-layer protocol.
+     */
+    public int upperLayerProtocol() {
+        if (upperLayerProtocol < 0) {
+            walkExtensionHeaders();
+        }
+        return upperLayerProtocol;
+    }
+
+    /**
+     * Returns the offset of the upper-layer header, see {@link #upperLayerProtocol()}.
+     *
+     * @return The offset, or -1 if the upper-layer protocol is NO_NEXT_HEADER.
+     */
+    public int upperLayerOffset() {
+        if (upperLayerProtocol < 0) {
+            walkExtensionHeaders();
+        }
+        return upperLayerOffset;
+    }
+
+    public int payloadOffset() {
+        return offset + HEADER_LENGTH;
+    }
+
+    /**
+     * Returns the end of the payload: the end of the packet, or of the captured data if the packet
+     * was truncated. Ethernet padding isn't included; jumbograms run to the end of the data.
+     *
+     * @return The payload limit.
+     */
+    public int payloadLimit() {
+        int length = payloadLength();
+        return (length == 0 ? limit : Math.min(limit, payloadOffset() + length));
+    }
+
+    private void walkExtensionHeaders() {
+        int next = nextHeader();
+        int at = payloadOffset();
+        int end = payloadLimit();
+
+        // every extension header is at least 8 bytes long, so the walk always ends
+        while (true) {
+            int length;
+            if (next == HOP_BY_HOP || next == ROUTING || next == DESTINATION_OPTIONS) {
+                if (at + 2 > end) {
+                    break;
+                }
+                length = ((buffer.get(at + 1) & 0xff) + 1) * 8;
+            } else if (next == AUTHENTICATION) {
+                if (at + 2 > end) {
+                    break;
+                }
+                length = ((buffer.get(at + 1) & 0xff) + 2) * 4;
+            } else if (next == FRAGMENT) {
+                if (at + 8 > end) {
+                    break;
+                }
+
+                // only the first fragment carries the upper-layer header
+                if ((buffer.getShort(at + 2) & 0xfff8) != 0) {
+                    break;
+                }
+                length = 8;
+            } else {
+                upperLayerProtocol = next;
+                upperLayerOffset = (next == NO_NEXT_HEADER ? -1 : at);
+                return;
+            }
+            next = buffer.get(at) & 0xff;
+            at += length;
+        }
+
+        upperLayerProtocol = NO_NEXT_HEADER;
+        upperLayerOffset = -1;
+    }
+}
@@ -0,0 +1,163 @@
+package com.ptr.v6app.codec;
+
+import java.nio.ByteBuffer;
+
+/**
+ * A cursor over the options of a Neighbor Discovery message (RFC 4861, RDNSS from RFC 8106).
+ * {@link #next()} moves to the next option; the accessors for an option type are only meaningful
+ * when {@link #type()} is that type. Malformed options (zero length, or running past the captured
+ * data) end the iteration.
+ */
+public class NdOptionDecoder {
+
+    // -- Option types
+    public static final int SOURCE_LINK_LAYER_ADDRESS = 1;
+    public static final int TARGET_LINK_LAYER_ADDRESS = 2;
+    public static final int PREFIX_INFORMATION = 3;
+    public static final int MTU = 5;
+    public static final int RECURSIVE_DNS_SERVER = 25;
+
+    // -- Prefix Information flags
+    public static final int PREFIX_ON_LINK = 0x80;
+    public static final int PREFIX_AUTONOMOUS = 0x40;
+
+    // -- Options
+    private ByteBuffer buffer;
+    private int limit;
+
+    // -- Current option, and where the next one starts
+    private int offset;
+    private int length;
+    private int nextOffset;
+
+    /**
+     * Points the cursor before the first option.
+     *
+     * @param buffer
+     *            The frame buffer.
+     * @param offset
+     *            Offset of the first option.
+     * @param limit
+     *            End of the options.
+     */
+    void wrap(ByteBuffer buffer, int offset, int limit) {
+        this.buffer = buffer;
+        this.limit = limit;
+        this.offset = -1;
+        this.length = 0;
+        this.nextOffset = offset;
+    }
+
+    /**
+     * Moves to the next option.
+     *
+     * @return false if there are no more (well-formed) options.
+     */
+    public boolean next() {
+        if (nextOffset + 2 > limit) {
+            return false;
+        }
+        int units = buffer.get(nextOffset + 1) & 0xff;
+        if (units == 0 || nextOffset + units * 8 > limit) {
+            nextOffset = limit;
+            return false;
+        }
+        offset = nextOffset;
+        length = units * 8;
+        nextOffset += length;
+        return true;
+    }
+
+    public int type() {
+        return buffer.get(offset) & 0xff;
+    }
+
+    /**
+     * Returns the length of the option in bytes, including its type and length fields.
+     *
+     * @return The option length.
+     */
+    public int length() {
+        return length;
+    }
+
+    // -- Source/Target Link-Layer Address
+
+    /**
+     * Returns the Ethernet address of a link-layer address option in packed form (see
+     * PackedAddress).
+     *
+     * @return The packed MAC.
+     */
+    public long linkLayerAddress() {
+        return ((buffer.getShort(offset + 2) & 0xffffL) << 32)
+                | (buffer.getInt(offset + 4) & 0xffffffffL);
+    }
+
+    // -- Prefix Information
+
+    public int prefixLength() {
+        return buffer.get(offset + 2) & 0xff;
+    }
+
+    /**
+     * Returns the Prefix Information flags, see PREFIX_ON_LINK and PREFIX_AUTONOMOUS.
+     *
+     * @return The flags byte.
+     */
+    public int prefixFlags() {
+        return buffer.get(offset + 3) & 0xff;
+    }
+
+    public long validLifetime() {
+        return buffer.getInt(offset + 4) & 0xffffffffL;
+    }
+
+    public long preferredLifetime() {
+        return buffer.getInt(offset + 8) & 0xffffffffL;
+    }
+
+    /**
+     * Returns the high 64 bits of the prefix, see PackedAddress.
+     *
+     * @return The high bits.
+     */
+    public long prefixHigh() {
+        return buffer.getLong(offset + 16);
+    }
+
+    public long prefixLow() {
+        return buffer.getLong(offset + 24);
+    }
+
+    // -- MTU
+
+    public long mtu() {
+        return buffer.getInt(offset + 4) & 0xffffffffL;
+    }
+
+    // -- Recursive DNS Server
+
+    public long dnsLifetime() {
+        return buffer.getInt(offset + 4) & 0xffffffffL;
+    }
+
+    public int dnsServerCount() {
+        return Math.max(0, (length - 8) / 16);
+    }
+
+    /**
+     * Returns the high 64 bits of a DNS server address, see PackedAddress.
+     *
+     * @param index
+     *            The server index, less than {@link #dnsServerCount()}.
+     * @return The high bits.
+     */
+    public long dnsServerHigh(int index) {
+        return buffer.getLong(offset + 8 + index * 16);
+    }
+
+    public long dnsServerLow(int index) {
+        return buffer.getLong(offset + 16 + index * 16);
+    }
+}
@@ -0,0 +1,63 @@
+package com.ptr.v6app.injector;
+
+import java.nio.ByteBuffer;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+
+/**
+ * A pool of direct buffers of one size, for frames built on one thread and injected on another.
+ * Buffers are allocated up front; when the pool runs dry a new buffer is allocated, and it joins
+ * the pool when released if there's room. Safe for concurrent use.
+ */
+public class BufferPool {
+
+    // -- Size of each buffer
+    private final int bufferSize;
+
+    // -- Free buffers
+    private final BlockingQueue<ByteBuffer> free;
+
+    /**
+     * Creates a pool.
+     *
+     * @param bufferSize
+     *            Size of each buffer in bytes.
+     * @param capacity
+     *            Number of buffers allocated up front, and kept at most.
+     */
+    public BufferPool(int bufferSize, int capacity) {
+        this.bufferSize = bufferSize;
+        this.free = new ArrayBlockingQueue<ByteBuffer>(capacity);
+        for (int i = 0; i < capacity; i++) {
+            free.offer(ByteBuffer.allocateDirect(bufferSize));
+        }
+    }
+
+    public int getBufferSize() {
+        return bufferSize;
+    }
+
+    /**
+     * Takes a buffer from the pool.
+     *
+     * @return A cleared buffer.
+     */
+    public ByteBuffer acquire() {
+        ByteBuffer buffer = free.poll();
+        if (buffer == null) {
+            buffer = ByteBuffer.allocateDirect(bufferSize);
+        }
+        buffer.clear();
+        return buffer;
+    }
+
+    /**
+     * Returns a buffer to the pool. The caller must not use it afterwards.
+     *
+     * @param buffer
+     *            A buffer taken from this pool.
+     */
+    public void release(ByteBuffer buffer) {
+        free.offer(buffer);
+    }
+}
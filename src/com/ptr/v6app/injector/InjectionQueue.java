@@ -0,0 +1,427 @@
+package com.ptr.v6app.injector;
+
+import java.util.ArrayDeque;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+import org.w3c.dom.Document;
+import org.w3c.dom.Element;
+
+/**
+ * The live injection queue of an injector: bounded, served by priority class (oldest first within
+ * a class), and deduplicating probes, so a probe for a target that already has one waiting is
+ * dropped rather than sent twice. When the queue is full the overflow policy decides what goes.
+ *
+ * Packets are added by listener plugins and taken by the injector thread; all access is guarded by
+ * one lock, and statistics are kept under it.
+ */
+public class InjectionQueue {
+
+    /**
+     * Priority classes, served in declaration order.
+     */
+    public static enum Priority {
+
+        // served ahead of every live probe; no plugin queues at this priority yet
+        HIGH("high"),
+
+        // e.g., Neighbor Solicitations, and packets added without a priority
+        NORMAL("normal"),
+
+        // e.g., neighbor echo requests
+        LOW("low");
+
+        private final String name;
+
+        private Priority(String name) {
+            this.name = name;
+        }
+
+        public String getName() {
+            return name;
+        }
+    }
+
+    /**
+     * What to do with a packet added to a full queue.
+     */
+    public static enum OverflowPolicy {
+
+        // wait for the injector to make room (stalls the listener plugin adding it)
+        BLOCK("block"),
+
+        // discard the new packet
+        DROP_NEWEST("dropNewest"),
+
+        // discard the oldest packet of the lowest priority class queued, unless that class
+        // outranks the new packet, which is then discarded
+        DROP_OLDEST("dropOldest");
+
+        private final String name;
+
+        private OverflowPolicy(String name) {
+            this.name = name;
+        }
+
+        public String getName() {
+            return name;
+        }
+
+        public static OverflowPolicy fromName(String name) {
+            for (OverflowPolicy policy : values()) {
+                if (policy.name.equalsIgnoreCase(name)) {
+                    return policy;
+                }
+            }
+            return null;
+        }
+    }
+
+    // -- Capacity and overflow policy
+    private final int capacity;
+    private final OverflowPolicy policy;
+
+    // -- Queue lock, and its conditions
+    private final ReentrantLock lock = new ReentrantLock();
+    private final Condition notEmpty = lock.newCondition();
+    private final Condition notFull = lock.newCondition();
+
+    // -- Queued packets, one deque per priority class
+    private final ArrayDeque<QueuedPacket>[] classes;
+    private int size;
+
+    // -- Probes queued
+    private final Set<ProbeKey> pending = new HashSet<ProbeKey>();
+
+    // -- Set once the injector has stopped, nothing is queued anymore
+    private boolean closed;
+
+    // -- Statistics
+    private long offered;
+    private long deduplicated;
+    private long blocked;
+    private final long[] dropped = new long[Priority.values().length];
+    private long unsent;
+    private int maxDepth;
+
+    /**
+     * Creates a queue.
+     *
+     * @param capacity
+     *            The most packets queued.
+     * @param policy
+     *            The overflow policy.
+     */
+    @SuppressWarnings("unchecked")
+    public InjectionQueue(int capacity, OverflowPolicy policy) {
+        if (capacity < 1) {
+            throw new IllegalArgumentException("Invalid queue capacity: " + capacity);
+        }
+        if (policy == null) {
+            throw new NullPointerException("null policy");
+        }
+        this.capacity = capacity;
+        this.policy = policy;
+        this.classes = (ArrayDeque<QueuedPacket>[]) new ArrayDeque<?>[Priority.values().length];
+        for (int i = 0; i < classes.length; i++) {
+            classes[i] = new ArrayDeque<QueuedPacket>();
+        }
+    }
+
+    public int getCapacity() {
+        return capacity;
+    }
+
+    public OverflowPolicy getPolicy() {
+        return policy;
+    }
+
+    /**
+     * Queues a packet. A packet that isn't queued is recycled.
+     *
+     * @param packet
+     *            The packet.
+     * @return true if the packet was queued, false if it was a duplicate or dropped.
+     */
+    boolean offer(QueuedPacket packet) {
+        return offer(packet, true);
+    }
+
+    /**
+     * Queues a packet. A packet that isn't queued is recycled.
+     *
+     * @param packet
+     *            The packet.
+     * @param mayBlock
+     *            false if the caller can't wait for room under the BLOCK policy (the injector
+     *            thread itself), the packet is then dropped.
+     * @return true if the packet was queued, false if it was a duplicate or dropped.
+     */
+    boolean offer(QueuedPacket packet, boolean mayBlock) {
+        lock.lock();
+        try {
+            offered++;
+
+            // a probe already waiting to be sent is enough
+            if (packet.key != null && pending.contains(packet.key)) {
+                deduplicated++;
+                packet.recycle();
+                return false;
+            }
+
+            while (size >= capacity && !closed) {
+                if (policy == OverflowPolicy.DROP_OLDEST) {
+                    QueuedPacket victim = pollLowest(packet.priority);
+                    if (victim != null) {
+                        dropped[victim.priority.ordinal()]++;
+                        victim.recycle();
+                    }
+                    break;
+                }
+                if (policy == OverflowPolicy.DROP_NEWEST || !mayBlock) {
+                    break;
+                }
+
+                // block until the injector takes a packet, unless we're being shut down
+                blocked++;
+                try {
+                    notFull.await();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    break;
+                }
+            }
+            if (size >= capacity || closed) {
+                dropped[packet.priority.ordinal()]++;
+                packet.recycle();
+                return false;
+            }
+
+            classes[packet.priority.ordinal()].addLast(packet);
+            size++;
+            if (packet.key != null) {
+                pending.add(packet.key);
+            }
+            if (size > maxDepth) {
+                maxDepth = size;
+            }
+            notEmpty.signal();
+            return true;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Takes the next packet, waiting for one to be queued.
+     *
+     * @return The oldest packet of the highest priority class queued.
+     * @throws InterruptedException
+     *             If the thread is interrupted while waiting.
+     */
+    QueuedPacket take() throws InterruptedException {
+        lock.lockInterruptibly();
+        try {
+            while (size == 0) {
+                notEmpty.await();
+            }
+            return poll();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Takes the next packet, waiting at most the given time for one to be queued.
+     *
+     * @param timeoutNanos
+     *            The longest time to wait.
+     * @return The oldest packet of the highest priority class queued, or null if none was queued
+     *         in time.
+     * @throws InterruptedException
+     *             If the thread is interrupted while waiting.
+     */
+    QueuedPacket poll(long timeoutNanos) throws InterruptedException {
+        lock.lockInterruptibly();
+        try {
+            while (size == 0) {
+                if (timeoutNanos <= 0) {
+                    return null;
+                }
+                timeoutNanos = notEmpty.awaitNanos(timeoutNanos);
+            }
+            return poll();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Takes queued packets, in the order they're served, without waiting.
+     *
+     * @param batch
+     *            The list the packets are added to.
+     * @param maxPackets
+     *            The most packets taken.
+     * @return The number of packets taken.
+     */
+    int drainTo(List<QueuedPacket> batch, int maxPackets) {
+        lock.lock();
+        try {
+            int taken = 0;
+            while (taken < maxPackets && size > 0) {
+                batch.add(poll());
+                taken++;
+            }
+            return taken;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    public int size() {
+        lock.lock();
+        try {
+            return size;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Returns how long the oldest queued packet has waited, whatever its priority class.
+     *
+     * @param nowNanos
+     *            The current System.nanoTime().
+     * @return The age in nanoseconds, 0 if the queue is empty.
+     */
+    public long getOldestAgeNanos(long nowNanos) {
+        lock.lock();
+        try {
+            long age = 0;
+            for (ArrayDeque<QueuedPacket> queue : classes) {
+                QueuedPacket head = queue.peekFirst();
+                if (head != null) {
+                    age = Math.max(age, nowNanos - head.enqueueNanos);
+                }
+            }
+            return age;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Closes the queue once the injector has stopped: packets still queued are recycled, packets
+     * added from now on are dropped, and blocked callers are released.
+     */
+    void close() {
+        lock.lock();
+        try {
+            closed = true;
+            while (size > 0) {
+                poll().recycle();
+                unsent++;
+            }
+            notFull.signalAll();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    private QueuedPacket poll() {
+        for (ArrayDeque<QueuedPacket> queue : classes) {
+            QueuedPacket packet = queue.pollFirst();
+            if (packet != null) {
+                removed(packet);
+                return packet;
+            }
+        }
+        return null;
+    }
+
+    private QueuedPacket pollLowest(Priority floor) {
+        for (int i = classes.length - 1; i >= floor.ordinal(); i--) {
+            QueuedPacket packet = classes[i].pollFirst();
+            if (packet != null) {
+                removed(packet);
+                return packet;
+            }
+        }
+        return null;
+    }
+
+    private void removed(QueuedPacket packet) {
+        size--;
+        if (packet.key != null) {
+            pending.remove(packet.key);
+        }
+        notFull.signal();
+    }
+
+    public void parseXmlResults(Document doc, Element root) {
+        lock.lock();
+        try {
+
+            // queue stats
+            Element queue = doc.createElement("queue");
+            queue.setAttribute("capacity", "" + capacity);
+            queue.setAttribute("policy", policy.getName());
+            root.appendChild(queue);
+
+            // packets added
+            Element offeredElem = doc.createElement("offered");
+            offeredElem.appendChild(doc.createTextNode("" + offered));
+            queue.appendChild(offeredElem);
+
+            // duplicate probes dropped
+            Element dedupElem = doc.createElement("deduplicated");
+            dedupElem.appendChild(doc.createTextNode("" + deduplicated));
+            queue.appendChild(dedupElem);
+
+            // times a full queue stalled the caller
+            Element blockedElem = doc.createElement("blocked");
+            blockedElem.appendChild(doc.createTextNode("" + blocked));
+            queue.appendChild(blockedElem);
+
+            // overflow drops by priority class
+            for (Priority priority : Priority.values()) {
+                Element droppedElem = doc.createElement("dropped");
+                droppedElem.setAttribute("priority", priority.getName());
+                droppedElem.appendChild(doc.createTextNode("" + dropped[priority.ordinal()]));
+                queue.appendChild(droppedElem);
+            }
+
+            // packets left when the injector stopped
+            Element unsentElem = doc.createElement("unsent");
+            unsentElem.appendChild(doc.createTextNode("" + unsent));
+            queue.appendChild(unsentElem);
+
+            // deepest the queue got
+            Element maxDepthElem = doc.createElement("maxDepth");
+            maxDepthElem.appendChild(doc.createTextNode("" + maxDepth));
+            queue.appendChild(maxDepthElem);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    @Override
+    public String toString() {
+        lock.lock();
+        try {
+            long drops = 0;
+            for (long count : dropped) {
+                drops += count;
+            }
+            return "InjectionQueue [offered=" + offered + ", deduplicated=" + deduplicated
+                    + ", blocked=" + blocked + ", dropped=" + drops + ", unsent=" + unsent
+                    + ", maxDepth=" + maxDepth + "]";
+        } finally {
+            lock.unlock();
+        }
+    }
+}
@@ -0,0 +1,249 @@
+package com.ptr.v6app.injector;
+
+import org.w3c.dom.Document;
+import org.w3c.dom.Element;
+
+import com.ptr.v6app.util.Log2Histogram;
+
+/**
+ * Runtime statistics for an injector thread. Counters are updated by the injector thread only and
+ * should be read once it has exited.
+ */
+public class InjectorStats {
+
+    // -- Configured rate limit, packets per second (0 for none)
+    private final int rateLimit;
+
+    // -- Live injection queue, and the live probe retries
+    private final InjectionQueue queue;
+    private final ProbeScheduler probeScheduler;
+
+    // -- Injection counters
+    private long pluginPackets;
+    private long livePackets;
+    private long failures;
+
+    // -- Time of the first and last injection (System.nanoTime)
+    private long firstSendNanos;
+    private long lastSendNanos;
+
+    // -- Time spent waiting for rate limit tokens before each batch
+    private final Log2Histogram pacingNanos = new Log2Histogram();
+
+    // -- Batch sizes, and the time each batch waited for the pcap lock and took to send
+    private final Log2Histogram packetsPerBatch = new Log2Histogram();
+    private final Log2Histogram batchLockWaitNanos = new Log2Histogram();
+    private final Log2Histogram batchSendNanos = new Log2Histogram();
+
+    // -- Time live packets spent queued, from being added to being injected
+    private final Log2Histogram queueNanos = new Log2Histogram();
+
+    // -- Queue depth, and the age of its oldest packet, each time a batch is taken from it
+    private final Log2Histogram queueDepth = new Log2Histogram();
+    private final Log2Histogram queueOldestAgeNanos = new Log2Histogram();
+
+    public InjectorStats(int rateLimit, InjectionQueue queue, ProbeScheduler probeScheduler) {
+        this.rateLimit = rateLimit;
+        this.queue = queue;
+        this.probeScheduler = probeScheduler;
+    }
+
+    /**
+     * Records the wait for the rate limit tokens of a batch.
+     *
+     * @param waitNanos
+     *            The wait time in nanoseconds, 0 if the tokens were available.
+     */
+    public void paced(long waitNanos) {
+        pacingNanos.record(waitNanos);
+    }
+
+    /**
+     * Records a packet injection.
+     *
+     * @param live
+     *            true for a live packet, false for a plugin packet.
+     * @param success
+     *            true if the packet was sent.
+     * @param sendNanos
+     *            Time of the injection (System.nanoTime).
+     */
+    public void injected(boolean live, boolean success, long sendNanos) {
+        if (!success) {
+            failures++;
+            return;
+        }
+        if (live) {
+            livePackets++;
+        } else {
+            pluginPackets++;
+        }
+        if (firstSendNanos == 0) {
+            firstSendNanos = sendNanos;
+        }
+        lastSendNanos = sendNanos;
+    }
+
+    /**
+     * Records a batch sent under one hold of the pcap lock.
+     *
+     * @param packets
+     *            The number of packets in the batch.
+     * @param lockWaitNanos
+     *            Time spent waiting for the pcap lock.
+     * @param sendNanos
+     *            Time spent sending the batch, holding the lock.
+     */
+    public void batchSent(int packets, long lockWaitNanos, long sendNanos) {
+        packetsPerBatch.record(packets);
+        batchLockWaitNanos.record(lockWaitNanos);
+        batchSendNanos.record(sendNanos);
+    }
+
+    /**
+     * Records how long a live packet was queued.
+     *
+     * @param waitNanos
+     *            Time from being queued to being injected, in nanoseconds.
+     */
+    public void dequeued(long waitNanos) {
+        queueNanos.record(waitNanos);
+    }
+
+    /**
+     * Records the state of the live injection queue as a batch is taken from it.
+     *
+     * @param depth
+     *            The number of packets queued.
+     * @param oldestAgeNanos
+     *            How long the oldest of them has waited, in nanoseconds.
+     */
+    public void queueSampled(int depth, long oldestAgeNanos) {
+        queueDepth.record(depth);
+        queueOldestAgeNanos.record(oldestAgeNanos);
+    }
+
+    public int getRateLimit() {
+        return rateLimit;
+    }
+
+    public long getPluginPackets() {
+        return pluginPackets;
+    }
+
+    public long getLivePackets() {
+        return livePackets;
+    }
+
+    public long getFailures() {
+        return failures;
+    }
+
+    public Log2Histogram getPacingNanos() {
+        return pacingNanos;
+    }
+
+    public Log2Histogram getPacketsPerBatch() {
+        return packetsPerBatch;
+    }
+
+    public Log2Histogram getBatchLockWaitNanos() {
+        return batchLockWaitNanos;
+    }
+
+    public Log2Histogram getBatchSendNanos() {
+        return batchSendNanos;
+    }
+
+    public Log2Histogram getQueueNanos() {
+        return queueNanos;
+    }
+
+    public Log2Histogram getQueueDepth() {
+        return queueDepth;
+    }
+
+    public Log2Histogram getQueueOldestAgeNanos() {
+        return queueOldestAgeNanos;
+    }
+
+    public InjectionQueue getQueue() {
+        return queue;
+    }
+
+    public ProbeScheduler getProbeScheduler() {
+        return probeScheduler;
+    }
+
+    /**
+     * Returns the achieved injection rate, between the first and the last injected packet.
+     *
+     * @return Packets per second, 0 if fewer than two packets were injected.
+     */
+    public double getPacketsPerSecond() {
+        long packets = pluginPackets + livePackets;
+        if (packets < 2 || lastSendNanos <= firstSendNanos) {
+            return 0;
+        }
+        return (packets - 1) * 1e9 / (lastSendNanos - firstSendNanos);
+    }
+
+    public void parseXmlResults(Document doc, Element root) {
+
+        // injector stats
+        Element injector = doc.createElement("injector");
+        root.appendChild(injector);
+
+        // configured rate limit
+        Element rateLimitElem = doc.createElement("rateLimit");
+        rateLimitElem.appendChild(doc.createTextNode("" + rateLimit));
+        injector.appendChild(rateLimitElem);
+
+        // plugin packets injected
+        Element pluginElem = doc.createElement("pluginPackets");
+        pluginElem.appendChild(doc.createTextNode("" + pluginPackets));
+        injector.appendChild(pluginElem);
+
+        // live packets injected
+        Element liveElem = doc.createElement("livePackets");
+        liveElem.appendChild(doc.createTextNode("" + livePackets));
+        injector.appendChild(liveElem);
+
+        // failed injections
+        Element failuresElem = doc.createElement("failures");
+        failuresElem.appendChild(doc.createTextNode("" + failures));
+        injector.appendChild(failuresElem);
+
+        // achieved rate
+        Element rateElem = doc.createElement("packetsPerSecond");
+        rateElem.appendChild(doc.createTextNode(String.format("%.2f", getPacketsPerSecond())));
+        injector.appendChild(rateElem);
+
+        // batch size and send latency distributions
+        packetsPerBatch.parseXmlResults(doc, injector, "packetsPerBatch", 1);
+        batchLockWaitNanos.parseXmlResults(doc, injector, "batchLockWaitMicros", 1000);
+        batchSendNanos.parseXmlResults(doc, injector, "batchSendMicros", 1000);
+
+        // rate limit and queueing delay distributions
+        pacingNanos.parseXmlResults(doc, injector, "pacingDelayMicros", 1000);
+        queueNanos.parseXmlResults(doc, injector, "queueDelayMicros", 1000);
+
+        // live injection queue counters, depth and age of the oldest packet
+        queue.parseXmlResults(doc, injector);
+        queueDepth.parseXmlResults(doc, injector, "queueDepth", 1);
+        queueOldestAgeNanos.parseXmlResults(doc, injector, "queueOldestAgeMicros", 1000);
+
+        // live probe retries
+        probeScheduler.parseXmlResults(doc, injector);
+    }
+
+    @Override
+    public String toString() {
+        return "InjectorStats [pluginPackets=" + pluginPackets + ", livePackets=" + livePackets
+                + ", failures=" + failures + ", packetsPerSecond="
+                + String.format("%.2f", getPacketsPerSecond()) + ", packetsPerBatch="
+                + packetsPerBatch + ", batchSendNanos=" + batchSendNanos + ", pacingDelayNanos="
+                + pacingNanos + ", queueDelayNanos=" + queueNanos + ", queueDepth=" + queueDepth
+                + ", " + queue + ", " + probeScheduler + "]";
+    }
+}
@@ -1,8 +1,51 @@
 package com.ptr.v6app.injector;
 
+import java.nio.ByteBuffer;
+
 import org.jnetpcap.packet.JPacket;
 
+import com.ptr.v6app.injector.InjectionQueue.Priority;
+
 public interface LiveInjector {
 
     public void addInjectionPacket(JPacket packet);
+
+    /**
+     * Queues a frame built in a pooled buffer, e.g., by a PacketTemplate. The injector owns the
+     * frame from now on and returns it to the pool once it's sent.
+     * 
+     * @param frame
+     *            The frame, from its position to its limit.
+     * @param pool
+     *            The pool the frame was taken from.
+     */
+    public void addInjectionFrame(ByteBuffer frame, BufferPool pool);
+
+    /**
+     * Queues a probe frame built in a pooled buffer, in a priority class. A probe is dropped if
+     * one with the same key is still queued, or if the queue is full (see injectorQueuePolicy);
+     * either way the frame goes back to the pool. A probe with a key is sent again until it's
+     * answered, see {@link #probeAnswered(ProbeKey)}.
+     * 
+     * @param frame
+     *            The frame, from its position to its limit.
+     * @param pool
+     *            The pool the frame was taken from.
+     * @param priority
+     *            The priority class.
+     * @param key
+     *            The probe type and target, or null if the frame isn't deduplicated.
+     * @return true if the frame was queued.
+     */
+    public boolean addInjectionFrame(ByteBuffer frame, BufferPool pool, Priority priority,
+            ProbeKey key);
+
+    /**
+     * Reports the answer to a probe queued with a key, so it isn't retried (see probeRetries).
+     * Answers to unknown or given-up probes are ignored.
+     * 
+     * @param key
+     *            The probe type and target the answer is for.
+     */
+    public void probeAnswered(ProbeKey key);
 }
@@ -0,0 +1,181 @@
+package com.ptr.v6app.injector;
+
+import java.nio.ByteBuffer;
+
+import org.jnetpcap.packet.format.FormatUtils;
+
+import com.ptr.v6app.util.InternetChecksum;
+
+/**
+ * A prebuilt Ethernet/IPv6/ICMPv6 frame that probes are stamped out from. The template is parsed
+ * and checksummed once; each probe is a copy of it into a pooled direct buffer with only the
+ * changing fields (MACs, addresses, targets) patched in place. Patching a field covered by the
+ * ICMPv6 checksum (the IPv6 addresses, through the pseudo-header, and the ICMPv6 message) updates
+ * the checksum incrementally from the old and new field values (RFC 1624), so the rest of the
+ * frame is never read again. Stamping a frame out allocates nothing as long as the pool has
+ * buffers; queueing it does (the queue entry, the probe key and, for a tracked probe, the
+ * scheduler's copy of the frame and its timer).
+ *
+ * Instances are confined to one thread; the frames they build may be handed to another thread,
+ * which returns them to {@link #getPool()} once they're sent.
+ */
+public class PacketTemplate {
+
+    // -- Field offsets in the frame
+    public static final int ETH_DESTINATION = 0;
+    public static final int ETH_SOURCE = 6;
+    public static final int IP6_SOURCE = 22;
+    public static final int IP6_DESTINATION = 38;
+    public static final int ICMP6 = 54;
+
+    // -- Offsets of the fields the template is validated and checksummed with
+    private static final int ETH_TYPE = 12;
+    private static final int IP6_PAYLOAD_LENGTH = 18;
+    private static final int IP6_NEXT_HEADER = 20;
+    private static final int ICMP6_CHECKSUM = ICMP6 + 2;
+
+    // -- Header values
+    private static final int ETH_TYPE_IP6 = 0x86dd;
+    private static final int IP_PROTO_ICMP6 = 58;
+
+    // -- The template frame, and a view of it for copying (position and limit are changed)
+    private final ByteBuffer template;
+    private final ByteBuffer templateView;
+
+    // -- Pool the probes are built in
+    private final BufferPool pool;
+
+    /**
+     * Creates a template.
+     *
+     * @param frame
+     *            The Ethernet/IPv6/ICMPv6 frame, without extension headers.
+     * @param poolCapacity
+     *            Number of probe buffers pooled.
+     */
+    public PacketTemplate(byte[] frame, int poolCapacity) {
+        if (frame.length < ICMP6 + 4) {
+            throw new IllegalArgumentException("Template too short for an ICMPv6 frame");
+        }
+        template = ByteBuffer.allocateDirect(frame.length);
+        template.put(frame);
+        template.flip();
+        if ((template.getShort(ETH_TYPE) & 0xffff) != ETH_TYPE_IP6
+                || (template.get(IP6_NEXT_HEADER) & 0xff) != IP_PROTO_ICMP6
+                || (template.getShort(IP6_PAYLOAD_LENGTH) & 0xffff) != frame.length - ICMP6) {
+            throw new IllegalArgumentException("Template isn't an ICMPv6 frame");
+        }
+        template.putShort(ICMP6_CHECKSUM, (short) 0);
+        template.putShort(ICMP6_CHECKSUM, (short) InternetChecksum.finish(sumIcmp6(template)));
+        templateView = template.duplicate();
+        pool = new BufferPool(frame.length, poolCapacity);
+    }
+
+    /**
+     * Creates a template from a hex string.
+     *
+     * @param hex
+     *            The frame in hex, whitespace is ignored.
+     * @param poolCapacity
+     *            Number of probe buffers pooled.
+     * @return The template.
+     */
+    public static PacketTemplate fromHex(String hex, int poolCapacity) {
+        return new PacketTemplate(FormatUtils.toByteArray(hex.replace(" ", "")), poolCapacity);
+    }
+
+    /**
+     * Returns the template frame itself. Fields patched in it (with the set methods) apply to
+     * every probe built afterwards.
+     *
+     * @return The template frame.
+     */
+    public ByteBuffer getTemplate() {
+        return template;
+    }
+
+    public BufferPool getPool() {
+        return pool;
+    }
+
+    /**
+     * Copies the template into a pooled buffer.
+     *
+     * @return The frame, position 0 and limit at the end of the frame.
+     */
+    public ByteBuffer newFrame() {
+        ByteBuffer frame = pool.acquire();
+        templateView.clear();
+        frame.put(templateView);
+        frame.flip();
+        return frame;
+    }
+
+    /**
+     * Sets a MAC address. MACs aren't covered by the checksum.
+     *
+     * @param frame
+     *            The frame.
+     * @param offset
+     *            Offset of the MAC, ETH_DESTINATION or ETH_SOURCE.
+     * @param mac
+     *            The MAC packed into a long (see PackedAddress).
+     */
+    public void setMac(ByteBuffer frame, int offset, long mac) {
+        frame.putShort(offset, (short) (mac >>> 32));
+        frame.putInt(offset + 2, (int) mac);
+    }
+
+    /**
+     * Sets 8 bytes covered by the checksum, e.g., half of an IPv6 address, and updates the
+     * checksum.
+     *
+     * @param frame
+     *            The frame.
+     * @param offset
+     *            Offset of the field, an even offset from IP6_SOURCE on.
+     * @param value
+     *            The new value.
+     */
+    public void setLong(ByteBuffer frame, int offset, long value) {
+        if (offset < IP6_SOURCE || (offset & 1) != 0) {
+            throw new IllegalArgumentException("Not a checksummed field offset: " + offset);
+        }
+        long old = frame.getLong(offset);
+        if (old == value) {
+            return;
+        }
+        frame.putLong(offset, value);
+
+        // HC' = ~(~HC + ~m + m')
+        long sum = (~frame.getShort(ICMP6_CHECKSUM) & 0xffff) + InternetChecksum.sum(~old)
+                + InternetChecksum.sum(value);
+        frame.putShort(ICMP6_CHECKSUM, (short) InternetChecksum.finish(sum));
+    }
+
+    /**
+     * Sets an IPv6 address.
+     *
+     * @param frame
+     *            The frame.
+     * @param offset
+     *            Offset of the address, IP6_SOURCE, IP6_DESTINATION or an address in the ICMPv6
+     *            message.
+     * @param high
+     *            The high 64 bits of the address (see PackedAddress).
+     * @param low
+     *            The low 64 bits of the address.
+     */
+    public void setAddress(ByteBuffer frame, int offset, long high, long low) {
+        setLong(frame, offset, high);
+        setLong(frame, offset + 8, low);
+    }
+
+    private static long sumIcmp6(ByteBuffer frame) {
+
+        // pseudo-header (addresses, upper-layer length, next header) and the ICMPv6 message
+        int length = frame.limit() - ICMP6;
+        return InternetChecksum.sum(frame, IP6_SOURCE, 32) + length + IP_PROTO_ICMP6
+                + InternetChecksum.sum(frame, ICMP6, length);
+    }
+}
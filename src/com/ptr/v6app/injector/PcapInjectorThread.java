@@ -1,10 +1,10 @@
 package com.ptr.v6app.injector;
 
+import java.nio.ByteBuffer;
 import java.util.ArrayList;
 import java.util.List;
-import java.util.concurrent.BlockingQueue;
-import java.util.concurrent.LinkedBlockingQueue;
 import java.util.concurrent.locks.Lock;
+import java.util.concurrent.locks.LockSupport;
 
 import org.apache.logging.log4j.LogManager;
 import org.apache.logging.log4j.Logger;
@@ -12,8 +12,10 @@ import org.jnetpcap.Pcap;
 import org.jnetpcap.PcapIf;
 import org.jnetpcap.packet.JPacket;
 
+import com.ptr.v6app.injector.InjectionQueue.Priority;
 import com.ptr.v6app.plugin.InjectorPlugin;
 import com.ptr.v6app.plugin.PluginManager;
+import com.ptr.v6app.util.V6AppProperties;
 
 /**
  * A thread for loading pcap packets and injecting them onto a live interface.
@@ -29,12 +31,64 @@ public class PcapInjectorThread implements Runnable, LiveInjector {
     // -- Pcap instance
     private final Pcap pcap;
 
+    // -- Plugins for this interface
+    private final PluginManager pluginManager;
+
+    // -- Rate limits, for this interface and shared by all interfaces (null for no limit)
+    private final TokenBucket rateLimit;
+    private final TokenBucket globalRateLimit;
+
     // -- Live injection packets
-    private final BlockingQueue<JPacket> packetQueue = new LinkedBlockingQueue<JPacket>();
+    private final InjectionQueue packetQueue;
+
+    // -- Live probes waiting for an answer, retried until they get one
+    private final ProbeScheduler probeScheduler;
+
+    // -- Most packets sent per lock hold, and the batch being sent (reused)
+    private final int maxBatch;
+    private final List<QueuedPacket> batch = new ArrayList<QueuedPacket>();
+
+    // -- Injection statistics
+    private final InjectorStats stats;
 
-    public PcapInjectorThread(Lock pcapLock, Pcap pcap, PcapIf pcapIf) {
+    /**
+     * Creates an injector.
+     * 
+     * @param pcapLock
+     *            Lock guarding the pcap handle.
+     * @param pcap
+     *            The injection handle.
+     * @param pcapIf
+     *            The interface.
+     * @param pluginManager
+     *            The plugins for the interface.
+     * @param globalRateLimit
+     *            Rate limit shared by the injectors of all interfaces, or null for none.
+     */
+    public PcapInjectorThread(Lock pcapLock, Pcap pcap, PcapIf pcapIf,
+            PluginManager pluginManager, TokenBucket globalRateLimit) {
         this.pcapLock = pcapLock;
         this.pcap = pcap;
+        this.pluginManager = pluginManager;
+        this.globalRateLimit = globalRateLimit;
+        this.rateLimit = TokenBucket.create(V6AppProperties.getInjectorRate(),
+                V6AppProperties.getInjectorBurst());
+        this.maxBatch = Math.max(1, V6AppProperties.getInjectorBatch());
+        this.packetQueue = new InjectionQueue(Math.max(1, V6AppProperties.getInjectorQueueSize()),
+                V6AppProperties.getInjectorQueuePolicy());
+        this.probeScheduler = new ProbeScheduler(V6AppProperties.getProbeRetries(),
+                V6AppProperties.getProbeTimeoutMillis());
+        this.stats = new InjectorStats(V6AppProperties.getInjectorRate(), packetQueue,
+                probeScheduler);
+    }
+
+    /**
+     * Returns the injector statistics. Only valid once the injector thread has exited.
+     * 
+     * @return The InjectorStats instance.
+     */
+    public InjectorStats getStats() {
+        return stats;
     }
 
     /*
@@ -47,7 +101,7 @@ public class PcapInjectorThread implements Runnable, LiveInjector {
         log.debug("Starting injector thread...");
 
         // get plugins
-        List<InjectorPlugin> plugins = PluginManager.getInstance().getInjectorPlugins();
+        List<InjectorPlugin> plugins = pluginManager.getInjectorPlugins();
         
         // register as a live injector with the plugins
         for (InjectorPlugin plugin : plugins) {
@@ -59,27 +113,45 @@ public class PcapInjectorThread implements Runnable, LiveInjector {
 
         // inject plugin packets
         boolean interrupted = injectPluginPackets(pluginPackets);
-        if (interrupted) {
-            return;
-        }
-        
+
         // inject live packets as they arrive until interrupted
-        injectLivePackets();
-        
-        // unregister as a live injector with the plugins
+        if (!interrupted) {
+            injectLivePackets();
+        }
+
+        // stop queueing, and unregister as a live injector with the plugins
+        packetQueue.close();
         for (InjectorPlugin plugin : plugins) {
             plugin.unregisterLiveInjector(this);
         }
-        
-        log.debug("Exiting injector thread.");
+
+        log.debug("Exiting injector thread: {}", stats);
     }
 
     @Override
     public void addInjectionPacket(JPacket packet) {
-        if (!packetQueue.offer(packet)) {
-            // this shouldn't happen, it's an unbounded queue
-            log.warn("Failed to add live packet to injector queue");
+        packetQueue.offer(new QueuedPacket(packet, Priority.NORMAL));
+    }
+
+    @Override
+    public void addInjectionFrame(ByteBuffer frame, BufferPool pool) {
+        packetQueue.offer(new QueuedPacket(frame, pool, Priority.NORMAL, null));
+    }
+
+    @Override
+    public boolean addInjectionFrame(ByteBuffer frame, BufferPool pool, Priority priority,
+            ProbeKey key) {
+
+        // track the probe before queueing it, the queue owns the frame from then on
+        if (key != null) {
+            probeScheduler.track(key, frame, pool, priority);
         }
+        return packetQueue.offer(new QueuedPacket(frame, pool, priority, key));
+    }
+
+    @Override
+    public void probeAnswered(ProbeKey key) {
+        probeScheduler.answered(key);
     }
 
     private List<JPacket> getPluginPackets(List<InjectorPlugin> plugins) {
@@ -111,10 +183,15 @@ public class PcapInjectorThread implements Runnable, LiveInjector {
     private boolean injectPluginPackets(List<JPacket> pluginPackets) {
         boolean interrupted = false;
 
-        // inject packets one at a time so we don't starve the listener thread
+        // inject packets in batches, as many as the rate limits allow at once, each batch under
+        // one lock hold
         int numInjectedPackets = 0;
-        int injectStatus = -1;
+        List<QueuedPacket> packets = new ArrayList<QueuedPacket>(pluginPackets.size());
         for (JPacket packet : pluginPackets) {
+            packets.add(new QueuedPacket(packet, Priority.NORMAL));
+        }
+        int next = 0;
+        while (next < packets.size()) {
 
             // bail out if we've been interrupted
             if (Thread.interrupted()) {
@@ -122,78 +199,150 @@ public class PcapInjectorThread implements Runnable, LiveInjector {
                 break;
             }
 
-            // add a delay between injections
+            // wait for the rate limits
+            int batchSize;
             try {
-                Thread.sleep(10);
+                batchSize = pace(packets.size() - next);
             } catch (InterruptedException e) {
                 interrupted = true;
                 break;
             }
 
-            // synchronize access to the jNetPcap API
-            injectStatus = -1;
-            pcapLock.lock();
-            try {
-                // be as lightweight as possible in the lock so we don't miss any packets
-                injectStatus = pcap.sendPacket(packet);
-            } finally {
-                pcapLock.unlock();
-            }
-
-            // check status of packet injection
-            if (injectStatus == 0) {
-                numInjectedPackets++;
-                log.trace("Packet injected: {}", packet);
-            } else {
-                log.error("Error injecting packet.");
+            // send the batch
+            batch.clear();
+            batch.addAll(packets.subList(next, next + batchSize));
+            next += batchSize;
+            int injected = sendBatch();
+            numInjectedPackets += injected;
+            long sendNanos = System.nanoTime();
+            for (int i = 0; i < batchSize; i++) {
+                stats.injected(false, i < injected, sendNanos);
             }
         }
 
         log.debug("Injected [{}/{}] plugin packets.", numInjectedPackets, pluginPackets.size());
         return interrupted;
     }
-    
+
     private void injectLivePackets() {
-        int injectStatus = -1;
         int numInjectedPackets = 0;
-        
+
         // loop until we're interrupted
         while (!Thread.interrupted()) {
 
-            // add a delay between injections
-            try {
-                Thread.sleep(10);
-            } catch (InterruptedException e) {
-                break;
-            }
-            
-            // wait for a new packet to arrive (blocking)
-            JPacket packet;
+            // queue the probe retries that are due
+            long now = System.nanoTime();
+            probeScheduler.retry(now, packetQueue);
+
+            // wait for a new packet to arrive (blocking, up to the next retry check), then for
+            // the rate limits, and take as many of the queued packets as they allow, highest
+            // priority first
+            batch.clear();
             try {
-                packet = packetQueue.take();
+                QueuedPacket first = packetQueue.poll(probeScheduler.getRetryWaitNanos(now));
+                if (first == null) {
+                    continue;
+                }
+                batch.add(first);
+                int depth = 1 + packetQueue.size();
+                now = System.nanoTime();
+                stats.queueSampled(depth, Math.max(now - first.enqueueNanos,
+                        packetQueue.getOldestAgeNanos(now)));
+                int batchSize = pace(depth);
+                packetQueue.drainTo(batch, batchSize - 1);
             } catch (InterruptedException e) {
+                for (int i = 0; i < batch.size(); i++) {
+                    batch.get(i).recycle();
+                }
                 break;
             }
-            
-            // synchronize access to the jNetPcap API
-            injectStatus = -1;
-            pcapLock.lock();
-            try {
-                // be as lightweight as possible in the lock so we don't miss any packets
-                injectStatus = pcap.sendPacket(packet);
-            } finally {
-                pcapLock.unlock();
-            }
 
-            // check status of packet injection
-            if (injectStatus == 0) {
-                numInjectedPackets++;
-                //log.trace("Packet injected: {}", packet);
-            } else {
-                log.error("Error injecting live packet.");
+            // send the batch
+            int injected = sendBatch();
+            numInjectedPackets += injected;
+            long sendNanos = System.nanoTime();
+            for (int i = 0; i < batch.size(); i++) {
+                stats.injected(true, i < injected, sendNanos);
+                stats.dequeued(sendNanos - batch.get(i).enqueueNanos);
             }
         }
 
         log.debug("Injected {} live packets.", numInjectedPackets);
     }
+
+    /**
+     * Sends the packets in the batch back-to-back, under a single hold of the pcap lock. Pooled
+     * frames go back to their pool.
+     * 
+     * @return The number of packets sent, the others failed.
+     */
+    private int sendBatch() {
+        int sent = 0;
+        long lockStart = System.nanoTime();
+
+        // synchronize access to the jNetPcap API
+        pcapLock.lock();
+        long sendStart = System.nanoTime();
+        try {
+            // be as lightweight as possible in the lock so we don't miss any packets
+            for (int i = 0; i < batch.size(); i++) {
+                QueuedPacket packet = batch.get(i);
+                int status = (packet.frame != null ? pcap.sendPacket(packet.frame)
+                        : pcap.sendPacket(packet.packet));
+                if (status == 0) {
+                    sent++;
+                } else {
+                    log.error("Error injecting packet.");
+                }
+            }
+        } finally {
+            pcapLock.unlock();
+        }
+        for (int i = 0; i < batch.size(); i++) {
+            batch.get(i).recycle();
+        }
+        stats.batchSent(batch.size(), sendStart - lockStart, System.nanoTime() - sendStart);
+        return sent;
+    }
+
+    /**
+     * Decides how many packets to send next: as many as the rate limits have tokens for, at least
+     * one and at most injectorBatch. Takes the tokens, and waits until they can all be used.
+     * 
+     * @param wanted
+     *            The number of packets waiting.
+     * @return The batch size.
+     * @throws InterruptedException
+     *             If the thread is interrupted while waiting.
+     */
+    private int pace(int wanted) throws InterruptedException {
+        long now = System.nanoTime();
+        int batchSize = Math.min(wanted, maxBatch);
+        if (rateLimit != null) {
+            batchSize = Math.min(batchSize, Math.max(1, rateLimit.available(now)));
+        }
+        if (globalRateLimit != null) {
+            batchSize = Math.min(batchSize, Math.max(1, globalRateLimit.available(now)));
+        }
+
+        long waitNanos = 0;
+        if (rateLimit != null) {
+            waitNanos = rateLimit.reserve(now, batchSize);
+        }
+        if (globalRateLimit != null) {
+            waitNanos = Math.max(waitNanos, globalRateLimit.reserve(now, batchSize));
+        }
+        stats.paced(waitNanos);
+
+        // park until the deadline, parkNanos may return early
+        long deadline = now + waitNanos;
+        while (waitNanos > 0) {
+            LockSupport.parkNanos(this, waitNanos);
+            if (Thread.interrupted()) {
+                throw new InterruptedException();
+            }
+            waitNanos = deadline - System.nanoTime();
+        }
+        return batchSize;
+    }
 }
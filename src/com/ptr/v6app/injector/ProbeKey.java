@@ -0,0 +1,60 @@
+package com.ptr.v6app.injector;
+
+import com.googlecode.ipv6.IPv6Address;
+
+/**
+ * Identifies a probe by its ICMPv6 type and target address, so an injector can drop a probe that
+ * duplicates one still waiting to be sent.
+ */
+public class ProbeKey {
+
+    // -- ICMPv6 type of the probe
+    private final int type;
+
+    // -- Target address (see PackedAddress)
+    private final long targetHigh;
+    private final long targetLow;
+
+    public ProbeKey(int type, long targetHigh, long targetLow) {
+        this.type = type;
+        this.targetHigh = targetHigh;
+        this.targetLow = targetLow;
+    }
+
+    public int getType() {
+        return type;
+    }
+
+    public long getTargetHigh() {
+        return targetHigh;
+    }
+
+    public long getTargetLow() {
+        return targetLow;
+    }
+
+    @Override
+    public int hashCode() {
+        long h = targetHigh * 31 + targetLow;
+        return (int) (h ^ (h >>> 32)) * 31 + type;
+    }
+
+    @Override
+    public boolean equals(Object obj) {
+        if (this == obj) {
+            return true;
+        }
+        if (!(obj instanceof ProbeKey)) {
+            return false;
+        }
+        ProbeKey other = (ProbeKey) obj;
+        return type == other.type && targetHigh == other.targetHigh
+                && targetLow == other.targetLow;
+    }
+
+    @Override
+    public String toString() {
+        return "ProbeKey [type=" + type + ", target="
+                + IPv6Address.fromLongs(targetHigh, targetLow) + "]";
+    }
+}
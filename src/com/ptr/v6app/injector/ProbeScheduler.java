@@ -0,0 +1,249 @@
+package com.ptr.v6app.injector;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+
+import org.w3c.dom.Document;
+import org.w3c.dom.Element;
+
+import com.ptr.v6app.injector.InjectionQueue.Priority;
+import com.ptr.v6app.util.Log2Histogram;
+import com.ptr.v6app.util.TimerWheel;
+import com.ptr.v6app.util.TimerWheel.Timer;
+
+/**
+ * Tracks the probes an injector sends until they're answered, and sends unanswered probes again
+ * with exponential backoff: retry n is due 2^(n-1) times the initial timeout after the previous
+ * attempt, randomized to between half and all of that so probes sent together don't retry
+ * together. A probe is given up after the configured number of retries.
+ *
+ * Timers run on a hashed timer wheel, so tens of thousands of outstanding probes cost O(1) each to
+ * track, retry and cancel. Probes are tracked and answered by listener plugins and retried by the
+ * injector thread; all access is synchronized on the scheduler.
+ */
+public class ProbeScheduler {
+
+    // -- Timer wheel geometry: 512 ticks of 50 ms, a turn every 25.6 s
+    private static final int WHEEL_SIZE = 512;
+    private static final long TICK_NANOS = 50 * 1000 * 1000L;
+
+    // -- Retry limit, and the timeout before the first retry
+    private final int maxRetries;
+    private final long timeoutNanos;
+
+    // -- Outstanding probes, by key, and their timers
+    private final Map<ProbeKey, Probe> outstanding = new HashMap<ProbeKey, Probe>();
+    private final TimerWheel<Probe> wheel;
+
+    // -- Backoff jitter
+    private final Random random = new Random();
+
+    // -- Probes due, handed from the wheel to the injection queue (reused by the injector thread)
+    private final List<Probe> due = new ArrayList<Probe>();
+    private final List<QueuedPacket> retries = new ArrayList<QueuedPacket>();
+
+    // -- Statistics
+    private long tracked;
+    private long retried;
+    private long answered;
+    private long gaveUp;
+    private final Log2Histogram attemptsToAnswer = new Log2Histogram();
+
+    /**
+     * An outstanding probe: a copy of its frame, to send it again, and its retry timer.
+     */
+    private static class Probe {
+
+        private final ProbeKey key;
+        private final byte[] frame;
+        private final BufferPool pool;
+        private final Priority priority;
+        private final Timer<Probe> timer;
+
+        // -- Times the probe has been sent
+        private int attempts = 1;
+
+        private Probe(ProbeKey key, byte[] frame, BufferPool pool, Priority priority) {
+            this.key = key;
+            this.frame = frame;
+            this.pool = pool;
+            this.priority = priority;
+            this.timer = new Timer<Probe>(this);
+        }
+    }
+
+    /**
+     * Creates a scheduler.
+     *
+     * @param maxRetries
+     *            Times an unanswered probe is sent again, 0 to track nothing.
+     * @param timeoutMillis
+     *            How long a probe is waited for before its first retry.
+     */
+    public ProbeScheduler(int maxRetries, int timeoutMillis) {
+        this.maxRetries = Math.max(0, maxRetries);
+        this.timeoutNanos = Math.max(1, timeoutMillis) * 1000000L;
+        this.wheel = new TimerWheel<Probe>(WHEEL_SIZE, TICK_NANOS, System.nanoTime());
+    }
+
+    public boolean isEnabled() {
+        return maxRetries > 0;
+    }
+
+    /**
+     * Starts tracking a probe as it's first queued. A probe already outstanding keeps its
+     * schedule.
+     *
+     * @param key
+     *            The probe type and target.
+     * @param frame
+     *            The frame, from its position to its limit; a copy is kept.
+     * @param pool
+     *            The pool retries are built in.
+     * @param priority
+     *            The priority class retries are queued in.
+     */
+    public synchronized void track(ProbeKey key, ByteBuffer frame, BufferPool pool,
+            Priority priority) {
+        if (!isEnabled() || outstanding.containsKey(key)) {
+            return;
+        }
+        byte[] copy = new byte[frame.remaining()];
+        frame.duplicate().get(copy);
+        Probe probe = new Probe(key, copy, pool, priority);
+        outstanding.put(key, probe);
+        wheel.schedule(probe.timer, System.nanoTime() + backoff(1));
+        tracked++;
+    }
+
+    /**
+     * Stops tracking a probe once its answer has been seen.
+     *
+     * @param key
+     *            The probe type and target.
+     * @return true if the probe was outstanding.
+     */
+    public synchronized boolean answered(ProbeKey key) {
+        Probe probe = outstanding.remove(key);
+        if (probe == null) {
+            return false;
+        }
+        wheel.cancel(probe.timer);
+        answered++;
+        attemptsToAnswer.record(probe.attempts);
+        return true;
+    }
+
+    /**
+     * Queues the retries that are due. Called by the injector thread.
+     *
+     * @param nowNanos
+     *            The current System.nanoTime().
+     * @param queue
+     *            The injection queue.
+     */
+    public void retry(long nowNanos, InjectionQueue queue) {
+        synchronized (this) {
+            if (wheel.size() == 0 || nowNanos < wheel.getNextTickNanos()) {
+                return;
+            }
+            due.clear();
+            wheel.expire(nowNanos, due);
+            for (int i = 0; i < due.size(); i++) {
+                Probe probe = due.get(i);
+                if (probe.attempts > maxRetries) {
+                    outstanding.remove(probe.key);
+                    gaveUp++;
+                    continue;
+                }
+
+                // rebuild the frame from the copy, and wait for the answer again
+                ByteBuffer frame = probe.pool.acquire();
+                frame.put(probe.frame);
+                frame.flip();
+                retries.add(new QueuedPacket(frame, probe.pool, probe.priority, probe.key));
+                probe.attempts++;
+                wheel.schedule(probe.timer, nowNanos + backoff(probe.attempts));
+                retried++;
+            }
+            due.clear();
+        }
+
+        // queue outside our lock; we're on the injector thread, so a full queue can't be waited
+        // on and drops the retry, and the probe waits for its next timeout
+        for (int i = 0; i < retries.size(); i++) {
+            queue.offer(retries.get(i), false);
+        }
+        retries.clear();
+    }
+
+    /**
+     * Returns the longest the injector thread may wait before calling
+     * {@link #retry(long, InjectionQueue)} again.
+     *
+     * @param nowNanos
+     *            The current System.nanoTime().
+     * @return The wait in nanoseconds, Long.MAX_VALUE if nothing is outstanding.
+     */
+    public synchronized long getRetryWaitNanos(long nowNanos) {
+        if (wheel.size() == 0) {
+            return Long.MAX_VALUE;
+        }
+        return Math.max(0, wheel.getNextTickNanos() - nowNanos);
+    }
+
+    private long backoff(int attempts) {
+
+        // the initial timeout doubled for each earlier attempt, then randomized to between half
+        // and all of it
+        long timeout = timeoutNanos << Math.min(attempts - 1, 16);
+        return timeout / 2 + (long) (random.nextDouble() * (timeout / 2));
+    }
+
+    public synchronized void parseXmlResults(Document doc, Element root) {
+
+        // probe stats
+        Element probes = doc.createElement("probes");
+        probes.setAttribute("maxRetries", "" + maxRetries);
+        probes.setAttribute("timeoutMillis", "" + timeoutNanos / 1000000L);
+        root.appendChild(probes);
+
+        // probes tracked
+        Element trackedElem = doc.createElement("tracked");
+        trackedElem.appendChild(doc.createTextNode("" + tracked));
+        probes.appendChild(trackedElem);
+
+        // retries sent
+        Element retriedElem = doc.createElement("retried");
+        retriedElem.appendChild(doc.createTextNode("" + retried));
+        probes.appendChild(retriedElem);
+
+        // probes answered
+        Element answeredElem = doc.createElement("answered");
+        answeredElem.appendChild(doc.createTextNode("" + answered));
+        probes.appendChild(answeredElem);
+
+        // probes given up on after the last retry
+        Element gaveUpElem = doc.createElement("gaveUp");
+        gaveUpElem.appendChild(doc.createTextNode("" + gaveUp));
+        probes.appendChild(gaveUpElem);
+
+        // probes still waiting for an answer
+        Element outstandingElem = doc.createElement("outstanding");
+        outstandingElem.appendChild(doc.createTextNode("" + outstanding.size()));
+        probes.appendChild(outstandingElem);
+
+        // attempts each answered probe took
+        attemptsToAnswer.parseXmlResults(doc, probes, "attemptsToAnswer", 1);
+    }
+
+    @Override
+    public synchronized String toString() {
+        return "ProbeScheduler [tracked=" + tracked + ", retried=" + retried + ", answered="
+                + answered + ", gaveUp=" + gaveUp + ", outstanding=" + outstanding.size() + "]";
+    }
+}
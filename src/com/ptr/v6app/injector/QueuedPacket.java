@@ -0,0 +1,54 @@
+package com.ptr.v6app.injector;
+
+import java.nio.ByteBuffer;
+
+import org.jnetpcap.packet.JPacket;
+
+import com.ptr.v6app.injector.InjectionQueue.Priority;
+
+/**
+ * A packet waiting to be injected: a jNetPcap packet, or a frame built in a pooled buffer.
+ */
+class QueuedPacket {
+
+    // -- Packet (null for a frame)
+    final JPacket packet;
+
+    // -- Frame, and the pool it goes back to once sent (null for a packet)
+    final ByteBuffer frame;
+    final BufferPool pool;
+
+    // -- Priority class, and the probe it carries (null if it isn't deduplicated)
+    final Priority priority;
+    final ProbeKey key;
+
+    // -- Time the packet was queued (System.nanoTime)
+    final long enqueueNanos;
+
+    QueuedPacket(JPacket packet, Priority priority) {
+        this.packet = packet;
+        this.frame = null;
+        this.pool = null;
+        this.priority = priority;
+        this.key = null;
+        this.enqueueNanos = System.nanoTime();
+    }
+
+    QueuedPacket(ByteBuffer frame, BufferPool pool, Priority priority, ProbeKey key) {
+        this.packet = null;
+        this.frame = frame;
+        this.pool = pool;
+        this.priority = priority;
+        this.key = key;
+        this.enqueueNanos = System.nanoTime();
+    }
+
+    /**
+     * Returns a pooled frame to its pool, once it's sent or dropped.
+     */
+    void recycle() {
+        if (frame != null) {
+            pool.release(frame);
+        }
+    }
+}
@@ -0,0 +1,106 @@
+package com.ptr.v6app.injector;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * A token bucket pacing packet injection: tokens are added at a steady rate up to the burst size,
+ * and each packet takes one. The bucket is kept as the theoretical send time of the next packet
+ * (the virtual scheduling form of the algorithm), a single long updated with compare-and-set, so
+ * one bucket can be shared by the injectors of every interface.
+ *
+ * Tokens are reserved rather than waited for: {@link #reserve(long, int)} always takes the tokens
+ * and returns how long the caller must wait before using them, so a caller bound by several
+ * buckets waits for the longest of them and sleeps once.
+ */
+public class TokenBucket {
+
+    // -- Nanoseconds per token, and how far ahead of its theoretical send time a packet may go
+    // (the rest of the burst)
+    private final long intervalNanos;
+    private final long toleranceNanos;
+
+    // -- Theoretical send time of the next packet at the steady rate (System.nanoTime)
+    private final AtomicLong nextNanos;
+
+    /**
+     * Creates a full bucket.
+     *
+     * @param ratePerSecond
+     *            Tokens added per second.
+     * @param burst
+     *            Most tokens the bucket holds, i.e., packets sent back-to-back.
+     */
+    public TokenBucket(int ratePerSecond, int burst) {
+        if (ratePerSecond <= 0) {
+            throw new IllegalArgumentException("Invalid rate: " + ratePerSecond);
+        }
+        this.intervalNanos = Math.max(1, 1000000000L / ratePerSecond);
+        this.toleranceNanos = intervalNanos * (Math.max(1, burst) - 1);
+        this.nextNanos = new AtomicLong(System.nanoTime());
+    }
+
+    /**
+     * Creates a bucket, unless the rate is unlimited.
+     *
+     * @param ratePerSecond
+     *            Tokens added per second, 0 or less for no limit.
+     * @param burst
+     *            Most tokens the bucket holds.
+     * @return The bucket, or null for no limit.
+     */
+    public static TokenBucket create(int ratePerSecond, int burst) {
+        return (ratePerSecond > 0 ? new TokenBucket(ratePerSecond, burst) : null);
+    }
+
+    public long getIntervalNanos() {
+        return intervalNanos;
+    }
+
+    /**
+     * Returns the number of tokens in the bucket. With a shared bucket this is only a hint, other
+     * threads may take them first.
+     *
+     * @param nowNanos
+     *            The current System.nanoTime().
+     * @return The number of tokens that could be used now.
+     */
+    public int available(long nowNanos) {
+        long credit = nowNanos + toleranceNanos - Math.max(nextNanos.get(), nowNanos);
+        return (credit < 0 ? 0 : (int) (credit / intervalNanos) + 1);
+    }
+
+    /**
+     * Takes a token.
+     *
+     * @param nowNanos
+     *            The current System.nanoTime().
+     * @return Nanoseconds to wait before the token may be used, 0 if it's available now.
+     */
+    public long reserve(long nowNanos) {
+        return reserve(nowNanos, 1);
+    }
+
+    /**
+     * Takes several tokens, to be used back-to-back.
+     *
+     * @param nowNanos
+     *            The current System.nanoTime().
+     * @param tokens
+     *            The number of tokens.
+     * @return Nanoseconds to wait before the last token may be used, 0 if they're all available
+     *         now.
+     */
+    public long reserve(long nowNanos, int tokens) {
+        while (true) {
+            long next = nextNanos.get();
+
+            // a bucket left alone refills up to the burst, not beyond, so the schedule never
+            // falls behind the present
+            long start = Math.max(next, nowNanos);
+            if (nextNanos.compareAndSet(next, start + tokens * intervalNanos)) {
+                return Math.max(0, start + (tokens - 1) * intervalNanos - nowNanos
+                        - toleranceNanos);
+            }
+        }
+    }
+}
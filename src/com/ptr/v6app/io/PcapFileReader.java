@@ -0,0 +1,422 @@
+package com.ptr.v6app.io;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.Arrays;
+
+/**
+ * Reads the packets of a pcap or pcapng capture file without libpcap. The file is memory-mapped a
+ * window at a time and each record's data is returned as a slice of the mapping, so no packet
+ * bytes are copied and the heap used stays the same however large the file is.
+ *
+ * Both formats are read in either byte order. Classic pcap files may have microsecond or
+ * nanosecond timestamps; pcapng files may have several sections and several interfaces per
+ * section, each with its own link type and timestamp resolution/offset. Enhanced, simple and
+ * (obsolete) packet blocks are returned; all other pcapng blocks are skipped.
+ *
+ * Usage:
+ *
+ * <pre>
+ * PcapFileReader reader = new PcapFileReader(path);
+ * try {
+ *     while (reader.next()) {
+ *         ByteBuffer frame = reader.getData();
+ *         ...
+ *     }
+ * } finally {
+ *     reader.close();
+ * }
+ * </pre>
+ *
+ * Instances are not thread-safe, and a record's data is only valid until the next call to
+ * {@link #next()}.
+ */
+public class PcapFileReader implements Closeable {
+
+    // -- Classic pcap magic numbers, as read big-endian
+    private static final int PCAP_MAGIC_MICROS = 0xa1b2c3d4;
+    private static final int PCAP_MAGIC_MICROS_SWAPPED = 0xd4c3b2a1;
+    private static final int PCAP_MAGIC_NANOS = 0xa1b23c4d;
+    private static final int PCAP_MAGIC_NANOS_SWAPPED = 0x4d3cb2a1;
+    private static final int PCAP_HEADER = 24;
+    private static final int PCAP_RECORD_HEADER = 16;
+
+    // -- pcapng block types and byte-order magic
+    private static final int PCAPNG_SECTION_HEADER = 0x0a0d0d0a;
+    private static final int PCAPNG_INTERFACE_DESCRIPTION = 1;
+    private static final int PCAPNG_PACKET = 2;
+    private static final int PCAPNG_SIMPLE_PACKET = 3;
+    private static final int PCAPNG_ENHANCED_PACKET = 6;
+    private static final int PCAPNG_BYTE_ORDER_MAGIC = 0x1a2b3c4d;
+    private static final int PCAPNG_BLOCK_OVERHEAD = 12;
+
+    // -- pcapng interface options
+    private static final int OPT_END = 0;
+    private static final int OPT_IF_TSRESOL = 9;
+    private static final int OPT_IF_TSOFFSET = 14;
+
+    // -- Default pcapng timestamp resolution, 10^-6 seconds
+    private static final int DEFAULT_TSRESOL = 6;
+
+    // -- Bytes mapped at a time
+    private static final int WINDOW_BYTES = 64 * 1024 * 1024;
+
+    private static final long NANOS_PER_SEC = 1000000000L;
+
+    // -- File
+    private final RandomAccessFile file;
+    private final FileChannel channel;
+    private final long fileSize;
+    private final boolean pcapng;
+
+    // -- Mapped window
+    private MappedByteBuffer window;
+    private long windowStart;
+    private ByteOrder order;
+
+    // -- Offset of the next block/record
+    private long position;
+
+    // -- Classic pcap link type and timestamp resolution
+    private int pcapLinkType;
+    private boolean pcapNanos;
+
+    // -- pcapng interfaces of the current section, indexed by interface id
+    private int interfaceCount;
+    private int[] ifLinkTypes = new int[4];
+    private int[] ifSnaplens = new int[4];
+    private int[] ifTsResols = new int[4];
+    private long[] ifTsOffsets = new long[4];
+
+    // -- Current record
+    private int dataOffset;
+    private int caplen;
+    private int wirelen;
+    private long timestampNanos;
+    private int interfaceId;
+    private int linkType;
+
+    /**
+     * Opens a capture file.
+     *
+     * @param path
+     *            The path of the .pcap or .pcapng file.
+     * @throws IOException
+     *             If the file can't be read or isn't a pcap/pcapng file.
+     */
+    public PcapFileReader(String path) throws IOException {
+        file = new RandomAccessFile(path, "r");
+        try {
+            channel = file.getChannel();
+            fileSize = channel.size();
+            if (!map(0, 4)) {
+                throw new IOException("Not a pcap or pcapng file: " + path);
+            }
+
+            int magic = window.getInt(0);
+            if (magic == PCAPNG_SECTION_HEADER) {
+                pcapng = true;
+            } else if (magic == PCAP_MAGIC_MICROS || magic == PCAP_MAGIC_NANOS) {
+                pcapng = false;
+                order = ByteOrder.BIG_ENDIAN;
+            } else if (magic == PCAP_MAGIC_MICROS_SWAPPED || magic == PCAP_MAGIC_NANOS_SWAPPED) {
+                pcapng = false;
+                order = ByteOrder.LITTLE_ENDIAN;
+            } else {
+                throw new IOException("Not a pcap or pcapng file: " + path);
+            }
+
+            // the classic header is read once, pcapng section headers are read as blocks
+            if (!pcapng) {
+                if (!map(0, PCAP_HEADER)) {
+                    throw new IOException("Truncated pcap header: " + path);
+                }
+                pcapNanos = (magic == PCAP_MAGIC_NANOS || magic == PCAP_MAGIC_NANOS_SWAPPED);
+                pcapLinkType = window.order(order).getInt(20) & 0xffff;
+                position = PCAP_HEADER;
+            }
+        } catch (IOException ioe) {
+            file.close();
+            throw ioe;
+        }
+    }
+
+    public boolean isPcapng() {
+        return pcapng;
+    }
+
+    /**
+     * Moves to the next packet record.
+     *
+     * @return true if there is a record, false at the end of the file (a truncated last record is
+     *         treated as the end of the file).
+     * @throws IOException
+     *             If the file is corrupt or can't be read.
+     */
+    public boolean next() throws IOException {
+        return (pcapng ? nextBlock() : nextRecord());
+    }
+
+    /**
+     * Returns the captured bytes of the current record.
+     *
+     * @return A read-only slice of the mapped file, valid until the next call to {@link #next()}.
+     */
+    public ByteBuffer getData() {
+        ByteBuffer data = window.duplicate();
+        data.limit(dataOffset + caplen);
+        data.position(dataOffset);
+        return data.slice();
+    }
+
+    public int getCaplen() {
+        return caplen;
+    }
+
+    public int getWirelen() {
+        return wirelen;
+    }
+
+    /**
+     * Returns the capture time of the current record.
+     *
+     * @return Nanoseconds since the epoch.
+     */
+    public long getTimestampNanos() {
+        return timestampNanos;
+    }
+
+    /**
+     * Returns the pcapng interface the current record was captured on.
+     *
+     * @return The interface id within its section, always 0 for classic pcap files.
+     */
+    public int getInterfaceId() {
+        return interfaceId;
+    }
+
+    /**
+     * Returns the link type of the current record.
+     *
+     * @return The LINKTYPE_ value, e.g., 1 for Ethernet.
+     */
+    public int getLinkType() {
+        return linkType;
+    }
+
+    @Override
+    public void close() throws IOException {
+        window = null;
+        file.close();
+    }
+
+    private boolean nextRecord() throws IOException {
+        if (!map(position, PCAP_RECORD_HEADER)) {
+            return false;
+        }
+
+        int base = offset(position);
+        long seconds = window.getInt(base) & 0xffffffffL;
+        long fraction = window.getInt(base + 4) & 0xffffffffL;
+        int length = window.getInt(base + 8);
+        int origLength = window.getInt(base + 12);
+        if (length < 0 || length > WINDOW_BYTES) {
+            throw new IOException("Corrupt pcap record at offset " + position);
+        }
+        if (!map(position, PCAP_RECORD_HEADER + length)) {
+            return false;
+        }
+
+        setRecord(position + PCAP_RECORD_HEADER, length, origLength, 0, pcapLinkType,
+                seconds * NANOS_PER_SEC + (pcapNanos ? fraction : fraction * 1000));
+        position += PCAP_RECORD_HEADER + length;
+        return true;
+    }
+
+    private boolean nextBlock() throws IOException {
+        while (true) {
+
+            // every block starts with its type and total length; the section header type reads
+            // the same in either byte order and is followed by the section's byte-order magic
+            if (!map(position, PCAPNG_BLOCK_OVERHEAD)) {
+                return false;
+            }
+            int type = window.getInt(offset(position));
+            if (type == PCAPNG_SECTION_HEADER) {
+                readByteOrder();
+            }
+            int length = window.getInt(offset(position) + 4);
+            if (length < PCAPNG_BLOCK_OVERHEAD || (length & 3) != 0 || length > WINDOW_BYTES) {
+                throw new IOException("Corrupt pcapng block at offset " + position);
+            }
+            if (!map(position, length)) {
+                return false;
+            }
+            long blockStart = position;
+            int base = offset(blockStart);
+            int bodyLength = length - PCAPNG_BLOCK_OVERHEAD;
+            position += length;
+
+            switch (type) {
+            case PCAPNG_SECTION_HEADER:
+                interfaceCount = 0;
+                break;
+            case PCAPNG_INTERFACE_DESCRIPTION:
+                readInterface(base, bodyLength);
+                break;
+            case PCAPNG_ENHANCED_PACKET:
+                readPacket(blockStart, window.getInt(base + 8), base + 12, window.getInt(base + 20),
+                        window.getInt(base + 24), 28, bodyLength - 20);
+                return true;
+            case PCAPNG_PACKET:
+                readPacket(blockStart, window.getShort(base + 8) & 0xffff, base + 12,
+                        window.getInt(base + 20), window.getInt(base + 24), 28, bodyLength - 20);
+                return true;
+            case PCAPNG_SIMPLE_PACKET:
+                if (interfaceCount == 0) {
+                    throw new IOException("Simple packet block without an interface at offset "
+                            + blockStart);
+                }
+
+                // no timestamp, and the captured length is implied by the snaplen and block length
+                int origLength = window.getInt(base + 8);
+                int caplen = Math.min(origLength, bodyLength - 4);
+                if (ifSnaplens[0] > 0) {
+                    caplen = Math.min(caplen, ifSnaplens[0]);
+                }
+                setRecord(blockStart + 12, caplen, origLength, 0, ifLinkTypes[0], 0);
+                return true;
+            default:
+                // statistics, name resolution, custom blocks and the like
+                break;
+            }
+        }
+    }
+
+    private void readByteOrder() throws IOException {
+        int magic = window.getInt(offset(position) + 8);
+        if (magic != PCAPNG_BYTE_ORDER_MAGIC) {
+            if (Integer.reverseBytes(magic) != PCAPNG_BYTE_ORDER_MAGIC) {
+                throw new IOException("Corrupt pcapng section header at offset " + position);
+            }
+            order = (window.order() == ByteOrder.BIG_ENDIAN ? ByteOrder.LITTLE_ENDIAN
+                    : ByteOrder.BIG_ENDIAN);
+            window.order(order);
+        } else {
+            order = window.order();
+        }
+    }
+
+    private void readInterface(int base, int bodyLength) {
+        if (interfaceCount == ifLinkTypes.length) {
+            int capacity = interfaceCount * 2;
+            ifLinkTypes = Arrays.copyOf(ifLinkTypes, capacity);
+            ifSnaplens = Arrays.copyOf(ifSnaplens, capacity);
+            ifTsResols = Arrays.copyOf(ifTsResols, capacity);
+            ifTsOffsets = Arrays.copyOf(ifTsOffsets, capacity);
+        }
+        int id = interfaceCount++;
+        ifLinkTypes[id] = window.getShort(base + 8) & 0xffff;
+        ifSnaplens[id] = window.getInt(base + 12);
+        ifTsResols[id] = DEFAULT_TSRESOL;
+        ifTsOffsets[id] = 0;
+
+        // options, each padded to 32 bits
+        int option = base + 16;
+        int end = base + 8 + bodyLength;
+        while (option + 4 <= end) {
+            int code = window.getShort(option) & 0xffff;
+            int length = window.getShort(option + 2) & 0xffff;
+            if (code == OPT_END || option + 4 + length > end) {
+                break;
+            }
+            if (code == OPT_IF_TSRESOL && length >= 1) {
+                ifTsResols[id] = window.get(option + 4) & 0xff;
+            } else if (code == OPT_IF_TSOFFSET && length >= 8) {
+                ifTsOffsets[id] = window.getLong(option + 4);
+            }
+            option += 4 + ((length + 3) & ~3);
+        }
+    }
+
+    private void readPacket(long blockStart, int ifId, int timestamp, int length, int origLength,
+            int dataStart, int maxLength) throws IOException {
+        if (ifId < 0 || ifId >= interfaceCount || length < 0 || length > maxLength) {
+            throw new IOException("Corrupt pcapng packet block at offset " + blockStart);
+        }
+
+        // 64-bit timestamp split into high and low words, in the interface's resolution
+        long units = ((window.getInt(timestamp) & 0xffffffffL) << 32)
+                | (window.getInt(timestamp + 4) & 0xffffffffL);
+        setRecord(blockStart + dataStart, length, origLength, ifId, ifLinkTypes[ifId],
+                toNanos(units, ifTsResols[ifId]) + ifTsOffsets[ifId] * NANOS_PER_SEC);
+    }
+
+    private void setRecord(long dataStart, int length, int origLength, int ifId, int link,
+            long nanos) {
+        dataOffset = offset(dataStart);
+        caplen = length;
+        wirelen = origLength;
+        interfaceId = ifId;
+        linkType = link;
+        timestampNanos = nanos;
+    }
+
+    /**
+     * Converts a pcapng timestamp to nanoseconds. The resolution is 10^-n seconds, or 2^-n seconds
+     * when the high bit is set.
+     */
+    private static long toNanos(long units, int tsResol) {
+        int exponent = tsResol & 0x7f;
+        if ((tsResol & 0x80) == 0) {
+            if (exponent <= 9) {
+                return units * pow10(9 - exponent);
+            }
+            return units / pow10(exponent - 9);
+        }
+
+        long seconds = units >>> exponent;
+        long fraction = units & ((1L << exponent) - 1);
+        long nanos = (exponent <= 32 ? (fraction * NANOS_PER_SEC) >>> exponent
+                : (long) (fraction * 1e9 / Math.pow(2, exponent)));
+        return seconds * NANOS_PER_SEC + nanos;
+    }
+
+    private static long pow10(int n) {
+        long value = 1;
+        for (int i = 0; i < n; i++) {
+            value *= 10;
+        }
+        return value;
+    }
+
+    private int offset(long fileOffset) {
+        return (int) (fileOffset - windowStart);
+    }
+
+    /**
+     * Makes sure a range of the file is mapped, moving the window to start at the range if not.
+     *
+     * @return false if the range runs past the end of the file.
+     */
+    private boolean map(long start, int length) throws IOException {
+        if (start + length > fileSize) {
+            return false;
+        }
+        if (window != null && start >= windowStart
+                && start + length <= windowStart + window.capacity()) {
+            return true;
+        }
+
+        long size = Math.min(Math.max(WINDOW_BYTES, length), fileSize - start);
+        window = channel.map(FileChannel.MapMode.READ_ONLY, start, size);
+        window.order(order == null ? ByteOrder.BIG_ENDIAN : order);
+        windowStart = start;
+        return true;
+    }
+}
@@ -0,0 +1,173 @@
+package com.ptr.v6app.io;
+
+import java.io.Closeable;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+
+/**
+ * Writes frames to a pcapng file with a single section and interface. Blocks are batched in a
+ * direct buffer and written to the file when it fills up or on {@link #flush()}, so recording
+ * costs one write system call per batch rather than per frame, and frame data goes from a direct
+ * buffer to the file without touching the Java heap. Blocks are written in native byte order with
+ * microsecond timestamps. Instances are not thread-safe.
+ */
+public class PcapngWriter implements Closeable {
+
+    // -- Block types, byte-order magic and option codes
+    private static final int SECTION_HEADER = 0x0a0d0d0a;
+    private static final int INTERFACE_DESCRIPTION = 1;
+    private static final int ENHANCED_PACKET = 6;
+    private static final int BYTE_ORDER_MAGIC = 0x1a2b3c4d;
+    private static final short OPT_END = 0;
+    private static final short OPT_SHB_USERAPPL = 4;
+    private static final short OPT_IF_NAME = 2;
+
+    // -- Enhanced packet block size without the frame data
+    private static final int PACKET_BLOCK_OVERHEAD = 32;
+
+    // -- File
+    private final FileOutputStream out;
+    private final FileChannel channel;
+
+    // -- Pending blocks
+    private final ByteBuffer batch;
+
+    // -- Bytes written or pending
+    private long bytesWritten;
+
+    /**
+     * Creates a file and writes the section header and interface description.
+     *
+     * @param path
+     *            The path of the .pcapng file, replaced if it exists.
+     * @param linkType
+     *            The LINKTYPE_ of the frames, e.g., 1 for Ethernet.
+     * @param snaplen
+     *            The most bytes captured per frame.
+     * @param ifName
+     *            The capture interface name, or null.
+     * @param batchBytes
+     *            Size of the write batch buffer.
+     * @throws IOException
+     *             If the file can't be created.
+     */
+    public PcapngWriter(String path, int linkType, int snaplen, String ifName, int batchBytes)
+            throws IOException {
+        out = new FileOutputStream(path);
+        channel = out.getChannel();
+        batch = ByteBuffer.allocateDirect(Math.max(batchBytes, 4096)).order(
+                ByteOrder.nativeOrder());
+
+        // section header, length unknown (-1)
+        byte[] appl = "v6App".getBytes("UTF-8");
+        int shbLength = 28 + optionLength(appl) + 4;
+        batch.putInt(SECTION_HEADER).putInt(shbLength);
+        batch.putInt(BYTE_ORDER_MAGIC).putShort((short) 1).putShort((short) 0).putLong(-1L);
+        putOption(OPT_SHB_USERAPPL, appl);
+        batch.putShort(OPT_END).putShort((short) 0);
+        batch.putInt(shbLength);
+
+        // interface description, default (microsecond) timestamp resolution
+        byte[] name = (ifName == null ? new byte[0] : ifName.getBytes("UTF-8"));
+        int idbLength = 20 + (name.length > 0 ? optionLength(name) + 4 : 0);
+        batch.putInt(INTERFACE_DESCRIPTION).putInt(idbLength);
+        batch.putShort((short) linkType).putShort((short) 0).putInt(snaplen);
+        if (name.length > 0) {
+            putOption(OPT_IF_NAME, name);
+            batch.putShort(OPT_END).putShort((short) 0);
+        }
+        batch.putInt(idbLength);
+        bytesWritten = batch.position();
+    }
+
+    /**
+     * Returns the size of the file once pending blocks are flushed.
+     *
+     * @return The size in bytes.
+     */
+    public long getBytesWritten() {
+        return bytesWritten;
+    }
+
+    /**
+     * Adds a frame as an enhanced packet block.
+     *
+     * @param data
+     *            The frame data, from its position to its limit; the position isn't changed.
+     * @param wirelen
+     *            Length of the frame on the wire.
+     * @param seconds
+     *            Capture time, seconds since the epoch.
+     * @param micros
+     *            Capture time, microseconds within the second.
+     * @throws IOException
+     *             If the batch can't be written.
+     */
+    public void write(ByteBuffer data, int wirelen, long seconds, int micros) throws IOException {
+        int caplen = data.remaining();
+        int padding = (4 - (caplen & 3)) & 3;
+        int length = PACKET_BLOCK_OVERHEAD + caplen + padding;
+        if (length > batch.remaining()) {
+            flush();
+        }
+
+        long timestamp = seconds * 1000000L + micros;
+        batch.putInt(ENHANCED_PACKET).putInt(length);
+        batch.putInt(0).putInt((int) (timestamp >>> 32)).putInt((int) timestamp);
+        batch.putInt(caplen).putInt(wirelen);
+
+        // frames larger than the whole batch go straight to the file
+        if (length > batch.capacity()) {
+            flush();
+            writeFully(data.duplicate());
+        } else {
+            batch.put(data.duplicate());
+        }
+        for (int i = 0; i < padding; i++) {
+            batch.put((byte) 0);
+        }
+        batch.putInt(length);
+        bytesWritten += length;
+    }
+
+    /**
+     * Writes pending blocks to the file.
+     *
+     * @throws IOException
+     *             If the write fails.
+     */
+    public void flush() throws IOException {
+        batch.flip();
+        writeFully(batch);
+        batch.clear();
+    }
+
+    @Override
+    public void close() throws IOException {
+        try {
+            flush();
+        } finally {
+            out.close();
+        }
+    }
+
+    private void writeFully(ByteBuffer buffer) throws IOException {
+        while (buffer.hasRemaining()) {
+            channel.write(buffer);
+        }
+    }
+
+    private void putOption(short code, byte[] value) {
+        batch.putShort(code).putShort((short) value.length).put(value);
+        for (int i = value.length; (i & 3) != 0; i++) {
+            batch.put((byte) 0);
+        }
+    }
+
+    private static int optionLength(byte[] value) {
+        return 4 + ((value.length + 3) & ~3);
+    }
+}
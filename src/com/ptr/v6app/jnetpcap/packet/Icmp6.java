@@ -1,7 +1,5 @@
 package com.ptr.v6app.jnetpcap.packet;
 
-import java.nio.ByteBuffer;
-
 import org.apache.logging.log4j.LogManager;
 import org.apache.logging.log4j.Logger;
 import org.jnetpcap.packet.JHeader;
@@ -12,8 +10,8 @@ import org.jnetpcap.packet.annotate.Header;
 import org.jnetpcap.protocol.lan.Ethernet;
 import org.jnetpcap.protocol.network.Ip6;
 
-import com.ptr.v6app.util.NetUtils;
-import com.ptr.v6app.util.Unsigned;
+import com.ptr.v6app.codec.Ip6Decoder;
+import com.ptr.v6app.util.InternetChecksum;
 
 /**
  * JNetPcap header implementation for an ICMPv6 packet.
@@ -55,29 +53,73 @@ public class Icmp6 extends JHeader {
         // start by zeroing out current checksum
         checksum(0);
 
-        // get Ip6 header
-        Ip6 ip6 = new Ip6();
-        if (!getPacket().hasHeader(ip6)) {
+        // find the Ip6 header, without peering a header object to it
+        JPacket packet = getPacket();
+        int index = packet.getState().findHeaderIndex(Ip6.ID);
+        if (index < 0) {
             log.error("Error calculating ICMPv6 checksum, can't find IPv6 header");
             return -1;
         }
+        int ipOffset = packet.getState().getHeaderOffsetByIndex(index);
+
+        // the ICMPv6 message runs from this header to the end of the IPv6 payload (or of the
+        // packet, for a jumbogram), past any extension headers
+        int offset = getOffset();
+        int payloadLength = packet.getUShort(ipOffset + 4);
+        int end = (payloadLength == 0 ? packet.size()
+                : Math.min(ipOffset + 40 + payloadLength, packet.size()));
+        int length = end - offset;
+        int nextHeader = getNextHeader(packet, ipOffset, offset);
+        if (length < 0 || nextHeader < 0) {
+            log.error("Error calculating ICMPv6 checksum, can't find the message in the IPv6 "
+                    + "packet");
+            return -1;
+        }
 
-        // build our buffer for checksum calculation
-        ByteBuffer buf = ByteBuffer.allocate(16 + 16 + 4 + 4 + ip6.getPayloadLength());
-        buf.put(ip6.source());
-        buf.put(ip6.destination());
-        Unsigned.putUnsignedInt(buf, (long) ip6.getPayloadLength());
-        Unsigned.putUnsignedInt(buf, (long) ip6.next());
-        buf.put(ip6.getPayload());
-
-        // calculate checksum
-        int checksum = (int) NetUtils.calculateChecksum(buf.array());
+        // sum the pseudo-header (addresses, upper-layer length, next header) and the message in
+        // place
+        long sum = InternetChecksum.sum(packet, ipOffset + 8, 32) + length + nextHeader
+                + InternetChecksum.sum(packet, offset, length);
+        int checksum = InternetChecksum.finish(sum);
 
         // update checksum
         checksum(checksum);
         return checksum;
     }
 
+    /**
+     * Returns the next header value announcing the header at an offset: the IPv6 header's own
+     * next header field, or that of the last extension header in front of it.
+     * 
+     * @param packet
+     *            The packet.
+     * @param ipOffset
+     *            Offset of the IPv6 header.
+     * @param offset
+     *            Offset of the header that's announced.
+     * @return The next header value, or -1 if the extension header chain doesn't lead to offset.
+     */
+    private static int getNextHeader(JPacket packet, int ipOffset, int offset) {
+        int next = packet.getUByte(ipOffset + 6);
+        int at = ipOffset + 40;
+        while (at < offset) {
+            if (at + 2 > packet.size()) {
+                return -1;
+            }
+            int length;
+            if (next == Ip6Decoder.AUTHENTICATION) {
+                length = (packet.getUByte(at + 1) + 2) * 4;
+            } else if (next == Ip6Decoder.FRAGMENT) {
+                length = 8;
+            } else {
+                length = (packet.getUByte(at + 1) + 1) * 8;
+            }
+            next = packet.getUByte(at);
+            at += length;
+        }
+        return (at == offset ? next : -1);
+    }
+
     @Bind(to = Ip6.class)
     public static boolean bindToIp6(JPacket packet, Ip6 ip) {
         return ip.next() == 58;
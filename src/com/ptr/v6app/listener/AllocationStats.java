@@ -0,0 +1,137 @@
+package com.ptr.v6app.listener;
+
+import java.lang.management.ManagementFactory;
+
+import org.w3c.dom.Document;
+import org.w3c.dom.Element;
+
+import com.ptr.v6app.util.Log2Histogram;
+
+/**
+ * Samples the heap allocated while processing packets, split into IP parsing and listener plugins.
+ * Every Nth packet is measured with the JVM's per-thread allocation counter; the counter itself
+ * costs a few allocations on some JVMs, which are calibrated out. Counters are updated by the
+ * packet processing thread only and should be read once it has exited.
+ */
+public class AllocationStats {
+
+    // -- Allocation counter, null if the JVM doesn't support it
+    private static final com.sun.management.ThreadMXBean threadBean = getThreadBean();
+
+    // -- Sampling interval in packets, 0 if disabled
+    private final int sampleEvery;
+    private int countdown;
+
+    // -- Bytes the counter reports for back-to-back reads
+    private long overheadBytes = -1;
+
+    // -- Sampled bytes per packet
+    private final Log2Histogram parseBytes = new Log2Histogram();
+    private final Log2Histogram pluginBytes = new Log2Histogram();
+
+    // -- Sample in progress
+    private long startBytes;
+    private long parsedBytes;
+
+    public AllocationStats(int sampleEvery) {
+        this.sampleEvery = (threadBean == null ? 0 : Math.max(0, sampleEvery));
+        this.countdown = this.sampleEvery;
+    }
+
+    /**
+     * Returns true if the JVM can measure per-thread allocation and sampling is enabled.
+     *
+     * @return true if samples will be taken.
+     */
+    public boolean isEnabled() {
+        return sampleEvery > 0;
+    }
+
+    /**
+     * Starts measuring a packet if it's due to be sampled.
+     *
+     * @return true if the packet is sampled, in which case {@link #parsed()} and
+     *         {@link #processed()} must be called.
+     */
+    public boolean begin() {
+        if (sampleEvery == 0 || --countdown > 0) {
+            return false;
+        }
+        countdown = sampleEvery;
+
+        // calibrate on the processing thread the first time
+        if (overheadBytes < 0) {
+            overheadBytes = Long.MAX_VALUE;
+            for (int i = 0; i < 8; i++) {
+                long bytes = allocatedBytes();
+                overheadBytes = Math.min(overheadBytes, allocatedBytes() - bytes);
+            }
+        }
+
+        startBytes = allocatedBytes();
+        return true;
+    }
+
+    /**
+     * Marks the end of IP parsing for the sampled packet.
+     */
+    public void parsed() {
+        parsedBytes = allocatedBytes();
+    }
+
+    /**
+     * Marks the end of plugin processing for the sampled packet.
+     */
+    public void processed() {
+        long endBytes = allocatedBytes();
+        parseBytes.record(parsedBytes - startBytes - overheadBytes);
+        pluginBytes.record(endBytes - parsedBytes - overheadBytes);
+    }
+
+    public Log2Histogram getParseBytes() {
+        return parseBytes;
+    }
+
+    public Log2Histogram getPluginBytes() {
+        return pluginBytes;
+    }
+
+    public void parseXmlResults(Document doc, Element root) {
+
+        // allocation stats
+        Element allocation = doc.createElement("allocation");
+        allocation.setAttribute("sampleEvery", "" + sampleEvery);
+        allocation.setAttribute("supported", "" + (threadBean != null));
+        root.appendChild(allocation);
+
+        // bytes allocated per sampled packet
+        parseBytes.parseXmlResults(doc, allocation, "parseBytesPerPacket", 1);
+        pluginBytes.parseXmlResults(doc, allocation, "pluginBytesPerPacket", 1);
+    }
+
+    @Override
+    public String toString() {
+        return "AllocationStats [sampleEvery=" + sampleEvery + ", parseBytes=" + parseBytes
+                + ", pluginBytes=" + pluginBytes + "]";
+    }
+
+    private static long allocatedBytes() {
+        return threadBean.getThreadAllocatedBytes(Thread.currentThread().getId());
+    }
+
+    private static com.sun.management.ThreadMXBean getThreadBean() {
+        try {
+            Object bean = ManagementFactory.getThreadMXBean();
+            if (bean instanceof com.sun.management.ThreadMXBean) {
+                com.sun.management.ThreadMXBean sunBean = (com.sun.management.ThreadMXBean) bean;
+                if (sunBean.isThreadAllocatedMemorySupported()) {
+                    sunBean.setThreadAllocatedMemoryEnabled(true);
+                    return sunBean;
+                }
+            }
+        } catch (Throwable t) {
+            // not a HotSpot-compatible JVM, fall through
+        }
+        return null;
+    }
+}
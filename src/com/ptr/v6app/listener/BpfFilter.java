@@ -0,0 +1,345 @@
+package com.ptr.v6app.listener;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+
+import org.jnetpcap.Pcap;
+import org.jnetpcap.PcapBpfProgram;
+
+/**
+ * A libpcap filter expression evaluated in Java. libpcap compiles the expression to classic BPF
+ * (without opening a capture handle) and the instructions are interpreted here against captured
+ * frames, so frames can be matched after capture, e.g., to choose what's recorded, without a
+ * second pcap handle or a native call per frame.
+ */
+public class BpfFilter {
+
+    // -- Instruction classes
+    private static final int BPF_LD = 0x00;
+    private static final int BPF_LDX = 0x01;
+    private static final int BPF_ST = 0x02;
+    private static final int BPF_STX = 0x03;
+    private static final int BPF_ALU = 0x04;
+    private static final int BPF_JMP = 0x05;
+    private static final int BPF_RET = 0x06;
+    private static final int BPF_MISC = 0x07;
+
+    // -- Load sizes and modes
+    private static final int BPF_W = 0x00;
+    private static final int BPF_H = 0x08;
+    private static final int BPF_IMM = 0x00;
+    private static final int BPF_ABS = 0x20;
+    private static final int BPF_IND = 0x40;
+    private static final int BPF_MEM = 0x60;
+    private static final int BPF_LEN = 0x80;
+    private static final int BPF_MSH = 0xa0;
+
+    // -- ALU and jump operations, operand sources
+    private static final int BPF_ADD = 0x00;
+    private static final int BPF_SUB = 0x10;
+    private static final int BPF_MUL = 0x20;
+    private static final int BPF_DIV = 0x30;
+    private static final int BPF_OR = 0x40;
+    private static final int BPF_AND = 0x50;
+    private static final int BPF_LSH = 0x60;
+    private static final int BPF_RSH = 0x70;
+    private static final int BPF_NEG = 0x80;
+    private static final int BPF_MOD = 0x90;
+    private static final int BPF_XOR = 0xa0;
+    private static final int BPF_JA = 0x00;
+    private static final int BPF_JEQ = 0x10;
+    private static final int BPF_JGT = 0x20;
+    private static final int BPF_JGE = 0x30;
+    private static final int BPF_JSET = 0x40;
+    private static final int BPF_X = 0x08;
+
+    // -- Return value sources
+    private static final int BPF_RVAL_X = 0x08;
+    private static final int BPF_RVAL_A = 0x10;
+
+    // -- Scratch memory words
+    private static final int BPF_MEMWORDS = 16;
+
+    // -- Link type of the frames the expression is compiled for (LINKTYPE_ETHERNET)
+    public static final int LINKTYPE_ETHERNET = 1;
+
+    // -- Decoded instructions
+    private final String expression;
+    private final int[] codes;
+    private final int[] jts;
+    private final int[] jfs;
+    private final int[] ks;
+
+    // -- Scratch memory, reused (instances are confined to one thread)
+    private final int[] mem = new int[BPF_MEMWORDS];
+
+    /**
+     * Compiles a filter expression.
+     *
+     * @param expression
+     *            The libpcap filter expression.
+     * @param snaplen
+     *            The snaplen of the frames the filter will see.
+     * @param linkType
+     *            The link type of the frames, e.g., LINKTYPE_ETHERNET.
+     * @throws IllegalArgumentException
+     *             If the expression doesn't compile or the program isn't valid BPF.
+     */
+    public BpfFilter(String expression, int snaplen, int linkType) {
+        PcapBpfProgram program = new PcapBpfProgram();
+        if (Pcap.compileNoPcap(snaplen, linkType, program, expression, 1, 0) != Pcap.OK) {
+            throw new IllegalArgumentException("Invalid filter expression [" + expression + "]");
+        }
+
+        this.expression = expression;
+        int count = program.getInstructionCount();
+        codes = new int[count];
+        jts = new int[count];
+        jfs = new int[count];
+        ks = new int[count];
+
+        // each instruction is a native struct bpf_insn { u16 code; u8 jt; u8 jf; u32 k; }
+        // returned as one 64-bit word in native byte order
+        boolean littleEndian = (ByteOrder.nativeOrder() == ByteOrder.LITTLE_ENDIAN);
+        for (int i = 0; i < count; i++) {
+            long insn = program.getInstruction(i);
+            if (littleEndian) {
+                codes[i] = (int) (insn & 0xffff);
+                jts[i] = (int) ((insn >>> 16) & 0xff);
+                jfs[i] = (int) ((insn >>> 24) & 0xff);
+                ks[i] = (int) (insn >>> 32);
+            } else {
+                codes[i] = (int) ((insn >>> 48) & 0xffff);
+                jts[i] = (int) ((insn >>> 40) & 0xff);
+                jfs[i] = (int) ((insn >>> 32) & 0xff);
+                ks[i] = (int) insn;
+            }
+        }
+        Pcap.freecode(program);
+        validate();
+    }
+
+    public String getExpression() {
+        return expression;
+    }
+
+    /**
+     * Returns the number of instructions of the compiled program, so it can also be attached to a
+     * socket as a kernel filter.
+     *
+     * @return The instruction count.
+     */
+    public int getInstructionCount() {
+        return codes.length;
+    }
+
+    public int getCode(int index) {
+        return codes[index];
+    }
+
+    public int getJumpTrue(int index) {
+        return jts[index];
+    }
+
+    public int getJumpFalse(int index) {
+        return jfs[index];
+    }
+
+    public int getOperand(int index) {
+        return ks[index];
+    }
+
+    /**
+     * Runs the filter over a frame.
+     *
+     * @param buffer
+     *            The frame data, in network byte order.
+     * @param offset
+     *            Offset of the frame in the buffer.
+     * @param caplen
+     *            Captured bytes of the frame.
+     * @param wirelen
+     *            Length of the frame on the wire.
+     * @return true if the frame matches.
+     */
+    public boolean matches(ByteBuffer buffer, int offset, int caplen, int wirelen) {
+        return run(buffer, offset, caplen, wirelen) != 0;
+    }
+
+    private int run(ByteBuffer buffer, int base, int caplen, int wirelen) {
+        int a = 0;
+        int x = 0;
+        int pc = 0;
+        while (true) {
+            int code = codes[pc];
+            int k = ks[pc];
+            switch (code & 0x07) {
+            case BPF_LD:
+            case BPF_LDX: {
+                boolean toX = (code & 0x07) == BPF_LDX;
+                int mode = code & 0xe0;
+                int value;
+                if (mode == BPF_IMM) {
+                    value = k;
+                } else if (mode == BPF_LEN) {
+                    value = wirelen;
+                } else if (mode == BPF_MEM) {
+                    value = mem[k];
+                } else if (mode == BPF_MSH) {
+                    if (k < 0 || k >= caplen) {
+                        return 0;
+                    }
+                    value = (buffer.get(base + k) & 0x0f) << 2;
+                } else {
+                    long offset = (mode == BPF_IND ? (x & 0xffffffffL) + (k & 0xffffffffL)
+                            : k & 0xffffffffL);
+                    int size = code & 0x18;
+                    int length = (size == BPF_W ? 4 : size == BPF_H ? 2 : 1); // BPF_B
+                    if (offset + length > caplen) {
+                        return 0;
+                    }
+                    int off = base + (int) offset;
+                    if (size == BPF_W) {
+                        value = buffer.getInt(off);
+                    } else if (size == BPF_H) {
+                        value = buffer.getShort(off) & 0xffff;
+                    } else {
+                        value = buffer.get(off) & 0xff;
+                    }
+                }
+                if (toX) {
+                    x = value;
+                } else {
+                    a = value;
+                }
+                pc++;
+                break;
+            }
+            case BPF_ST:
+                mem[k] = a;
+                pc++;
+                break;
+            case BPF_STX:
+                mem[k] = x;
+                pc++;
+                break;
+            case BPF_ALU: {
+                int operand = ((code & BPF_X) != 0 ? x : k);
+                switch (code & 0xf0) {
+                case BPF_ADD:
+                    a += operand;
+                    break;
+                case BPF_SUB:
+                    a -= operand;
+                    break;
+                case BPF_MUL:
+                    a *= operand;
+                    break;
+                case BPF_DIV:
+                    if (operand == 0) {
+                        return 0;
+                    }
+                    a = (int) ((a & 0xffffffffL) / (operand & 0xffffffffL));
+                    break;
+                case BPF_MOD:
+                    if (operand == 0) {
+                        return 0;
+                    }
+                    a = (int) ((a & 0xffffffffL) % (operand & 0xffffffffL));
+                    break;
+                case BPF_OR:
+                    a |= operand;
+                    break;
+                case BPF_AND:
+                    a &= operand;
+                    break;
+                case BPF_XOR:
+                    a ^= operand;
+                    break;
+                case BPF_LSH:
+                    a = (operand >= 32 ? 0 : a << operand);
+                    break;
+                case BPF_RSH:
+                    a = (operand >= 32 ? 0 : a >>> operand);
+                    break;
+                case BPF_NEG:
+                    a = -a;
+                    break;
+                default:
+                    return 0;
+                }
+                pc++;
+                break;
+            }
+            case BPF_JMP: {
+                int op = code & 0xf0;
+                if (op == BPF_JA) {
+                    pc += 1 + k;
+                    break;
+                }
+                long left = a & 0xffffffffL;
+                long right = ((code & BPF_X) != 0 ? x : k) & 0xffffffffL;
+                boolean taken;
+                if (op == BPF_JEQ) {
+                    taken = left == right;
+                } else if (op == BPF_JGT) {
+                    taken = left > right;
+                } else if (op == BPF_JGE) {
+                    taken = left >= right;
+                } else if (op == BPF_JSET) {
+                    taken = (left & right) != 0;
+                } else {
+                    return 0;
+                }
+                pc += 1 + (taken ? jts[pc] : jfs[pc]);
+                break;
+            }
+            case BPF_RET: {
+                int rval = code & 0x18;
+                return (rval == BPF_RVAL_A ? a : rval == BPF_RVAL_X ? x : k);
+            }
+            case BPF_MISC:
+                if ((code & 0xf8) == 0) {
+                    x = a; // TAX
+                } else {
+                    a = x; // TXA
+                }
+                pc++;
+                break;
+            default:
+                return 0;
+            }
+        }
+    }
+
+    /**
+     * Checks the program can't run off its end or outside scratch memory, the same checks the
+     * kernel applies before attaching a filter.
+     */
+    private void validate() {
+        int count = codes.length;
+        if (count == 0 || (codes[count - 1] & 0x07) != BPF_RET) {
+            throw new IllegalArgumentException("BPF program doesn't end with a return");
+        }
+        for (int pc = 0; pc < count; pc++) {
+            int code = codes[pc];
+            int cls = code & 0x07;
+            if (cls == BPF_JMP) {
+                long target = pc + 1 + ((code & 0xf0) == BPF_JA ? ks[pc] & 0xffffffffL
+                        : Math.max(jts[pc], jfs[pc]));
+                if (target >= count) {
+                    throw new IllegalArgumentException("BPF jump out of range at " + pc);
+                }
+            } else if (((cls == BPF_ST || cls == BPF_STX)
+                    || ((cls == BPF_LD || cls == BPF_LDX) && (code & 0xe0) == BPF_MEM))
+                    && (ks[pc] < 0 || ks[pc] >= BPF_MEMWORDS)) {
+                throw new IllegalArgumentException("BPF memory access out of range at " + pc);
+            }
+        }
+    }
+
+    @Override
+    public String toString() {
+        return "BpfFilter [expression=" + expression + ", instructions=" + codes.length + "]";
+    }
+}
@@ -0,0 +1,309 @@
+package com.ptr.v6app.listener;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.text.SimpleDateFormat;
+import java.util.Date;
+import java.util.LinkedList;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+import org.w3c.dom.Document;
+import org.w3c.dom.Element;
+
+import com.ptr.v6app.io.PcapngWriter;
+import com.ptr.v6app.listener.PacketRing.OverflowPolicy;
+import com.ptr.v6app.listener.PacketRing.Slot;
+
+/**
+ * Records captured frames to rolling pcapng files so the traffic behind a discovery result can be
+ * looked at afterwards. The capture thread copies each frame (or each frame matching an optional
+ * BpfFilter) into a dedicated PacketRing that drops new frames when full, so recording never stalls
+ * capture; the recorder thread batches the frames into a PcapngWriter. A new file is started once
+ * the current one reaches its size or time limit (in capture time), and the oldest files are
+ * deleted beyond the file limit.
+ *
+ * Ring counters cover the recorder's lag (occupancy and queue latency) and drops; they should be
+ * read once both threads have exited, except for {@link #getQueuedFrames()}.
+ */
+public class CaptureRecorder implements Runnable {
+
+    // -- Logger
+    private static final Logger log = LogManager.getLogger(CaptureRecorder.class.getName());
+
+    // -- Longest wait for new frames before flushing and checking for interruption
+    private static final long IDLE_WAIT_NANOS = 100 * 1000 * 1000;
+
+    // -- Write batch size
+    private static final int BATCH_BYTES = 1024 * 1024;
+
+    // -- File names
+    private static final String FILE_EXTENSION = ".pcapng";
+
+    // -- Frame queue from the capture thread
+    private final PacketRing ring;
+
+    // -- Frames to record (null records everything), used by the capture threads under the
+    // recorder's lock
+    private final BpfFilter filter;
+
+    // -- Output
+    private final File dir;
+    private final String filePrefix;
+    private final String ifName;
+    private final int linkType;
+    private final int snaplen;
+
+    // -- Rotation and retention
+    private final long rotateBytes;
+    private final long rotateSecs;
+    private final int maxFiles;
+    private final LinkedList<File> files = new LinkedList<File>();
+
+    // -- Current file
+    private PcapngWriter writer;
+    private long fileStartSeconds;
+
+    // -- Counters, written by the capture threads (filtered) and the recorder thread (the rest)
+    private long filtered;
+    private long recorded;
+    private long filesWritten;
+    private long bytesWritten;
+    private long writeErrors;
+
+    /**
+     * Creates a recorder.
+     *
+     * @param dir
+     *            Directory the files are written to, created if needed.
+     * @param ifName
+     *            The capture interface name, used in the file names.
+     * @param linkType
+     *            The LINKTYPE_ of the frames.
+     * @param snaplen
+     *            The capture snaplen, longer frames can't be recorded whole.
+     * @param ringSlots
+     *            Frames queued before new frames are dropped.
+     * @param filter
+     *            Frames to record, or null for every frame.
+     * @param rotateBytes
+     *            Size a file grows to before the next one is started, 0 for no limit.
+     * @param rotateSecs
+     *            Capture time a file covers before the next one is started, 0 for no limit.
+     * @param maxFiles
+     *            Files kept, the oldest are deleted; 0 to keep every file.
+     */
+    public CaptureRecorder(File dir, String ifName, int linkType, int snaplen, int ringSlots,
+            BpfFilter filter, long rotateBytes, long rotateSecs, int maxFiles) {
+        this.ring = new PacketRing(ringSlots, snaplen, OverflowPolicy.DROP_NEWEST);
+        this.filter = filter;
+        this.dir = dir;
+        this.ifName = ifName;
+        this.linkType = linkType;
+        this.snaplen = snaplen;
+        this.rotateBytes = rotateBytes;
+        this.rotateSecs = rotateSecs;
+        this.maxFiles = maxFiles;
+
+        // interface names aren't always valid file names (e.g., \Device\NPF_{...} on Windows)
+        String ifPart = (ifName == null ? "capture" : ifName.replaceAll("[^A-Za-z0-9.-]+", "_"));
+        this.filePrefix = "v6app-" + ifPart + "-"
+                + new SimpleDateFormat("yyyyMMdd-HHmmss").format(new Date()) + "-";
+    }
+
+    /**
+     * Queues a captured frame for recording, unless it doesn't match the filter or the recorder
+     * has fallen behind. Called by the capture threads (one per capture shard), which take turns;
+     * never blocks on the recorder thread.
+     *
+     * @param buffer
+     *            The buffer holding the frame.
+     * @param offset
+     *            Offset of the frame in the buffer.
+     * @param caplen
+     *            Captured bytes of the frame.
+     * @param wirelen
+     *            Length of the frame on the wire.
+     * @param seconds
+     *            Capture time, seconds since the epoch.
+     * @param micros
+     *            Capture time, microseconds within the second.
+     */
+    public synchronized void offer(ByteBuffer buffer, int offset, int caplen, int wirelen,
+            long seconds, int micros) {
+        if (filter != null && !filter.matches(buffer, offset, caplen, wirelen)) {
+            filtered++;
+            return;
+        }
+        ring.offer(buffer, offset, caplen, wirelen, seconds, micros);
+    }
+
+    /**
+     * Returns the number of frames waiting to be written, i.e., how far the recorder lags behind
+     * capture. Safe to call from any thread.
+     *
+     * @return The number of queued frames.
+     */
+    public int getQueuedFrames() {
+        return ring.getOccupancy();
+    }
+
+    public PacketRing getRing() {
+        return ring;
+    }
+
+    public long getDropped() {
+        return ring.getStats().getDropped();
+    }
+
+    public long getRecorded() {
+        return recorded;
+    }
+
+    public long getFilesWritten() {
+        return filesWritten;
+    }
+
+    public long getBytesWritten() {
+        return bytesWritten;
+    }
+
+    @Override
+    public void run() {
+        log.debug("Starting recorder thread...");
+        PipelineStats stats = ring.getStats();
+        if (!dir.isDirectory() && !dir.mkdirs()) {
+            log.error("Unable to create capture recording directory [{}]", dir);
+        }
+
+        // write frames until we're interrupted, flushing whenever we catch up
+        while (!Thread.currentThread().isInterrupted()) {
+            if (!recordNext(stats)) {
+                flush();
+                ring.awaitFrames(IDLE_WAIT_NANOS);
+                stats.workerWakeup();
+            }
+        }
+
+        // drain what's left
+        while (recordNext(stats)) {
+        }
+        closeFile();
+
+        log.debug("Exiting recorder thread: {}", this);
+    }
+
+    public void parseXmlResults(Document doc, Element root) {
+
+        // recorder stats
+        Element recorder = doc.createElement("recorder");
+        recorder.setAttribute("filter", (filter == null ? "" : filter.getExpression()));
+        recorder.setAttribute("files", "" + filesWritten);
+        recorder.setAttribute("bytes", "" + bytesWritten);
+        recorder.setAttribute("recorded", "" + recorded);
+        recorder.setAttribute("filtered", "" + filtered);
+        recorder.setAttribute("writeErrors", "" + writeErrors);
+        root.appendChild(recorder);
+
+        // lag and drops
+        ring.getStats().parseXmlResults(doc, recorder, ring);
+    }
+
+    @Override
+    public String toString() {
+        return "CaptureRecorder [recorded=" + recorded + ", filtered=" + filtered + ", dropped="
+                + getDropped() + ", files=" + filesWritten + ", bytes=" + bytesWritten
+                + ", writeErrors=" + writeErrors + "]";
+    }
+
+    private boolean recordNext(PipelineStats stats) {
+        Slot slot = ring.poll();
+        if (slot == null) {
+            return false;
+        }
+
+        long enqueueNanos = slot.getEnqueueNanos();
+        long startNanos = System.nanoTime();
+        try {
+            if (writer != null && isFileFull(slot.getSeconds())) {
+                closeFile();
+            }
+            if (writer == null) {
+                openFile(slot.getSeconds());
+            }
+
+            // a failed file is retried with the next frame, this one is lost
+            if (writer != null) {
+                writer.write(slot.getData(), slot.getWirelen(), slot.getSeconds(),
+                        slot.getMicros());
+                recorded++;
+            }
+        } catch (IOException ioe) {
+            writeErrors++;
+            log.error("Error recording frame: {}", ioe.getMessage());
+            closeFile();
+        } finally {
+            ring.release(slot);
+        }
+
+        long endNanos = System.nanoTime();
+        stats.processed(startNanos - enqueueNanos, endNanos - startNanos);
+        return true;
+    }
+
+    private boolean isFileFull(long frameSeconds) {
+        return (rotateBytes > 0 && writer.getBytesWritten() >= rotateBytes)
+                || (rotateSecs > 0 && frameSeconds - fileStartSeconds >= rotateSecs);
+    }
+
+    private void openFile(long frameSeconds) {
+        File file = new File(dir, filePrefix + filesWritten + FILE_EXTENSION);
+        try {
+            writer = new PcapngWriter(file.getPath(), linkType, snaplen, ifName, BATCH_BYTES);
+        } catch (IOException ioe) {
+            writeErrors++;
+            log.error("Error creating capture recording [{}]: {}", file, ioe.getMessage());
+            return;
+        }
+        filesWritten++;
+        fileStartSeconds = frameSeconds;
+        log.debug("Recording capture to [{}]", file);
+
+        // roll off the oldest recordings
+        files.add(file);
+        while (maxFiles > 0 && files.size() > maxFiles) {
+            File oldest = files.removeFirst();
+            if (!oldest.delete()) {
+                log.warn("Unable to delete capture recording [{}]", oldest);
+            }
+        }
+    }
+
+    private void flush() {
+        if (writer == null) {
+            return;
+        }
+        try {
+            writer.flush();
+        } catch (IOException ioe) {
+            writeErrors++;
+            log.error("Error flushing capture recording: {}", ioe.getMessage());
+            closeFile();
+        }
+    }
+
+    private void closeFile() {
+        if (writer == null) {
+            return;
+        }
+        bytesWritten += writer.getBytesWritten();
+        try {
+            writer.close();
+        } catch (IOException ioe) {
+            writeErrors++;
+            log.error("Error closing capture recording: {}", ioe.getMessage());
+        }
+        writer = null;
+    }
+}
@@ -0,0 +1,173 @@
+package com.ptr.v6app.listener;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.TreeSet;
+
+/**
+ * The traffic the listener and its plugins need to see. Each consumer declares what it reads and
+ * the declarations are merged into a single kernel (BPF) filter, the smallest snaplen that still
+ * covers every consumer, and the multicast groups to join. Anything nobody declared is dropped by
+ * the kernel before it's copied to user space.
+ */
+public class CaptureRequirements {
+
+    // -- Ethernet and IP header sizes, for snaplen declarations
+    public static final int ETHERNET_HEADER = 14;
+    public static final int IP4_HEADER = 60;
+    public static final int IP6_HEADER = 40;
+
+    // -- Headroom for an 802.1Q tag, added to every snaplen declaration
+    public static final int VLAN_TAG = 4;
+
+    // -- Captured traffic
+    private boolean allIp4;
+    private boolean allIp6;
+    private final Set<Integer> icmp6Types = new TreeSet<Integer>();
+
+    // -- Bytes of each frame needed
+    private int snaplen;
+
+    // -- Multicast groups to join
+    private final Set<String> multicastGroups = new LinkedHashSet<String>();
+
+    /**
+     * Declares that all IPv4 traffic is needed (e.g., to read source/destination addresses).
+     */
+    public void requireIp4() {
+        allIp4 = true;
+    }
+
+    /**
+     * Declares that all IPv6 traffic is needed (e.g., to read source/destination addresses).
+     */
+    public void requireIp6() {
+        allIp6 = true;
+    }
+
+    /**
+     * Declares that ICMPv6 messages of the given types are needed.
+     *
+     * @param types
+     *            ICMPv6 message types.
+     */
+    public void requireIcmp6Types(int... types) {
+        for (int type : types) {
+            icmp6Types.add(type);
+        }
+    }
+
+    /**
+     * Declares how many bytes of each frame, from the start of the Ethernet header, are needed.
+     * The largest declaration wins.
+     *
+     * @param bytes
+     *            Number of bytes.
+     */
+    public void requireSnaplen(int bytes) {
+        snaplen = Math.max(snaplen, bytes);
+    }
+
+    /**
+     * Declares a multicast group the host should join so the group's traffic reaches the
+     * interface.
+     *
+     * @param group
+     *            The IPv4 or IPv6 group address.
+     */
+    public void requireMulticastGroup(String group) {
+        multicastGroups.add(group);
+    }
+
+    /**
+     * Returns the snaplen covering every declaration, with room for an 802.1Q tag in front of the
+     * IP header.
+     *
+     * @return The snaplen, or 0 if nothing was declared.
+     */
+    public int getSnaplen() {
+        return (snaplen > 0 ? snaplen + VLAN_TAG : 0);
+    }
+
+    public Set<String> getMulticastGroups() {
+        return Collections.unmodifiableSet(multicastGroups);
+    }
+
+    /**
+     * Returns a libpcap filter expression matching every declared need, in untagged frames and in
+     * 802.1Q-tagged frames alike.
+     *
+     * @return The filter expression, or null if nothing was declared.
+     */
+    public String getFilterExpression() {
+        List<String> terms = new ArrayList<String>();
+        if (allIp4) {
+            terms.add("ip");
+        }
+        if (allIp6) {
+            terms.add("ip6");
+        } else if (!icmp6Types.isEmpty()) {
+
+            // ICMPv6 type right after the fixed IPv6 header; anything all-IPv6 covers is implied
+            StringBuilder icmp6 = new StringBuilder("(icmp6 and (");
+            String sep = "";
+            for (int type : icmp6Types) {
+                icmp6.append(sep).append("ip6[40] == ").append(type);
+                sep = " or ";
+            }
+            terms.add(icmp6.append("))").toString());
+        }
+
+        if (terms.isEmpty()) {
+            return null;
+        }
+
+        StringBuilder expr = new StringBuilder();
+        for (String term : terms) {
+            if (expr.length() > 0) {
+                expr.append(" or ");
+            }
+            expr.append(term);
+        }
+
+        // the same terms again past a VLAN tag; 'vlan' shifts the offsets of everything after it,
+        // so this clause has to come last
+        return "(" + expr + ") or (vlan and (" + expr + "))";
+    }
+
+    /**
+     * Narrows a filter expression to one shard of the traffic: the frames whose source MAC address
+     * ends in the shard's low bits. The shards of a power-of-two count split the traffic with no
+     * overlap, and every frame from a host lands in the same shard. The shard term goes in front of
+     * the expression, so the VLAN clause of a getFilterExpression() expression still comes last.
+     *
+     * @param filterExpression
+     *            The filter expression, or null to shard all the traffic.
+     * @param shard
+     *            The shard index, from 0 to shardCount - 1.
+     * @param shardCount
+     *            The number of shards, a power of two.
+     * @return The shard's filter expression, or the given expression with a single shard.
+     */
+    public static String getShardFilterExpression(String filterExpression, int shard,
+            int shardCount) {
+        if (shardCount <= 1) {
+            return filterExpression;
+        }
+
+        // ether[11] is the last byte of the source MAC, before any VLAN tags; it has to be tested
+        // before 'vlan' shifts the offsets, so it applies to tagged and untagged frames alike
+        String shardTerm = "(ether[11] & " + (shardCount - 1) + ") == " + shard;
+        return (filterExpression == null ? shardTerm
+                : shardTerm + " and (" + filterExpression + ")");
+    }
+
+    @Override
+    public String toString() {
+        return "CaptureRequirements [filter=" + getFilterExpression() + ", snaplen=" + snaplen
+                + ", multicastGroups=" + multicastGroups + "]";
+    }
+}
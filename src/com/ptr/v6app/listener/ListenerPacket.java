@@ -1,27 +1,114 @@
 package com.ptr.v6app.listener;
 
+import java.nio.ByteBuffer;
+
+import org.jnetpcap.PcapHeader;
+import org.jnetpcap.nio.JBuffer;
+import org.jnetpcap.nio.JMemory;
+import org.jnetpcap.packet.PeeringException;
 import org.jnetpcap.packet.PcapPacket;
+import org.jnetpcap.protocol.lan.Ethernet;
 
+import com.ptr.v6app.codec.FrameDecoder;
 import com.ptr.v6app.node.NetworkNode;
 
+/**
+ * A parsed packet passed to listener plugins. The listener reuses a single instance for every
+ * packet, so plugins must not keep references to it (or its PcapPacket or FrameDecoder) after
+ * processPacket returns.
+ *
+ * Plugins should read the packet through {@link #getFrame()}, which decodes only the layers asked
+ * for. {@link #getPacket()} is still there for headers the codec doesn't cover, but it runs the
+ * full jNetPcap scan the first time it's called for a packet.
+ */
 public class ListenerPacket {
 
-    // -- jNetPcap packet
-    private final PcapPacket packet;
-    
+    // -- Frame decoder
+    private FrameDecoder frame;
+
+    // -- Capture header fields
+    private int wirelen;
+    private long seconds;
+    private int micros;
+
+    // -- jNetPcap packet scanned from the frame on demand, with the native header and buffer
+    // it's peered to (created on first use)
+    private PcapPacket packet;
+    private PcapHeader header;
+    private JBuffer buffer;
+    private boolean scanned;
+
     // -- Source node
-    private final NetworkNode src;
-    
+    private NetworkNode src;
+
     // -- Destination node
-    private final NetworkNode dst;
-    
-    public ListenerPacket(PcapPacket packet, NetworkNode src, NetworkNode dst) {
-        this.packet = packet;
+    private NetworkNode dst;
+
+    /**
+     * Points this instance at the next packet.
+     *
+     * @param frame
+     *            The decoder wrapping the frame.
+     * @param wirelen
+     *            Length of the frame on the wire.
+     * @param seconds
+     *            Capture time, seconds since the epoch.
+     * @param micros
+     *            Capture time, microseconds within the second.
+     * @param src
+     *            The source node.
+     * @param dst
+     *            The destination node.
+     */
+    void set(FrameDecoder frame, int wirelen, long seconds, int micros, NetworkNode src,
+            NetworkNode dst) {
+        this.frame = frame;
+        this.wirelen = wirelen;
+        this.seconds = seconds;
+        this.micros = micros;
         this.src = src;
         this.dst = dst;
+        this.scanned = false;
+    }
+
+    public FrameDecoder getFrame() {
+        return frame;
     }
 
+    /**
+     * Returns the packet scanned by jNetPcap, scanning it on the first call for each packet.
+     *
+     * @return The jNetPcap packet, or null if the frame can't be peered.
+     */
     public PcapPacket getPacket() {
+        if (scanned) {
+            return packet;
+        }
+        if (packet == null) {
+            packet = new PcapPacket(JMemory.POINTER);
+            header = new PcapHeader(0, 0);
+            buffer = new JBuffer(JMemory.POINTER);
+        }
+
+        // peer a native buffer to the frame, the view is only allocated on this slow path
+        ByteBuffer view = frame.getBuffer().duplicate();
+        view.limit(frame.getOffset() + frame.getLength());
+        view.position(frame.getOffset());
+        try {
+            buffer.peer(view);
+        } catch (PeeringException pe) {
+            return null;
+        }
+        header.caplen(frame.getLength());
+        header.wirelen(wirelen);
+        header.hdr_sec(seconds);
+        header.hdr_usec(micros);
+
+        // these methods map our PcapPacket buffer from Java to native memory, no copies
+        packet.peer(buffer);
+        packet.getCaptureHeader().peerTo(header, 0);
+        packet.scan(Ethernet.ID);
+        scanned = true;
         return packet;
     }
 
@@ -0,0 +1,261 @@
+package com.ptr.v6app.listener;
+
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+
+import org.w3c.dom.Document;
+import org.w3c.dom.Element;
+
+import com.ptr.v6app.util.Log2Histogram;
+import com.ptr.v6app.util.V6AppProperties;
+
+/**
+ * Runtime statistics for a listener thread. Counters are updated by the listener thread only (the
+ * allocation stats by the packet processing thread) and should be read once the threads have
+ * exited.
+ */
+public class ListenerStats {
+
+    // -- Thread CPU time support
+    private static final ThreadMXBean threadBean = ManagementFactory.getThreadMXBean();
+
+    // -- Capture loop counters
+    private long wakeups;
+    private long idleWakeups;
+    private long packets;
+    private long budgetBreaks;
+
+    // -- Dispatch batch distributions
+    private final Log2Histogram packetsPerDispatch = new Log2Histogram();
+    private final Log2Histogram dispatchNanos = new Log2Histogram();
+
+    // -- Pcap lock contention
+    private long lockWaitNanos;
+    private long maxLockWaitNanos;
+
+    // -- Heap allocation per packet (written by the packet processing thread)
+    private final AllocationStats allocation = new AllocationStats(
+            V6AppProperties.getListenerAllocSampleEvery());
+
+    // -- Load shedding, per priority class
+    private final ShedStats shedding = new ShedStats();
+
+    // -- Per-protocol traffic, scaled for sampling (written by the packet processing thread)
+    private final TrafficStats traffic = new TrafficStats();
+
+    // -- Timing
+    private long startNanos;
+    private long elapsedNanos;
+    private long startCpuNanos = -1;
+    private long cpuNanos = -1;
+
+    /**
+     * Marks the start of the capture loop. Must be called from the listener thread.
+     */
+    public void start() {
+        startNanos = System.nanoTime();
+        startCpuNanos = currentThreadCpuTime();
+    }
+
+    /**
+     * Marks the end of the capture loop. Must be called from the listener thread.
+     */
+    public void stop() {
+        elapsedNanos = System.nanoTime() - startNanos;
+        long endCpuNanos = currentThreadCpuTime();
+        if (startCpuNanos >= 0 && endCpuNanos >= 0) {
+            cpuNanos = endCpuNanos - startCpuNanos;
+        }
+    }
+
+    /**
+     * Records a return from the capture library.
+     *
+     * @param numPackets
+     *            The number of packets handled during the wakeup.
+     * @param batchNanos
+     *            Time spent processing the packets, from the first packet to the return.
+     * @param budgetExceeded
+     *            true if the dispatch was cut short by the time budget.
+     */
+    public void wakeup(int numPackets, long batchNanos, boolean budgetExceeded) {
+        wakeups++;
+        if (numPackets > 0) {
+            packets += numPackets;
+            packetsPerDispatch.record(numPackets);
+            dispatchNanos.record(batchNanos);
+        } else {
+            idleWakeups++;
+        }
+        if (budgetExceeded) {
+            budgetBreaks++;
+        }
+    }
+
+    /**
+     * Records the time spent waiting for the pcap lock.
+     *
+     * @param waitNanos
+     *            The wait time in nanoseconds.
+     */
+    public void lockAcquired(long waitNanos) {
+        lockWaitNanos += waitNanos;
+        if (waitNanos > maxLockWaitNanos) {
+            maxLockWaitNanos = waitNanos;
+        }
+    }
+
+    public long getWakeups() {
+        return wakeups;
+    }
+
+    public long getIdleWakeups() {
+        return idleWakeups;
+    }
+
+    public long getPackets() {
+        return packets;
+    }
+
+    public long getBudgetBreaks() {
+        return budgetBreaks;
+    }
+
+    public Log2Histogram getPacketsPerDispatch() {
+        return packetsPerDispatch;
+    }
+
+    public Log2Histogram getDispatchNanos() {
+        return dispatchNanos;
+    }
+
+    public long getLockWaitNanos() {
+        return lockWaitNanos;
+    }
+
+    public long getMaxLockWaitNanos() {
+        return maxLockWaitNanos;
+    }
+
+    public AllocationStats getAllocation() {
+        return allocation;
+    }
+
+    public ShedStats getShedding() {
+        return shedding;
+    }
+
+    public TrafficStats getTraffic() {
+        return traffic;
+    }
+
+    public long getElapsedNanos() {
+        return elapsedNanos;
+    }
+
+    /**
+     * Returns the CPU time consumed by the listener thread.
+     *
+     * @return CPU time in nanoseconds, or -1 if thread CPU time isn't supported by the JVM.
+     */
+    public long getCpuNanos() {
+        return cpuNanos;
+    }
+
+    /**
+     * Returns the CPU utilization of the listener thread over its lifetime.
+     *
+     * @return CPU utilization in percent of one core, or -1 if unknown.
+     */
+    public double getCpuPercent() {
+        if (cpuNanos < 0 || elapsedNanos <= 0) {
+            return -1;
+        }
+        return (100.0 * cpuNanos) / elapsedNanos;
+    }
+
+    public void parseXmlResults(Document doc, Element root) {
+
+        // listener stats
+        Element listener = doc.createElement("listener");
+        root.appendChild(listener);
+
+        // wakeups
+        Element wakeupsElem = doc.createElement("wakeups");
+        wakeupsElem.appendChild(doc.createTextNode("" + wakeups));
+        listener.appendChild(wakeupsElem);
+
+        // wakeups without packets
+        Element idleElem = doc.createElement("idleWakeups");
+        idleElem.appendChild(doc.createTextNode("" + idleWakeups));
+        listener.appendChild(idleElem);
+
+        // packets handled
+        Element packetsElem = doc.createElement("packets");
+        packetsElem.appendChild(doc.createTextNode("" + packets));
+        listener.appendChild(packetsElem);
+
+        // dispatches cut short by the time budget
+        Element budgetElem = doc.createElement("budgetBreaks");
+        budgetElem.appendChild(doc.createTextNode("" + budgetBreaks));
+        listener.appendChild(budgetElem);
+
+        // batch size and latency distributions
+        packetsPerDispatch.parseXmlResults(doc, listener, "packetsPerDispatch", 1);
+        dispatchNanos.parseXmlResults(doc, listener, "dispatchLatencyMicros", 1000);
+
+        // pcap lock wait time
+        Element lockWaitElem = doc.createElement("lockWaitMicros");
+        lockWaitElem.appendChild(doc.createTextNode("" + lockWaitNanos / 1000));
+        listener.appendChild(lockWaitElem);
+
+        // longest single pcap lock wait
+        Element maxLockWaitElem = doc.createElement("maxLockWaitMicros");
+        maxLockWaitElem.appendChild(doc.createTextNode("" + maxLockWaitNanos / 1000));
+        listener.appendChild(maxLockWaitElem);
+
+        // CPU time
+        Element cpuElem = doc.createElement("cpuMillis");
+        cpuElem.appendChild(doc.createTextNode("" + (cpuNanos < 0 ? -1 : cpuNanos / 1000000)));
+        listener.appendChild(cpuElem);
+
+        // CPU utilization
+        Element cpuPctElem = doc.createElement("cpuPercent");
+        cpuPctElem.appendChild(doc.createTextNode(String.format("%.2f", getCpuPercent())));
+        listener.appendChild(cpuPctElem);
+
+        // heap allocation per packet
+        allocation.parseXmlResults(doc, listener);
+
+        // load shedding per priority class
+        if (shedding.isUsed()) {
+            shedding.parseXmlResults(doc, listener);
+        }
+
+        // per-protocol traffic
+        if (traffic.isUsed()) {
+            traffic.parseXmlResults(doc, listener);
+        }
+    }
+
+    @Override
+    public String toString() {
+        return "ListenerStats [wakeups=" + wakeups + ", idleWakeups=" + idleWakeups + ", packets="
+                + packets + ", packetsPerDispatch=" + packetsPerDispatch + ", lockWaitMicros="
+                + lockWaitNanos / 1000 + ", cpuMillis=" + (cpuNanos < 0 ? -1 : cpuNanos / 1000000)
+                + ", cpuPercent=" + String.format("%.2f", getCpuPercent()) + ", allocation="
+                + allocation + (shedding.isUsed() ? ", shedding=" + shedding : "")
+                + (traffic.isUsed() ? ", traffic=" + traffic : "") + "]";
+    }
+
+    private static long currentThreadCpuTime() {
+        try {
+            if (threadBean.isCurrentThreadCpuTimeSupported()) {
+                return threadBean.getCurrentThreadCpuTime();
+            }
+        } catch (UnsupportedOperationException uoe) {
+            // fall through
+        }
+        return -1;
+    }
+}
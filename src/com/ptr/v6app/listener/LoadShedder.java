@@ -0,0 +1,118 @@
+package com.ptr.v6app.listener;
+
+import java.nio.ByteBuffer;
+
+/**
+ * Sheds the least useful frames before they reach the worker ring when the worker falls behind,
+ * so node discovery keeps seeing what matters on a saturated link instead of losing frames at
+ * random to a full ring. Frames are classified (see PacketClassifier) and the ring's occupancy
+ * decides what gets in:
+ * <ul>
+ * <li>below the bulk watermark every frame is queued;</li>
+ * <li>from the bulk watermark, only one in bulkSampleEvery bulk frames is queued;</li>
+ * <li>from the new source watermark, only control frames are queued, the rest of the ring is kept
+ * for them.</li>
+ * </ul>
+ * Instances are confined to the capture thread.
+ */
+public class LoadShedder {
+
+    // -- Worker ring
+    private final PacketRing ring;
+
+    // -- Frame classification
+    private final PacketClassifier classifier = new PacketClassifier();
+
+    // -- Occupancy watermarks, in slots
+    private final int bulkWatermark;
+    private final int newSourceWatermark;
+
+    // -- Bulk sampling past the bulk watermark, 0 keeps none
+    private final int bulkSampleEvery;
+    private int bulkCountdown;
+
+    // -- Per-class counters
+    private final ShedStats stats;
+
+    /**
+     * Creates a load shedder.
+     *
+     * @param ring
+     *            The worker ring.
+     * @param stats
+     *            The per-class counters to update.
+     * @param bulkPercent
+     *            Ring occupancy, in percent, from which bulk frames are sampled.
+     * @param newSourcePercent
+     *            Ring occupancy, in percent, from which only control frames are queued.
+     * @param bulkSampleEvery
+     *            One in this many bulk frames is queued past the bulk watermark, 0 queues none.
+     */
+    public LoadShedder(PacketRing ring, ShedStats stats, int bulkPercent, int newSourcePercent,
+            int bulkSampleEvery) {
+        this.ring = ring;
+        this.stats = stats;
+        int capacity = ring.getCapacity();
+        this.bulkWatermark = (int) ((long) capacity * Math.max(0, bulkPercent) / 100);
+        this.newSourceWatermark = Math.max(bulkWatermark,
+                (int) ((long) capacity * Math.max(0, newSourcePercent) / 100));
+        this.bulkSampleEvery = Math.max(0, bulkSampleEvery);
+        this.bulkCountdown = this.bulkSampleEvery;
+    }
+
+    public PacketClassifier getClassifier() {
+        return classifier;
+    }
+
+    /**
+     * Classifies a captured frame and queues it in the ring unless it's shed.
+     *
+     * @param buffer
+     *            The buffer holding the frame.
+     * @param offset
+     *            Offset of the frame in the buffer.
+     * @param caplen
+     *            Captured bytes of the frame.
+     * @param wirelen
+     *            Length of the frame on the wire.
+     * @param seconds
+     *            Capture time, seconds since the epoch.
+     * @param micros
+     *            Capture time, microseconds within the second.
+     * @return true if the frame was queued.
+     */
+    public boolean offer(ByteBuffer buffer, int offset, int caplen, int wirelen, long seconds,
+            int micros) {
+        int priorityClass = classifier.classify(buffer, offset, caplen);
+        stats.offered(priorityClass);
+
+        if (priorityClass != PacketClassifier.CONTROL) {
+            int occupancy = ring.getOccupancy();
+            if (occupancy >= newSourceWatermark) {
+                stats.shed(priorityClass);
+                return false;
+            }
+            if (priorityClass == PacketClassifier.BULK && occupancy >= bulkWatermark
+                    && !sampleBulk()) {
+                stats.shed(priorityClass);
+                return false;
+            }
+        }
+
+        // the ring's overflow policy still applies once it's full
+        if (!ring.offer(buffer, offset, caplen, wirelen, seconds, micros)) {
+            stats.overflowed(priorityClass);
+            return false;
+        }
+        classifier.markSourceSeen();
+        return true;
+    }
+
+    private boolean sampleBulk() {
+        if (bulkSampleEvery == 0 || --bulkCountdown > 0) {
+            return false;
+        }
+        bulkCountdown = bulkSampleEvery;
+        return true;
+    }
+}
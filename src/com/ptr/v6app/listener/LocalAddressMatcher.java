@@ -0,0 +1,161 @@
+package com.ptr.v6app.listener;
+
+import java.util.Arrays;
+
+import com.ptr.v6app.util.PackedAddress;
+
+/**
+ * Decides whether an address seen in a packet belongs to a node on the local network. The rules are
+ * compiled once per interface into a decision table of (network, mask, verdict) entries over packed
+ * addresses (see PackedAddress), so deciding takes a few integer operations and never allocates.
+ *
+ * Rules are checked in order and the first match decides:
+ * <ol>
+ * <li>the broadcast MAC is never local</li>
+ * <li>address prefixes: multicast is never local; link-local, site-local, the interface's IPv4
+ * subnets and the IPv4 default gateway are local</li>
+ * <li>packet facts: the source of a neighbor advertisement with a hop limit of 255, and both ends
+ * of an echo reply to one of our neighbor probes, are local</li>
+ * </ol>
+ */
+public class LocalAddressMatcher {
+
+    // -- Packet facts, computed once per packet by the caller
+    public static final int NEIGHBOR_ADVERT_HOP255 = 0x1;
+    public static final int NEIGHBOR_PROBE_REPLY = 0x2;
+
+    // -- Rule verdicts
+    private static final byte REMOTE = 0;
+    private static final byte LOCAL = 1;
+
+    // -- IPv4 rules, (network, mask) over the address in network order
+    private int[] ip4Networks = new int[0];
+    private int[] ip4Masks = new int[0];
+    private byte[] ip4Verdicts = new byte[0];
+
+    // -- IPv6 rules, (network, mask) over the high 64 bits of the address
+    private long[] ip6Networks = new long[0];
+    private long[] ip6Masks = new long[0];
+    private byte[] ip6Verdicts = new byte[0];
+
+    /**
+     * Creates a matcher with the interface-independent rules.
+     */
+    public LocalAddressMatcher() {
+
+        // multicast, 224.0.0.0/4
+        addIp4Rule(0xe0000000, 4, REMOTE);
+
+        // link-local, 169.254.0.0/16
+        addIp4Rule(0xa9fe0000, 16, LOCAL);
+
+        // site-local, 10.0.0.0/8, 172.16.0.0/12 and 192.168.0.0/16
+        addIp4Rule(0x0a000000, 8, LOCAL);
+        addIp4Rule(0xac100000, 12, LOCAL);
+        addIp4Rule(0xc0a80000, 16, LOCAL);
+
+        // multicast, ff00::/8
+        addIp6Rule(0xff00000000000000L, 8, REMOTE);
+
+        // link-local fe80::/10 and site-local fec0::/10
+        addIp6Rule(0xfe80000000000000L, 10, LOCAL);
+        addIp6Rule(0xfec0000000000000L, 10, LOCAL);
+    }
+
+    /**
+     * Adds an IPv4 subnet of the interface, addresses in it are local.
+     *
+     * @param address
+     *            An address in the subnet, in network order.
+     * @param netmask
+     *            The subnet mask, in network order.
+     */
+    public void addIp4Subnet(int address, int netmask) {
+        addIp4Entry(address, netmask, LOCAL);
+    }
+
+    /**
+     * Adds the IPv4 default gateway, it's local.
+     *
+     * @param gateway
+     *            The gateway address, in network order.
+     */
+    public void addIp4Gateway(int gateway) {
+        addIp4Subnet(gateway, 0xffffffff);
+    }
+
+    /**
+     * Decides whether an address is on the local network.
+     *
+     * @param mac
+     *            The packed MAC the address was seen with.
+     * @param ipHigh
+     *            The high 64 bits of the packed address.
+     * @param ipLow
+     *            The low 64 bits of the packed address.
+     * @param frameSrcMac
+     *            The packed source MAC of the frame.
+     * @param packetFacts
+     *            NEIGHBOR_ADVERT_HOP255 and/or NEIGHBOR_PROBE_REPLY if they apply to the packet.
+     * @return true if the address is local.
+     */
+    public boolean isLocal(long mac, long ipHigh, long ipLow, long frameSrcMac, int packetFacts) {
+
+        // ignore broadcast MAC (FF:FF:FF:FF:FF:FF)
+        if (mac == PackedAddress.BROADCAST_MAC) {
+            return false;
+        }
+
+        // address prefixes, IPv4-mapped IPv6 addresses are treated as IPv4 (as InetAddress does)
+        if (PackedAddress.isIp4(ipHigh, ipLow)) {
+            int addr = (int) ipLow;
+            for (int i = 0; i < ip4Networks.length; i++) {
+                if ((addr & ip4Masks[i]) == ip4Networks[i]) {
+                    return ip4Verdicts[i] == LOCAL;
+                }
+            }
+        } else {
+            for (int i = 0; i < ip6Networks.length; i++) {
+                if ((ipHigh & ip6Masks[i]) == ip6Networks[i]) {
+                    return ip6Verdicts[i] == LOCAL;
+                }
+            }
+        }
+
+        // if this is a Neighbor Advertisement with a hop limit of 255, the source is local
+        if ((packetFacts & NEIGHBOR_ADVERT_HOP255) != 0 && mac == frameSrcMac) {
+            return true;
+        }
+
+        // if this is an EchoReply to one of our neighbor probes, the source is local
+        //
+        // TODO: We probably want to come up with a better way to  identify if an
+        // address is on the local network, maybe defer to plugins or allow plugins
+        // to add nodes to the master collection?
+        return (packetFacts & NEIGHBOR_PROBE_REPLY) != 0;
+    }
+
+    private void addIp4Rule(int network, int prefixLength, byte verdict) {
+        addIp4Entry(network, (int) (0xffffffff00000000L >>> prefixLength), verdict);
+    }
+
+    private void addIp4Entry(int network, int mask, byte verdict) {
+        int n = ip4Networks.length;
+        ip4Networks = Arrays.copyOf(ip4Networks, n + 1);
+        ip4Masks = Arrays.copyOf(ip4Masks, n + 1);
+        ip4Verdicts = Arrays.copyOf(ip4Verdicts, n + 1);
+        ip4Networks[n] = network & mask;
+        ip4Masks[n] = mask;
+        ip4Verdicts[n] = verdict;
+    }
+
+    private void addIp6Rule(long network, int prefixLength, byte verdict) {
+        int n = ip6Networks.length;
+        ip6Networks = Arrays.copyOf(ip6Networks, n + 1);
+        ip6Masks = Arrays.copyOf(ip6Masks, n + 1);
+        ip6Verdicts = Arrays.copyOf(ip6Verdicts, n + 1);
+        ip6Masks[n] = -1L << (64 - prefixLength);
+        ip6Networks[n] = network & ip6Masks[n];
+        ip6Verdicts[n] = verdict;
+    }
+}
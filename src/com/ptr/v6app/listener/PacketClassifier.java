@@ -0,0 +1,168 @@
+package com.ptr.v6app.listener;
+
+import java.nio.ByteBuffer;
+
+import com.ptr.v6app.codec.EthernetDecoder;
+import com.ptr.v6app.codec.FrameDecoder;
+import com.ptr.v6app.codec.Icmp6Decoder;
+import com.ptr.v6app.codec.Ip4Decoder;
+
+/**
+ * Sorts captured frames into priority classes by how much they matter to node discovery:
+ * neighbor discovery and echo replies first, then frames from source MACs not seen yet, then
+ * everything else. Only the headers needed are decoded, and the seen MACs are kept in an
+ * open-addressing table of longs, so classifying a frame allocates nothing (except when the table
+ * grows). Instances are confined to the capture thread.
+ */
+public class PacketClassifier {
+
+    // -- Priority classes, most important first
+    public static final int CONTROL = 0;
+    public static final int NEW_SOURCE = 1;
+    public static final int BULK = 2;
+    public static final int CLASS_COUNT = 3;
+
+    // -- Class names, for results
+    private static final String[] CLASS_NAMES = { "control", "newSource", "bulk" };
+
+    // -- ICMPv4 echo reply
+    private static final int IP_PROTO_ICMP = 1;
+    private static final int ICMP_ECHO_REPLY = 0;
+
+    // -- Resize once the table is half full
+    private static final int MAX_LOAD_SHIFT = 1;
+
+    // -- Frame decoder (reused)
+    private final FrameDecoder decoder = new FrameDecoder();
+
+    // -- Seen source MACs, 0 marks an empty slot (the zero MAC is tracked apart)
+    private long[] macs = new long[1024];
+    private int mask = macs.length - 1;
+    private int size;
+    private boolean zeroMacSeen;
+
+    // -- Source MAC of the last classified frame
+    private long sourceMac;
+
+    public static String getClassName(int priorityClass) {
+        return CLASS_NAMES[priorityClass];
+    }
+
+    /**
+     * Classifies a frame. The frame's source MAC only stops counting as new once
+     * {@link #markSourceSeen()} is called, i.e., once one of its frames is actually kept.
+     *
+     * @param buffer
+     *            The buffer holding the frame.
+     * @param offset
+     *            Offset of the frame in the buffer.
+     * @param caplen
+     *            Captured bytes of the frame.
+     * @return The priority class.
+     */
+    public int classify(ByteBuffer buffer, int offset, int caplen) {
+        decoder.wrap(buffer, offset, caplen);
+        EthernetDecoder eth = decoder.ethernet();
+        if (eth == null) {
+            sourceMac = 0;
+            return BULK;
+        }
+        sourceMac = eth.source();
+
+        // neighbor discovery and echo replies
+        if (isControl(decoder)) {
+            return CONTROL;
+        }
+
+        return (isSeen(sourceMac) ? BULK : NEW_SOURCE);
+    }
+
+    /**
+     * Returns true if a frame is neighbor discovery (router and neighbor solicitations and
+     * advertisements, redirects) or an ICMPv6 or ICMPv4 echo reply, the frames node discovery
+     * can't do without.
+     *
+     * @param decoder
+     *            The decoder wrapping the frame.
+     * @return true for a control frame.
+     */
+    static boolean isControl(FrameDecoder decoder) {
+        Icmp6Decoder icmp6 = decoder.icmp6();
+        if (icmp6 != null) {
+            int type = icmp6.type();
+            return (type == Icmp6Decoder.TYPE_ECHO_REPLY
+                    || (type >= Icmp6Decoder.TYPE_ROUTER_SOLICITATION
+                            && type <= Icmp6Decoder.TYPE_REDIRECT));
+        }
+        Ip4Decoder ip4 = decoder.ip4();
+        ByteBuffer buffer = decoder.getBuffer();
+        return (ip4 != null && ip4.protocol() == IP_PROTO_ICMP && ip4.fragmentOffset() == 0
+                && ip4.payloadOffset() < ip4.payloadLimit()
+                && (buffer.get(ip4.payloadOffset()) & 0xff) == ICMP_ECHO_REPLY);
+    }
+
+    /**
+     * Remembers the source MAC of the last classified frame, its later frames are no longer new.
+     */
+    public void markSourceSeen() {
+        long mac = sourceMac;
+        if (mac == 0) {
+            zeroMacSeen = true;
+            return;
+        }
+
+        int i = slot(mac);
+        for (; macs[i] != 0; i = (i + 1) & mask) {
+            if (macs[i] == mac) {
+                return;
+            }
+        }
+        macs[i] = mac;
+        if (++size << MAX_LOAD_SHIFT > macs.length) {
+            resize();
+        }
+    }
+
+    /**
+     * Returns the number of source MACs seen.
+     *
+     * @return The number of MACs.
+     */
+    public int getSeenCount() {
+        return size + (zeroMacSeen ? 1 : 0);
+    }
+
+    private boolean isSeen(long mac) {
+        if (mac == 0) {
+            return zeroMacSeen;
+        }
+        for (int i = slot(mac); macs[i] != 0; i = (i + 1) & mask) {
+            if (macs[i] == mac) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private void resize() {
+        long[] oldMacs = macs;
+        macs = new long[oldMacs.length << 1];
+        mask = macs.length - 1;
+        for (long mac : oldMacs) {
+            if (mac != 0) {
+                int i = slot(mac);
+                while (macs[i] != 0) {
+                    i = (i + 1) & mask;
+                }
+                macs[i] = mac;
+            }
+        }
+    }
+
+    private int slot(long mac) {
+
+        // MACs from one vendor share their high bits, so mix before masking
+        long hash = mac * 0x9e3779b97f4a7c15L;
+        return (int) (hash ^ (hash >>> 32)) & mask;
+    }
+}
@@ -0,0 +1,355 @@
+package com.ptr.v6app.listener;
+
+import java.nio.ByteBuffer;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * A bounded, lock-free ring of preallocated packet slots. The capture thread copies frames into
+ * the ring and a worker thread takes them out for processing, so slow packet processing never holds
+ * up the capture library.
+ *
+ * The ring is a sequence-numbered array queue: every slot carries a sequence that tells producers
+ * and consumers whether it's free, filled, or still held by a consumer. A consumer holds a slot
+ * from {@link #poll()} until {@link #release(Slot)}, so a frame can't be overwritten while it's
+ * being processed, even under the drop-oldest policy.
+ */
+public class PacketRing {
+
+    /**
+     * What to do with a new frame when the ring is full.
+     */
+    public static enum OverflowPolicy {
+
+        // wait for the worker to free a slot (stalls capture)
+        BLOCK("block"),
+
+        // discard the new frame
+        DROP_NEWEST("dropNewest"),
+
+        // discard the oldest queued frame to make room for the new one
+        DROP_OLDEST("dropOldest");
+
+        private final String name;
+
+        private OverflowPolicy(String name) {
+            this.name = name;
+        }
+
+        public String getName() {
+            return name;
+        }
+
+        public static OverflowPolicy fromName(String name) {
+            for (OverflowPolicy policy : values()) {
+                if (policy.name.equalsIgnoreCase(name)) {
+                    return policy;
+                }
+            }
+            return null;
+        }
+    }
+
+    /**
+     * A preallocated frame slot. The data buffer is direct so frames can be copied in and peered by
+     * jNetPcap without touching the Java heap.
+     */
+    public static class Slot {
+
+        // -- Frame data (position 0, limit caplen)
+        private final ByteBuffer data;
+
+        // -- Capture header fields
+        private int caplen;
+        private int wirelen;
+        private long seconds;
+        private int micros;
+
+        // -- Time the frame was queued (System.nanoTime)
+        private long enqueueNanos;
+
+        // -- Ring position of the slot while it's held by a consumer
+        private long position;
+
+        private Slot(int size) {
+            data = ByteBuffer.allocateDirect(size);
+        }
+
+        public ByteBuffer getData() {
+            return data;
+        }
+
+        public int getCaplen() {
+            return caplen;
+        }
+
+        public int getWirelen() {
+            return wirelen;
+        }
+
+        public long getSeconds() {
+            return seconds;
+        }
+
+        public int getMicros() {
+            return micros;
+        }
+
+        public long getEnqueueNanos() {
+            return enqueueNanos;
+        }
+    }
+
+    // -- Blocking policy wait between retries
+    private static final long BLOCK_WAIT_NANOS = 50 * 1000;
+
+    // -- Slots and their sequences
+    private final Slot[] slots;
+    private final AtomicLongArray sequences;
+    private final int mask;
+    private final int slotSize;
+
+    // -- Producer and consumer cursors, and the slots consumers have released
+    private final AtomicLong tail = new AtomicLong();
+    private final AtomicLong head = new AtomicLong();
+    private final AtomicLong released = new AtomicLong();
+
+    // -- Overflow policy
+    private final OverflowPolicy policy;
+
+    // -- Consumer waiting to be woken up by the producer
+    private volatile Thread waitingConsumer;
+
+    // -- Statistics
+    private final PipelineStats stats = new PipelineStats();
+
+    /**
+     * Creates a ring with all of its slots allocated up front.
+     *
+     * @param capacity
+     *            Number of slots, rounded up to a power of two.
+     * @param slotSize
+     *            Size of each slot in bytes, longer frames are truncated.
+     * @param policy
+     *            The overflow policy.
+     */
+    public PacketRing(int capacity, int slotSize, OverflowPolicy policy) {
+        if (capacity < 2 || slotSize < 1) {
+            throw new IllegalArgumentException("Invalid ring size");
+        }
+        if (policy == null) {
+            throw new NullPointerException("null policy");
+        }
+
+        int size = Integer.highestOneBit(capacity - 1) << 1;
+        this.slots = new Slot[size];
+        this.sequences = new AtomicLongArray(size);
+        this.mask = size - 1;
+        this.slotSize = slotSize;
+        this.policy = policy;
+
+        for (int i = 0; i < size; i++) {
+            slots[i] = new Slot(slotSize);
+            sequences.set(i, i);
+        }
+    }
+
+    public int getCapacity() {
+        return slots.length;
+    }
+
+    public OverflowPolicy getPolicy() {
+        return policy;
+    }
+
+    public PipelineStats getStats() {
+        return stats;
+    }
+
+    /**
+     * Returns the number of frames queued or held by consumers.
+     *
+     * @return The current occupancy.
+     */
+    public int getOccupancy() {
+        return (int) Math.max(0, tail.get() - released.get());
+    }
+
+    /**
+     * Copies a captured frame into the ring. Called by the capture thread.
+     *
+     * @param buffer
+     *            The buffer holding the frame, its position and limit are restored after the copy.
+     * @param offset
+     *            Offset of the frame in the buffer.
+     * @param caplen
+     *            Captured bytes of the frame.
+     * @param wirelen
+     *            Length of the frame on the wire.
+     * @param seconds
+     *            Capture time, seconds since the epoch.
+     * @param micros
+     *            Capture time, microseconds within the second.
+     * @return true if the frame was queued, false if it was dropped.
+     */
+    public boolean offer(ByteBuffer buffer, int offset, int caplen, int wirelen, long seconds,
+            int micros) {
+        stats.offered(getOccupancy());
+
+        Slot slot = claim();
+        while (slot == null) {
+            if (policy == OverflowPolicy.DROP_NEWEST) {
+                stats.droppedNewest();
+                return false;
+            }
+
+            if (policy == OverflowPolicy.DROP_OLDEST) {
+                // discard the oldest frame only if it's still queued in the slot we claim next;
+                // if a consumer holds that slot, dropping queued frames wouldn't free it, so the
+                // new frame goes instead
+                Slot oldest = pollAt(tail.get() - slots.length);
+                if (oldest != null) {
+                    release(oldest);
+                    stats.droppedOldest();
+                    slot = claim();
+                }
+                if (slot == null) {
+                    stats.droppedNewest();
+                    return false;
+                }
+                break;
+            }
+
+            // block until the consumer frees a slot, unless we're being shut down
+            if (Thread.currentThread().isInterrupted()) {
+                stats.droppedNewest();
+                return false;
+            }
+            stats.blocked();
+            LockSupport.parkNanos(BLOCK_WAIT_NANOS);
+            slot = claim();
+        }
+
+        // copy the frame, moving the source window rather than slicing it so nothing is allocated
+        int length = Math.min(caplen, slotSize);
+        if (length < caplen) {
+            stats.truncated();
+        }
+        int position = buffer.position();
+        int limit = buffer.limit();
+        buffer.limit(offset + length);
+        buffer.position(offset);
+        slot.data.clear();
+        slot.data.put(buffer);
+        slot.data.flip();
+        buffer.limit(limit);
+        buffer.position(position);
+        slot.caplen = length;
+        slot.wirelen = wirelen;
+        slot.seconds = seconds;
+        slot.micros = micros;
+        slot.enqueueNanos = System.nanoTime();
+
+        publish(slot);
+        return true;
+    }
+
+    /**
+     * Takes the oldest queued frame. The slot stays reserved until {@link #release(Slot)} is
+     * called.
+     *
+     * @return The slot, or null if the ring is empty.
+     */
+    public Slot poll() {
+        long pos = head.get();
+        while (true) {
+            int idx = (int) (pos & mask);
+            long dif = sequences.get(idx) - (pos + 1);
+            if (dif == 0) {
+                if (head.compareAndSet(pos, pos + 1)) {
+                    Slot slot = slots[idx];
+                    slot.position = pos;
+                    return slot;
+                }
+                pos = head.get();
+            } else if (dif < 0) {
+                return null;
+            } else {
+                pos = head.get();
+            }
+        }
+    }
+
+    /**
+     * Returns a slot taken with {@link #poll()} to the ring.
+     *
+     * @param slot
+     *            The slot.
+     */
+    public void release(Slot slot) {
+        sequences.set((int) (slot.position & mask), slot.position + slots.length);
+        released.incrementAndGet();
+    }
+
+    /**
+     * Waits for frames to be queued. Must be called by the (single) consumer thread.
+     *
+     * @param timeoutNanos
+     *            The longest time to wait.
+     */
+    public void awaitFrames(long timeoutNanos) {
+        waitingConsumer = Thread.currentThread();
+        if (tail.get() == head.get()) {
+            LockSupport.parkNanos(this, timeoutNanos);
+        }
+        waitingConsumer = null;
+    }
+
+    private Slot claim() {
+        long pos = tail.get();
+        while (true) {
+            int idx = (int) (pos & mask);
+            long dif = sequences.get(idx) - pos;
+            if (dif == 0) {
+                if (tail.compareAndSet(pos, pos + 1)) {
+                    Slot slot = slots[idx];
+                    slot.position = pos;
+                    return slot;
+                }
+                pos = tail.get();
+            } else if (dif < 0) {
+                return null;
+            } else {
+                pos = tail.get();
+            }
+        }
+    }
+
+    /**
+     * Takes the frame at a given ring position if it's the oldest queued frame.
+     *
+     * @param pos
+     *            The ring position.
+     * @return The slot, or null if the frame at that position isn't queued or isn't the oldest.
+     */
+    private Slot pollAt(long pos) {
+        int idx = (int) (pos & mask);
+        if (sequences.get(idx) == pos + 1 && head.compareAndSet(pos, pos + 1)) {
+            Slot slot = slots[idx];
+            slot.position = pos;
+            return slot;
+        }
+        return null;
+    }
+
+    private void publish(Slot slot) {
+        sequences.set((int) (slot.position & mask), slot.position + 1);
+
+        // wake up the consumer if it's waiting for frames
+        Thread consumer = waitingConsumer;
+        if (consumer != null) {
+            LockSupport.unpark(consumer);
+        }
+    }
+}
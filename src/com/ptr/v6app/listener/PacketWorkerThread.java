@@ -0,0 +1,75 @@
+package com.ptr.v6app.listener;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+import com.ptr.v6app.listener.PacketRing.Slot;
+
+/**
+ * A thread that takes captured frames out of a PacketRing and runs them through the listener's
+ * packet processing (IP parsing, node discovery and listener plugins). When interrupted, the thread
+ * drains the frames still queued before exiting.
+ */
+public class PacketWorkerThread implements Runnable {
+
+    // -- Logger
+    private static final Logger log = LogManager.getLogger(PacketWorkerThread.class.getName());
+
+    // -- Longest wait for new frames before checking for interruption
+    private static final long IDLE_WAIT_NANOS = 100 * 1000 * 1000;
+
+    // -- Frame source
+    private final PacketRing ring;
+
+    // -- Packet processing
+    private final PcapListenerThread listener;
+
+    public PacketWorkerThread(PacketRing ring, PcapListenerThread listener) {
+        this.ring = ring;
+        this.listener = listener;
+    }
+
+    @Override
+    public void run() {
+        log.debug("Starting worker thread...");
+        PipelineStats stats = ring.getStats();
+
+        // process frames until we're interrupted
+        while (!Thread.currentThread().isInterrupted()) {
+            if (!processNext(stats)) {
+                ring.awaitFrames(IDLE_WAIT_NANOS);
+                stats.workerWakeup();
+            }
+        }
+
+        // drain what's left
+        while (processNext(stats)) {
+        }
+
+        log.debug("Exiting worker thread: {}", stats);
+    }
+
+    private boolean processNext(PipelineStats stats) {
+        Slot slot = ring.poll();
+        if (slot == null) {
+            return false;
+        }
+
+        long enqueueNanos = slot.getEnqueueNanos();
+        long startNanos = System.nanoTime();
+        try {
+
+            // the frame is decoded in place in the slot, no copies
+            listener.processFrame(slot.getData(), 0, slot.getCaplen(), slot.getWirelen(),
+                    slot.getSeconds(), slot.getMicros());
+        } catch (Exception e) {
+            log.error("Error processing packet:", e);
+        } finally {
+            ring.release(slot);
+        }
+
+        long endNanos = System.nanoTime();
+        stats.processed(startNanos - enqueueNanos, endNanos - startNanos);
+        return true;
+    }
+}
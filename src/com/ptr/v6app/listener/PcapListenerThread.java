@@ -7,124 +7,448 @@ import java.net.InetAddress;
 import java.net.MulticastSocket;
 import java.net.SocketException;
 import java.net.UnknownHostException;
-import java.util.ArrayList;
-import java.util.Arrays;
+import java.nio.ByteBuffer;
+import java.util.Collection;
+import java.util.Collections;
 import java.util.List;
-import java.util.Map;
+import java.util.concurrent.atomic.AtomicInteger;
 import java.util.concurrent.locks.Lock;
+import java.util.concurrent.locks.ReentrantLock;
 
-import org.apache.commons.net.util.SubnetUtils;
 import org.apache.logging.log4j.LogManager;
 import org.apache.logging.log4j.Logger;
-import org.jnetpcap.JBufferHandler;
-import org.jnetpcap.Pcap;
 import org.jnetpcap.PcapAddr;
-import org.jnetpcap.PcapHeader;
 import org.jnetpcap.PcapIf;
 import org.jnetpcap.PcapSockAddr;
-import org.jnetpcap.nio.JBuffer;
-import org.jnetpcap.nio.JMemory;
-import org.jnetpcap.packet.PcapPacket;
-import org.jnetpcap.packet.format.FormatUtils;
-import org.jnetpcap.protocol.lan.Ethernet;
-import org.jnetpcap.protocol.network.Ip4;
-import org.jnetpcap.protocol.network.Ip6;
-
-import com.ptr.v6app.jnetpcap.packet.EchoReply6;
-import com.ptr.v6app.jnetpcap.packet.NeighborAdvertisement;
+
+import com.ptr.v6app.capture.CaptureBackend;
+import com.ptr.v6app.capture.FrameHandler;
+import com.ptr.v6app.codec.EthernetDecoder;
+import com.ptr.v6app.codec.FrameDecoder;
+import com.ptr.v6app.codec.Icmp6Decoder;
+import com.ptr.v6app.codec.Ip4Decoder;
+import com.ptr.v6app.codec.Ip6Decoder;
+import com.ptr.v6app.node.MacNodeCache;
+import com.ptr.v6app.node.MacNodeTable;
 import com.ptr.v6app.node.NetworkNode;
 import com.ptr.v6app.plugin.ListenerPlugin;
 import com.ptr.v6app.plugin.PluginManager;
 import com.ptr.v6app.plugin.impl.Ping6Plugin;
+import com.ptr.v6app.util.CaptureClock;
 import com.ptr.v6app.util.NetUtils;
+import com.ptr.v6app.util.PackedAddress;
+import com.ptr.v6app.util.V6AppProperties;
 
 /**
- * A thread for listening and processing traffic from a jNetPcap capture.
+ * A thread for listening and processing traffic from a capture backend.
  */
-public class PcapListenerThread implements Runnable, JBufferHandler<String> {
+public class PcapListenerThread implements Runnable, FrameHandler {
 
     // -- Logger
     private static final Logger log = LogManager.getLogger(PcapListenerThread.class.getName());
 
-    // -- Pcap lock (jNetPcap is non-reentrant)
+    // -- Capture lock (jNetPcap is non-reentrant, the injector shares it with a shared handle)
     private final Lock pcapLock;
 
-    // -- Pcap instance
-    private final Pcap pcap;
-
-    // -- Listener packet
-    private final PcapPacket packet = new PcapPacket(JMemory.POINTER);
+    // -- Capture backend
+    private final CaptureBackend capture;
 
-    // -- Packet headers for reuse
-    private final Ethernet eth = new Ethernet();
-    private final Ip4 ip4 = new Ip4();
-    private final Ip6 ip6 = new Ip6();
-    private final NeighborAdvertisement na = new NeighborAdvertisement();
-    private final EchoReply6 echoReply6 = new EchoReply6();
+    // -- Frame decoder, and the parsed packet passed to plugins (both reused)
+    private final FrameDecoder decoder = new FrameDecoder();
+    private final ListenerPacket listenerPacket = new ListenerPacket();
 
     // -- Listener plugins
     private final List<ListenerPlugin> plugins;
 
-    // -- Multicast groups we'll want to join
-    private static final String[] mGroups = { "224.0.0.251", "239.255.255.250", "ff02::2",
-            "ff02::fb", "ff02::f" };
+    // -- Worker stage ring (null when packets are processed on the capture thread)
+    private final PacketRing ring;
+
+    // -- Sheds the least useful frames as the ring fills up (null to queue every frame)
+    private final LoadShedder shedder;
+
+    // -- Samples the frames that don't matter to discovery (used by the processing thread)
+    private final TrafficSampler sampler;
+
+    // -- Per-protocol traffic counters
+    private final TrafficStats traffic;
+
+    // -- Capture loop statistics
+    private final ListenerStats stats = new ListenerStats();
 
-    // -- Observed network nodes on the local network
-    private final Map<String, NetworkNode> localNodes;
+    // -- Heap allocation per packet, sampled on the processing thread
+    private final AllocationStats allocation;
 
-    // -- Subnets for the listening interface
-    private final List<SubnetUtils> subnets = new ArrayList<SubnetUtils>();
-    
-    // -- Local IPv4 default gateway
-    private byte[] ipv4Gateway;
+    // -- Dispatch batching, at most dispatchBatch packets or dispatchBudgetNanos per dispatch
+    private final int dispatchBatch;
+    private final long dispatchBudgetNanos;
+    private int batchPackets;
+    private long batchStartNanos;
+    private boolean budgetExceeded;
 
-    // -- Constants
-    private static final String BROADCAST_MAC = "FF:FF:FF:FF:FF:FF";
+    // -- Multicast groups the listener wants to join
+    private static final String[] LISTENER_GROUPS = { "224.0.0.251", "239.255.255.250", "ff02::2",
+            "ff02::fb", "ff02::f" };
 
-    public PcapListenerThread(Lock pcapLock, Pcap pcap, PcapIf pcapIf,
-            Map<String, NetworkNode> localNodes) {
+    // -- Multicast groups we'll join (ours plus the plugins')
+    private final Collection<String> mGroups;
+
+    // -- Observed network nodes on the local network, shared by the listeners of the capture
+    // shards
+    private final MacNodeTable localNodes;
+
+    // -- Guards the local node table and the plugins once capture shards process frames in
+    // parallel, and the local nodes this listener has already looked up there (both null with a
+    // single shard, set by createShard() before the listeners start)
+    private Lock sharedLock;
+    private MacNodeCache localNodeCache;
+    private static final int LOCAL_NODE_CACHE = 1024;
+
+    // -- Nodes seen with remote addresses only, cached so a busy remote MAC (e.g., the router's)
+    // isn't created for every packet; bounded, since they're never part of the results
+    private static final int REMOTE_NODE_CACHE = 4096;
+    private final MacNodeCache remoteNodes = new MacNodeCache(REMOTE_NODE_CACHE);
+
+    // -- Discovery progress, written by the processing threads and read by the coordinator
+    private final AtomicInteger nodeCount;
+    private final AtomicInteger addressCount;
+
+    // -- Decides which addresses are local, compiled for the listening interface's subnets and
+    // the local IPv4 default gateway (read-only once built, shared with the shards)
+    private final LocalAddressMatcher localMatcher;
+
+    // -- Echo reply identifier of the Ping6Plugin neighbor probes
+    private static final int NEIGHBOR_ID = Integer.parseInt(Ping6Plugin.NEIGHBOR_ID, 16);
+
+    // -- Reading a capture file rather than a live interface
+    private final boolean offline;
+
+    // -- Replay time, advanced by the capture timestamps (null to process every packet)
+    private CaptureClock clock;
+
+    // -- Capture recording (null when not recording)
+    private CaptureRecorder recorder;
+
+    /**
+     * Creates a listener.
+     * 
+     * @param pcapLock
+     *            Lock guarding the capture backend.
+     * @param capture
+     *            The capture backend, live or offline.
+     * @param pcapIf
+     *            The live interface, or null when replaying a capture file. Offline listeners
+     *            don't join multicast groups, have no local subnets or gateway, and exit at the end
+     *            of the file.
+     * @param pluginManager
+     *            The plugins for the interface.
+     * @param requirements
+     *            The merged capture requirements.
+     * @param localNodes
+     *            Table the discovered local nodes are added to.
+     * @param ring
+     *            Ring to the worker thread, or null to process packets on the capture thread.
+     */
+    public PcapListenerThread(Lock pcapLock, CaptureBackend capture, PcapIf pcapIf,
+            PluginManager pluginManager, CaptureRequirements requirements,
+            MacNodeTable localNodes, PacketRing ring) {
         this.pcapLock = pcapLock;
-        this.pcap = pcap;
+        this.capture = capture;
         this.localNodes = localNodes;
+        this.ring = ring;
+        this.mGroups = requirements.getMulticastGroups();
+        this.offline = (pcapIf == null);
+        this.nodeCount = new AtomicInteger();
+        this.addressCount = new AtomicInteger();
+        this.localMatcher = new LocalAddressMatcher();
 
         // get listener plugins
-        plugins = PluginManager.getInstance().getListenerPlugins();
+        plugins = pluginManager.getListenerPlugins();
+
+        // dispatch batching options
+        dispatchBatch = Math.max(1, V6AppProperties.getListenerDispatchBatch());
+        dispatchBudgetNanos = Math.max(1, V6AppProperties.getListenerDispatchBudgetMicros())
+                * 1000L;
+
+        // allocation sampling
+        allocation = stats.getAllocation();
+
+        // traffic sampling
+        sampler = new TrafficSampler(V6AppProperties.getListenerSampling(),
+                V6AppProperties.getListenerSampleEvery());
+        traffic = stats.getTraffic();
+        traffic.setSampling(sampler.getMode(), sampler.getSampleEvery());
+
+        // a replay never sheds frames, it can wait for the worker
+        shedder = (offline ? null : createShedder(ring));
+
+        // nothing is local to a capture file
+        if (offline) {
+            return;
+        }
 
         // note the IPv4 subnets on this interface
         for (PcapAddr pcapAddr : pcapIf.getAddresses()) {
-            if (pcapAddr.getAddr().getFamily() == PcapSockAddr.AF_INET) {
-                String addr = FormatUtils.ip(pcapAddr.getAddr().getData());
-                String subnet = FormatUtils.ip(pcapAddr.getNetmask().getData());
-                subnets.add(new SubnetUtils(addr, subnet));
+            if (pcapAddr.getAddr().getFamily() == PcapSockAddr.AF_INET
+                    && pcapAddr.getNetmask() != null) {
+                int addr = (int) PackedAddress.packLow(pcapAddr.getAddr().getData());
+                int netmask = (int) PackedAddress.packLow(pcapAddr.getNetmask().getData());
+                localMatcher.addIp4Subnet(addr, netmask);
             }
         }
         
         // determine default IPv4 gateway
         try {
-            ipv4Gateway = NetUtils.getLocalIpv4Gateway();
+            byte[] gateway = NetUtils.getLocalIpv4Gateway();
+            if (gateway != null && gateway.length == 4) {
+                localMatcher.addIp4Gateway((int) PackedAddress.packLow(gateway));
+            }
         } catch (IOException ioe) {
-            ipv4Gateway = null;
+            log.debug("Unable to determine the local IPv4 gateway");
+        }
+    }
+
+    /**
+     * Creates a listener for another capture shard of this listener's interface. A shard listener
+     * queues its frames in its own ring, and its own worker thread processes them with its own
+     * decoder, sampler and traffic counters. The local node table, the plugins and the discovery
+     * counts are shared with this listener. It doesn't join multicast groups, this listener does
+     * that for the interface.
+     *
+     * @param primary
+     *            The listener of the interface's first shard.
+     * @param pcapLock
+     *            Lock guarding the shard's capture backend.
+     * @param capture
+     *            The shard's capture backend.
+     * @param ring
+     *            The shard's ring to the worker thread.
+     */
+    private PcapListenerThread(PcapListenerThread primary, Lock pcapLock, CaptureBackend capture,
+            PacketRing ring) {
+        this.pcapLock = pcapLock;
+        this.capture = capture;
+        this.localNodes = primary.localNodes;
+        this.sharedLock = primary.sharedLock;
+        this.localNodeCache = new MacNodeCache(LOCAL_NODE_CACHE);
+        this.ring = ring;
+        this.mGroups = Collections.<String> emptyList();
+        this.offline = primary.offline;
+        this.plugins = primary.plugins;
+        this.dispatchBatch = primary.dispatchBatch;
+        this.dispatchBudgetNanos = primary.dispatchBudgetNanos;
+        this.allocation = stats.getAllocation();
+        this.sampler = new TrafficSampler(primary.sampler.getMode(),
+                primary.sampler.getSampleEvery());
+        this.traffic = stats.getTraffic();
+        this.traffic.setSampling(sampler.getMode(), sampler.getSampleEvery());
+        this.nodeCount = primary.nodeCount;
+        this.addressCount = primary.addressCount;
+        this.localMatcher = primary.localMatcher;
+        this.shedder = createShedder(ring);
+    }
+
+    /**
+     * Creates a listener for another shard of this listener's interface (see
+     * CaptureRequirements.getShardFilterExpression()). Its frames must be processed by a
+     * PacketWorkerThread of its own. Must be called before this listener starts, since from then on
+     * the listeners guard what they share.
+     *
+     * @param pcapLock
+     *            Lock guarding the shard's capture backend.
+     * @param capture
+     *            The shard's capture backend.
+     * @param ring
+     *            The shard's ring to the worker thread.
+     * @return The shard listener.
+     */
+    public PcapListenerThread createShard(Lock pcapLock, CaptureBackend capture,
+            PacketRing ring) {
+        if (ring == null) {
+            throw new IllegalArgumentException("Capture shards need a worker ring");
+        }
+        if (sharedLock == null) {
+            sharedLock = new ReentrantLock();
+            localNodeCache = new MacNodeCache(LOCAL_NODE_CACHE);
         }
+        return new PcapListenerThread(this, pcapLock, capture, ring);
+    }
+
+    private LoadShedder createShedder(PacketRing ring) {
+        if (ring == null || !V6AppProperties.isListenerShedding()) {
+            return null;
+        }
+        return new LoadShedder(ring, stats.getShedding(),
+                V6AppProperties.getListenerShedBulkPercent(),
+                V6AppProperties.getListenerShedNewSourcePercent(),
+                V6AppProperties.getListenerShedBulkSampleEvery());
+    }
+
+    /**
+     * Collects the traffic the listener and the given plugins need to see.
+     * 
+     * @param pluginManager
+     *            The plugins for the interface.
+     * @return The merged capture requirements.
+     */
+    public static CaptureRequirements getCaptureRequirements(PluginManager pluginManager) {
+        CaptureRequirements requirements = new CaptureRequirements();
+
+        // node discovery reads the addresses of every IP packet, and neighbor advertisements and
+        // echo replies to spot local nodes (see LocalAddressMatcher)
+        requirements.requireIp4();
+        requirements.requireIp6();
+        requirements.requireIcmp6Types(129, 136);
+        requirements.requireSnaplen(CaptureRequirements.ETHERNET_HEADER
+                + CaptureRequirements.IP6_HEADER + 4 + 20);
+        requirements.requireSnaplen(CaptureRequirements.ETHERNET_HEADER
+                + CaptureRequirements.IP4_HEADER);
+        for (String group : LISTENER_GROUPS) {
+            requirements.requireMulticastGroup(group);
+        }
+
+        // add what each plugin needs
+        for (ListenerPlugin plugin : pluginManager.getListenerPlugins()) {
+            try {
+                plugin.declareCaptureRequirements(requirements);
+            } catch (Exception e) {
+                log.error("Error getting capture requirements from plugin [" + plugin.getName()
+                        + "]", e);
+            }
+        }
+
+        return requirements;
+    }
+
+    /**
+     * Sets the clock a replay advances with each packet's capture timestamp. Once an alarm stops
+     * the clock the listener stops reading, as if it had reached the end of the file.
+     * 
+     * @param clock
+     *            The replay clock.
+     */
+    public void setClock(CaptureClock clock) {
+        this.clock = clock;
+    }
+
+    /**
+     * Sets the recorder every captured frame is offered to, before it's processed.
+     * 
+     * @param recorder
+     *            The capture recorder.
+     */
+    public void setRecorder(CaptureRecorder recorder) {
+        this.recorder = recorder;
     }
 
     @Override
-    public void nextPacket(PcapHeader header, JBuffer buffer, String user) {
+    public void nextFrame(ByteBuffer buffer, int offset, int caplen, int wirelen, long seconds,
+            int micros) {
 
-        // parse IP header
-        ListenerPacket lPacket = parseIpPacket(header, buffer);
+        // in a replay, the packet may fall past the end of the discovery window
+        if (clock != null && !clock.advance(seconds * 1000 + micros / 1000)) {
+            capture.breakloop();
+            return;
+        }
+
+        // note when the batch started, the time budget only covers packet processing
+        if (batchPackets++ == 0) {
+            batchStartNanos = System.nanoTime();
+        }
+
+        // record the frame, this never blocks
+        if (recorder != null) {
+            recorder.offer(buffer, offset, caplen, wirelen, seconds, micros);
+        }
+
+        // hand the frame to the worker stage if we have one, shedding by priority when it falls
+        // behind, otherwise process it inline
+        if (shedder != null) {
+            shedder.offer(buffer, offset, caplen, wirelen, seconds, micros);
+        } else if (ring != null) {
+            ring.offer(buffer, offset, caplen, wirelen, seconds, micros);
+        } else {
+            processFrame(buffer, offset, caplen, wirelen, seconds, micros);
+        }
+
+        // stop the dispatch early if we've used up the time budget for this batch
+        if (batchPackets < dispatchBatch
+                && System.nanoTime() - batchStartNanos >= dispatchBudgetNanos) {
+            budgetExceeded = true;
+            capture.breakloop();
+        }
+    }
+
+    /**
+     * Parses a captured frame, updates the network nodes and passes the frame to the listener
+     * plugins. Called by the capture thread, or by the worker thread when a PacketRing is used;
+     * never by both. The worker threads of several capture shards run this concurrently, each on
+     * its own listener.
+     * 
+     * @param buffer
+     *            The buffer holding the frame.
+     * @param offset
+     *            Offset of the frame in the buffer.
+     * @param caplen
+     *            Captured bytes of the frame.
+     * @param wirelen
+     *            Length of the frame on the wire.
+     * @param seconds
+     *            Capture time, seconds since the epoch.
+     * @param micros
+     *            Capture time, microseconds within the second.
+     */
+    void processFrame(ByteBuffer buffer, int offset, int caplen, int wirelen, long seconds,
+            int micros) {
+
+        // sample heap allocation for some packets
+        boolean sampled = allocation.begin();
+
+        // parse IP header, every frame goes through node and address discovery
+        decoder.wrap(buffer, offset, caplen);
+        ListenerPacket lPacket = parseIpPacket(wirelen, seconds, micros);
+        if (sampled) {
+            allocation.parsed();
+        }
+
+        // count the frame, only the traffic counters of bulk frames are sampled
+        int weight = sampler.sample(decoder);
+        if (weight == 0) {
+            traffic.skipped();
+        } else {
+            traffic.record(decoder, wirelen, weight);
+            if (lPacket != null) {
+                lPacket.getSrc().getTraffic().record(wirelen, weight);
+            }
+        }
 
         // if we couldn't parse the IP header (e.g., it's not IP), move on
         if (lPacket == null) {
+            if (sampled) {
+                allocation.processed();
+            }
             return;
         }
 
-        // pass the packet to all listener plugins for processing
-        for (ListenerPlugin plugin : plugins) {
-            try {
-                plugin.processPacket(lPacket);
-            } catch (Exception e) {
-                log.error("Error processing packet:", e);
+        // pass the packet to all listener plugins for processing, plugins aren't thread-safe so
+        // the shards take turns
+        if (sharedLock != null) {
+            sharedLock.lock();
+        }
+        try {
+            for (int i = 0; i < plugins.size(); i++) {
+                try {
+                    plugins.get(i).processPacket(lPacket);
+                } catch (Exception e) {
+                    log.error("Error processing packet:", e);
+                }
             }
+        } finally {
+            if (sharedLock != null) {
+                sharedLock.unlock();
+            }
+        }
+        if (sampled) {
+            allocation.processed();
         }
     }
 
@@ -133,26 +457,77 @@ public class PcapListenerThread implements Runnable, JBufferHandler<String> {
         log.debug("Starting listener thread...");
 
         // join multicast groups
-        MulticastSocket mSock = joinMulticastGroups();
+        MulticastSocket mSock = (offline || mGroups.isEmpty() ? null : joinMulticastGroups());
 
-        // don't stop unless we're interrupted
+        // don't stop unless we're interrupted (or reach the end of a capture file)
+        stats.start();
         while (!Thread.interrupted()) {
 
-            // synchronize access to the jNetPcap API
+            // synchronize access to the capture backend
+            int status;
+            long lockStart = System.nanoTime();
             pcapLock.lock();
+            stats.lockAcquired(System.nanoTime() - lockStart);
             try {
 
-                // read one packet at a time so we don't starve the injector thread
-                pcap.dispatch(1, this, "PcapListener");
+                // read up to a batch of packets, the time budget bounds how long we hold the
+                // lock so we don't starve the injector thread on a shared handle; in blocking
+                // mode this sleeps in the backend until packets arrive or the read timeout expires
+                batchPackets = 0;
+                budgetExceeded = false;
+                status = capture.dispatch(dispatchBatch, this);
+            } catch (IOException ioe) {
+                log.error("Error reading from capture: {}", ioe.getMessage());
+                break;
             } finally {
                 pcapLock.unlock();
             }
+
+            // the dispatch return value is lost on breakloop(), so use our own packet count
+            long batchNanos = (batchPackets > 0 ? System.nanoTime() - batchStartNanos : 0);
+            stats.wakeup(batchPackets, batchNanos, budgetExceeded);
+
+            // stop once a capture file has been read entirely
+            if (offline && (status == CaptureBackend.END_OF_CAPTURE
+                    || (clock != null && clock.isStopped()))) {
+                break;
+            }
         }
+        stats.stop();
 
         // leave multicast gruops
         leaveMulticastGroups(mSock);
 
-        log.debug("Exiting listener thread.");
+        log.debug("Exiting listener thread: {}", stats);
+    }
+
+    /**
+     * Returns the listener statistics. Only valid once the listener thread has exited.
+     * 
+     * @return The ListenerStats instance.
+     */
+    public ListenerStats getStats() {
+        return stats;
+    }
+
+    /**
+     * Returns the number of local nodes found so far, by all the shards of the interface. Safe to
+     * call while the listener is running.
+     * 
+     * @return The node count.
+     */
+    public int getNodeCount() {
+        return nodeCount.get();
+    }
+
+    /**
+     * Returns the number of local node addresses found so far, by all the shards of the
+     * interface. Safe to call while the listener is running.
+     * 
+     * @return The address count.
+     */
+    public int getAddressCount() {
+        return addressCount.get();
     }
 
     private MulticastSocket joinMulticastGroups() {
@@ -209,129 +584,124 @@ public class PcapListenerThread implements Runnable, JBufferHandler<String> {
         }
     }
 
-    private ListenerPacket parseIpPacket(PcapHeader header, JBuffer buffer) {
-
-        // prepare packet for processing, these methods map our PcapPacket buffer
-        // from Java to native memory (libpcap/winpcap)
-        packet.peer(buffer);
-        packet.getCaptureHeader().peerTo(header, 0);
-        packet.scan(Ethernet.ID);
+    private ListenerPacket parseIpPacket(int wirelen, long seconds, int micros) {
 
-        // make sure we have an ethernet and ip (v4/v6) header,
-        // this also populates the header objects
-        if (!packet.hasHeader(eth) || !(packet.hasHeader(ip4) || packet.hasHeader(ip6))) {
+        // decode only the layers we need, straight from the frame buffer
+        EthernetDecoder eth = decoder.ethernet();
+        if (eth == null) {
             return null;
         }
-
-        // parse MAC addresses in new arrays, original arrays are mapped to native memory
-        byte[] srcMac = Arrays.copyOf(eth.source(), eth.source().length);
-        byte[] dstMac = Arrays.copyOf(eth.destination(), eth.destination().length);
-
-        // parse IP addresses in new arrays, original arrays are mapped to native memory
-        byte[] srcIp;
-        byte[] dstIp;
-        if (packet.hasHeader(Ip4.ID)) {
-            srcIp = Arrays.copyOf(ip4.source(), ip4.source().length);
-            dstIp = Arrays.copyOf(ip4.destination(), ip4.destination().length);
+        long dstMac = eth.destination();
+        long srcMac = eth.source();
+
+        // read IP addresses in packed form (see PackedAddress), and note the packet facts the
+        // local address rules depend on
+        long srcHigh;
+        long srcLow;
+        long dstHigh;
+        long dstLow;
+        int packetFacts = 0;
+        Ip4Decoder ip4 = decoder.ip4();
+        if (ip4 != null) {
+            srcHigh = 0;
+            srcLow = PackedAddress.packIp4(ip4.source());
+            dstHigh = 0;
+            dstLow = PackedAddress.packIp4(ip4.destination());
         } else {
-            srcIp = Arrays.copyOf(ip6.source(), ip6.source().length);
-            dstIp = Arrays.copyOf(ip6.destination(), ip6.destination().length);
+            Ip6Decoder ip6 = decoder.ip6();
+            if (ip6 == null) {
+                return null;
+            }
+            srcHigh = ip6.sourceHigh();
+            srcLow = ip6.sourceLow();
+            dstHigh = ip6.destinationHigh();
+            dstLow = ip6.destinationLow();
+
+            Icmp6Decoder icmp6 = decoder.icmp6();
+            if (icmp6 != null && icmp6.hasBody()) {
+                if (icmp6.type() == Icmp6Decoder.TYPE_NEIGHBOR_ADVERTISEMENT
+                        && ip6.hopLimit() == 255) {
+                    packetFacts |= LocalAddressMatcher.NEIGHBOR_ADVERT_HOP255;
+                }
+                if (icmp6.type() == Icmp6Decoder.TYPE_ECHO_REPLY
+                        && icmp6.identifier() == NEIGHBOR_ID) {
+                    packetFacts |= LocalAddressMatcher.NEIGHBOR_PROBE_REPLY;
+                }
+            }
         }
 
         // build node instances
-        NetworkNode src = getNetworkNode(srcMac, srcIp);
-        NetworkNode dst = getNetworkNode(dstMac, dstIp);
+        NetworkNode src = getNetworkNode(srcMac, srcHigh, srcLow, srcMac, packetFacts);
+        NetworkNode dst = getNetworkNode(dstMac, dstHigh, dstLow, srcMac, packetFacts);
+        if (src == null || dst == null) {
+            return null;
+        }
 
-        return new ListenerPacket(packet, src, dst);
+        listenerPacket.set(decoder, wirelen, seconds, micros, src, dst);
+        return listenerPacket;
     }
 
-    private NetworkNode getNetworkNode(byte[] mac, byte[] ip) {
-
-        // convert mac to string
-        String macStr = FormatUtils.mac(mac);
-
-        // convert IP to an InetAddress
-        InetAddress inetAddr;
-        try {
-            inetAddr = InetAddress.getByAddress(ip);
-        } catch (UnknownHostException uhe) {
-            log.warn("Error parsing packet");
-            return null;
-        }
+    private NetworkNode getNetworkNode(long mac, long ipHigh, long ipLow, long frameSrcMac,
+            int packetFacts) {
 
         // determine if the address is on our local network
-        boolean isLocalAddr = isLocalAddr(macStr, inetAddr);
+        boolean isLocalAddr = localMatcher.isLocal(mac, ipHigh, ipLow, frameSrcMac, packetFacts);
 
-        // get the local node from our cache if we've seen it before
-        NetworkNode node = localNodes.get(macStr);
-
-        // if it's not in our cache, create it
+        // get the local node if we've seen it before; a MAC seen with remote addresses only gets
+        // a local node once we see it with a local address
+        NetworkNode node = getLocalNode(mac, isLocalAddr);
         if (node == null) {
-
-            // create the node instance and save it if it's local
-            node = new NetworkNode(macStr, isLocalAddr);
-            if (isLocalAddr) {
-                localNodes.put(macStr, node);
-            }
+            node = remoteNodes.getOrCreate(mac, false);
         }
 
-        // note the nodes inet address
-        if (isLocalAddr && !node.hasInetAddress(inetAddr)) {
-            node.addInetAddress(inetAddr);
-            log.info("New node found: MAC[{}], IP[{}], Manufacturer[{}]", macStr,
-                    inetAddr.getHostAddress(), node.resolveManufacturer());
+        // note the nodes inet address, the InetAddress is only created for new addresses; another
+        // shard may add the same address meanwhile, only one of us counts it
+        if (isLocalAddr && !node.hasAddress(ipHigh, ipLow)) {
+            InetAddress inetAddr;
+            try {
+                inetAddr = InetAddress.getByAddress(PackedAddress.unpackIp(ipHigh, ipLow));
+            } catch (UnknownHostException uhe) {
+                log.warn("Error parsing packet");
+                return null;
+            }
+            if (node.addInetAddress(inetAddr)) {
+                addressCount.incrementAndGet();
+                log.info("New node found: MAC[{}], IP[{}], Manufacturer[{}]", node.getMacAddress(),
+                        inetAddr.getHostAddress(), node.resolveManufacturer());
+            }
         }
 
         return node;
     }
 
-    private boolean isLocalAddr(String macStr, InetAddress addr) {
-
-        // ignore broadcast MAC (FF:FF:FF:FF:FF:FF)
-        if (BROADCAST_MAC.equals(macStr)) {
-            return false;
-        }
-
-        // ignore multicast addresses
-        if (addr.isMulticastAddress()) {
-            return false;
+    private NetworkNode getLocalNode(long mac, boolean create) {
+        if (sharedLock == null) {
+            NetworkNode node = localNodes.get(mac);
+            if (node == null && create) {
+                node = localNodes.getOrCreate(mac, true);
+                nodeCount.incrementAndGet();
+            }
+            return node;
         }
 
-        // if the address is link-local or site-local, consider it a new local node
-        if (addr.isLinkLocalAddress() || addr.isSiteLocalAddress()) {
-            return true;
+        // with capture shards the table is shared, so look in our own cache before locking it
+        NetworkNode node = localNodeCache.get(mac);
+        if (node != null) {
+            return node;
         }
-
-        // if this is an IPv4 node, consider it a new local node if its on the same subnet
-        if (addr instanceof Inet4Address) {
-            for (SubnetUtils subnet : subnets) {
-                if (subnet.getInfo().isInRange(addr.getHostAddress())) {
-                    return true;
-                }
+        sharedLock.lock();
+        try {
+            node = localNodes.get(mac);
+            if (node == null && create) {
+                node = localNodes.getOrCreate(mac, true);
+                nodeCount.incrementAndGet();
             }
+        } finally {
+            sharedLock.unlock();
         }
-        
-        // see if this is our local IPv4 gateway
-        if (ipv4Gateway != null && Arrays.equals(addr.getAddress(), ipv4Gateway)) {
-            return true;
+        if (node != null) {
+            localNodeCache.put(node);
         }
-
-        // if this is a Neighbor Advertisement with a hop limit of 255, the source is local
-        if (packet.hasHeader(na) && ip6.hopLimit() == 255
-                && macStr.equals(FormatUtils.mac(eth.source()))) {
-            return true;
-        }
-
-        // if this is an EchoReply with a special ID, the source is local
-        //
-        // TODO: We probably want to come up with a better way to  identify if an
-        // address is on the local network, maybe defer to plugins or allow plugins
-        // to add nodes to the master collection?
-        if (packet.hasHeader(echoReply6)
-                && echoReply6.identifier() == Integer.parseInt(Ping6Plugin.NEIGHBOR_ID, 16)) {
-            return true;
-        }
-
-        return false;
+        return node;
     }
 }
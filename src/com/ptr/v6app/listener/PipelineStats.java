@@ -0,0 +1,147 @@
+package com.ptr.v6app.listener;
+
+import org.w3c.dom.Document;
+import org.w3c.dom.Element;
+
+import com.ptr.v6app.util.Log2Histogram;
+
+/**
+ * Statistics for the capture/worker pipeline. Producer counters are written by the capture thread
+ * and worker counters by the worker thread; both should be read once the threads have exited.
+ */
+public class PipelineStats {
+
+    // -- Producer (capture thread) counters
+    private long offered;
+    private long droppedNewest;
+    private long droppedOldest;
+    private long blocked;
+    private long truncated;
+    private int maxOccupancy;
+    private final Log2Histogram occupancy = new Log2Histogram();
+
+    // -- Consumer (worker thread) counters
+    private long processed;
+    private long workerWakeups;
+    private final Log2Histogram queueNanos = new Log2Histogram();
+    private final Log2Histogram processNanos = new Log2Histogram();
+
+    void offered(int currentOccupancy) {
+        offered++;
+        occupancy.record(currentOccupancy);
+        if (currentOccupancy > maxOccupancy) {
+            maxOccupancy = currentOccupancy;
+        }
+    }
+
+    void droppedNewest() {
+        droppedNewest++;
+    }
+
+    void droppedOldest() {
+        droppedOldest++;
+    }
+
+    void blocked() {
+        blocked++;
+    }
+
+    void truncated() {
+        truncated++;
+    }
+
+    void processed(long waitNanos, long workNanos) {
+        processed++;
+        queueNanos.record(waitNanos);
+        processNanos.record(workNanos);
+    }
+
+    void workerWakeup() {
+        workerWakeups++;
+    }
+
+    public long getOffered() {
+        return offered;
+    }
+
+    public long getDropped() {
+        return droppedNewest + droppedOldest;
+    }
+
+    public long getDroppedNewest() {
+        return droppedNewest;
+    }
+
+    public long getDroppedOldest() {
+        return droppedOldest;
+    }
+
+    public long getBlocked() {
+        return blocked;
+    }
+
+    public long getTruncated() {
+        return truncated;
+    }
+
+    public int getMaxOccupancy() {
+        return maxOccupancy;
+    }
+
+    public long getProcessed() {
+        return processed;
+    }
+
+    public long getWorkerWakeups() {
+        return workerWakeups;
+    }
+
+    public void parseXmlResults(Document doc, Element root, PacketRing ring) {
+
+        // pipeline stats
+        Element pipeline = doc.createElement("pipeline");
+        pipeline.setAttribute("capacity", "" + ring.getCapacity());
+        pipeline.setAttribute("policy", ring.getPolicy().getName());
+        root.appendChild(pipeline);
+
+        // frames offered by the capture thread
+        Element offeredElem = doc.createElement("offered");
+        offeredElem.appendChild(doc.createTextNode("" + offered));
+        pipeline.appendChild(offeredElem);
+
+        // frames processed by the worker
+        Element processedElem = doc.createElement("processed");
+        processedElem.appendChild(doc.createTextNode("" + processed));
+        pipeline.appendChild(processedElem);
+
+        // overflow
+        Element overflow = doc.createElement("overflow");
+        overflow.setAttribute("droppedNewest", "" + droppedNewest);
+        overflow.setAttribute("droppedOldest", "" + droppedOldest);
+        overflow.setAttribute("blocked", "" + blocked);
+        overflow.appendChild(doc.createTextNode("" + getDropped()));
+        pipeline.appendChild(overflow);
+
+        // frames longer than a slot
+        Element truncatedElem = doc.createElement("truncated");
+        truncatedElem.appendChild(doc.createTextNode("" + truncated));
+        pipeline.appendChild(truncatedElem);
+
+        // worker wakeups
+        Element wakeupsElem = doc.createElement("workerWakeups");
+        wakeupsElem.appendChild(doc.createTextNode("" + workerWakeups));
+        pipeline.appendChild(wakeupsElem);
+
+        // occupancy and per-stage latency distributions
+        occupancy.parseXmlResults(doc, pipeline, "occupancy", 1);
+        queueNanos.parseXmlResults(doc, pipeline, "queueLatencyMicros", 1000);
+        processNanos.parseXmlResults(doc, pipeline, "processLatencyMicros", 1000);
+    }
+
+    @Override
+    public String toString() {
+        return "PipelineStats [offered=" + offered + ", processed=" + processed + ", dropped="
+                + getDropped() + ", maxOccupancy=" + maxOccupancy + ", queueNanos=" + queueNanos
+                + ", processNanos=" + processNanos + "]";
+    }
+}
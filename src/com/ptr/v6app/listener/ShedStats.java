@@ -0,0 +1,81 @@
+package com.ptr.v6app.listener;
+
+import org.w3c.dom.Document;
+import org.w3c.dom.Element;
+
+/**
+ * Per-class counters of the listener's load shedding (see LoadShedder). Counters are updated by
+ * the capture thread only and should be read once it has exited.
+ */
+public class ShedStats {
+
+    // -- Frames classified, shed before the ring, and dropped by a full ring, per class
+    private final long[] offered = new long[PacketClassifier.CLASS_COUNT];
+    private final long[] shed = new long[PacketClassifier.CLASS_COUNT];
+    private final long[] overflowed = new long[PacketClassifier.CLASS_COUNT];
+
+    void offered(int priorityClass) {
+        offered[priorityClass]++;
+    }
+
+    void shed(int priorityClass) {
+        shed[priorityClass]++;
+    }
+
+    void overflowed(int priorityClass) {
+        overflowed[priorityClass]++;
+    }
+
+    public long getOffered(int priorityClass) {
+        return offered[priorityClass];
+    }
+
+    public long getShed(int priorityClass) {
+        return shed[priorityClass];
+    }
+
+    public long getOverflowed(int priorityClass) {
+        return overflowed[priorityClass];
+    }
+
+    /**
+     * Returns true if any frame went through load shedding.
+     *
+     * @return true if there are counters to report.
+     */
+    public boolean isUsed() {
+        for (long count : offered) {
+            if (count > 0) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    public void parseXmlResults(Document doc, Element root) {
+
+        // shedding stats
+        Element shedding = doc.createElement("shedding");
+        root.appendChild(shedding);
+
+        // each priority class
+        for (int i = 0; i < PacketClassifier.CLASS_COUNT; i++) {
+            Element classElem = doc.createElement("class");
+            classElem.setAttribute("name", PacketClassifier.getClassName(i));
+            classElem.setAttribute("offered", "" + offered[i]);
+            classElem.setAttribute("shed", "" + shed[i]);
+            classElem.setAttribute("overflowed", "" + overflowed[i]);
+            shedding.appendChild(classElem);
+        }
+    }
+
+    @Override
+    public String toString() {
+        StringBuilder sb = new StringBuilder("ShedStats [");
+        for (int i = 0; i < PacketClassifier.CLASS_COUNT; i++) {
+            sb.append(i > 0 ? ", " : "").append(PacketClassifier.getClassName(i)).append("=")
+                    .append(shed[i] + overflowed[i]).append("/").append(offered[i]);
+        }
+        return sb.append("]").toString();
+    }
+}
@@ -0,0 +1,132 @@
+package com.ptr.v6app.listener;
+
+import com.ptr.v6app.codec.FrameDecoder;
+
+/**
+ * Decides which frames are counted in the traffic counters on a busy segment. Every frame still
+ * goes through node and address discovery and the listener plugins; only the per-protocol and
+ * per-node counter updates are sampled. Discovery-relevant frames (neighbor discovery, router
+ * advertisements and echo replies, see PacketClassifier) are always counted. Of the remaining
+ * frames, one in sampleEvery is counted, either every Nth frame or each frame with probability
+ * 1/N, and its counters are scaled by N. Instances are confined to the packet processing thread.
+ */
+public class TrafficSampler {
+
+    /**
+     * How bulk frames are sampled.
+     */
+    public static enum SamplingMode {
+
+        // count every frame
+        OFF("off"),
+
+        // count every Nth bulk frame
+        COUNT("count"),
+
+        // count each bulk frame with probability 1/N
+        RANDOM("random");
+
+        private final String name;
+
+        private SamplingMode(String name) {
+            this.name = name;
+        }
+
+        public String getName() {
+            return name;
+        }
+
+        public static SamplingMode fromName(String name) {
+            for (SamplingMode mode : values()) {
+                if (mode.name.equalsIgnoreCase(name)) {
+                    return mode;
+                }
+            }
+            return null;
+        }
+    }
+
+    // -- Sampling mode and rate
+    private final SamplingMode mode;
+    private final int sampleEvery;
+
+    // -- Bulk frames left until the next one is kept (count mode)
+    private int countdown;
+
+    // -- xorshift state (random mode), a java.util.Random would pay for thread safety per frame
+    private long seed = System.nanoTime() | 1;
+
+    // -- Frames skipped by the sampler
+    private long skipped;
+
+    /**
+     * Creates a sampler.
+     *
+     * @param mode
+     *            The sampling mode.
+     * @param sampleEvery
+     *            Sampling rate, 1 in sampleEvery bulk frames is counted; 1 or less counts every
+     *            frame.
+     */
+    public TrafficSampler(SamplingMode mode, int sampleEvery) {
+        this.sampleEvery = Math.max(1, sampleEvery);
+        this.mode = (this.sampleEvery == 1 ? SamplingMode.OFF : mode);
+        this.countdown = this.sampleEvery;
+    }
+
+    public SamplingMode getMode() {
+        return mode;
+    }
+
+    /**
+     * Returns the sampling rate, 1 in this many bulk frames is processed.
+     *
+     * @return The sampling rate, 1 when sampling is off.
+     */
+    public int getSampleEvery() {
+        return (mode == SamplingMode.OFF ? 1 : sampleEvery);
+    }
+
+    public long getSkipped() {
+        return skipped;
+    }
+
+    /**
+     * Decides whether to count a frame.
+     *
+     * @param decoder
+     *            The decoder wrapping the frame.
+     * @return 0 to leave the frame out of the counters, otherwise the number of frames on the wire
+     *         it stands for (1 if it bypassed sampling, the sampling rate if it was kept by the
+     *         sampler).
+     */
+    public int sample(FrameDecoder decoder) {
+        if (mode == SamplingMode.OFF) {
+            return 1;
+        }
+
+        // discovery-relevant frames are always counted
+        if (PacketClassifier.isControl(decoder)) {
+            return 1;
+        }
+
+        // sample the rest
+        boolean keep;
+        if (mode == SamplingMode.COUNT) {
+            keep = (--countdown == 0);
+            if (keep) {
+                countdown = sampleEvery;
+            }
+        } else {
+            seed ^= seed << 13;
+            seed ^= seed >>> 7;
+            seed ^= seed << 17;
+            keep = ((seed >>> 1) % sampleEvery == 0);
+        }
+        if (!keep) {
+            skipped++;
+            return 0;
+        }
+        return sampleEvery;
+    }
+}
@@ -0,0 +1,182 @@
+package com.ptr.v6app.listener;
+
+import org.w3c.dom.Document;
+import org.w3c.dom.Element;
+
+import com.ptr.v6app.codec.FrameDecoder;
+import com.ptr.v6app.codec.Ip4Decoder;
+import com.ptr.v6app.codec.Ip6Decoder;
+import com.ptr.v6app.listener.TrafficSampler.SamplingMode;
+import com.ptr.v6app.node.TrafficCounters;
+
+/**
+ * Per-protocol traffic counters of a listener, with the sampling rate they were collected at and
+ * their estimated totals (see TrafficSampler). Counters are updated by the packet processing
+ * thread only and should be read once it has exited.
+ */
+public class TrafficStats {
+
+    // -- IP protocol numbers
+    private static final int PROTO_ICMP = 1;
+    private static final int PROTO_TCP = 6;
+    private static final int PROTO_UDP = 17;
+
+    // -- Protocols counted
+    private static final int ICMP4 = 0;
+    private static final int TCP4 = 1;
+    private static final int UDP4 = 2;
+    private static final int OTHER4 = 3;
+    private static final int ICMP6 = 4;
+    private static final int TCP6 = 5;
+    private static final int UDP6 = 6;
+    private static final int OTHER6 = 7;
+    private static final int NON_IP = 8;
+    private static final int PROTOCOL_COUNT = 9;
+
+    // -- Protocol names, for results
+    private static final String[] PROTOCOL_NAMES = { "icmp4", "tcp4", "udp4", "ip4Other",
+            "icmp6", "tcp6", "udp6", "ip6Other", "nonIp" };
+
+    // -- Counters, per protocol
+    private final TrafficCounters[] protocols = new TrafficCounters[PROTOCOL_COUNT];
+
+    // -- Sampling mode and rate
+    private SamplingMode mode = SamplingMode.OFF;
+    private int sampleEvery = 1;
+
+    // -- Frames skipped by the sampler
+    private long skipped;
+
+    public TrafficStats() {
+        for (int i = 0; i < PROTOCOL_COUNT; i++) {
+            protocols[i] = new TrafficCounters();
+        }
+    }
+
+    /**
+     * Notes the sampling the counters are collected at.
+     *
+     * @param mode
+     *            The sampling mode.
+     * @param sampleEvery
+     *            The sampling rate.
+     */
+    void setSampling(SamplingMode mode, int sampleEvery) {
+        this.mode = mode;
+        this.sampleEvery = sampleEvery;
+    }
+
+    /**
+     * Counts a processed frame under its protocol.
+     *
+     * @param decoder
+     *            The decoder wrapping the frame.
+     * @param wirelen
+     *            Length of the frame on the wire.
+     * @param weight
+     *            Number of frames the frame stands for (see TrafficSampler.sample()).
+     */
+    void record(FrameDecoder decoder, int wirelen, int weight) {
+        int protocol;
+        Ip4Decoder ip4 = decoder.ip4();
+        if (ip4 != null) {
+            switch (ip4.protocol()) {
+            case PROTO_ICMP:
+                protocol = ICMP4;
+                break;
+            case PROTO_TCP:
+                protocol = TCP4;
+                break;
+            case PROTO_UDP:
+                protocol = UDP4;
+                break;
+            default:
+                protocol = OTHER4;
+            }
+        } else {
+            Ip6Decoder ip6 = decoder.ip6();
+            if (ip6 == null) {
+                protocol = NON_IP;
+            } else {
+                switch (ip6.upperLayerProtocol()) {
+                case Ip6Decoder.ICMP6:
+                    protocol = ICMP6;
+                    break;
+                case PROTO_TCP:
+                    protocol = TCP6;
+                    break;
+                case PROTO_UDP:
+                    protocol = UDP6;
+                    break;
+                default:
+                    protocol = OTHER6;
+                }
+            }
+        }
+        protocols[protocol].record(wirelen, weight);
+    }
+
+    void skipped() {
+        skipped++;
+    }
+
+    public SamplingMode getMode() {
+        return mode;
+    }
+
+    public int getSampleEvery() {
+        return sampleEvery;
+    }
+
+    public long getSkipped() {
+        return skipped;
+    }
+
+    /**
+     * Returns true if any frame was counted.
+     *
+     * @return true if there are counters to report.
+     */
+    public boolean isUsed() {
+        for (TrafficCounters counters : protocols) {
+            if (counters.getFrames() > 0) {
+                return true;
+            }
+        }
+        return skipped > 0;
+    }
+
+    public void parseXmlResults(Document doc, Element root) {
+
+        // traffic stats
+        Element traffic = doc.createElement("traffic");
+        traffic.setAttribute("sampling", mode.getName());
+        traffic.setAttribute("sampleEvery", "" + sampleEvery);
+        traffic.setAttribute("skipped", "" + skipped);
+        root.appendChild(traffic);
+
+        // each protocol seen
+        for (int i = 0; i < PROTOCOL_COUNT; i++) {
+            if (protocols[i].getFrames() == 0) {
+                continue;
+            }
+            Element protocolElem = doc.createElement("protocol");
+            protocolElem.setAttribute("name", PROTOCOL_NAMES[i]);
+            protocols[i].setXmlAttributes(protocolElem);
+            traffic.appendChild(protocolElem);
+        }
+    }
+
+    @Override
+    public String toString() {
+        StringBuilder sb = new StringBuilder("TrafficStats [sampling=").append(mode.getName())
+                .append(", sampleEvery=").append(sampleEvery).append(", skipped=").append(skipped);
+        for (int i = 0; i < PROTOCOL_COUNT; i++) {
+            if (protocols[i].getFrames() > 0) {
+                sb.append(", ").append(PROTOCOL_NAMES[i]).append("=")
+                        .append(protocols[i].getEstimatedFrames());
+            }
+        }
+        return sb.append("]").toString();
+    }
+}
@@ -2,7 +2,9 @@ package com.ptr.v6app.main;
 
 import java.io.File;
 import java.text.SimpleDateFormat;
+import java.util.Arrays;
 import java.util.Date;
+import java.util.List;
 
 import javax.xml.parsers.DocumentBuilder;
 import javax.xml.parsers.DocumentBuilderFactory;
@@ -38,6 +40,7 @@ public class V6App {
 
     // -- Constants
     public static final String XML_FILE = "v6app-results.xml";
+    public static final String REPLAY_ARG = "--replay";
 
     public static boolean parseXmlResults(Date start, Ipv6ReadyResult ipv6Result,
             NetworkDiscovery netDiscovery) {
@@ -71,12 +74,14 @@ public class V6App {
             libVersion.appendChild(doc.createTextNode("" + Pcap.libVersion()));
             root.appendChild(libVersion);
 
-            // add IPv6 readiness result
-            try {
-                xmlSuccess &= ipv6Result.parseXmlResults(doc, root);
-            } catch (Exception e) {
-                log.error("Error parsing IPv6 readiness result", e);
-                xmlSuccess = false;
+            // add IPv6 readiness result (there's none for a replay)
+            if (ipv6Result != null) {
+                try {
+                    xmlSuccess &= ipv6Result.parseXmlResults(doc, root);
+                } catch (Exception e) {
+                    log.error("Error parsing IPv6 readiness result", e);
+                    xmlSuccess = false;
+                }
             }
 
             // add network discovery results
@@ -111,6 +116,8 @@ public class V6App {
      * Main method for launching v6App.
      * 
      * @param args
+     *            Empty for a live scan, or --replay followed by one or more .pcap/.pcapng files to
+     *            run network discovery over recorded captures (the IPv6 readiness test is skipped).
      * @throws RegistryHeaderErrors
      */
     public static void main(String[] args) throws RegistryHeaderErrors {
@@ -120,17 +127,28 @@ public class V6App {
         boolean xmlSuccess = false;
 
         try {
-            
-            // start IPv6 readiness test
-            Ipv6Ready ipv6Ready = new Ipv6Ready();
-            Ipv6ReadyResult ipv6Result = ipv6Ready.testIpv6Readiness();
+
+            NetworkDiscovery netDiscovery = new NetworkDiscovery();
+            Ipv6ReadyResult ipv6Result = null;
 
             // determine network discovery duration
             int durationSecs = V6AppProperties.getNetworkDiscoverySecs();
 
-            // start network discovery
-            NetworkDiscovery netDiscovery = new NetworkDiscovery();
-            networkTest = netDiscovery.startNetworkDiscovery(durationSecs * 1000);
+            if (args.length > 0 && REPLAY_ARG.equals(args[0])) {
+
+                // replay capture files instead of testing this host
+                List<String> files = Arrays.asList(args).subList(1, args.length);
+                networkTest = !files.isEmpty()
+                        && netDiscovery.startReplay(files, durationSecs * 1000L);
+            } else {
+
+                // start IPv6 readiness test
+                Ipv6Ready ipv6Ready = new Ipv6Ready();
+                ipv6Result = ipv6Ready.testIpv6Readiness();
+
+                // start network discovery
+                networkTest = netDiscovery.startNetworkDiscovery(durationSecs * 1000);
+            }
 
             // save XML results
             xmlSuccess = parseXmlResults(start, ipv6Result, netDiscovery);
@@ -0,0 +1,99 @@
+package com.ptr.v6app.node;
+
+/**
+ * A fixed-size cache of network nodes keyed by MAC address packed into a long (see PackedAddress).
+ * Direct-mapped: each MAC hashes to one slot, and a node for a MAC that lands on an occupied slot
+ * evicts the node there. Memory use is bounded whatever the number of MACs seen, and finding a
+ * cached node allocates nothing. Instances are not thread-safe.
+ */
+public class MacNodeCache {
+
+    // -- Keys and values, a null value marks an empty slot (so any MAC, even 0, is a valid key)
+    private final long[] macs;
+    private final NetworkNode[] nodes;
+    private final int mask;
+
+    // -- Nodes evicted to make room
+    private long evictions;
+
+    /**
+     * Creates a cache.
+     *
+     * @param capacity
+     *            Number of slots, rounded up to a power of two.
+     */
+    public MacNodeCache(int capacity) {
+        int length = Integer.highestOneBit(Math.max(2, capacity) - 1) << 1;
+        macs = new long[length];
+        nodes = new NetworkNode[length];
+        mask = length - 1;
+    }
+
+    public int getCapacity() {
+        return nodes.length;
+    }
+
+    public long getEvictions() {
+        return evictions;
+    }
+
+    /**
+     * Returns the cached node with the given MAC.
+     *
+     * @param mac
+     *            The packed MAC.
+     * @return The node, or null if it isn't cached (never seen, or evicted).
+     */
+    public NetworkNode get(long mac) {
+        int i = slot(mac);
+        NetworkNode node = nodes[i];
+        return (node != null && macs[i] == mac ? node : null);
+    }
+
+    /**
+     * Returns the cached node with the given MAC, creating it if it isn't cached.
+     *
+     * @param mac
+     *            The packed MAC.
+     * @param isLocal
+     *            Whether a created node is local.
+     * @return The cached or created node.
+     */
+    public NetworkNode getOrCreate(long mac, boolean isLocal) {
+        int i = slot(mac);
+        NetworkNode node = nodes[i];
+        if (node != null && macs[i] == mac) {
+            return node;
+        }
+        if (node != null) {
+            evictions++;
+        }
+
+        node = new NetworkNode(mac, isLocal);
+        macs[i] = mac;
+        nodes[i] = node;
+        return node;
+    }
+
+    /**
+     * Caches a node, evicting the node in its slot if there is one.
+     *
+     * @param node
+     *            The node, keyed by its MAC.
+     */
+    public void put(NetworkNode node) {
+        int i = slot(node.getMac());
+        if (nodes[i] != null && macs[i] != node.getMac()) {
+            evictions++;
+        }
+        macs[i] = node.getMac();
+        nodes[i] = node;
+    }
+
+    private int slot(long mac) {
+
+        // MACs from one vendor share their high bits, so mix before masking
+        long hash = mac * 0x9e3779b97f4a7c15L;
+        return (int) (hash ^ (hash >>> 32)) & mask;
+    }
+}
@@ -0,0 +1,157 @@
+package com.ptr.v6app.node;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * A map of network nodes keyed by MAC address packed into a long (see PackedAddress). Uses open
+ * addressing with linear probing over parallel key/value arrays, so lookups hash a long and touch
+ * no other objects, and finding or creating a node allocates only the node itself. Nodes are never
+ * removed. Instances are not thread-safe.
+ */
+public class MacNodeTable {
+
+    // -- Resize once the table is half full
+    private static final int MAX_LOAD_SHIFT = 1;
+
+    // -- Keys and values, a null value marks an empty slot (so any MAC, even 0, is a valid key)
+    private long[] macs;
+    private NetworkNode[] nodes;
+    private int mask;
+    private int size;
+
+    public MacNodeTable() {
+        this(1024);
+    }
+
+    /**
+     * Creates a table.
+     *
+     * @param expectedNodes
+     *            Number of nodes expected, the table grows as needed.
+     */
+    public MacNodeTable(int expectedNodes) {
+        int minCapacity = Math.max(16, expectedNodes << MAX_LOAD_SHIFT);
+        int capacity = Integer.highestOneBit(minCapacity - 1) << 1;
+        macs = new long[capacity];
+        nodes = new NetworkNode[capacity];
+        mask = capacity - 1;
+    }
+
+    public int size() {
+        return size;
+    }
+
+    /**
+     * Returns the node with the given MAC.
+     *
+     * @param mac
+     *            The packed MAC.
+     * @return The node, or null if there is none.
+     */
+    public NetworkNode get(long mac) {
+        for (int i = slot(mac);; i = (i + 1) & mask) {
+            NetworkNode node = nodes[i];
+            if (node == null || macs[i] == mac) {
+                return node;
+            }
+        }
+    }
+
+    /**
+     * Returns the node with the given MAC, creating it if there is none.
+     *
+     * @param mac
+     *            The packed MAC.
+     * @param isLocal
+     *            Whether a created node is local.
+     * @return The existing or created node.
+     */
+    public NetworkNode getOrCreate(long mac, boolean isLocal) {
+        int i = slot(mac);
+        for (;; i = (i + 1) & mask) {
+            NetworkNode node = nodes[i];
+            if (node == null) {
+                break;
+            }
+            if (macs[i] == mac) {
+                return node;
+            }
+        }
+
+        NetworkNode node = new NetworkNode(mac, isLocal);
+        insert(i, mac, node);
+        return node;
+    }
+
+    /**
+     * Adds or replaces a node.
+     *
+     * @param node
+     *            The node, keyed by its MAC.
+     */
+    public void put(NetworkNode node) {
+        long mac = node.getMac();
+        int i = slot(mac);
+        for (;; i = (i + 1) & mask) {
+            if (nodes[i] == null) {
+                break;
+            }
+            if (macs[i] == mac) {
+                nodes[i] = node;
+                return;
+            }
+        }
+        insert(i, mac, node);
+    }
+
+    /**
+     * Returns a snapshot of the nodes in the table.
+     *
+     * @return A new list of the nodes.
+     */
+    public List<NetworkNode> values() {
+        List<NetworkNode> values = new ArrayList<NetworkNode>(size);
+        for (NetworkNode node : nodes) {
+            if (node != null) {
+                values.add(node);
+            }
+        }
+        return values;
+    }
+
+    private void insert(int i, long mac, NetworkNode node) {
+        macs[i] = mac;
+        nodes[i] = node;
+        if (++size << MAX_LOAD_SHIFT > nodes.length) {
+            resize();
+        }
+    }
+
+    private void resize() {
+        long[] oldMacs = macs;
+        NetworkNode[] oldNodes = nodes;
+        macs = new long[oldMacs.length << 1];
+        nodes = new NetworkNode[oldNodes.length << 1];
+        mask = nodes.length - 1;
+
+        for (int j = 0; j < oldNodes.length; j++) {
+            if (oldNodes[j] == null) {
+                continue;
+            }
+            int i = slot(oldMacs[j]);
+            while (nodes[i] != null) {
+                i = (i + 1) & mask;
+            }
+            macs[i] = oldMacs[j];
+            nodes[i] = oldNodes[j];
+        }
+    }
+
+    private int slot(long mac) {
+
+        // MACs from one vendor share their high bits, so mix before masking
+        long hash = mac * 0x9e3779b97f4a7c15L;
+        return (int) (hash ^ (hash >>> 32)) & mask;
+    }
+}
@@ -3,6 +3,7 @@ package com.ptr.v6app.node;
 import java.net.Inet4Address;
 import java.net.Inet6Address;
 import java.net.InetAddress;
+import java.util.Arrays;
 import java.util.HashMap;
 import java.util.HashSet;
 import java.util.Map;
@@ -17,6 +18,8 @@ import com.ptr.v6app.util.IEEEOuiResolver;
 import com.ptr.v6app.util.Inet6AddressInfo;
 import com.ptr.v6app.util.Inet6AddressInfo.Ipv6Scope;
 import com.ptr.v6app.util.Inet6AddressInfo.TeredoAddrInfo;
+import com.ptr.v6app.util.NetUtils;
+import com.ptr.v6app.util.PackedAddress;
 
 /**
  * This class represents a network node.
@@ -27,21 +30,43 @@ public class NetworkNode {
     private static final Logger log = LogManager.getLogger(NetworkNode.class.getName());
 
     // -- Node attributes
-    private final String macAddress;
+    private final long mac;
     private final boolean isLocal;
     private final Set<InetAddress> inetAddresses = new HashSet<InetAddress>();
     private final Map<String, NodeData> data = new HashMap<String, NodeData>();
 
-    public NetworkNode(String macAddress, boolean isLocal) throws NullPointerException {
-        if (macAddress == null) {
-            throw new NullPointerException("mac address must not be null");
-        }
-
-        this.macAddress = macAddress;
+    // -- Textual MAC, formatted on first use
+    private String macAddress;
+
+    // -- Addresses in packed form, for allocation-free lookups (see PackedAddress); replaced as a
+    // whole on each new address, so processing threads can look addresses up without locking
+    private volatile long[] packedAddrs = new long[0];
+
+    // -- Frames sent by the node, scaled for sampling (written by the packet processing thread of
+    // the capture shard the node's MAC falls in)
+    private final TrafficCounters traffic = new TrafficCounters();
+
+    /**
+     * Creates a node.
+     * 
+     * @param mac
+     *            The MAC address packed into a long (see PackedAddress).
+     * @param isLocal
+     *            Whether the node is on the local network.
+     */
+    public NetworkNode(long mac, boolean isLocal) {
+        this.mac = mac;
         this.isLocal = isLocal;
     }
 
+    public long getMac() {
+        return mac;
+    }
+
     public String getMacAddress() {
+        if (macAddress == null) {
+            macAddress = NetUtils.getMacString(PackedAddress.unpackMac(mac));
+        }
         return macAddress;
     }
 
@@ -53,14 +78,50 @@ public class NetworkNode {
         return inetAddresses;
     }
 
-    public void addInetAddress(InetAddress addr) {
-        inetAddresses.add(addr);
+    /**
+     * Adds an address. Safe to call from several processing threads.
+     * 
+     * @param addr
+     *            The address.
+     * @return true if the node didn't have the address yet.
+     */
+    public synchronized boolean addInetAddress(InetAddress addr) {
+        if (!inetAddresses.add(addr)) {
+            return false;
+        }
+
+        // keep the packed form in step
+        byte[] bytes = addr.getAddress();
+        long[] addrs = Arrays.copyOf(packedAddrs, packedAddrs.length + 2);
+        addrs[addrs.length - 2] = PackedAddress.packHigh(bytes);
+        addrs[addrs.length - 1] = PackedAddress.packLow(bytes);
+        packedAddrs = addrs;
+        return true;
     }
 
     public boolean hasInetAddress(InetAddress addr) {
         return inetAddresses.contains(addr);
     }
 
+    /**
+     * Checks for an address without creating an InetAddress or taking a lock.
+     * 
+     * @param high
+     *            The high 64 bits of the packed address.
+     * @param low
+     *            The low 64 bits of the packed address.
+     * @return true if the node has the address.
+     */
+    public boolean hasAddress(long high, long low) {
+        long[] addrs = packedAddrs;
+        for (int i = 0; i < addrs.length; i += 2) {
+            if (addrs[i + 1] == low && addrs[i] == high) {
+                return true;
+            }
+        }
+        return false;
+    }
+
     public Map<String, NodeData> getNodeDataMap() {
         return data;
     }
@@ -69,11 +130,12 @@ public class NetworkNode {
         data.put(nodeData.getId(), nodeData);
     }
 
+    public TrafficCounters getTraffic() {
+        return traffic;
+    }
+
     public String resolveManufacturer() {
-        String manufacturer = null;
-        if (macAddress != null) {
-            manufacturer = IEEEOuiResolver.resolveManfacturer(macAddress);
-        }
+        String manufacturer = IEEEOuiResolver.resolveManfacturer(getMacAddress());
 
         return (manufacturer == null ? "Unknown" : manufacturer);
     }
@@ -154,6 +216,13 @@ public class NetworkNode {
             }
         }
 
+        // frames sent, with their sampling rate and estimated totals
+        if (traffic.getFrames() > 0) {
+            Element trafficElem = doc.createElement("traffic");
+            traffic.setXmlAttributes(trafficElem);
+            netNode.appendChild(trafficElem);
+        }
+
         // parse data
         for (String key : data.keySet()) {
             NodeData nodeData = data.get(key);
@@ -180,7 +249,7 @@ public class NetworkNode {
         if (addrs.contains(",")) {
             addrs = "[" + addrs + "]";
         }
-        return "NetworkNode [mac=" + macAddress + ", addrs=" + addrs + ", manufacturer="
+        return "NetworkNode [mac=" + getMacAddress() + ", addrs=" + addrs + ", manufacturer="
                 + resolveManufacturer() + "]";
     }
 }
@@ -0,0 +1,91 @@
+package com.ptr.v6app.node;
+
+import org.w3c.dom.Element;
+
+/**
+ * Frame and byte counters for a slice of the captured traffic (a node, a protocol), kept both as
+ * observed and scaled up for sampling. A frame kept by a 1-in-N sampler stands for N frames on the
+ * wire, so the estimated totals add N for it; frames that bypass sampling add 1. Counters are
+ * updated by the packet processing thread only and should be read once it has exited.
+ */
+public class TrafficCounters {
+
+    // -- Frames and bytes actually processed
+    private long frames;
+    private long bytes;
+
+    // -- Processed frames that were kept by the sampler (the others bypassed it)
+    private long sampledFrames;
+
+    // -- Sampling rate of the sampled frames, 1 in sampleEvery
+    private int sampleEvery = 1;
+
+    // -- Estimated totals on the wire
+    private long estimatedFrames;
+    private long estimatedBytes;
+
+    /**
+     * Counts a processed frame.
+     *
+     * @param wirelen
+     *            Length of the frame on the wire.
+     * @param weight
+     *            Number of frames the frame stands for: the sampling rate if it was kept by the
+     *            sampler, 1 if it bypassed sampling.
+     */
+    public void record(int wirelen, int weight) {
+        frames++;
+        bytes += wirelen;
+        if (weight > 1) {
+            sampledFrames++;
+            sampleEvery = weight;
+        }
+        estimatedFrames += weight;
+        estimatedBytes += (long) wirelen * weight;
+    }
+
+    public long getFrames() {
+        return frames;
+    }
+
+    public long getBytes() {
+        return bytes;
+    }
+
+    public long getSampledFrames() {
+        return sampledFrames;
+    }
+
+    public int getSampleEvery() {
+        return sampleEvery;
+    }
+
+    public long getEstimatedFrames() {
+        return estimatedFrames;
+    }
+
+    public long getEstimatedBytes() {
+        return estimatedBytes;
+    }
+
+    /**
+     * Writes the counters as attributes of an element.
+     *
+     * @param elem
+     *            The element.
+     */
+    public void setXmlAttributes(Element elem) {
+        elem.setAttribute("frames", "" + frames);
+        elem.setAttribute("bytes", "" + bytes);
+        elem.setAttribute("sampledFrames", "" + sampledFrames);
+        elem.setAttribute("sampleEvery", "" + sampleEvery);
+        elem.setAttribute("estimatedFrames", "" + estimatedFrames);
+        elem.setAttribute("estimatedBytes", "" + estimatedBytes);
+    }
+
+    @Override
+    public String toString() {
+        return "TrafficCounters [frames=" + frames + ", estimatedFrames=" + estimatedFrames
+                + ", estimatedBytes=" + estimatedBytes + "]";
+    }
+}
@@ -1,5 +1,6 @@
 package com.ptr.v6app.plugin;
 
+import com.ptr.v6app.listener.CaptureRequirements;
 import com.ptr.v6app.listener.ListenerPacket;
 
 public interface ListenerPlugin extends PcapPlugin {
@@ -11,4 +12,14 @@ public interface ListenerPlugin extends PcapPlugin {
      *            A packet object for listeners.
      */
     public void processPacket(ListenerPacket listenerPacket);
+
+    /**
+     * Declares the traffic the plugin reads, so the capture can filter out everything else in the
+     * kernel. Packets that weren't declared (by this or another consumer) may never be passed to
+     * {@link #processPacket(ListenerPacket)}.
+     * 
+     * @param requirements
+     *            The requirements to add to.
+     */
+    public void declareCaptureRequirements(CaptureRequirements requirements);
 }
@@ -14,9 +14,6 @@ public class PluginManager {
     // -- Logger
     private static final Logger log = LogManager.getLogger(PluginManager.class.getName());
 
-    // -- Singleton instance
-    private static PluginManager instance;
-
     // -- Listener plugins
     private List<ListenerPlugin> listenerPlugins = new ArrayList<ListenerPlugin>();
 
@@ -34,17 +31,12 @@ public class PluginManager {
             "com.ptr.v6app.plugin.impl.Udp6Plugin"
             };
 
-    /* Do not instantiate */
-    private PluginManager() {
-    }
-
-    public static PluginManager getInstance() {
-        if (instance == null) {
-            log.debug("Creating PluginManager singleton instance");
-            instance = new PluginManager();
-            instance.loadPlugins();
-        }
-        return instance;
+    /**
+     * Creates a PluginManager with its own set of plugin instances. Plugins keep per-interface
+     * state, so each interface under discovery needs its own PluginManager.
+     */
+    public PluginManager() {
+        loadPlugins();
     }
 
     public List<ListenerPlugin> getListenerPlugins() {
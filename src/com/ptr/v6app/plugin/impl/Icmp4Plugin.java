@@ -17,6 +17,7 @@ import org.jnetpcap.protocol.network.Ip4;
 
 import com.ptr.v6app.injector.LiveInjector;
 import com.ptr.v6app.plugin.InjectorPlugin;
+import com.ptr.v6app.util.InternetChecksum;
 import com.ptr.v6app.util.JNetPcapUtils;
 import com.ptr.v6app.util.NetUtils;
 
@@ -111,10 +112,11 @@ public class Icmp4Plugin implements InjectorPlugin {
                 for (String dstIp : dstIps) {
                     ip.destination(NetUtils.getAddressBytes(dstIp));
                     
-                    // calculate checksums
+                    // calculate checksums (the ICMP message, and so its checksum, doesn't change)
                     eth.calculateChecksum();
-                    ip.checksum(ip.calculateChecksum());
-                    icmp.calculateChecksum();
+                    ip.checksum(0);
+                    ip.checksum(InternetChecksum.finish(
+                            InternetChecksum.sum(packet, ip.getOffset(), ip.hlen() * 4)));
 
                     // make a deep copy of the packet and add it to the list
                     packets.add(new PcapPacket(packet));
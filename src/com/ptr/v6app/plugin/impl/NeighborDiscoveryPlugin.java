@@ -1,8 +1,7 @@
 package com.ptr.v6app.plugin.impl;
 
 import java.io.IOException;
-import java.net.InetAddress;
-import java.net.UnknownHostException;
+import java.nio.ByteBuffer;
 import java.util.ArrayList;
 import java.util.HashSet;
 import java.util.List;
@@ -11,22 +10,23 @@ import java.util.Set;
 import org.apache.logging.log4j.LogManager;
 import org.apache.logging.log4j.Logger;
 import org.jnetpcap.PcapIf;
-import org.jnetpcap.packet.JMemoryPacket;
 import org.jnetpcap.packet.JPacket;
-import org.jnetpcap.packet.PcapPacket;
 import org.jnetpcap.packet.format.FormatUtils;
-import org.jnetpcap.protocol.JProtocol;
-import org.jnetpcap.protocol.lan.Ethernet;
-import org.jnetpcap.protocol.network.Ip6;
 
-import com.googlecode.ipv6.IPv6Address;
+import com.ptr.v6app.codec.FrameDecoder;
+import com.ptr.v6app.codec.Icmp6Decoder;
+import com.ptr.v6app.codec.Ip6Decoder;
+import com.ptr.v6app.injector.InjectionQueue.Priority;
 import com.ptr.v6app.injector.LiveInjector;
-import com.ptr.v6app.jnetpcap.packet.Icmp6;
-import com.ptr.v6app.jnetpcap.packet.NeighborSolicitation;
+import com.ptr.v6app.injector.PacketTemplate;
+import com.ptr.v6app.injector.ProbeKey;
+import com.ptr.v6app.listener.CaptureRequirements;
 import com.ptr.v6app.listener.ListenerPacket;
 import com.ptr.v6app.plugin.InjectorPlugin;
 import com.ptr.v6app.plugin.ListenerPlugin;
 import com.ptr.v6app.util.NetUtils;
+import com.ptr.v6app.util.PackedAddress;
+import com.ptr.v6app.util.PackedAddressSet;
 
 public class NeighborDiscoveryPlugin implements ListenerPlugin, InjectorPlugin {
 
@@ -43,23 +43,35 @@ public class NeighborDiscoveryPlugin implements ListenerPlugin, InjectorPlugin {
     private byte[] srcMac;
     private byte[] srcIp;
 
-    // -- Pcap packet headers for reuse
-    private final Ethernet eth = new Ethernet();
-    private final Ip6 ip = new Ip6();
-    private final Icmp6 icmp = new Icmp6();
-    private final NeighborSolicitation ns = new NeighborSolicitation();
+    // -- Low 64 bits of the source address, our global addresses share them
+    private long srcLowBits;
+
+    // -- Neighbor Solicitation probe template (null until initialized)
+    private PacketTemplate nsTemplate;
+
+    // -- Probe buffers pooled per template
+    private static final int PROBE_POOL_SIZE = 256;
 
     // -- Global /64 prefixes for the local node
     private final List<Long> globalPrefixes = new ArrayList<Long>();
 
     // -- Running collection of processed addresses
-    private final Set<String> processedAddrs = new HashSet<String>();
+    private final PackedAddressSet processedAddrs = new PackedAddressSet();
 
     // -- Neighbor Solicitation template
     private static final String NS_TEMPLATE = "33330000 00000000 00000000 86dd6000 00000020 "
             + "3afffe80 00000000 00000000 00000000 0000ff02 00000000 00000000 00000000 00018700 "
             + "00000000 0000ff02 00000000 00000000 00000000 0001";
 
+    // -- Offset of the target address in the frame
+    private static final int NS_TARGET = PacketTemplate.ICMP6 + 8;
+
+    // -- Solicited-node multicast MAC (33:33:ff:00:00:00) and address (ff02::1:ff00:0), the low
+    // three bytes are the target's
+    private static final long SOLICITED_NODE_MAC = 0x3333ff000000L;
+    private static final long SOLICITED_NODE_HIGH = 0xff02000000000000L;
+    private static final long SOLICITED_NODE_LOW = 0x00000001ff000000L;
+
     @Override
     public String getName() {
         return NAME;
@@ -83,6 +95,15 @@ public class NeighborDiscoveryPlugin implements ListenerPlugin, InjectorPlugin {
             return;
         }
 
+        // parse the NS template with our source link-layer option once, probes are stamped out
+        // of it
+        // (FIXME: Option should be handled in com.ptr.v6app.jnetpcap.packet.NeighborSolicitation)
+        srcLowBits = PackedAddress.packLow(srcIp);
+        nsTemplate = PacketTemplate.fromHex(NS_TEMPLATE + "0101"
+                + FormatUtils.mac(srcMac).replaceAll(":", ""), PROBE_POOL_SIZE);
+        nsTemplate.setMac(nsTemplate.getTemplate(), PacketTemplate.ETH_SOURCE,
+                PackedAddress.packMac(srcMac));
+
         // obtain global /64 prefixes for the local node
         List<Long> prefixes = NetUtils.getGlobalPrefixes();
         if (prefixes != null && !prefixes.isEmpty()) {
@@ -90,19 +111,42 @@ public class NeighborDiscoveryPlugin implements ListenerPlugin, InjectorPlugin {
         }
     }
 
+    @Override
+    public void declareCaptureRequirements(CaptureRequirements requirements) {
+
+        // we check the Ethernet/IPv6 source and destination of every IPv6 packet, and the target
+        // of Neighbor Advertisements answering our solicitations
+        requirements.requireIp6();
+        requirements.requireIcmp6Types(Icmp6Decoder.TYPE_NEIGHBOR_ADVERTISEMENT);
+        requirements.requireSnaplen(CaptureRequirements.ETHERNET_HEADER
+                + CaptureRequirements.IP6_HEADER + 24);
+    }
+
     @Override
     public void processPacket(ListenerPacket listenerPacket) {
 
         // if we have no live injectors registered or global prefixes, don't bother
-        if (liveInjectors.isEmpty() || globalPrefixes.isEmpty()) {
+        if (liveInjectors.isEmpty() || globalPrefixes.isEmpty() || nsTemplate == null) {
             return;
         }
 
         // process IPv6 source/destination
-        PcapPacket packet = listenerPacket.getPacket();
-        if (packet.hasHeader(eth) && packet.hasHeader(ip)) {
-            processAddr(eth.source(), ip.source());
-            processAddr(eth.destination(), ip.destination());
+        FrameDecoder frame = listenerPacket.getFrame();
+        Ip6Decoder ip6 = frame.ip6();
+        if (ip6 != null) {
+            processAddr(ip6.sourceHigh(), ip6.sourceLow());
+            processAddr(ip6.destinationHigh(), ip6.destinationLow());
+        }
+
+        // a Neighbor Advertisement answers our solicitation for its target, stop retrying it
+        Icmp6Decoder icmp6 = frame.icmp6();
+        if (icmp6 != null && icmp6.type() == Icmp6Decoder.TYPE_NEIGHBOR_ADVERTISEMENT
+                && icmp6.hasBody()) {
+            ProbeKey key = new ProbeKey(Icmp6Decoder.TYPE_NEIGHBOR_SOLICITATION,
+                    icmp6.targetHigh(), icmp6.targetLow());
+            for (LiveInjector injector : liveInjectors) {
+                injector.probeAnswered(key);
+            }
         }
     }
 
@@ -122,78 +166,38 @@ public class NeighborDiscoveryPlugin implements ListenerPlugin, InjectorPlugin {
         liveInjectors.remove(injector);
     }
 
-    private void processAddr(byte[] mac, byte[] ipAddr) {
-
-        // build InetAddress
-        InetAddress inetAddr;
-        try {
-            inetAddr = InetAddress.getByAddress(ipAddr);
-        } catch (UnknownHostException e) {
-            return;
-        }
+    private void processAddr(long ipHigh, long ipLow) {
 
         // if this isn't a link-local address, we're done
-        if (!(inetAddr.isLinkLocalAddress() || inetAddr.isSiteLocalAddress())) {
+        if (!PackedAddress.isLinkOrSiteLocal6(ipHigh)) {
             return;
         }
 
         // if we've already processed this address, no need to do it again
-        String key = inetAddr.getHostAddress();
-        if (processedAddrs.contains(key)) {
+        if (processedAddrs.contains(ipHigh, ipLow)) {
             return;
         }
-
-        // build NS template with source link-layer option
-        // (FIXME: Option should be handled in com.ptr.v6app.jnetpcap.packet.NeighborSolicitation)
-        String nsStr = NS_TEMPLATE + "0101" + FormatUtils.mac(srcMac).replaceAll(":", "");
-
-        // build multicast destination address 
-        // (three lower order octets OR'd with MAC 33:33:ff:00:00:00)
-        byte[] dstMac = { (byte) 0x33, (byte) 0x33, (byte) 0xff, (byte) 0x00, (byte) 0x00,
-                (byte) 0x00 };
-        System.arraycopy(ipAddr, 13, dstMac, 3, 3);
-
-        // solicited node destination address
-        byte[] sDstIp = { (byte) 0xff, (byte) 0x02, (byte) 0x00, (byte) 0x00, (byte) 0x00,
-                (byte) 0x00, (byte) 0x00, (byte) 0x00, (byte) 0x00, (byte) 0x00, (byte) 0x00,
-                (byte) 0x01, (byte) 0xff, (byte) 0x00, (byte) 0x00, (byte) 0x00 };
-        System.arraycopy(ipAddr, 13, sDstIp, 13, 3);
-
-        // craft a NS packet for every global prefix
-        for (Long prefix : globalPrefixes) {
-
-            // load NS template
-            JPacket packet = new JMemoryPacket(JProtocol.ETHERNET_ID, nsStr);
-            if (!packet.hasHeader(eth) || !packet.hasHeader(ip) || !packet.hasHeader(icmp)
-                    || !packet.hasHeader(ns)) {
-                log.error("Invalid Neighbor Solicitation packet");
-                return;
-            }
-
-            // generate global address ([Global Prefix] + [Link-Local lower 64 bits])
-            long lowerDstBits = IPv6Address.fromByteArray(ipAddr).getLowBits();
-            IPv6Address globalDstIp = IPv6Address.fromLongs(prefix, lowerDstBits);
-            long lowerSrcBits = IPv6Address.fromByteArray(srcIp).getLowBits();
-            IPv6Address globalSrcIp = IPv6Address.fromLongs(prefix, lowerSrcBits);
-
-            // update packet template
-            ns.targetAddress(globalDstIp.toByteArray());
-            eth.source(srcMac);
-            eth.destination(dstMac);
-            ip.setByteArray(8, globalSrcIp.toByteArray());
-            ip.setByteArray(24, sDstIp);
-            
-            // calculate checksums
-            eth.calculateChecksum();
-            icmp.calculateChecksum();
-
-            // add packet to live injectors
+        // solicited node multicast destination (the three lower order octets of the target)
+        long dstMac = SOLICITED_NODE_MAC | (ipLow & 0xffffff);
+        long dstLow = SOLICITED_NODE_LOW | (ipLow & 0xffffff);
+
+        // craft a NS packet for every global prefix, global addresses are [Global Prefix] +
+        // [Link-Local lower 64 bits]; only the changed fields are patched into the template
+        for (int i = 0; i < globalPrefixes.size(); i++) {
+            long prefix = globalPrefixes.get(i);
             for (LiveInjector injector : liveInjectors) {
-                injector.addInjectionPacket(packet);
+                ByteBuffer frame = nsTemplate.newFrame();
+                nsTemplate.setMac(frame, PacketTemplate.ETH_DESTINATION, dstMac);
+                nsTemplate.setAddress(frame, PacketTemplate.IP6_SOURCE, prefix, srcLowBits);
+                nsTemplate.setAddress(frame, PacketTemplate.IP6_DESTINATION, SOLICITED_NODE_HIGH,
+                        dstLow);
+                nsTemplate.setAddress(frame, NS_TARGET, prefix, ipLow);
+                injector.addInjectionFrame(frame, nsTemplate.getPool(), Priority.NORMAL,
+                        new ProbeKey(Icmp6Decoder.TYPE_NEIGHBOR_SOLICITATION, prefix, ipLow));
             }
         }
 
         // mark this address as processed
-        processedAddrs.add(key);
+        processedAddrs.add(ipHigh, ipLow);
     }
 }
\ No newline at end of file
@@ -1,10 +1,8 @@
 package com.ptr.v6app.plugin.impl;
 
 import java.io.IOException;
-import java.net.InetAddress;
-import java.net.UnknownHostException;
+import java.nio.ByteBuffer;
 import java.util.ArrayList;
-import java.util.Arrays;
 import java.util.HashSet;
 import java.util.List;
 import java.util.Set;
@@ -14,23 +12,30 @@ import org.apache.logging.log4j.Logger;
 import org.jnetpcap.PcapIf;
 import org.jnetpcap.packet.JMemoryPacket;
 import org.jnetpcap.packet.JPacket;
-import org.jnetpcap.packet.PcapPacket;
 import org.jnetpcap.packet.format.FormatUtils;
 import org.jnetpcap.protocol.JProtocol;
 import org.jnetpcap.protocol.lan.Ethernet;
 import org.jnetpcap.protocol.network.Ip6;
 
-import com.googlecode.ipv6.IPv6Address;
+import com.ptr.v6app.codec.EthernetDecoder;
+import com.ptr.v6app.codec.FrameDecoder;
+import com.ptr.v6app.codec.Icmp6Decoder;
+import com.ptr.v6app.codec.Ip6Decoder;
+import com.ptr.v6app.injector.InjectionQueue.Priority;
 import com.ptr.v6app.injector.LiveInjector;
-import com.ptr.v6app.jnetpcap.packet.EchoReply6;
+import com.ptr.v6app.injector.PacketTemplate;
+import com.ptr.v6app.injector.ProbeKey;
 import com.ptr.v6app.jnetpcap.packet.EchoRequest6;
 import com.ptr.v6app.jnetpcap.packet.Icmp6;
+import com.ptr.v6app.listener.CaptureRequirements;
 import com.ptr.v6app.listener.ListenerPacket;
 import com.ptr.v6app.node.NetworkNode;
 import com.ptr.v6app.node.data.Router6Info;
 import com.ptr.v6app.plugin.InjectorPlugin;
 import com.ptr.v6app.plugin.ListenerPlugin;
 import com.ptr.v6app.util.NetUtils;
+import com.ptr.v6app.util.PackedAddress;
+import com.ptr.v6app.util.PackedAddressSet;
 
 public class Ping6Plugin implements ListenerPlugin, InjectorPlugin {
 
@@ -48,17 +53,25 @@ public class Ping6Plugin implements ListenerPlugin, InjectorPlugin {
     private final Ip6 ip = new Ip6();
     private final Icmp6 icmp = new Icmp6();
     private final EchoRequest6 echoRequest6 = new EchoRequest6();
-    private final EchoReply6 echoReply6 = new EchoReply6();
 
     // -- Pcap interface attributes
     private byte[] srcMac;
     private byte[] srcIp;
 
+    // -- Low 64 bits of the source address, our global addresses share them
+    private long srcLowBits;
+
+    // -- Neighbor ping6 probe template (null until initialized)
+    private PacketTemplate neighborTemplate;
+
+    // -- Neighbor probe buffers pooled per template
+    private static final int PROBE_POOL_SIZE = 256;
+
     // -- Global /64 prefixes for the local node
     private final List<Long> globalPrefixes = new ArrayList<Long>();
 
     // -- Running collection of processed addresses
-    private final Set<String> processedAddrs = new HashSet<String>();
+    private final PackedAddressSet processedAddrs = new PackedAddressSet();
 
     // -- EchoRequest6 fields
     private static final String IP6_TEMPLATE = "33330000 00020000 00000000 86dd6000 00000040 "
@@ -70,6 +83,12 @@ public class Ping6Plugin implements ListenerPlugin, InjectorPlugin {
     private static final String PING6_DATA = "01234567 89abcdef 01234567 89abcdef 01234567 "
             + "89abcdef 01234567 89abcdef 01234567 89abcdef 01234567 89abcdef 01234567 89abcdef";
 
+    // -- Echo reply fields of a router response, parsed once
+    private static final int ROUTER_IDENTIFIER = Integer.parseInt(ROUTER_ID, 16);
+    private static final int NEIGHBOR_IDENTIFIER = Integer.parseInt(NEIGHBOR_ID, 16);
+    private static final int SEQUENCE_NUMBER = Integer.parseInt(SEQUENCE_NUM, 16);
+    private static final byte[] PING6_DATA_BYTES = FormatUtils.toByteArray(PING6_DATA);
+
     // -- Injection packets
     private List<JPacket> packets;
 
@@ -120,6 +139,13 @@ public class Ping6Plugin implements ListenerPlugin, InjectorPlugin {
         // add the packet
         packets.add(packet);
 
+        // parse the neighbor ping6 template once, probes are stamped out of it
+        srcLowBits = PackedAddress.packLow(srcIp);
+        neighborTemplate = PacketTemplate.fromHex(IP6_TEMPLATE + ICMP6_TYPE_CODE_CKSUM
+                + NEIGHBOR_ID + SEQUENCE_NUM + PING6_DATA, PROBE_POOL_SIZE);
+        neighborTemplate.setMac(neighborTemplate.getTemplate(), PacketTemplate.ETH_SOURCE,
+                PackedAddress.packMac(srcMac));
+
         // obtain global /64 prefixes for the local node
         List<Long> prefixes = NetUtils.getGlobalPrefixes();
         if (prefixes != null && !prefixes.isEmpty()) {
@@ -132,22 +158,47 @@ public class Ping6Plugin implements ListenerPlugin, InjectorPlugin {
         return packets;
     }
 
+    @Override
+    public void declareCaptureRequirements(CaptureRequirements requirements) {
+
+        // we check the Ethernet/IPv6 source and destination of every IPv6 packet, and need
+        // whole echo replies (header plus our data) to recognize router responses
+        requirements.requireIp6();
+        requirements.requireIcmp6Types(129);
+        requirements.requireSnaplen(CaptureRequirements.ETHERNET_HEADER
+                + CaptureRequirements.IP6_HEADER + 8 + PING6_DATA.replace(" ", "").length() / 2);
+    }
+
     @Override
     public void processPacket(ListenerPacket listenerPacket) {
-        PcapPacket packet = listenerPacket.getPacket();
+        FrameDecoder frame = listenerPacket.getFrame();
+        Ip6Decoder ip6 = frame.ip6();
+        if (ip6 == null) {
+            return;
+        }
 
         // check for at least one live injector and global prefix
-        if (!liveInjectors.isEmpty() && !globalPrefixes.isEmpty()) {
+        if (!liveInjectors.isEmpty() && !globalPrefixes.isEmpty() && neighborTemplate != null) {
 
             // process IPv6 source/destination
-            if (packet.hasHeader(eth) && packet.hasHeader(ip)) {
-                processAddr(eth.source(), ip.source());
-                processAddr(eth.destination(), ip.destination());
-            }
+            EthernetDecoder eth = frame.ethernet();
+            processAddr(eth.source(), ip6.sourceHigh(), ip6.sourceLow());
+            processAddr(eth.destination(), ip6.destinationHigh(), ip6.destinationLow());
         }
 
         // is this an IPv6 EchoReply message?
-        if (packet.hasHeader(echoReply6)) {
+        Icmp6Decoder icmp6 = frame.icmp6();
+        if (icmp6 != null && icmp6.type() == Icmp6Decoder.TYPE_ECHO_REPLY && icmp6.hasBody()) {
+
+            // a neighbor's reply answers our probe of its global address, stop retrying it
+            if (icmp6.identifier() == NEIGHBOR_IDENTIFIER) {
+                ProbeKey key = new ProbeKey(Icmp6Decoder.TYPE_ECHO_REQUEST, ip6.sourceHigh(),
+                        ip6.sourceLow());
+                for (LiveInjector injector : liveInjectors) {
+                    injector.probeAnswered(key);
+                }
+                return;
+            }
 
             // only proceed if we haven't yet flagged this source as an IPv6 router
             NetworkNode src = listenerPacket.getSrc();
@@ -155,17 +206,23 @@ public class Ping6Plugin implements ListenerPlugin, InjectorPlugin {
                 return;
             }
 
-            // get echo reply contents
-            int identifier = echoReply6.identifier();
-            int sequenceNum = echoReply6.sequenceNum();
-            byte[] data = echoReply6.getPayload();
+            // make sure this packet is a router response, the data is compared in place
+            if (icmp6.identifier() != ROUTER_IDENTIFIER || icmp6.sequence() != SEQUENCE_NUMBER
+                    || !icmp6.dataEquals(PING6_DATA_BYTES)) {
+                return;
+            }
 
-            // make sure this packet is a router response
-            if (identifier != Integer.parseInt(ROUTER_ID, 16)
-                    || sequenceNum != Integer.parseInt(SEQUENCE_NUM)
-                    || !Arrays.equals(data, FormatUtils.toByteArray(PING6_DATA))) {
+            // a corrupted reply doesn't make a router; one cut short by the snaplen can't be
+            // checked and is taken as it is
+            int checksum = icmp6.verifyChecksum(ip6);
+            if (checksum == Icmp6Decoder.CHECKSUM_INVALID) {
+                log.debug("Bad ICMPv6 checksum in echo reply from Node[{}]", src.getMacAddress());
                 return;
             }
+            if (checksum == Icmp6Decoder.CHECKSUM_UNKNOWN) {
+                log.debug("Unverified ICMPv6 checksum in echo reply from Node[{}]",
+                        src.getMacAddress());
+            }
 
             // flag the source node as an IPv6 router
             log.info("Node[{}] is an IPv6 router", src.getMacAddress());
@@ -183,65 +240,33 @@ public class Ping6Plugin implements ListenerPlugin, InjectorPlugin {
         liveInjectors.remove(injector);
     }
 
-    private void processAddr(byte[] mac, byte[] ipAddr) {
-
-        // build InetAddress
-        InetAddress inetAddr;
-        try {
-            inetAddr = InetAddress.getByAddress(ipAddr);
-        } catch (UnknownHostException e) {
-            return;
-        }
+    private void processAddr(long mac, long ipHigh, long ipLow) {
 
         // if this isn't a link-local address, we're done
-        if (!(inetAddr.isLinkLocalAddress() || inetAddr.isSiteLocalAddress())) {
+        if (!PackedAddress.isLinkOrSiteLocal6(ipHigh)) {
             return;
         }
 
         // if we've already processed this address, no need to do it again
-        String key = inetAddr.getHostAddress();
-        if (processedAddrs.contains(key)) {
+        if (processedAddrs.contains(ipHigh, ipLow)) {
             return;
         }
 
-        // build a ping6 packet template
-        String packetStr = IP6_TEMPLATE + ICMP6_TYPE_CODE_CKSUM + NEIGHBOR_ID + SEQUENCE_NUM
-                + PING6_DATA;
-
-        // craft a ping6 packet for every global prefix
-        for (Long prefix : globalPrefixes) {
-
-            // load ping6 template
-            JPacket packet = new JMemoryPacket(JProtocol.ETHERNET_ID, packetStr);
-            if (!packet.hasHeader(eth) || !packet.hasHeader(ip) || !packet.hasHeader(icmp)
-                    || !packet.hasHeader(echoRequest6)) {
-                log.error("Invalid Echo Request packet");
-                return;
-            }
-
-            // generate global addresses ([Global Prefix] + [Link-Local lower 64 bits])
-            long lowerDstBits = IPv6Address.fromByteArray(ipAddr).getLowBits();
-            IPv6Address globalDstIp = IPv6Address.fromLongs(prefix, lowerDstBits);
-            long lowerSrcBits = IPv6Address.fromByteArray(srcIp).getLowBits();
-            IPv6Address globalSrcIp = IPv6Address.fromLongs(prefix, lowerSrcBits);
-
-            // update packet template
-            eth.source(srcMac);
-            eth.destination(mac);
-            ip.setByteArray(8, globalSrcIp.toByteArray());
-            ip.setByteArray(24, globalDstIp.toByteArray());
-            
-            // calculate checksums
-            eth.calculateChecksum();
-            icmp.calculateChecksum();
-
-            // add packet to live injectors
+        // craft a ping6 packet for every global prefix, global addresses are [Global Prefix] +
+        // [Link-Local lower 64 bits]; only the changed fields are patched into the template
+        for (int i = 0; i < globalPrefixes.size(); i++) {
+            long prefix = globalPrefixes.get(i);
             for (LiveInjector injector : liveInjectors) {
-                injector.addInjectionPacket(packet);
+                ByteBuffer frame = neighborTemplate.newFrame();
+                neighborTemplate.setMac(frame, PacketTemplate.ETH_DESTINATION, mac);
+                neighborTemplate.setAddress(frame, PacketTemplate.IP6_SOURCE, prefix, srcLowBits);
+                neighborTemplate.setAddress(frame, PacketTemplate.IP6_DESTINATION, prefix, ipLow);
+                injector.addInjectionFrame(frame, neighborTemplate.getPool(), Priority.LOW,
+                        new ProbeKey(Icmp6Decoder.TYPE_ECHO_REQUEST, prefix, ipLow));
             }
         }
 
         // mark this address as processed
-        processedAddrs.add(key);
+        processedAddrs.add(ipHigh, ipLow);
     }
 }
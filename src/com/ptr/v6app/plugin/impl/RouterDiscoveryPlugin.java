@@ -2,7 +2,6 @@ package com.ptr.v6app.plugin.impl;
 
 import java.io.IOException;
 import java.util.ArrayList;
-import java.util.Arrays;
 import java.util.List;
 
 import org.apache.logging.log4j.LogManager;
@@ -10,17 +9,18 @@ import org.apache.logging.log4j.Logger;
 import org.jnetpcap.PcapIf;
 import org.jnetpcap.packet.JMemoryPacket;
 import org.jnetpcap.packet.JPacket;
-import org.jnetpcap.packet.PcapPacket;
 import org.jnetpcap.packet.format.FormatUtils;
 import org.jnetpcap.protocol.JProtocol;
 import org.jnetpcap.protocol.lan.Ethernet;
-import org.jnetpcap.protocol.network.Ip4;
 import org.jnetpcap.protocol.network.Ip6;
 
+import com.ptr.v6app.codec.FrameDecoder;
+import com.ptr.v6app.codec.Icmp6Decoder;
+import com.ptr.v6app.codec.Ip4Decoder;
 import com.ptr.v6app.injector.LiveInjector;
 import com.ptr.v6app.jnetpcap.packet.Icmp6;
-import com.ptr.v6app.jnetpcap.packet.RouterAdvertisement;
 import com.ptr.v6app.jnetpcap.packet.RouterSolicitation;
+import com.ptr.v6app.listener.CaptureRequirements;
 import com.ptr.v6app.listener.ListenerPacket;
 import com.ptr.v6app.node.NetworkNode;
 import com.ptr.v6app.node.data.Router4Info;
@@ -28,6 +28,7 @@ import com.ptr.v6app.node.data.Router6Info;
 import com.ptr.v6app.plugin.InjectorPlugin;
 import com.ptr.v6app.plugin.ListenerPlugin;
 import com.ptr.v6app.util.NetUtils;
+import com.ptr.v6app.util.PackedAddress;
 
 public class RouterDiscoveryPlugin implements ListenerPlugin, InjectorPlugin {
 
@@ -42,15 +43,12 @@ public class RouterDiscoveryPlugin implements ListenerPlugin, InjectorPlugin {
             + "3afffe80 00000000 00000000 00000000 0000ff02 00000000 00000000 00000000 00028500 "
             + "00000000 0000";
 
-    // -- Packet headers for reuse
-    private final RouterAdvertisement ra = new RouterAdvertisement();
-    private final Ip4 ip4 = new Ip4();
-
     // -- Injection packets
     private List<JPacket> packets;
 
-    // -- Default IPv4 gateway for the localhost
+    // -- Default IPv4 gateway for the localhost, and its address in network order
     private byte[] ipv4Gateway;
+    private int ipv4GatewayAddr;
 
     @Override
     public String getName() {
@@ -111,20 +109,39 @@ public class RouterDiscoveryPlugin implements ListenerPlugin, InjectorPlugin {
             ipv4Gateway = NetUtils.getLocalIpv4Gateway();
             log.debug("Default IPv4 gateway of localhost is [{}]",
                     NetUtils.getHostAddress(ipv4Gateway));
+            if (ipv4Gateway != null && ipv4Gateway.length == 4) {
+                ipv4GatewayAddr = (int) PackedAddress.packLow(ipv4Gateway);
+            } else {
+                ipv4Gateway = null;
+            }
         } catch (IOException ioe) {
             log.warn("Unable to determine IPv4 default gateway");
             ipv4Gateway = null;
         }
     }
 
+    @Override
+    public void declareCaptureRequirements(CaptureRequirements requirements) {
+
+        // router advertisements, and IPv4 addresses to spot the default gateway
+        requirements.requireIcmp6Types(134);
+        requirements.requireIp4();
+        requirements.requireSnaplen(CaptureRequirements.ETHERNET_HEADER
+                + CaptureRequirements.IP6_HEADER + 4 + 12);
+        requirements.requireSnaplen(CaptureRequirements.ETHERNET_HEADER
+                + CaptureRequirements.IP4_HEADER);
+    }
+
     @Override
     public void processPacket(ListenerPacket listenerPacket) {
-        PcapPacket packet = listenerPacket.getPacket();
+        FrameDecoder frame = listenerPacket.getFrame();
         NetworkNode src = listenerPacket.getSrc();
         NetworkNode dst = listenerPacket.getDst();
 
         // is this an RA packet?
-        if (packet.hasHeader(ra)) {
+        Icmp6Decoder icmp6 = frame.icmp6();
+        if (icmp6 != null && icmp6.type() == Icmp6Decoder.TYPE_ROUTER_ADVERTISEMENT
+                && icmp6.hasBody()) {
 
             // only proceed if we haven't yet flagged this source as an IPv6 router
             if (src.getNodeDataMap().containsKey(Router6Info.ID)) {
@@ -137,11 +154,12 @@ public class RouterDiscoveryPlugin implements ListenerPlugin, InjectorPlugin {
         }
 
         // is this src/dst a new IPv4 router?
-        if (ipv4Gateway != null && packet.hasHeader(ip4)) {
+        Ip4Decoder ip4 = (ipv4Gateway == null ? null : frame.ip4());
+        if (ip4 != null) {
             
             // check src
             if (!src.getNodeDataMap().containsKey(Router4Info.ID)
-                    && Arrays.equals(ip4.source(), ipv4Gateway)) {
+                    && ip4.source() == ipv4GatewayAddr) {
 
                 // flag the source node as an IPv4 router
                 log.info("Node[{}] is an IPv4 router", src.getMacAddress());
@@ -150,7 +168,7 @@ public class RouterDiscoveryPlugin implements ListenerPlugin, InjectorPlugin {
             
             // check dst
             if (!dst.getNodeDataMap().containsKey(Router4Info.ID)
-                    && Arrays.equals(ip4.destination(), ipv4Gateway)) {
+                    && ip4.destination() == ipv4GatewayAddr) {
 
                 // flag the destination node as an IPv4 router
                 log.info("Node[{}] is an IPv4 router", dst.getMacAddress());
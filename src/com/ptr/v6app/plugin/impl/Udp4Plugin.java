@@ -17,6 +17,7 @@ import org.jnetpcap.protocol.tcpip.Udp;
 
 import com.ptr.v6app.injector.LiveInjector;
 import com.ptr.v6app.plugin.InjectorPlugin;
+import com.ptr.v6app.util.InternetChecksum;
 import com.ptr.v6app.util.JNetPcapUtils;
 import com.ptr.v6app.util.NetUtils;
 
@@ -31,6 +32,9 @@ public class Udp4Plugin implements InjectorPlugin {
     // -- Plugin name
     private static final String NAME = "UDP IPv4";
 
+    // -- IP protocol number of UDP, for the checksum pseudo-header
+    private static final int PROTO_UDP = 17;
+
     // -- Injection packets
     private List<JPacket> packets;
 
@@ -110,8 +114,17 @@ public class Udp4Plugin implements InjectorPlugin {
                     
                     // calculate checksums
                     eth.calculateChecksum();
-                    ip.checksum(ip.calculateChecksum());
-                    udp.checksum(0);  // TODO: UDP checksum broken?
+                    ip.checksum(0);
+                    ip.checksum(InternetChecksum.finish(
+                            InternetChecksum.sum(packet, ip.getOffset(), ip.hlen() * 4)));
+                    udp.checksum(0);
+
+                    // UDP sums a pseudo-header too; a zero checksum means none, so it's sent as
+                    // all ones (RFC 768)
+                    int checksum = InternetChecksum.finish(InternetChecksum.sumIp4PseudoHeader(
+                            ip.sourceToInt(), ip.destinationToInt(), udp.length(), PROTO_UDP)
+                            + InternetChecksum.sum(packet, udp.getOffset(), udp.length()));
+                    udp.checksum(checksum == 0 ? 0xffff : checksum);
 
                     // make a deep copy of the packet and add it to the list
                     packets.add(new PcapPacket(packet));
@@ -0,0 +1,144 @@
+package com.ptr.v6app.util;
+
+/**
+ * Virtual time driven by capture timestamps. The thread reading a capture advances the clock with
+ * each packet's timestamp, so time passes exactly as it did when the packets were captured, only
+ * as fast as the file can be read. The clock starts at the first packet and never goes backwards.
+ * 
+ * An alarm is rung on the advancing thread, at its exact virtual time, before the packet that
+ * reaches that time is processed; this keeps replays deterministic. An alarm can stop the clock,
+ * after which the reader should stop reading.
+ */
+public class CaptureClock implements Clock {
+
+    /**
+     * Called when the clock reaches an alarm time.
+     */
+    public static interface Alarm {
+
+        /**
+         * Rings the alarm. The alarm is cleared first, call {@link CaptureClock#setAlarm} to
+         * ring again.
+         * 
+         * @param nowMillis
+         *            The virtual time the alarm was set for (the first packet's time for an alarm
+         *            set before the clock started).
+         * @return false to stop the clock.
+         */
+        public boolean ring(long nowMillis);
+    }
+
+    // -- Time before the first packet
+    private static final long NOT_STARTED = Long.MIN_VALUE;
+
+    // -- Current virtual time, written by the advancing thread only
+    private volatile long nowMillis = NOT_STARTED;
+
+    // -- Stopped by an alarm, or at the end of the capture
+    private volatile boolean stopped;
+
+    // -- Pending alarm, touched by the advancing thread only once the clock is running
+    private long alarmMillis = Long.MAX_VALUE;
+    private Alarm alarm;
+
+    // -- Threads waiting in sleep()
+    private volatile int sleepers;
+
+    /**
+     * Sets the alarm, replacing any pending one.
+     * 
+     * @param atMillis
+     *            Virtual time to ring at; anything before the first packet rings on the first
+     *            packet.
+     * @param alarm
+     *            The alarm.
+     */
+    public void setAlarm(long atMillis, Alarm alarm) {
+        this.alarmMillis = atMillis;
+        this.alarm = alarm;
+    }
+
+    /**
+     * Advances the clock to a packet's capture time, ringing any alarm that's due.
+     * 
+     * @param captureMillis
+     *            The capture timestamp in milliseconds.
+     * @return true if the packet should be processed, false once the clock is stopped.
+     */
+    public boolean advance(long captureMillis) {
+        if (stopped) {
+            return false;
+        }
+        long now = nowMillis;
+        if (captureMillis <= now) {
+            return true;
+        }
+        if (now == NOT_STARTED) {
+            now = captureMillis;
+            nowMillis = now;
+        }
+
+        // ring every alarm up to this packet, each at its own time
+        while (captureMillis >= alarmMillis) {
+            now = Math.max(now, alarmMillis);
+            nowMillis = now;
+            Alarm ringing = alarm;
+            alarmMillis = Long.MAX_VALUE;
+            alarm = null;
+            if (!ringing.ring(now)) {
+                stop();
+                return false;
+            }
+        }
+        nowMillis = captureMillis;
+
+        // wake up any sleepers, they check their own deadlines
+        if (sleepers > 0) {
+            synchronized (this) {
+                notifyAll();
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Stops the clock and releases any sleepers, e.g., at the end of the capture.
+     */
+    public void stop() {
+        stopped = true;
+        synchronized (this) {
+            notifyAll();
+        }
+    }
+
+    public boolean isStopped() {
+        return stopped;
+    }
+
+    /**
+     * Returns the current virtual time.
+     * 
+     * @return The time of the latest packet, or 0 before the first packet.
+     */
+    @Override
+    public long currentTimeMillis() {
+        long now = nowMillis;
+        return (now == NOT_STARTED ? 0 : now);
+    }
+
+    /**
+     * Sleeps until virtual time has advanced by the given time, or the clock is stopped.
+     */
+    @Override
+    public synchronized void sleep(long millis) throws InterruptedException {
+        long wakeMillis = currentTimeMillis() + millis;
+        sleepers++;
+        try {
+            while (!stopped && currentTimeMillis() < wakeMillis) {
+                wait();
+            }
+        } finally {
+            sleepers--;
+        }
+    }
+}
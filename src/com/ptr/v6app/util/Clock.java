@@ -0,0 +1,29 @@
+package com.ptr.v6app.util;
+
+/**
+ * The time source for network discovery. Live scans run on the system clock; replays run on a
+ * CaptureClock driven by the capture timestamps, so a discovery window covers the same packets it
+ * did live no matter how fast the file is read.
+ */
+public interface Clock {
+
+    // -- Wall clock time
+    public static final Clock SYSTEM = new SystemClock();
+
+    /**
+     * Returns the current time.
+     * 
+     * @return The current time in milliseconds since the epoch.
+     */
+    public long currentTimeMillis();
+
+    /**
+     * Sleeps until the clock has advanced by the given time.
+     * 
+     * @param millis
+     *            Time to sleep in milliseconds.
+     * @throws InterruptedException
+     *             If the thread is interrupted while sleeping.
+     */
+    public void sleep(long millis) throws InterruptedException;
+}
@@ -0,0 +1,208 @@
+package com.ptr.v6app.util;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+
+import org.jnetpcap.nio.JBuffer;
+
+/**
+ * The Internet checksum (RFC 1071), computed in place over packet memory: a byte array, a
+ * ByteBuffer (heap or direct) or a jNetPcap JBuffer. Data is read 64 bits at a time and each word
+ * is added to a long as two 32-bit halves, so carries pile up in the high bits and are only folded
+ * back once, when the sum is finished; a long holds the carries of 2^30 words. Nothing is copied
+ * or allocated.
+ *
+ * A checksum is built from partial sums, which are simply added together: e.g., the pseudo-header
+ * (see {@link #sumIp4PseudoHeader(int, int, int, int)} and
+ * {@link #sumIp6PseudoHeader(long, long, long, long, int, int)}) plus the upper-layer message.
+ * Every part but the last must have an even length.
+ */
+public class InternetChecksum {
+
+    private InternetChecksum() {
+    }
+
+    /**
+     * Sums a 64-bit value, e.g., half of an IPv6 address.
+     *
+     * @param value
+     *            The value, in network order.
+     * @return The partial sum.
+     */
+    public static long sum(long value) {
+        return (value >>> 32) + (value & 0xffffffffL);
+    }
+
+    /**
+     * Sums bytes of an array.
+     *
+     * @param buf
+     *            The data.
+     * @param offset
+     *            Offset of the first byte.
+     * @param length
+     *            Number of bytes.
+     * @return The partial sum.
+     */
+    public static long sum(byte[] buf, int offset, int length) {
+        long sum = 0;
+        int i = offset;
+        int end = offset + length;
+        for (; i + 8 <= end; i += 8) {
+            long word = ((buf[i] & 0xffL) << 56) | ((buf[i + 1] & 0xffL) << 48)
+                    | ((buf[i + 2] & 0xffL) << 40) | ((buf[i + 3] & 0xffL) << 32)
+                    | ((buf[i + 4] & 0xffL) << 24) | ((buf[i + 5] & 0xffL) << 16)
+                    | ((buf[i + 6] & 0xffL) << 8) | (buf[i + 7] & 0xffL);
+            sum += (word >>> 32) + (word & 0xffffffffL);
+        }
+        for (; i + 2 <= end; i += 2) {
+            sum += ((buf[i] & 0xff) << 8) | (buf[i + 1] & 0xff);
+        }
+        if (i < end) {
+            sum += (buf[i] & 0xff) << 8;
+        }
+        return sum;
+    }
+
+    /**
+     * Sums bytes of a buffer, by absolute index.
+     *
+     * @param buf
+     *            The data, its position, limit and byte order are ignored.
+     * @param offset
+     *            Offset of the first byte.
+     * @param length
+     *            Number of bytes.
+     * @return The partial sum.
+     */
+    public static long sum(ByteBuffer buf, int offset, int length) {
+        boolean swap = (buf.order() != ByteOrder.BIG_ENDIAN);
+        long sum = 0;
+        int i = offset;
+        int end = offset + length;
+        for (; i + 8 <= end; i += 8) {
+            long word = buf.getLong(i);
+            if (swap) {
+                word = Long.reverseBytes(word);
+            }
+            sum += (word >>> 32) + (word & 0xffffffffL);
+        }
+        for (; i + 2 <= end; i += 2) {
+            sum += ((buf.get(i) & 0xff) << 8) | (buf.get(i + 1) & 0xff);
+        }
+        if (i < end) {
+            sum += (buf.get(i) & 0xff) << 8;
+        }
+        return sum;
+    }
+
+    /**
+     * Sums bytes of a jNetPcap buffer, e.g., a packet.
+     *
+     * @param buf
+     *            The data.
+     * @param offset
+     *            Offset of the first byte.
+     * @param length
+     *            Number of bytes.
+     * @return The partial sum.
+     */
+    public static long sum(JBuffer buf, int offset, int length) {
+        boolean swap = (buf.order() != ByteOrder.BIG_ENDIAN);
+        long sum = 0;
+        int i = offset;
+        int end = offset + length;
+        for (; i + 8 <= end; i += 8) {
+            long word = buf.getLong(i);
+            if (swap) {
+                word = Long.reverseBytes(word);
+            }
+            sum += (word >>> 32) + (word & 0xffffffffL);
+        }
+        for (; i + 2 <= end; i += 2) {
+            sum += buf.getUShort(i);
+        }
+        if (i < end) {
+            sum += buf.getUByte(i) << 8;
+        }
+        return sum;
+    }
+
+    /**
+     * Sums an IPv4 pseudo-header (RFC 768, RFC 793): the addresses, protocol and upper-layer
+     * length.
+     *
+     * @param src
+     *            The source address.
+     * @param dst
+     *            The destination address.
+     * @param length
+     *            Upper-layer packet length.
+     * @param protocol
+     *            Upper-layer protocol.
+     * @return The partial sum.
+     */
+    public static long sumIp4PseudoHeader(int src, int dst, int length, int protocol) {
+        return (src >>> 16) + (src & 0xffff) + (dst >>> 16) + (dst & 0xffff) + (length & 0xffff)
+                + protocol;
+    }
+
+    /**
+     * Sums an IPv6 pseudo-header (RFC 8200, section 8.1).
+     *
+     * @param srcHigh
+     *            High 64 bits of the source address (see PackedAddress).
+     * @param srcLow
+     *            Low 64 bits of the source address.
+     * @param dstHigh
+     *            High 64 bits of the destination address.
+     * @param dstLow
+     *            Low 64 bits of the destination address.
+     * @param length
+     *            Upper-layer packet length.
+     * @param nextHeader
+     *            Upper-layer protocol.
+     * @return The partial sum.
+     */
+    public static long sumIp6PseudoHeader(long srcHigh, long srcLow, long dstHigh, long dstLow,
+            int length, int nextHeader) {
+        return sum(srcHigh) + sum(srcLow) + sum(dstHigh) + sum(dstLow) + (length & 0xffffffffL)
+                + nextHeader;
+    }
+
+    /**
+     * Folds a sum to 16 bits.
+     *
+     * @param sum
+     *            The sum.
+     * @return The 16-bit one's complement sum.
+     */
+    public static int fold(long sum) {
+        while ((sum >>> 16) != 0) {
+            sum = (sum & 0xffff) + (sum >>> 16);
+        }
+        return (int) sum;
+    }
+
+    /**
+     * Finishes a checksum, to be written into a checksum field that was zero when summed.
+     *
+     * @param sum
+     *            The sum.
+     * @return The checksum.
+     */
+    public static int finish(long sum) {
+        return ~fold(sum) & 0xffff;
+    }
+
+    /**
+     * Checks a received checksum, the sum covering the checksum field itself.
+     *
+     * @param sum
+     *            The sum.
+     * @return true if the checksum is right.
+     */
+    public static boolean isValid(long sum) {
+        return fold(sum) == 0xffff;
+    }
+}
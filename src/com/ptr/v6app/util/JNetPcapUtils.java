@@ -2,12 +2,18 @@ package com.ptr.v6app.util;
 
 import java.io.File;
 import java.io.FilenameFilter;
+import java.io.IOException;
 
 import org.apache.logging.log4j.LogManager;
 import org.apache.logging.log4j.Logger;
 import org.jnetpcap.Pcap;
-import org.jnetpcap.nio.JMemory;
+import org.jnetpcap.PcapBpfProgram;
+import org.jnetpcap.PcapHeader;
+import org.jnetpcap.packet.JRegistry;
 import org.jnetpcap.packet.PcapPacket;
+import org.jnetpcap.protocol.lan.Ethernet;
+
+import com.ptr.v6app.io.PcapFileReader;
 
 /**
  * Utility class for jNetPcap tasks.
@@ -18,36 +24,68 @@ public class JNetPcapUtils {
     private static final Logger log = LogManager.getLogger(JNetPcapUtils.class.getName());
 
     /**
-     * Loads a single packet from a .pcap offline file into a PcapPacket object.
+     * Loads a single packet from a .pcap or .pcapng file into a PcapPacket object. The file is read
+     * in Java (see PcapFileReader), no libpcap handle is opened.
      * 
      * @param path
-     *            The path of the .pcap file.
+     *            The path of the .pcap/.pcapng file.
      * @return The fully parsed PcapPacket instance.
      */
     public static PcapPacket pcapPacketFromFile(String path) {
-        PcapPacket filePacket = new PcapPacket(JMemory.POINTER);
-        PcapPacket copyPacket = null;
-        StringBuilder errBuf = new StringBuilder();
+        PcapFileReader reader = null;
+        try {
+
+            // read the first packet
+            reader = new PcapFileReader(path);
+            if (!reader.next()) {
+                return null;
+            }
 
-        // open the pcap file
-        final Pcap offlinePcap = Pcap.openOffline(path, errBuf);
-        if (offlinePcap == null) {
-            log.error("Error parsing [{}]: {}", path, errBuf);
+            // copy from the mapped file to a packet and parse it from its link layer
+            long nanos = reader.getTimestampNanos();
+            PcapHeader header = new PcapHeader(reader.getCaplen(), reader.getWirelen());
+            header.hdr_sec(nanos / 1000000000L);
+            header.hdr_usec((int) (nanos % 1000000000L / 1000));
+            PcapPacket packet = new PcapPacket(header, reader.getData());
+            int linkId = JRegistry.mapDLTToId(reader.getLinkType());
+            packet.scan(linkId == JRegistry.NO_DLT_MAPPING ? Ethernet.ID : linkId);
+            return packet;
+        } catch (IOException ioe) {
+            log.error("Error parsing [{}]: {}", path, ioe.getMessage());
             return null;
+        } finally {
+            if (reader != null) {
+                try {
+                    reader.close();
+                } catch (IOException ioe) {
+                    log.debug("Error closing [{}]", path);
+                }
+            }
         }
+    }
 
-        // read one packet and deep copy from JNI mapped memory to JVM memory
-        if (offlinePcap.nextEx(filePacket) == Pcap.NEXT_EX_OK) {
-            copyPacket = new PcapPacket(filePacket);
+    /**
+     * Compiles a libpcap filter expression and installs it on a pcap handle.
+     * 
+     * @param pcap
+     *            The pcap handle, live or offline.
+     * @param expression
+     *            The filter expression.
+     * @return true on success, false otherwise (the handle is left unfiltered).
+     */
+    public static boolean setFilter(Pcap pcap, String expression) {
+        PcapBpfProgram program = new PcapBpfProgram();
+        boolean success = pcap.compile(program, expression, 1, 0) == Pcap.OK
+                && pcap.setFilter(program) == Pcap.OK;
+        if (!success) {
+            log.warn("Unable to set filter [{}]: {}", expression, pcap.getErr());
         }
-
-        // close the capture and return
-        offlinePcap.close();
-        return copyPacket;
+        Pcap.freecode(program);
+        return success;
     }
 
     /**
-     * Helper utility that returns a list of .pcap filename in a given directory.
+     * Helper utility that returns a list of .pcap/.pcapng filename in a given directory.
      * 
      * @param dir
      *            The directory path to search for pcap files
@@ -61,7 +99,7 @@ public class JNetPcapUtils {
         String files[] = directory.list(new FilenameFilter() {
             @Override
             public boolean accept(File dir, String name) {
-                return name.endsWith(".pcap");
+                return name.endsWith(".pcap") || name.endsWith(".pcapng");
             }
         });
 
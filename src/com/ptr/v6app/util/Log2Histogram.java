@@ -0,0 +1,138 @@
+package com.ptr.v6app.util;
+
+import org.w3c.dom.Document;
+import org.w3c.dom.Element;
+
+/**
+ * A fixed-size histogram with power-of-two buckets. Bucket n counts values in the range
+ * [2^(n-1), 2^n - 1], bucket 0 counts values <= 0. Recording is allocation-free and O(1). Instances
+ * are not thread-safe; each histogram should be written by a single thread.
+ */
+public class Log2Histogram {
+
+    // -- Buckets (one per bit of a long, plus one for zero)
+    private final long[] buckets = new long[65];
+
+    // -- Summary
+    private long count;
+    private long sum;
+    private long max;
+
+    /**
+     * Records a value.
+     *
+     * @param value
+     *            The value to record, negative values are recorded as zero.
+     */
+    public void record(long value) {
+        if (value < 0) {
+            value = 0;
+        }
+        buckets[64 - Long.numberOfLeadingZeros(value)]++;
+        count++;
+        sum += value;
+        if (value > max) {
+            max = value;
+        }
+    }
+
+    public long getCount() {
+        return count;
+    }
+
+    public long getSum() {
+        return sum;
+    }
+
+    public long getMax() {
+        return max;
+    }
+
+    public double getMean() {
+        return (count == 0 ? 0 : (double) sum / count);
+    }
+
+    /**
+     * Returns an upper bound for the given quantile, i.e. the upper edge of the bucket the
+     * quantile falls into.
+     *
+     * @param quantile
+     *            Quantile in the range [0, 1].
+     * @return The upper bound of the quantile, 0 if no values were recorded.
+     */
+    public long getQuantileUpperBound(double quantile) {
+        if (count == 0) {
+            return 0;
+        }
+
+        long rank = (long) Math.ceil(quantile * count);
+        long seen = 0;
+        for (int i = 0; i < buckets.length; i++) {
+            seen += buckets[i];
+            if (seen >= rank && buckets[i] > 0) {
+                return Math.min(max, upperBound(i));
+            }
+        }
+        return max;
+    }
+
+    /**
+     * Adds the values of another histogram to this one.
+     *
+     * @param other
+     *            The histogram to merge.
+     */
+    public void merge(Log2Histogram other) {
+        for (int i = 0; i < buckets.length; i++) {
+            buckets[i] += other.buckets[i];
+        }
+        count += other.count;
+        sum += other.sum;
+        max = Math.max(max, other.max);
+    }
+
+    /**
+     * Writes the histogram to XML as a summary plus non-empty buckets.
+     *
+     * @param doc
+     *            The output XML document.
+     * @param root
+     *            The parent element.
+     * @param name
+     *            Name of the histogram element.
+     * @param divisor
+     *            Values are divided by this before being written (e.g., 1000 for ns to us).
+     */
+    public void parseXmlResults(Document doc, Element root, String name, long divisor) {
+        Element hist = doc.createElement(name);
+        root.appendChild(hist);
+
+        hist.setAttribute("count", "" + count);
+        hist.setAttribute("mean", String.format("%.2f", getMean() / divisor));
+        hist.setAttribute("p99", "" + getQuantileUpperBound(0.99) / divisor);
+        hist.setAttribute("max", "" + max / divisor);
+
+        for (int i = 0; i < buckets.length; i++) {
+            if (buckets[i] == 0) {
+                continue;
+            }
+            Element bucket = doc.createElement("bucket");
+            bucket.setAttribute("upTo", "" + upperBound(i) / divisor);
+            bucket.appendChild(doc.createTextNode("" + buckets[i]));
+            hist.appendChild(bucket);
+        }
+    }
+
+    @Override
+    public String toString() {
+        return "[count=" + count + ", mean=" + String.format("%.2f", getMean()) + ", max=" + max
+                + "]";
+    }
+
+    private static long upperBound(int bucket) {
+        if (bucket == 0) {
+            return 0;
+        }
+        return (bucket >= 63 ? Long.MAX_VALUE : (1L << bucket) - 1);
+    }
+}
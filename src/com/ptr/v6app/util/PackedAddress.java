@@ -0,0 +1,141 @@
+package com.ptr.v6app.util;
+
+/**
+ * Helpers for addresses packed into primitives, so they can be read from packets and compared
+ * without allocating. A MAC address is packed into the low 48 bits of a long. An IP address is
+ * packed into two longs holding the high and low 64 bits of its IPv6 form; IPv4 addresses use the
+ * IPv4-mapped form (::ffff:a.b.c.d), the same mapping InetAddress applies.
+ */
+public class PackedAddress {
+
+    // -- High 32 bits of the low half of an IPv4-mapped address
+    public static final long IP4_MAPPED_PREFIX = 0x0000ffff00000000L;
+
+    // -- Broadcast MAC (FF:FF:FF:FF:FF:FF)
+    public static final long BROADCAST_MAC = 0xffffffffffffL;
+
+    /*
+     * Do not instantiate.
+     */
+    private PackedAddress() {
+    }
+
+    /**
+     * Packs a MAC address.
+     *
+     * @param mac
+     *            The 6 MAC address bytes.
+     * @return The packed MAC.
+     */
+    public static long packMac(byte[] mac) {
+        return getBits(mac, 0, 6);
+    }
+
+    /**
+     * Unpacks a MAC address.
+     *
+     * @param mac
+     *            The packed MAC.
+     * @return The 6 MAC address bytes.
+     */
+    public static byte[] unpackMac(long mac) {
+        byte[] bytes = new byte[6];
+        putBits(bytes, 0, 6, mac);
+        return bytes;
+    }
+
+    /**
+     * Returns the low half of the packed form of an IPv4 address.
+     *
+     * @param ip4
+     *            The IPv4 address in network order.
+     * @return The low 64 bits of the IPv4-mapped address; the high 64 bits are 0.
+     */
+    public static long packIp4(int ip4) {
+        return IP4_MAPPED_PREFIX | (ip4 & 0xffffffffL);
+    }
+
+    /**
+     * Returns the high half of a packed IP address.
+     *
+     * @param addr
+     *            The 4 or 16 address bytes.
+     * @return The high 64 bits.
+     */
+    public static long packHigh(byte[] addr) {
+        return (addr.length == 4 ? 0 : getBits(addr, 0, 8));
+    }
+
+    /**
+     * Returns the low half of a packed IP address.
+     *
+     * @param addr
+     *            The 4 or 16 address bytes.
+     * @return The low 64 bits.
+     */
+    public static long packLow(byte[] addr) {
+        return (addr.length == 4 ? packIp4((int) getBits(addr, 0, 4)) : getBits(addr, 8, 8));
+    }
+
+    /**
+     * Returns true if a packed IP address is an IPv4 (IPv4-mapped) address.
+     *
+     * @param high
+     *            The high 64 bits.
+     * @param low
+     *            The low 64 bits.
+     * @return true for IPv4.
+     */
+    public static boolean isIp4(long high, long low) {
+        return high == 0 && (low & 0xffffffff00000000L) == IP4_MAPPED_PREFIX;
+    }
+
+    /**
+     * Returns true if a packed IP address is an IPv6 link-local (fe80::/10) or site-local
+     * (fec0::/10) address, like InetAddress.isLinkLocalAddress() and isSiteLocalAddress() do.
+     *
+     * @param high
+     *            The high 64 bits.
+     * @return true for link-local and site-local IPv6 addresses.
+     */
+    public static boolean isLinkOrSiteLocal6(long high) {
+        return (high >>> 55) == 0x1fd; // fe80::/9 covers both
+    }
+
+    /**
+     * Unpacks an IP address.
+     *
+     * @param high
+     *            The high 64 bits.
+     * @param low
+     *            The low 64 bits.
+     * @return 4 address bytes for IPv4, 16 otherwise.
+     */
+    public static byte[] unpackIp(long high, long low) {
+        if (isIp4(high, low)) {
+            byte[] bytes = new byte[4];
+            putBits(bytes, 0, 4, low);
+            return bytes;
+        }
+
+        byte[] bytes = new byte[16];
+        putBits(bytes, 0, 8, high);
+        putBits(bytes, 8, 8, low);
+        return bytes;
+    }
+
+    private static long getBits(byte[] bytes, int offset, int length) {
+        long bits = 0;
+        for (int i = offset; i < offset + length; i++) {
+            bits = (bits << 8) | (bytes[i] & 0xff);
+        }
+        return bits;
+    }
+
+    private static void putBits(byte[] bytes, int offset, int length, long bits) {
+        for (int i = offset + length - 1; i >= offset; i--) {
+            bytes[i] = (byte) bits;
+            bits >>>= 8;
+        }
+    }
+}
@@ -0,0 +1,122 @@
+package com.ptr.v6app.util;
+
+/**
+ * A set of IPv6 addresses packed into two longs (see PackedAddress). Uses open addressing with
+ * linear probing over parallel arrays, so looking an address up or adding it hashes two longs and
+ * allocates nothing, short of growing the table. Addresses are never removed. Instances are not
+ * thread-safe.
+ */
+public class PackedAddressSet {
+
+    // -- Resize once the table is half full
+    private static final int MAX_LOAD_SHIFT = 1;
+
+    // -- Keys, and the slots in use (so any address, even ::, is a valid key)
+    private long[] highs;
+    private long[] lows;
+    private boolean[] used;
+    private int mask;
+    private int size;
+
+    public PackedAddressSet() {
+        this(256);
+    }
+
+    /**
+     * Creates a set.
+     *
+     * @param expectedAddresses
+     *            Number of addresses expected, the set grows as needed.
+     */
+    public PackedAddressSet(int expectedAddresses) {
+        int minCapacity = Math.max(16, expectedAddresses << MAX_LOAD_SHIFT);
+        int capacity = Integer.highestOneBit(minCapacity - 1) << 1;
+        highs = new long[capacity];
+        lows = new long[capacity];
+        used = new boolean[capacity];
+        mask = capacity - 1;
+    }
+
+    public int size() {
+        return size;
+    }
+
+    /**
+     * Returns whether the set holds an address.
+     *
+     * @param high
+     *            The high 64 bits of the address.
+     * @param low
+     *            The low 64 bits of the address.
+     * @return true if the address is in the set.
+     */
+    public boolean contains(long high, long low) {
+        for (int i = slot(high, low);; i = (i + 1) & mask) {
+            if (!used[i]) {
+                return false;
+            }
+            if (highs[i] == high && lows[i] == low) {
+                return true;
+            }
+        }
+    }
+
+    /**
+     * Adds an address.
+     *
+     * @param high
+     *            The high 64 bits of the address.
+     * @param low
+     *            The low 64 bits of the address.
+     * @return true if the address wasn't in the set yet.
+     */
+    public boolean add(long high, long low) {
+        int i = slot(high, low);
+        for (;; i = (i + 1) & mask) {
+            if (!used[i]) {
+                break;
+            }
+            if (highs[i] == high && lows[i] == low) {
+                return false;
+            }
+        }
+
+        highs[i] = high;
+        lows[i] = low;
+        used[i] = true;
+        if (++size << MAX_LOAD_SHIFT > used.length) {
+            resize();
+        }
+        return true;
+    }
+
+    private void resize() {
+        long[] oldHighs = highs;
+        long[] oldLows = lows;
+        boolean[] oldUsed = used;
+        highs = new long[oldHighs.length << 1];
+        lows = new long[oldLows.length << 1];
+        used = new boolean[oldUsed.length << 1];
+        mask = used.length - 1;
+
+        for (int j = 0; j < oldUsed.length; j++) {
+            if (!oldUsed[j]) {
+                continue;
+            }
+            int i = slot(oldHighs[j], oldLows[j]);
+            while (used[i]) {
+                i = (i + 1) & mask;
+            }
+            highs[i] = oldHighs[j];
+            lows[i] = oldLows[j];
+            used[i] = true;
+        }
+    }
+
+    private int slot(long high, long low) {
+
+        // link-local addresses share their high bits, so mix both halves before masking
+        long hash = (high * 31 + low) * 0x9e3779b97f4a7c15L;
+        return (int) (hash ^ (hash >>> 32)) & mask;
+    }
+}
@@ -0,0 +1,17 @@
+package com.ptr.v6app.util;
+
+/**
+ * Wall clock time, see {@link Clock#SYSTEM}.
+ */
+public class SystemClock implements Clock {
+
+    @Override
+    public long currentTimeMillis() {
+        return System.currentTimeMillis();
+    }
+
+    @Override
+    public void sleep(long millis) throws InterruptedException {
+        Thread.sleep(millis);
+    }
+}
@@ -0,0 +1,198 @@
+package com.ptr.v6app.util;
+
+import java.util.List;
+
+/**
+ * A hashed timer wheel (Varghese and Lauck): time is cut into ticks, and a timer lands in the slot
+ * of its deadline tick modulo the wheel size, with the number of full turns left before it's due.
+ * Scheduling and cancelling are O(1) whatever the number of pending timers; expiring walks one
+ * slot per elapsed tick. Deadlines are rounded up to the next tick.
+ *
+ * Instances are not thread-safe. Timers are intrusive list nodes, so re-arming a timer that has
+ * fired or been cancelled allocates nothing.
+ *
+ * @param <T>
+ *            The task type.
+ */
+public class TimerWheel<T> {
+
+    /**
+     * A timer, pending in at most one wheel slot.
+     *
+     * @param <T>
+     *            The task type.
+     */
+    public static class Timer<T> {
+
+        // -- Task handed back when the timer fires
+        private final T task;
+
+        // -- Slot holding the timer (-1 when it isn't pending), and turns left before it's due
+        private int slot = -1;
+        private long rounds;
+
+        // -- Slot list links
+        private Timer<T> prev;
+        private Timer<T> next;
+
+        public Timer(T task) {
+            this.task = task;
+        }
+
+        public T getTask() {
+            return task;
+        }
+
+        public boolean isPending() {
+            return slot >= 0;
+        }
+    }
+
+    // -- Slot lists, and the mask turning a tick into a slot
+    private final Timer<T>[] slots;
+    private final int mask;
+
+    // -- Tick duration, and the start of tick 0 (System.nanoTime)
+    private final long tickNanos;
+    private final long startNanos;
+
+    // -- Next tick to expire
+    private long tick;
+
+    // -- Pending timers
+    private int size;
+
+    /**
+     * Creates a wheel.
+     *
+     * @param wheelSize
+     *            Number of slots, rounded up to a power of two.
+     * @param tickNanos
+     *            Tick duration in nanoseconds.
+     * @param startNanos
+     *            The current System.nanoTime().
+     */
+    @SuppressWarnings("unchecked")
+    public TimerWheel(int wheelSize, long tickNanos, long startNanos) {
+        if (wheelSize < 1 || tickNanos < 1) {
+            throw new IllegalArgumentException("Invalid timer wheel size");
+        }
+        int length = (wheelSize == 1 ? 1 : Integer.highestOneBit(wheelSize - 1) << 1);
+        this.slots = (Timer<T>[]) new Timer<?>[length];
+        this.mask = length - 1;
+        this.tickNanos = tickNanos;
+        this.startNanos = startNanos;
+    }
+
+    public long getTickNanos() {
+        return tickNanos;
+    }
+
+    public int size() {
+        return size;
+    }
+
+    /**
+     * Arms a timer, cancelling it first if it's pending.
+     *
+     * @param timer
+     *            The timer.
+     * @param deadlineNanos
+     *            When the timer is due (System.nanoTime).
+     */
+    public void schedule(Timer<T> timer, long deadlineNanos) {
+        cancel(timer);
+
+        // a deadline in a tick already expired fires on the next one
+        long due = Math.max(tick, (deadlineNanos - startNanos + tickNanos - 1) / tickNanos);
+        int slot = (int) (due & mask);
+        timer.slot = slot;
+        timer.rounds = (due - tick) / slots.length;
+        timer.prev = null;
+        timer.next = slots[slot];
+        if (timer.next != null) {
+            timer.next.prev = timer;
+        }
+        slots[slot] = timer;
+        size++;
+    }
+
+    /**
+     * Cancels a timer.
+     *
+     * @param timer
+     *            The timer.
+     * @return true if the timer was pending.
+     */
+    public boolean cancel(Timer<T> timer) {
+        if (timer.slot < 0) {
+            return false;
+        }
+        if (timer.prev != null) {
+            timer.prev.next = timer.next;
+        } else {
+            slots[timer.slot] = timer.next;
+        }
+        if (timer.next != null) {
+            timer.next.prev = timer.prev;
+        }
+        timer.prev = null;
+        timer.next = null;
+        timer.slot = -1;
+        size--;
+        return true;
+    }
+
+    /**
+     * Expires the ticks elapsed up to now, handing back the tasks of the timers due.
+     *
+     * @param nowNanos
+     *            The current System.nanoTime().
+     * @param expired
+     *            The list the tasks of the timers due are added to.
+     * @return The number of timers expired.
+     */
+    public int expire(long nowNanos, List<T> expired) {
+        long now = (nowNanos - startNanos) / tickNanos;
+        int count = 0;
+
+        // a wheel idle for more than a turn only needs each slot walked once
+        if (now - tick >= slots.length) {
+            long skip = (now - tick) / slots.length - 1;
+            if (skip > 0) {
+                for (int i = 0; i < slots.length; i++) {
+                    for (Timer<T> timer = slots[i]; timer != null; timer = timer.next) {
+                        timer.rounds = Math.max(0, timer.rounds - skip);
+                    }
+                }
+                tick += skip * slots.length;
+            }
+        }
+
+        for (; tick <= now; tick++) {
+            Timer<T> timer = slots[(int) (tick & mask)];
+            while (timer != null) {
+                Timer<T> next = timer.next;
+                if (timer.rounds > 0) {
+                    timer.rounds--;
+                } else {
+                    cancel(timer);
+                    expired.add(timer.task);
+                    count++;
+                }
+                timer = next;
+            }
+        }
+        return count;
+    }
+
+    /**
+     * Returns when the next tick is due, the latest a caller of {@link #expire(long, List)} should
+     * wait.
+     *
+     * @return The start of the next tick to expire (System.nanoTime).
+     */
+    public long getNextTickNanos() {
+        return startNanos + tick * tickNanos;
+    }
+}
@@ -9,6 +9,10 @@ import java.util.Set;
 import org.apache.logging.log4j.LogManager;
 import org.apache.logging.log4j.Logger;
 
+import com.ptr.v6app.injector.InjectionQueue;
+import com.ptr.v6app.listener.PacketRing.OverflowPolicy;
+import com.ptr.v6app.listener.TrafficSampler.SamplingMode;
+
 public class V6AppProperties {
 
     // -- Logger
@@ -28,6 +32,45 @@ public class V6AppProperties {
     public static final String IPV6_ADDRS = "ipv6TestAddrs";
     public static final String NETWORK_DISCOVERY_SECS = "networkDiscoverySecs";
     public static final String NETWORK_DISCOVERY_IFCS = "networkDiscoveryIfcs";
+    public static final String NETWORK_DISCOVERY_MAX_THREADS = "networkDiscoveryMaxThreads";
+    public static final String NETWORK_DISCOVERY_MODE = "networkDiscoveryMode";
+    public static final String NETWORK_DISCOVERY_MIN_SECS = "networkDiscoveryMinSecs";
+    public static final String NETWORK_DISCOVERY_QUIET_SECS = "networkDiscoveryQuietSecs";
+    public static final String NETWORK_DISCOVERY_RATE_THRESHOLD = "networkDiscoveryRateThreshold";
+    public static final String NETWORK_DISCOVERY_REPLAY_WINDOW = "networkDiscoveryReplayWindow";
+    public static final String CAPTURE_MODE = "captureMode";
+    public static final String CAPTURE_TIMEOUT_MILLIS = "captureTimeoutMillis";
+    public static final String CAPTURE_DEDICATED_HANDLES = "captureDedicatedHandles";
+    public static final String CAPTURE_FILTER = "captureFilter";
+    public static final String CAPTURE_SHARDS = "captureShards";
+    public static final String LISTENER_DISPATCH_BATCH = "listenerDispatchBatch";
+    public static final String LISTENER_DISPATCH_BUDGET_MICROS = "listenerDispatchBudgetMicros";
+    public static final String LISTENER_RING_SLOTS = "listenerRingSlots";
+    public static final String LISTENER_RING_SLOT_BYTES = "listenerRingSlotBytes";
+    public static final String LISTENER_RING_POLICY = "listenerRingPolicy";
+    public static final String LISTENER_ALLOC_SAMPLE_EVERY = "listenerAllocSampleEvery";
+    public static final String LISTENER_SHEDDING = "listenerShedding";
+    public static final String LISTENER_SHED_BULK_PERCENT = "listenerShedBulkPercent";
+    public static final String LISTENER_SHED_BULK_SAMPLE_EVERY = "listenerShedBulkSampleEvery";
+    public static final String LISTENER_SHED_NEW_SOURCE_PERCENT = "listenerShedNewSourcePercent";
+    public static final String LISTENER_SAMPLING = "listenerSampling";
+    public static final String LISTENER_SAMPLE_EVERY = "listenerSampleEvery";
+    public static final String INJECTOR_RATE = "injectorRate";
+    public static final String INJECTOR_BURST = "injectorBurst";
+    public static final String INJECTOR_GLOBAL_RATE = "injectorGlobalRate";
+    public static final String INJECTOR_GLOBAL_BURST = "injectorGlobalBurst";
+    public static final String INJECTOR_BATCH = "injectorBatch";
+    public static final String INJECTOR_QUEUE_SIZE = "injectorQueueSize";
+    public static final String INJECTOR_QUEUE_POLICY = "injectorQueuePolicy";
+    public static final String PROBE_RETRIES = "probeRetries";
+    public static final String PROBE_TIMEOUT_MILLIS = "probeTimeoutMillis";
+    public static final String RECORDER_ENABLED = "recorderEnabled";
+    public static final String RECORDER_DIR = "recorderDir";
+    public static final String RECORDER_FILTER = "recorderFilter";
+    public static final String RECORDER_RING_SLOTS = "recorderRingSlots";
+    public static final String RECORDER_ROTATE_MEGABYTES = "recorderRotateMegabytes";
+    public static final String RECORDER_ROTATE_SECS = "recorderRotateSecs";
+    public static final String RECORDER_MAX_FILES = "recorderMaxFiles";
 
     // -- Default properties
     private static final String[] DEFAULT_IPV6_DOMAINS = { "ipv6.google.com" };
@@ -36,6 +79,89 @@ public class V6AppProperties {
     };
     private static final String DEFAULT_NET_DISCOVERY_IFC = "all";
     private static final int DEFAULT_NET_DISCOVERY_SECS = 90;
+    private static final int DEFAULT_NET_DISCOVERY_MAX_THREADS = 32;
+    private static final String DEFAULT_NET_DISCOVERY_MODE = DiscoveryMode.FIXED.getName();
+    private static final int DEFAULT_NET_DISCOVERY_MIN_SECS = 15;
+    private static final int DEFAULT_NET_DISCOVERY_QUIET_SECS = 20;
+    private static final int DEFAULT_NET_DISCOVERY_RATE_THRESHOLD = 1;
+    private static final boolean DEFAULT_NET_DISCOVERY_REPLAY_WINDOW = true;
+    private static final String DEFAULT_CAPTURE_MODE = CaptureMode.BLOCKING.getName();
+    private static final int DEFAULT_CAPTURE_TIMEOUT_MILLIS = 10;
+    private static final boolean DEFAULT_CAPTURE_DEDICATED_HANDLES = true;
+    private static final boolean DEFAULT_CAPTURE_FILTER = true;
+    private static final int DEFAULT_CAPTURE_SHARDS = 1;
+    private static final int DEFAULT_LISTENER_DISPATCH_BATCH = 256;
+    private static final int DEFAULT_LISTENER_DISPATCH_BUDGET_MICROS = 2000;
+    private static final int DEFAULT_LISTENER_RING_SLOTS = 4096;
+    private static final int DEFAULT_LISTENER_RING_SLOT_BYTES = 2048;
+    private static final OverflowPolicy DEFAULT_LISTENER_RING_POLICY = OverflowPolicy.DROP_NEWEST;
+    private static final int DEFAULT_LISTENER_ALLOC_SAMPLE_EVERY = 64;
+    private static final boolean DEFAULT_LISTENER_SHEDDING = true;
+    private static final int DEFAULT_LISTENER_SHED_BULK_PERCENT = 50;
+    private static final int DEFAULT_LISTENER_SHED_BULK_SAMPLE_EVERY = 16;
+    private static final int DEFAULT_LISTENER_SHED_NEW_SOURCE_PERCENT = 85;
+    private static final SamplingMode DEFAULT_LISTENER_SAMPLING = SamplingMode.OFF;
+    private static final int DEFAULT_LISTENER_SAMPLE_EVERY = 16;
+    private static final int DEFAULT_INJECTOR_RATE = 1000;
+    private static final int DEFAULT_INJECTOR_BURST = 32;
+    private static final int DEFAULT_INJECTOR_GLOBAL_RATE = 0;
+    private static final int DEFAULT_INJECTOR_GLOBAL_BURST = 32;
+    private static final int DEFAULT_INJECTOR_BATCH = 16;
+    private static final int DEFAULT_INJECTOR_QUEUE_SIZE = 4096;
+    private static final InjectionQueue.OverflowPolicy DEFAULT_INJECTOR_QUEUE_POLICY =
+            InjectionQueue.OverflowPolicy.DROP_NEWEST;
+    private static final int DEFAULT_PROBE_RETRIES = 3;
+    private static final int DEFAULT_PROBE_TIMEOUT_MILLIS = 1000;
+    private static final boolean DEFAULT_RECORDER_ENABLED = false;
+    private static final String DEFAULT_RECORDER_DIR = "capture";
+    private static final int DEFAULT_RECORDER_RING_SLOTS = 8192;
+    private static final int DEFAULT_RECORDER_ROTATE_MEGABYTES = 100;
+    private static final int DEFAULT_RECORDER_ROTATE_SECS = 300;
+    private static final int DEFAULT_RECORDER_MAX_FILES = 10;
+
+    /**
+     * Capture modes for the listener's pcap handle.
+     */
+    public static enum CaptureMode {
+
+        // the listener blocks in libpcap until packets arrive or the read timeout expires
+        BLOCKING("blocking"),
+
+        // the listener polls the handle in a tight loop (legacy behavior)
+        NON_BLOCKING("nonblocking");
+
+        private final String name;
+
+        private CaptureMode(String name) {
+            this.name = name;
+        }
+
+        public String getName() {
+            return name;
+        }
+    }
+
+    /**
+     * Network discovery duration modes.
+     */
+    public static enum DiscoveryMode {
+
+        // every interface is scanned for networkDiscoverySecs
+        FIXED("fixed"),
+
+        // scans end once node discovery converges, networkDiscoverySecs is the maximum duration
+        ADAPTIVE("adaptive");
+
+        private final String name;
+
+        private DiscoveryMode(String name) {
+            this.name = name;
+        }
+
+        public String getName() {
+            return name;
+        }
+    }
 
     // -- Load properties
     static {
@@ -106,6 +232,437 @@ public class V6AppProperties {
         }
     }
 
+    /**
+     * Returns the captureMode Java property.
+     * 
+     * @return CaptureMode
+     */
+    public static CaptureMode getCaptureMode() {
+        String mode = getStringProperty(CAPTURE_MODE, DEFAULT_CAPTURE_MODE);
+        for (CaptureMode captureMode : CaptureMode.values()) {
+            if (captureMode.getName().equalsIgnoreCase(mode)) {
+                return captureMode;
+            }
+        }
+
+        log.warn("Invalid property [{}] value [{}], defaulting to [{}]", CAPTURE_MODE, mode,
+                DEFAULT_CAPTURE_MODE);
+        return CaptureMode.BLOCKING;
+    }
+
+    /**
+     * Returns the captureTimeoutMillis Java property. This is the libpcap read timeout, i.e. the
+     * longest a blocking capture waits before returning without packets.
+     * 
+     * @return int
+     */
+    public static int getCaptureTimeoutMillis() {
+        return getIntProperty(CAPTURE_TIMEOUT_MILLIS, DEFAULT_CAPTURE_TIMEOUT_MILLIS);
+    }
+
+    /**
+     * Returns the networkDiscoveryMaxThreads Java property, the most threads network discovery
+     * runs at once across all interfaces.
+     * 
+     * @return int
+     */
+    public static int getNetworkDiscoveryMaxThreads() {
+        return getIntProperty(NETWORK_DISCOVERY_MAX_THREADS, DEFAULT_NET_DISCOVERY_MAX_THREADS);
+    }
+
+    /**
+     * Returns the networkDiscoveryMode Java property.
+     * 
+     * @return DiscoveryMode
+     */
+    public static DiscoveryMode getNetworkDiscoveryMode() {
+        String mode = getStringProperty(NETWORK_DISCOVERY_MODE, DEFAULT_NET_DISCOVERY_MODE);
+        for (DiscoveryMode discoveryMode : DiscoveryMode.values()) {
+            if (discoveryMode.getName().equalsIgnoreCase(mode)) {
+                return discoveryMode;
+            }
+        }
+
+        log.warn("Invalid property [{}] value [{}], defaulting to [{}]", NETWORK_DISCOVERY_MODE,
+                mode, DEFAULT_NET_DISCOVERY_MODE);
+        return DiscoveryMode.FIXED;
+    }
+
+    /**
+     * Returns the networkDiscoveryMinSecs Java property, the shortest an adaptive scan runs.
+     * 
+     * @return int
+     */
+    public static int getNetworkDiscoveryMinSecs() {
+        return getIntProperty(NETWORK_DISCOVERY_MIN_SECS, DEFAULT_NET_DISCOVERY_MIN_SECS);
+    }
+
+    /**
+     * Returns the networkDiscoveryQuietSecs Java property, how long the discovery rate must stay
+     * below the threshold before an adaptive scan ends.
+     * 
+     * @return int
+     */
+    public static int getNetworkDiscoveryQuietSecs() {
+        return getIntProperty(NETWORK_DISCOVERY_QUIET_SECS, DEFAULT_NET_DISCOVERY_QUIET_SECS);
+    }
+
+    /**
+     * Returns the networkDiscoveryRateThreshold Java property, in new addresses per minute.
+     * 
+     * @return int
+     */
+    public static int getNetworkDiscoveryRateThreshold() {
+        return getIntProperty(NETWORK_DISCOVERY_RATE_THRESHOLD,
+                DEFAULT_NET_DISCOVERY_RATE_THRESHOLD);
+    }
+
+    /**
+     * Returns the networkDiscoveryReplayWindow Java property. When true, a replay applies the
+     * discovery duration and mode in capture time; when false, it reads the whole file.
+     * 
+     * @return boolean
+     */
+    public static boolean isNetworkDiscoveryReplayWindow() {
+        return getBooleanProperty(NETWORK_DISCOVERY_REPLAY_WINDOW,
+                DEFAULT_NET_DISCOVERY_REPLAY_WINDOW);
+    }
+
+    /**
+     * Returns the captureDedicatedHandles Java property. When true, the listener and injector
+     * threads each get their own pcap handle.
+     * 
+     * @return boolean
+     */
+    public static boolean isCaptureDedicatedHandles() {
+        return getBooleanProperty(CAPTURE_DEDICATED_HANDLES, DEFAULT_CAPTURE_DEDICATED_HANDLES);
+    }
+
+    /**
+     * Returns the captureFilter Java property. When true, the capture handle gets a kernel filter
+     * and snaplen built from what the listener and its plugins declare they need.
+     * 
+     * @return boolean
+     */
+    public static boolean isCaptureFilter() {
+        return getBooleanProperty(CAPTURE_FILTER, DEFAULT_CAPTURE_FILTER);
+    }
+
+    /**
+     * Returns the captureShards Java property, the number of capture handles opened on each
+     * interface, rounded down to a power of two (at most 256).
+     * 
+     * @return int
+     */
+    public static int getCaptureShards() {
+        int shards = getIntProperty(CAPTURE_SHARDS, DEFAULT_CAPTURE_SHARDS);
+        if (shards < 1 || shards > 256) {
+            log.warn("Invalid property [{}] value [{}], defaulting to [{}]", CAPTURE_SHARDS,
+                    shards, DEFAULT_CAPTURE_SHARDS);
+            return DEFAULT_CAPTURE_SHARDS;
+        }
+        return Integer.highestOneBit(shards);
+    }
+
+    /**
+     * Returns the listenerDispatchBatch Java property, the most packets the listener handles per
+     * call into the capture library.
+     * 
+     * @return int
+     */
+    public static int getListenerDispatchBatch() {
+        return getIntProperty(LISTENER_DISPATCH_BATCH, DEFAULT_LISTENER_DISPATCH_BATCH);
+    }
+
+    /**
+     * Returns the listenerDispatchBudgetMicros Java property, the longest the listener spends
+     * processing packets per call into the capture library.
+     * 
+     * @return int
+     */
+    public static int getListenerDispatchBudgetMicros() {
+        return getIntProperty(LISTENER_DISPATCH_BUDGET_MICROS,
+                DEFAULT_LISTENER_DISPATCH_BUDGET_MICROS);
+    }
+
+    /**
+     * Returns the listenerRingSlots Java property, the number of frames buffered between the
+     * capture thread and the worker thread. 0 disables the worker stage.
+     * 
+     * @return int
+     */
+    public static int getListenerRingSlots() {
+        return getIntProperty(LISTENER_RING_SLOTS, DEFAULT_LISTENER_RING_SLOTS);
+    }
+
+    /**
+     * Returns the listenerRingSlotBytes Java property, the most bytes kept of each buffered frame.
+     * 
+     * @return int
+     */
+    public static int getListenerRingSlotBytes() {
+        return getIntProperty(LISTENER_RING_SLOT_BYTES, DEFAULT_LISTENER_RING_SLOT_BYTES);
+    }
+
+    /**
+     * Returns the listenerRingPolicy Java property, what to do when the worker falls behind.
+     * 
+     * @return OverflowPolicy
+     */
+    public static OverflowPolicy getListenerRingPolicy() {
+        String name = getStringProperty(LISTENER_RING_POLICY,
+                DEFAULT_LISTENER_RING_POLICY.getName());
+        OverflowPolicy policy = OverflowPolicy.fromName(name);
+        if (policy == null) {
+            log.warn("Invalid property [{}] value [{}], defaulting to [{}]", LISTENER_RING_POLICY,
+                    name, DEFAULT_LISTENER_RING_POLICY.getName());
+            return DEFAULT_LISTENER_RING_POLICY;
+        }
+        return policy;
+    }
+
+    /**
+     * Returns the listenerAllocSampleEvery Java property. One in this many packets has its heap
+     * allocation measured; 0 disables the measurement.
+     * 
+     * @return int
+     */
+    public static int getListenerAllocSampleEvery() {
+        return getIntProperty(LISTENER_ALLOC_SAMPLE_EVERY, DEFAULT_LISTENER_ALLOC_SAMPLE_EVERY);
+    }
+
+    /**
+     * Returns the listenerShedding Java property. When true, a live listener with a worker ring
+     * sheds its least useful frames first as the ring fills up.
+     * 
+     * @return boolean
+     */
+    public static boolean isListenerShedding() {
+        return getBooleanProperty(LISTENER_SHEDDING, DEFAULT_LISTENER_SHEDDING);
+    }
+
+    /**
+     * Returns the listenerShedBulkPercent Java property, the worker ring occupancy (in percent)
+     * from which bulk frames are sampled.
+     * 
+     * @return int
+     */
+    public static int getListenerShedBulkPercent() {
+        return getIntProperty(LISTENER_SHED_BULK_PERCENT, DEFAULT_LISTENER_SHED_BULK_PERCENT);
+    }
+
+    /**
+     * Returns the listenerShedBulkSampleEvery Java property. Past the bulk watermark, one in this
+     * many bulk frames is queued; 0 queues none.
+     * 
+     * @return int
+     */
+    public static int getListenerShedBulkSampleEvery() {
+        return getIntProperty(LISTENER_SHED_BULK_SAMPLE_EVERY,
+                DEFAULT_LISTENER_SHED_BULK_SAMPLE_EVERY);
+    }
+
+    /**
+     * Returns the listenerShedNewSourcePercent Java property, the worker ring occupancy (in
+     * percent) from which only control frames are queued.
+     * 
+     * @return int
+     */
+    public static int getListenerShedNewSourcePercent() {
+        return getIntProperty(LISTENER_SHED_NEW_SOURCE_PERCENT,
+                DEFAULT_LISTENER_SHED_NEW_SOURCE_PERCENT);
+    }
+
+    /**
+     * Returns the listenerSampling Java property, how the traffic counters of frames that don't
+     * matter to node discovery are sampled.
+     * 
+     * @return SamplingMode
+     */
+    public static SamplingMode getListenerSampling() {
+        String name = getStringProperty(LISTENER_SAMPLING, DEFAULT_LISTENER_SAMPLING.getName());
+        SamplingMode mode = SamplingMode.fromName(name);
+        if (mode == null) {
+            log.warn("Invalid property [{}] value [{}], defaulting to [{}]", LISTENER_SAMPLING,
+                    name, DEFAULT_LISTENER_SAMPLING.getName());
+            return DEFAULT_LISTENER_SAMPLING;
+        }
+        return mode;
+    }
+
+    /**
+     * Returns the listenerSampleEvery Java property. When sampling, one in this many frames that
+     * don't matter to node discovery is counted in the traffic counters.
+     * 
+     * @return int
+     */
+    public static int getListenerSampleEvery() {
+        return getIntProperty(LISTENER_SAMPLE_EVERY, DEFAULT_LISTENER_SAMPLE_EVERY);
+    }
+
+    /**
+     * Returns the injectorRate Java property, the most packets per second injected on each
+     * interface; 0 for no limit.
+     * 
+     * @return int
+     */
+    public static int getInjectorRate() {
+        return getIntProperty(INJECTOR_RATE, DEFAULT_INJECTOR_RATE);
+    }
+
+    /**
+     * Returns the injectorBurst Java property, the most packets injected back-to-back on each
+     * interface.
+     * 
+     * @return int
+     */
+    public static int getInjectorBurst() {
+        return getIntProperty(INJECTOR_BURST, DEFAULT_INJECTOR_BURST);
+    }
+
+    /**
+     * Returns the injectorGlobalRate Java property, the most packets per second injected on all
+     * interfaces together; 0 for no limit.
+     * 
+     * @return int
+     */
+    public static int getInjectorGlobalRate() {
+        return getIntProperty(INJECTOR_GLOBAL_RATE, DEFAULT_INJECTOR_GLOBAL_RATE);
+    }
+
+    /**
+     * Returns the injectorGlobalBurst Java property, the most packets injected back-to-back on all
+     * interfaces together.
+     * 
+     * @return int
+     */
+    public static int getInjectorGlobalBurst() {
+        return getIntProperty(INJECTOR_GLOBAL_BURST, DEFAULT_INJECTOR_GLOBAL_BURST);
+    }
+
+    /**
+     * Returns the injectorBatch Java property, the most packets injected under one hold of the
+     * pcap lock.
+     * 
+     * @return int
+     */
+    public static int getInjectorBatch() {
+        return getIntProperty(INJECTOR_BATCH, DEFAULT_INJECTOR_BATCH);
+    }
+
+    /**
+     * Returns the injectorQueueSize Java property, the most live packets queued per injector.
+     * 
+     * @return int
+     */
+    public static int getInjectorQueueSize() {
+        return getIntProperty(INJECTOR_QUEUE_SIZE, DEFAULT_INJECTOR_QUEUE_SIZE);
+    }
+
+    /**
+     * Returns the injectorQueuePolicy Java property, what to do with a live packet added to a
+     * full injection queue.
+     * 
+     * @return InjectionQueue.OverflowPolicy
+     */
+    public static InjectionQueue.OverflowPolicy getInjectorQueuePolicy() {
+        String name = getStringProperty(INJECTOR_QUEUE_POLICY,
+                DEFAULT_INJECTOR_QUEUE_POLICY.getName());
+        InjectionQueue.OverflowPolicy policy = InjectionQueue.OverflowPolicy.fromName(name);
+        if (policy == null) {
+            log.warn("Invalid property [{}] value [{}], defaulting to [{}]", INJECTOR_QUEUE_POLICY,
+                    name, DEFAULT_INJECTOR_QUEUE_POLICY.getName());
+            return DEFAULT_INJECTOR_QUEUE_POLICY;
+        }
+        return policy;
+    }
+
+    /**
+     * Returns the probeRetries Java property, the times an unanswered live probe is sent again; 0
+     * disables retries.
+     * 
+     * @return int
+     */
+    public static int getProbeRetries() {
+        return getIntProperty(PROBE_RETRIES, DEFAULT_PROBE_RETRIES);
+    }
+
+    /**
+     * Returns the probeTimeoutMillis Java property, how long a live probe is waited for before its
+     * first retry.
+     * 
+     * @return int
+     */
+    public static int getProbeTimeoutMillis() {
+        return getIntProperty(PROBE_TIMEOUT_MILLIS, DEFAULT_PROBE_TIMEOUT_MILLIS);
+    }
+
+    /**
+     * Returns the recorderEnabled Java property. When true, captured frames are recorded to
+     * rolling pcapng files.
+     * 
+     * @return boolean
+     */
+    public static boolean isRecorderEnabled() {
+        return getBooleanProperty(RECORDER_ENABLED, DEFAULT_RECORDER_ENABLED);
+    }
+
+    /**
+     * Returns the recorderDir Java property, the directory recordings are written to.
+     * 
+     * @return String
+     */
+    public static String getRecorderDir() {
+        return getStringProperty(RECORDER_DIR, DEFAULT_RECORDER_DIR);
+    }
+
+    /**
+     * Returns the recorderFilter Java property, a libpcap filter expression.
+     * 
+     * @return String, or null to record every frame.
+     */
+    public static String getRecorderFilter() {
+        String filter = getStringProperty(RECORDER_FILTER, null);
+        return (filter == null || filter.isEmpty() ? null : filter);
+    }
+
+    /**
+     * Returns the recorderRingSlots Java property, the frames queued for the recorder before new
+     * frames are dropped.
+     * 
+     * @return int
+     */
+    public static int getRecorderRingSlots() {
+        return getIntProperty(RECORDER_RING_SLOTS, DEFAULT_RECORDER_RING_SLOTS);
+    }
+
+    /**
+     * Returns the recorderRotateMegabytes Java property, 0 for no size limit.
+     * 
+     * @return int
+     */
+    public static int getRecorderRotateMegabytes() {
+        return getIntProperty(RECORDER_ROTATE_MEGABYTES, DEFAULT_RECORDER_ROTATE_MEGABYTES);
+    }
+
+    /**
+     * Returns the recorderRotateSecs Java property, 0 for no time limit.
+     * 
+     * @return int
+     */
+    public static int getRecorderRotateSecs() {
+        return getIntProperty(RECORDER_ROTATE_SECS, DEFAULT_RECORDER_ROTATE_SECS);
+    }
+
+    /**
+     * Returns the recorderMaxFiles Java property, 0 to keep every file.
+     * 
+     * @return int
+     */
+    public static int getRecorderMaxFiles() {
+        return getIntProperty(RECORDER_MAX_FILES, DEFAULT_RECORDER_MAX_FILES);
+    }
+
     /**
      * Returns the list of interface names from the networkDiscoveryIfcs Java property.
      * 
@@ -135,6 +692,43 @@ public class V6AppProperties {
         }
     }
 
+    private static String getStringProperty(String prop, String defaultProp) {
+        if (!initialized) {
+            return defaultProp;
+        }
+
+        String value = properties.getProperty(prop);
+        return (value == null ? defaultProp : value.trim());
+    }
+
+    private static int getIntProperty(String prop, int defaultProp) {
+        if (!initialized || properties.getProperty(prop) == null) {
+            return defaultProp;
+        }
+
+        try {
+            return Integer.parseInt(properties.getProperty(prop).trim());
+        } catch (Exception e) {
+            log.warn("Unable to read property [{}] from properties file, defaulting to [{}]", prop,
+                    defaultProp);
+            return defaultProp;
+        }
+    }
+
+    private static boolean getBooleanProperty(String prop, boolean defaultProp) {
+        String value = getStringProperty(prop, null);
+        if (value == null) {
+            return defaultProp;
+        }
+
+        if (!value.equalsIgnoreCase("true") && !value.equalsIgnoreCase("false")) {
+            log.warn("Unable to read property [{}] from properties file, defaulting to [{}]", prop,
+                    defaultProp);
+            return defaultProp;
+        }
+        return Boolean.parseBoolean(value);
+    }
+
     private static String[] getPropertyList(String prop, String[] defaultProp, String sep) {
         if (!initialized) {
             return defaultProp;